@@ -16,10 +16,6 @@
  */
 package spade.analyzer;
 
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.ArrayList;
@@ -35,6 +31,7 @@ import spade.core.Query;
 import spade.core.Settings;
 import spade.query.quickgrail.QuickGrailExecutor;
 import spade.utility.HelperFunctions;
+import spade.utility.QueryWireProtocol;
 
 /**
  * @author raza
@@ -172,8 +169,7 @@ public class CommandLine extends AbstractAnalyzer{
 
 	private class QueryConnection extends AbstractAnalyzer.QueryConnection{
 		private final Socket clientSocket;
-		private final ObjectOutputStream queryOutputWriter;
-		private final ObjectInputStream queryInputReader;
+		private final QueryWireProtocol queryProtocol;
 
 		private volatile boolean queryClientShutdown = false;
 		
@@ -184,10 +180,7 @@ public class CommandLine extends AbstractAnalyzer{
 				throw new IllegalArgumentException("NULL query client socket");
 			}else{
 				try{
-					OutputStream outStream = socket.getOutputStream();
-					InputStream inStream = socket.getInputStream();
-					this.queryOutputWriter = new ObjectOutputStream(outStream);
-					this.queryInputReader = new ObjectInputStream(inStream);
+					this.queryProtocol = QueryWireProtocol.accept(socket);
 					this.clientSocket = socket;
 				}catch(Exception e){
 					throw new IllegalArgumentException("Failed to create query IO streams", e);
@@ -212,13 +205,12 @@ public class CommandLine extends AbstractAnalyzer{
 
 		@Override
 		public Query readLineFromClient() throws Exception{
-			return (Query)queryInputReader.readObject();
+			return queryProtocol.readQuery();
 		}
 
 		@Override
 		public void writeToClient(Query query) throws Exception{
-			queryOutputWriter.writeObject(query);
-			queryOutputWriter.flush();
+			queryProtocol.writeQuery(query);
 		}
 
 		@Override
@@ -384,14 +376,9 @@ public class CommandLine extends AbstractAnalyzer{
 			if(!queryClientShutdown){
 				queryClientShutdown = true;
 				try{
-					queryOutputWriter.close();
+					queryProtocol.close();
 				}catch(Exception e){
-					logger.log(Level.SEVERE, "Failed to close query output stream", e);
-				}
-				try{
-					queryInputReader.close();
-				}catch(Exception e){
-					logger.log(Level.SEVERE, "Failed to close query input stream", e);
+					logger.log(Level.SEVERE, "Failed to close query streams", e);
 				}
 				closeClientSocket(this.clientSocket);
 				removeQueryClientConnection(this);
@@ -21,11 +21,7 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
+import java.io.FileWriter;
 import java.io.OutputStreamWriter;
 import java.security.KeyStore;
 import java.security.SecureRandom;
@@ -44,6 +40,7 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.mutable.MutableBoolean;
 
 import jline.ConsoleReader;
+import spade.core.AbstractStorage;
 import spade.core.Graph;
 import spade.core.Query;
 import spade.core.Settings;
@@ -52,6 +49,7 @@ import spade.query.quickgrail.instruction.SaveGraph;
 import spade.query.quickgrail.utility.ResultTable;
 import spade.utility.FileUtility;
 import spade.utility.HostInfo;
+import spade.utility.QueryWireProtocol;
 
 /**
  * @author raza
@@ -235,19 +233,15 @@ public class CommandLine{
 			System.err.println(CommandLine.class.getName() + " Error setting up context for secure connection. " + ex);
 		}
 
-		ObjectOutputStream clientOutputWriter = null;
-		ObjectInputStream clientInputReader = null;
+		QueryWireProtocol queryProtocol = null;
 		SSLSocket remoteSocket = null;
 		try{
 			final String host = "localhost"; // Have you changed this to allow remote? If yes, then have you changed the
 												// nonce in the query?
 			int port = Settings.getCommandLineQueryPort();
 			remoteSocket = (SSLSocket)sslSocketFactory.createSocket(host, port);
-			OutputStream outStream = remoteSocket.getOutputStream();
-			InputStream inStream = remoteSocket.getInputStream();
-			clientInputReader = new ObjectInputStream(inStream);
-			clientOutputWriter = new ObjectOutputStream(outStream);
-		}catch(NumberFormatException | IOException ex){
+			queryProtocol = QueryWireProtocol.connect(remoteSocket);
+		}catch(Exception ex){
 			System.err.println(CommandLine.class.getName() + " Error connecting to SPADE! " + ex);
 			System.err.println("Make sure that the CommandLine analyzer is running.");
 			System.exit(-1);
@@ -271,7 +265,7 @@ public class CommandLine{
 				System.err.println();
 			}
 
-			setupShutdownThread(remoteSocket, clientOutputWriter, clientInputReader, localHostName);
+			setupShutdownThread(remoteSocket, queryProtocol, localHostName);
 			
 			// A list of entries where each entry's key is the name of the source and the value is the list of queries.
 			final LinkedList<SimpleEntry<String, LinkedList<String>>> listOfFilePathsAndFileLines = 
@@ -335,7 +329,7 @@ public class CommandLine{
 							result = "Invalid 'load' command format. Allowed: 'load <filepath>'";
 						}
 					}else{
-						result = query(clientOutputWriter, clientInputReader, localHostName, line, queryError);
+						result = query(queryProtocol, localHostName, line, queryError);
 					}
 
 					if(result == null){
@@ -387,8 +381,8 @@ public class CommandLine{
 		}
 	}
 
-	private static void setupShutdownThread(final SSLSocket remoteSocket, final ObjectOutputStream clientOutputWriter,
-			final ObjectInputStream clientInputReader, final String localHostName){
+	private static void setupShutdownThread(final SSLSocket remoteSocket, final QueryWireProtocol queryProtocol,
+			final String localHostName){
 		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
 			@Override
 			public void run(){
@@ -397,7 +391,7 @@ public class CommandLine{
 				final MutableBoolean queryError = new MutableBoolean(false);
 
 				try{
-					final String storageName = query(clientOutputWriter, clientInputReader, localHostName,
+					final String storageName = query(queryProtocol, localHostName,
 							"print storage", queryError);
 
 					if(queryError.isFalse() && storageName != null && !storageName.trim().equalsIgnoreCase("No current storage set")){
@@ -406,7 +400,7 @@ public class CommandLine{
 						queryError.setValue(false);
 
 						for(final String envVarName : EnvironmentVariableManager.getAllNames()){
-							final String envVarValue = query(clientOutputWriter, clientInputReader, localHostName,
+							final String envVarValue = query(queryProtocol, localHostName,
 									"env print " + envVarName, queryError);
 
 							if(queryError.isFalse() &&
@@ -433,7 +427,7 @@ public class CommandLine{
 
 				try{
 					queryError.setValue(false);
-					query(clientOutputWriter, clientInputReader, localHostName, "exit", queryError);
+					query(queryProtocol, localHostName, "exit", queryError);
 				}catch(Exception e){
 
 				}
@@ -469,7 +463,7 @@ public class CommandLine{
 		}
 	}
 
-	private static String query(final ObjectOutputStream clientOutputWriter, final ObjectInputStream clientInputReader,
+	private static String query(final QueryWireProtocol queryProtocol,
 			final String localHostName, final String line, final MutableBoolean error) throws Exception{
 		boolean isExport = false;
 		try{
@@ -495,14 +489,36 @@ public class CommandLine{
 			final String queryNonce = null; // Keep the nonce null to indicate that the query is local
 			Query spadeQuery = new Query(localHostName, localHostName, line, queryNonce);
 
-			clientOutputWriter.writeObject(spadeQuery);
-			clientOutputWriter.flush();
+			queryProtocol.writeQuery(spadeQuery);
 
-			final Object resultObject = clientInputReader.readObject();
+			// Graph result written to the export file as it is read
+			final String exportPath = RESULT_EXPORT_PATH;
+			final AbstractStorage[] exportStorage = new AbstractStorage[1];
+			final QueryWireProtocol.ResultGraphHandler exportHandler = exportPath == null ? null
+					: new QueryWireProtocol.ResultGraphHandler(){
+				@Override
+				public AbstractStorage getOutputStorage(final Query query, final Graph graph) throws Exception{
+					if(!query.wasQuerySuccessful()){
+						return null;
+					}
+					final SaveGraph.Format format = exportPath.toLowerCase().endsWith(".json")
+							? SaveGraph.Format.kJson : SaveGraph.Format.kDot;
+					exportStorage[0] = Graph.createExportStorage(format, new BufferedWriter(new FileWriter(exportPath)), true);
+					return exportStorage[0];
+				}
+			};
+			final Query resultObject;
+			try{
+				resultObject = queryProtocol.readQuery(exportHandler);
+			}finally{
+				if(exportStorage[0] != null){
+					exportStorage[0].shutdown();
+				}
+			}
 			if(resultObject == null){ // EOF
 				throw new Exception("Connection closed by the server!");
 			}else{
-				spadeQuery = (Query)resultObject; // overwrite
+				spadeQuery = resultObject; // overwrite
 				if(spadeQuery.wasQuerySuccessful()){
 					if(spadeQuery.getResult() == null){
 						return ""; // Empty result
@@ -513,7 +529,9 @@ public class CommandLine{
 						}else{ // Other types
 							if(spadeResult instanceof spade.core.Graph){
 								spade.core.Graph graph = (spade.core.Graph)spadeResult;
-								if(RESULT_EXPORT_PATH != null){
+								if(exportStorage[0] != null){
+									return "Output exported to file: " + exportPath;
+								}else if(RESULT_EXPORT_PATH != null){
 									if(RESULT_EXPORT_PATH.toLowerCase().endsWith(".json")){
 										Graph.exportGraphToFile(SaveGraph.Format.kJson, RESULT_EXPORT_PATH, graph);
 									}else{
@@ -469,20 +469,13 @@ public abstract class AbstractAnalyzer{
 
 		private Graph iterateTransformers(Graph graph, final AbstractTransformer.ExecutionContext executionContext){
 			synchronized(Kernel.transformers){
-				for(int i = 0; i < Kernel.transformers.size(); i++){
-					try{
-						AbstractTransformer transformer = Kernel.transformers.get(i);
-						final Result<Graph> executeResult = AbstractTransformer.execute(transformer, graph, executionContext);
-						if(executeResult.error){
-							throw new RuntimeException(executeResult.errorMessage, executeResult.exception);
-						}
-						graph = executeResult.result;
-					}catch(Exception e){
-						throw new RuntimeException("Failed to apply transformer '"
-								+Kernel.transformers.get(i) == null ? "<NULL transformer>" : Kernel.transformers.get(i).getClass().getSimpleName()
-								+"'", e);
-					}
+				// Consecutive per-element transformers are applied in one pass
+				final Result<Graph> executeResult = AbstractTransformer.executeAll(Kernel.transformers, graph, executionContext);
+				if(executeResult.error){
+					throw new RuntimeException("Failed to apply transformers. " + executeResult.errorMessage,
+							executeResult.exception);
 				}
+				graph = executeResult.result;
 			}
 			return graph;
 		}
@@ -58,6 +58,12 @@ public abstract class AbstractEdge implements Serializable{
      * If null then big hash computed using the annotations map.
      */
     private final String bigHashCode;
+
+    /**
+     * Hash computed from the annotations and the endpoints (or from the fixed big hash) on first use.
+     * Reset whenever the annotations or the endpoints are changed.
+     */
+    private transient EdgeHashMemo memoizedBigHash;
     
     /**
      * Create a vertex without a fixed big hash.
@@ -113,7 +119,9 @@ public abstract class AbstractEdge implements Serializable{
 			if(value == null){
 				value = "";
 			}
-			annotations.put(key, value);
+			if(!value.equals(annotations.put(key, value))){
+				invalidateBigHash();
+			}
 		}
 	}
 
@@ -138,7 +146,11 @@ public abstract class AbstractEdge implements Serializable{
      * existed.
      */
     public final String removeAnnotation(String key){
-        return annotations.remove(key);
+        final String value = annotations.remove(key);
+        if(value != null){
+        	invalidateBigHash();
+        }
+        return value;
     }
 
     /**
@@ -217,6 +229,7 @@ public abstract class AbstractEdge implements Serializable{
      */
     public final void setChildVertex(AbstractVertex childVertex) {
         this.childVertex = childVertex;
+        invalidateBigHash();
     }
 
     /**
@@ -227,28 +240,63 @@ public abstract class AbstractEdge implements Serializable{
      */
     public final void setParentVertex(AbstractVertex parentVertex) {
         this.parentVertex = parentVertex;
+        invalidateBigHash();
+    }
+
+    private final void invalidateBigHash(){
+    	memoizedBigHash = null;
     }
 
     /**
      * Computes hash of annotations in the edge and hashes of the endpoints according to the default set in spade.core.HashHelper.
      * If the hash was fixed then that is used.
+     * The hash is computed only once until the annotations or the endpoints (or their annotations) are changed.
      */
+	public final HashHelper.BigHash getBigHash(){
+		final String childHash = (childVertex == null) ? null : childVertex.bigHashCode();
+		final String parentHash = (parentVertex == null) ? null : parentVertex.bigHashCode();
+		EdgeHashMemo memo = memoizedBigHash;
+		// Endpoint hashes are memoized in the vertices. Same instances mean the endpoints are unchanged.
+		if(memo == null || (bigHashCode == null && (memo.childHash != childHash || memo.parentHash != parentHash))){
+			final HashHelper.BigHash hash;
+			if(bigHashCode == null){
+				hash = HashHelper.defaultInstance.hashToBigHash(
+						(childHash == null) ? "(null)" : childHash,
+						annotations,
+						(parentHash == null) ? "(null)" : parentHash);
+			}else{
+				hash = HashHelper.defaultInstance.hexStringToBigHash(bigHashCode);
+			}
+			memo = new EdgeHashMemo(hash, childHash, parentHash);
+			memoizedBigHash = memo;
+		}
+		return memo.hash;
+	}
+
 	public final String bigHashCode(){
 		if(bigHashCode == null){
-			final String data = 
-					((childVertex == null) ? "(null)" : childVertex.bigHashCode()) + ","
-					+ annotations.toString() + ","
-					+ ((parentVertex == null) ? "(null)" : parentVertex.bigHashCode());
-			return HashHelper.defaultInstance.hashToHexString(data);
+			return getBigHash().hexString;
 		}else{
 			return bigHashCode;
 		}
 	}
 
 	public final byte[] bigHashCodeBytes(){
-		return HashHelper.defaultInstance.convertHashHexStringToHashByteArray(bigHashCode());
+		return getBigHash().getBytes();
     }
 
+	private static final class EdgeHashMemo{
+		private final HashHelper.BigHash hash;
+		private final String childHash;
+		private final String parentHash;
+
+		private EdgeHashMemo(final HashHelper.BigHash hash, final String childHash, final String parentHash){
+			this.hash = hash;
+			this.childHash = childHash;
+			this.parentHash = parentHash;
+		}
+	}
+
     @Override
 	public boolean equals(Object obj){
     	if(this == obj)
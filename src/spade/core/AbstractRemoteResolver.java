@@ -27,6 +27,7 @@ import java.util.logging.Logger;
 import spade.utility.ABEGraph;
 import spade.utility.HelperFunctions;
 import spade.utility.RemoteSPADEQueryConnection;
+import spade.utility.RemoteSPADEQueryConnectionPool;
 
 /**
  * @author raza
@@ -83,10 +84,11 @@ public abstract class AbstractRemoteResolver{
 		public List<Query> call() throws Exception{
 			List<Query> queryResponses = new ArrayList<Query>();
 
-			try(RemoteSPADEQueryConnection connection = new RemoteSPADEQueryConnection(Kernel.getHostName(), remoteAddress, remotePort)){
-
-				connection.connect(Kernel.getClientSocketFactory(), 5*1000);
-				
+			// Idle connection to the host reused if available
+			final RemoteSPADEQueryConnectionPool connectionPool = RemoteSPADEQueryConnectionPool.getDefaultInstance();
+			final RemoteSPADEQueryConnection connection = connectionPool.borrow(remoteAddress, remotePort);
+			boolean failed = true;
+			try{
 				connection.setStorage(storageName);
 				
 				for(Query query : queries){
@@ -124,7 +126,13 @@ public abstract class AbstractRemoteResolver{
 
 					queryResponses.add(query);
 				}
-				
+				failed = false;
+			}finally{
+				if(failed){
+					connectionPool.invalidate(connection);
+				}else{
+					connectionPool.release(connection);
+				}
 			}
 
 			return queryResponses;
@@ -25,8 +25,11 @@ import static spade.core.AbstractStorage.PRIMARY_KEY;
 
 import java.io.Serializable;
 import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 import spade.query.quickgrail.instruction.GetLineage;
@@ -46,6 +49,85 @@ public abstract class AbstractTransformer{
 
 	public abstract Graph transform(Graph graph, final ExecutionContext executionContext);
 
+	/**
+	 * Per-element form of the transformer. Consecutive transformers which have one are applied in a single pass over the
+	 * graph without the intermediate graphs (see {@link #executeAll(List, Graph, ExecutionContext)}).
+	 *
+	 * @return null (default) if the transformer needs the whole graph
+	 */
+	public ElementTransformer getElementTransformer(final ExecutionContext executionContext){
+		return null;
+	}
+
+	/**
+	 * Map/filter of single vertices and edges. Must not depend on the other elements of the graph and must not modify the
+	 * given elements.
+	 *
+	 * By default only the endpoints of the edges kept are the vertices of the result, like the transformers which add the
+	 * endpoints of the new edges to the result graph.
+	 */
+	public static abstract class ElementTransformer{
+		/**
+		 * @return the new edge or null to drop the edge
+		 */
+		public abstract AbstractEdge transformEdge(AbstractEdge edge);
+
+		/**
+		 * @return the new vertex or null (default) to drop the vertex
+		 */
+		public AbstractVertex transformVertex(AbstractVertex vertex){
+			return null;
+		}
+
+		/**
+		 * @return true (default) if the endpoints of the new edges are vertices of the result
+		 */
+		public boolean putsEndpoints(){
+			return true;
+		}
+	}
+
+	/**
+	 * Same result as applying the element transformers one after the other but in one pass and without the intermediate
+	 * graphs.
+	 */
+	public static Graph transformElements(final Graph graph, final List<ElementTransformer> stages){
+		final Graph resultGraph = new Graph();
+		for(final AbstractVertex vertex : graph.vertexSet()){
+			putTransformedVertex(resultGraph, stages, 0, vertex);
+		}
+		for(final AbstractEdge edge : graph.edgeSet()){
+			AbstractEdge current = edge;
+			for(int i = 0; i < stages.size() && current != null; i++){
+				final ElementTransformer stage = stages.get(i);
+				current = stage.transformEdge(current);
+				if(current != null && stage.putsEndpoints()){
+					// Vertices of the result of this stage go through the rest of the stages
+					putTransformedVertex(resultGraph, stages, i + 1, current.getChildVertex());
+					putTransformedVertex(resultGraph, stages, i + 1, current.getParentVertex());
+				}
+			}
+			if(current != null){
+				resultGraph.putEdge(current);
+			}
+		}
+		return resultGraph;
+	}
+
+	public static Graph transformElements(final Graph graph, final ElementTransformer elementTransformer){
+		return transformElements(graph, Collections.singletonList(elementTransformer));
+	}
+
+	private static void putTransformedVertex(final Graph resultGraph, final List<ElementTransformer> stages,
+			final int firstStage, AbstractVertex vertex){
+		for(int i = firstStage; i < stages.size() && vertex != null; i++){
+			vertex = stages.get(i).transformVertex(vertex);
+		}
+		if(vertex != null){
+			resultGraph.putVertex(vertex);
+		}
+	}
+
 	public static String getAnnotationSafe(AbstractVertex vertex, String annotation){
 		if(vertex != null){
 			String value;
@@ -234,6 +316,58 @@ public abstract class AbstractTransformer{
 		}
 	}
 
+	/**
+	 * Applies the transformers in order. Consecutive transformers with a per-element form are applied in one pass.
+	 */
+	public static Result<Graph> executeAll(final List<AbstractTransformer> transformers, Graph graph,
+			final ExecutionContext executionContext){
+		int i = 0;
+		while(i < transformers.size()){
+			final List<ElementTransformer> stages = new ArrayList<ElementTransformer>();
+			int j = i;
+			try{
+				while(j < transformers.size()){
+					final AbstractTransformer transformer = transformers.get(j);
+					validateArguments(transformer, executionContext);
+					final ElementTransformer elementTransformer = transformer.getElementTransformer(executionContext);
+					if(elementTransformer == null){
+						break;
+					}
+					stages.add(elementTransformer);
+					j++;
+				}
+			}catch(Exception e){
+				final AbstractTransformer transformer = transformers.get(j);
+				return Result.failed("Error in graph transformation by "
+						+ (transformer == null ? "<NULL transformer>" : transformer.getClass().getName()), e, null);
+			}
+			if(stages.size() > 1){
+				try{
+					graph = transformElements(graph, stages);
+				}catch(Exception e){
+					return Result.failed("Error in graph transformation by " + getClassNames(transformers.subList(i, j)), e, null);
+				}
+				i = j;
+			}else{
+				final Result<Graph> executeResult = execute(transformers.get(i), graph, executionContext);
+				if(executeResult.error){
+					return executeResult;
+				}
+				graph = executeResult.result;
+				i++;
+			}
+		}
+		return Result.successful(graph);
+	}
+
+	private static List<String> getClassNames(final List<AbstractTransformer> transformers){
+		final List<String> names = new ArrayList<String>();
+		for(final AbstractTransformer transformer : transformers){
+			names.add(transformer.getClass().getName());
+		}
+		return names;
+	}
+
 	public static Result<Boolean> destroy(final AbstractTransformer transformer){
 		if(transformer == null){
 			return Result.failed("NULL transformer to shutdown");
@@ -52,6 +52,12 @@ public abstract class AbstractVertex implements Serializable{
      */
     private final String bigHashCode;
 
+    /**
+     * Hash computed from the annotations (or from the fixed big hash) on first use.
+     * Reset whenever the annotations are changed.
+     */
+    private transient HashHelper.BigHash memoizedBigHash;
+
     /**
      * Create a vertex without a fixed big hash.
      */
@@ -119,7 +125,9 @@ public abstract class AbstractVertex implements Serializable{
 			if(value == null){
 				value = "";
 			}
-			annotations.put(key, value);
+			if(!value.equals(annotations.put(key, value))){
+				invalidateBigHash();
+			}
 		}
 	}
 
@@ -144,7 +152,11 @@ public abstract class AbstractVertex implements Serializable{
      * existed.
      */
     public final String removeAnnotation(String key) {
-        return annotations.remove(key);
+        final String value = annotations.remove(key);
+        if(value != null){
+        	invalidateBigHash();
+        }
+        return value;
     }
 
     /**
@@ -202,21 +214,38 @@ public abstract class AbstractVertex implements Serializable{
     	}
     }
 
+    private final void invalidateBigHash(){
+    	memoizedBigHash = null;
+    }
+
     /**
      * Computes hash of annotations in the vertex according to the default set in spade.core.HashHelper.
      * If the hash was fixed then that is used.
+     * The hash is computed only once until the annotations are changed.
      */
+	public final HashHelper.BigHash getBigHash(){
+		HashHelper.BigHash hash = memoizedBigHash;
+		if(hash == null){
+			if(bigHashCode == null){
+				hash = HashHelper.defaultInstance.hashToBigHash(annotations);
+			}else{
+				hash = HashHelper.defaultInstance.hexStringToBigHash(bigHashCode);
+			}
+			memoizedBigHash = hash;
+		}
+		return hash;
+	}
+
 	public final String bigHashCode(){
 		if(bigHashCode == null){
-			final String data = annotations.toString();
-			return HashHelper.defaultInstance.hashToHexString(data);
+			return getBigHash().hexString;
 		}else{
 			return bigHashCode;
 		}
 	}
 
 	public final byte[] bigHashCodeBytes(){
-		return HashHelper.defaultInstance.convertHashHexStringToHashByteArray(bigHashCode());
+		return getBigHash().getBytes();
     }
 
     @Override
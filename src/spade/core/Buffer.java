@@ -21,6 +21,7 @@ package spade.core;
 
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This is the buffer class which is used by reporters to send provenance
@@ -35,6 +36,14 @@ public class Buffer {
 
     private final Queue<Object> queue;
 
+    // Every LATENCY_SAMPLE_MASK + 1 element put is timestamped to measure the end-to-end latency in the dispatcher
+    private static final long LATENCY_SAMPLE_MASK = 1023;
+    private final AtomicLong putSequence = new AtomicLong(0);
+    private final Queue<long[]> latencySamples = new ConcurrentLinkedQueue<>();
+    // Only updated by the dispatcher worker which currently owns this buffer
+    private long deliveredSequence = 0;
+    private volatile Runnable availabilityListener = null;
+
     /**
      * Empty constructor for this class.
      *
@@ -53,7 +62,7 @@ public class Buffer {
         if (incomingVertex == null) {
             return false;
         } else {
-            return queue.add(incomingVertex);
+            return added(queue.add(incomingVertex));
         }
     }
 
@@ -69,8 +78,47 @@ public class Buffer {
                 || (incomingEdge.getParentVertex() == null)) {
             return false;
         } else {
-            return queue.add(incomingEdge);
+            return added(queue.add(incomingEdge));
+        }
+    }
+
+    private final boolean added(final boolean added){
+        if(added){
+            final long sequence = putSequence.incrementAndGet();
+            if((sequence & LATENCY_SAMPLE_MASK) == 0){
+                latencySamples.add(new long[]{sequence, System.nanoTime()});
+            }
+            final Runnable listener = availabilityListener;
+            if(listener != null){
+                listener.run();
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Set by the DispatchEngine to get notified whenever an element is added to this buffer.
+     *
+     * @param listener The listener to notify. Null to remove the existing one.
+     */
+    final void setAvailabilityListener(final Runnable listener){
+        this.availabilityListener = listener;
+    }
+
+    /**
+     * Called by the DispatchEngine after an element taken from this buffer has been passed
+     * through the filter list.
+     *
+     * @return The latency in nanoseconds of the element if it was sampled, otherwise -1.
+     */
+    final long delivered(){
+        deliveredSequence++;
+        final long[] sample = latencySamples.peek();
+        if(sample != null && deliveredSequence >= sample[0]){
+            latencySamples.poll();
+            return System.nanoTime() - sample[1];
         }
+        return -1;
     }
 
     /**
@@ -0,0 +1,284 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe Bloom filter without locks.
+ *
+ * The k bit indexes of an element are derived from one 128-bit MurmurHash3 of the string value of the element as
+ * h1 + i * h2 (Kirsch-Mitzenmacher double hashing). Bits are set with compare-and-set on the words of an
+ * AtomicLongArray.
+ *
+ * Not interchangeable with spade.core.BloomFilter i.e. the bits of one cannot be read by the other.
+ *
+ * @param <E> Element type. Elements are hashed by their toString value.
+ */
+public class ConcurrentBloomFilter<E>{
+
+	// 'SBF1'
+	private static final int magic = 0x53424631;
+	private static final byte version = 1;
+
+	private static final double ln2 = Math.log(2);
+
+	private final long bitCount;
+	private final int k;
+	private final long expectedElements;
+	private final double falsePositiveProbability;
+	private final AtomicLongArray words;
+	// Number of adds which set at least one new bit i.e. approximately the number of distinct elements
+	private final LongAdder addedElements = new LongAdder();
+
+	/**
+	 * Filter sized for the expected number of elements at the given false positive probability.
+	 *
+	 * @param falsePositiveProbability between 0 and 1 (exclusive)
+	 * @param expectedElements positive
+	 */
+	public ConcurrentBloomFilter(final double falsePositiveProbability, final long expectedElements){
+		this(falsePositiveProbability, expectedElements, optimalBitCount(falsePositiveProbability, expectedElements),
+				optimalK(falsePositiveProbability));
+	}
+
+	private ConcurrentBloomFilter(final double falsePositiveProbability, final long expectedElements, final long bitCount,
+			final int k){
+		if(bitCount <= 0 || bitCount > (long)Integer.MAX_VALUE * Long.SIZE){
+			throw new IllegalArgumentException("Bloom filter bit count out of range: " + bitCount);
+		}
+		if(k <= 0){
+			throw new IllegalArgumentException("Bloom filter hash function count must be positive: " + k);
+		}
+		this.falsePositiveProbability = falsePositiveProbability;
+		this.expectedElements = expectedElements;
+		this.bitCount = bitCount;
+		this.k = k;
+		this.words = new AtomicLongArray((int)((bitCount + Long.SIZE - 1) / Long.SIZE));
+	}
+
+	private static long optimalBitCount(final double falsePositiveProbability, final long expectedElements){
+		if(expectedElements <= 0){
+			throw new IllegalArgumentException("Expected elements must be positive: " + expectedElements);
+		}
+		if(!(falsePositiveProbability > 0 && falsePositiveProbability < 1)){
+			throw new IllegalArgumentException("False positive probability must be between 0 and 1 (exclusive): "
+					+ falsePositiveProbability);
+		}
+		return Math.max(Long.SIZE, (long)Math.ceil(-expectedElements * Math.log(falsePositiveProbability) / (ln2 * ln2)));
+	}
+
+	private static int optimalK(final double falsePositiveProbability){
+		return Math.max(1, (int)Math.round(-Math.log(falsePositiveProbability) / ln2));
+	}
+
+	// Package-private so that ScalableBloomFilter hashes once for all of its filters
+	static long[] hash(final Object element){
+		final byte[] bytes = HashHelper.murmur3Instance.hashToByteArray(String.valueOf(element));
+		final ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		return new long[]{buffer.getLong(0), buffer.getLong(8)};
+	}
+
+	private long index(final long h1, final long h2, final int i){
+		return ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+	}
+
+	/**
+	 * @param element element to add
+	 * @return true if the element was definitely not in the filter before this call. Concurrent adds of the same
+	 * new element may all return true.
+	 */
+	public boolean add(final E element){
+		return add(hash(element));
+	}
+
+	boolean add(final long[] hash){
+		boolean changed = false;
+		for(int i = 0; i < k; i++){
+			changed |= setBit(index(hash[0], hash[1], i));
+		}
+		if(changed){
+			addedElements.increment();
+		}
+		return changed;
+	}
+
+	/**
+	 * @param element element to check
+	 * @return false if the element is definitely not in the filter
+	 */
+	public boolean contains(final E element){
+		return contains(hash(element));
+	}
+
+	boolean contains(final long[] hash){
+		for(int i = 0; i < k; i++){
+			if(!getBit(index(hash[0], hash[1], i))){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean setBit(final long bitIndex){
+		final int wordIndex = (int)(bitIndex >>> 6);
+		final long mask = 1L << bitIndex;
+		long word;
+		do{
+			word = words.get(wordIndex);
+			if((word & mask) != 0){
+				return false;
+			}
+		}while(!words.compareAndSet(wordIndex, word, word | mask));
+		return true;
+	}
+
+	private boolean getBit(final long bitIndex){
+		return (words.get((int)(bitIndex >>> 6)) & (1L << bitIndex)) != 0;
+	}
+
+	/**
+	 * Not atomic with respect to concurrent adds
+	 */
+	public void clear(){
+		for(int i = 0; i < words.length(); i++){
+			words.set(i, 0);
+		}
+		addedElements.reset();
+	}
+
+	/**
+	 * @return approximate number of distinct elements added
+	 */
+	public long count(){
+		return addedElements.sum();
+	}
+
+	/**
+	 * @return number of bits in the filter
+	 */
+	public long size(){
+		return bitCount;
+	}
+
+	public int getK(){
+		return k;
+	}
+
+	public long getExpectedElements(){
+		return expectedElements;
+	}
+
+	/**
+	 * @return false positive probability the filter was sized for
+	 */
+	public double getFalsePositiveProbability(){
+		return falsePositiveProbability;
+	}
+
+	/**
+	 * @return false positive probability at the current number of added elements
+	 */
+	public double getEstimatedFalsePositiveProbability(){
+		return Math.pow(1 - Math.exp(-k * (double)count() / bitCount), k);
+	}
+
+	/**
+	 * @return bytes used by the bits of the filter
+	 */
+	public long getSizeInBytes(){
+		return (long)words.length() * Long.BYTES;
+	}
+
+	/**
+	 * Writes the filter in the binary format read by {@link #read(DataInput)}.
+	 * Concurrent adds may or may not be included.
+	 */
+	public void write(final DataOutput output) throws IOException{
+		output.writeInt(magic);
+		output.writeByte(version);
+		output.writeLong(bitCount);
+		output.writeInt(k);
+		output.writeLong(expectedElements);
+		output.writeDouble(falsePositiveProbability);
+		output.writeLong(count());
+		final int length = words.length();
+		output.writeInt(length);
+		for(int i = 0; i < length; i++){
+			output.writeLong(words.get(i));
+		}
+	}
+
+	/**
+	 * @param input stream positioned at the start of a filter written by {@link #write(DataOutput)}
+	 * @return the filter
+	 * @throws IOException if the stream does not contain a filter in the binary format
+	 */
+	public static <E> ConcurrentBloomFilter<E> read(final DataInput input) throws IOException{
+		final int readMagic = input.readInt();
+		if(readMagic != magic){
+			throw new IOException("Not a binary bloom filter. Unexpected magic number: " + Integer.toHexString(readMagic));
+		}
+		final byte readVersion = input.readByte();
+		if(readVersion != version){
+			throw new IOException("Unsupported binary bloom filter version: " + readVersion);
+		}
+		final long bitCount = input.readLong();
+		final int k = input.readInt();
+		final long expectedElements = input.readLong();
+		final double falsePositiveProbability = input.readDouble();
+		final long count = input.readLong();
+		final int length = input.readInt();
+		final ConcurrentBloomFilter<E> filter;
+		try{
+			filter = new ConcurrentBloomFilter<E>(falsePositiveProbability, expectedElements, bitCount, k);
+		}catch(IllegalArgumentException e){
+			throw new IOException("Invalid binary bloom filter header", e);
+		}
+		if(length != filter.words.length()){
+			throw new IOException("Mismatched binary bloom filter length: " + length + " words for " + bitCount + " bits");
+		}
+		for(int i = 0; i < length; i++){
+			filter.words.set(i, input.readLong());
+		}
+		filter.addedElements.add(count);
+		return filter;
+	}
+
+	/**
+	 * @param header first 4 bytes of a stream
+	 * @return true if the stream starts with a filter in the binary format
+	 */
+	public static boolean isBinaryFormat(final byte[] header){
+		return header != null && header.length >= 4 && ByteBuffer.wrap(header).getInt(0) == magic;
+	}
+
+	@Override
+	public String toString(){
+		return "ConcurrentBloomFilter [bits=" + bitCount + ", k=" + k + ", expectedElements=" + expectedElements
+				+ ", falsePositiveProbability=" + falsePositiveProbability + ", count=" + count() + "]";
+	}
+}
@@ -0,0 +1,371 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.core;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.utility.FileUtility;
+import spade.utility.HelperFunctions;
+import spade.utility.Result;
+
+/**
+ * Moves provenance elements from the reporter buffers to the filter list.
+ *
+ * A reporter is queued for dispatch only when an element is added to its (empty) buffer. Workers block on the
+ * queue of ready reporters and drain at most 'quantum' elements from a reporter before putting it back at the end
+ * of the queue, if it still has elements. A reporter is drained by at most one worker at a time which preserves the
+ * order of elements from a reporter.
+ *
+ * Housekeeping runs on a separate thread with exclusive access to the filter list. It runs periodically and when
+ * woken up.
+ */
+public class DispatchEngine{
+
+	private static final String keyWorkers = "workers",
+			keyQuantum = "quantum",
+			keyHousekeepingIntervalMillis = "housekeepingIntervalMillis",
+			keyReportingIntervalSeconds = "reportingIntervalSeconds";
+
+	private static final int defaultWorkers = 1, defaultQuantum = 10000;
+	private static final long defaultHousekeepingIntervalMillis = 100, defaultReportingIntervalSeconds = 120;
+
+	private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+	private final int workers;
+	private final int quantum;
+	private final long housekeepingIntervalMillis;
+	private final long reportingIntervalMillis;
+
+	private final List<AbstractFilter> filters;
+	private final Runnable housekeeping;
+
+	private final Map<AbstractReporter, Source> sources = new ConcurrentHashMap<>();
+	private final BlockingQueue<Source> readyQueue = new LinkedBlockingQueue<>();
+	// Workers take the read lock while delivering. Housekeeping takes the write lock to remove modules safely.
+	private final ReentrantReadWriteLock pipelineLock = new ReentrantReadWriteLock();
+	private final List<Thread> threads = new ArrayList<>();
+	private volatile boolean shutdown = false;
+	// Marker put in the ready queue to stop a worker
+	private final Source stopMarker = new Source(null);
+	// Released to run housekeeping without waiting for the interval
+	private final Semaphore housekeepingSignal = new Semaphore(0);
+
+	private final LongAdder vertexCount = new LongAdder();
+	private final LongAdder edgeCount = new LongAdder();
+	private final LongAdder latencyNanosSum = new LongAdder();
+	private final LongAdder latencySampleCount = new LongAdder();
+	private final AtomicLong latencyNanosMax = new AtomicLong(0);
+	private final long startedAtMillis = System.currentTimeMillis();
+	private final Object reportLock = new Object();
+	private long lastReportedAtMillis = System.currentTimeMillis();
+	private long lastReportedCount = 0;
+
+	/**
+	 * @param configFilePath Path of the config file to read the worker settings from
+	 * @param filters The filter list to pass the elements to
+	 * @param housekeeping Task to run periodically (and on wakeup) with exclusive access to the filter list
+	 * @throws Exception On invalid config
+	 */
+	public DispatchEngine(final String configFilePath, final List<AbstractFilter> filters,
+			final Runnable housekeeping) throws Exception{
+		final Map<String, String> map = FileUtility.readConfigFileAsKeyValueMap(configFilePath, "=");
+
+		final long workers = parseOptionalLong(map, configFilePath, keyWorkers, defaultWorkers, 1, Integer.MAX_VALUE);
+		final long quantum = parseOptionalLong(map, configFilePath, keyQuantum, defaultQuantum, 1, Integer.MAX_VALUE);
+		final long housekeepingIntervalMillis = parseOptionalLong(map, configFilePath, keyHousekeepingIntervalMillis,
+				defaultHousekeepingIntervalMillis, 1, Long.MAX_VALUE);
+		final long reportingIntervalSeconds = parseOptionalLong(map, configFilePath, keyReportingIntervalSeconds,
+				defaultReportingIntervalSeconds, Integer.MIN_VALUE, Integer.MAX_VALUE);
+
+		this.workers = (int)workers;
+		this.quantum = (int)quantum;
+		this.housekeepingIntervalMillis = housekeepingIntervalMillis;
+		this.reportingIntervalMillis = reportingIntervalSeconds * 1000;
+		this.filters = filters;
+		this.housekeeping = housekeeping;
+
+		logger.log(Level.INFO, keyWorkers + "=" + workers + ", " + keyQuantum + "=" + quantum + ", "
+				+ keyHousekeepingIntervalMillis + "=" + housekeepingIntervalMillis + ", "
+				+ keyReportingIntervalSeconds + "=" + reportingIntervalSeconds);
+	}
+
+	private static long parseOptionalLong(final Map<String, String> map, final String configFilePath, final String key,
+			final long defaultValue, final long min, final long max) throws Exception{
+		final String value = map.get(key);
+		if(HelperFunctions.isNullOrEmpty(value)){
+			return defaultValue;
+		}
+		final Result<Long> result = HelperFunctions.parseLong(value, 10, min, max);
+		if(result.error){
+			throw new Exception("Invalid value for '" + key + "' in file '" + configFilePath + "'. " + result.errorMessage);
+		}
+		return result.result;
+	}
+
+	public final synchronized void start(){
+		for(int i = 0; i < workers; i++){
+			final Thread thread = new Thread(new Runnable(){
+				@Override
+				public void run(){
+					work();
+				}
+			}, "mainSPADE-Thread-" + i);
+			threads.add(thread);
+			thread.start();
+		}
+		final Thread thread = new Thread(new Runnable(){
+			@Override
+			public void run(){
+				housekeep();
+			}
+		}, "mainSPADE-Housekeeping-Thread");
+		threads.add(thread);
+		thread.start();
+	}
+
+	/**
+	 * Stops the workers after their current turn and waits for them to exit. Elements remaining in the buffers are
+	 * not delivered.
+	 */
+	public final synchronized void shutdown(){
+		shutdown = true;
+		for(int i = 0; i < workers; i++){
+			readyQueue.offer(stopMarker);
+		}
+		housekeepingSignal.release();
+		for(final Thread thread : threads){
+			if(thread == Thread.currentThread()){
+				continue;
+			}
+			try{
+				thread.join();
+			}catch(InterruptedException e){
+				logger.log(Level.WARNING, "Interrupted while waiting for thread '" + thread.getName() + "' to exit", e);
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		threads.clear();
+	}
+
+	/**
+	 * Start dispatching elements from the buffer of the reporter.
+	 *
+	 * @param reporter The reporter with the buffer set
+	 */
+	public final void register(final AbstractReporter reporter){
+		final Source source = new Source(reporter.getBuffer());
+		sources.put(reporter, source);
+		source.buffer.setAvailabilityListener(source);
+		// Elements added before the listener was set
+		if(!source.buffer.isEmpty()){
+			source.run();
+		}
+	}
+
+	/**
+	 * Stop receiving notifications from the buffer of the reporter.
+	 *
+	 * @param reporter The reporter to stop dispatching for
+	 */
+	public final void unregister(final AbstractReporter reporter){
+		final Source source = sources.remove(reporter);
+		if(source != null){
+			source.buffer.setAvailabilityListener(null);
+		}
+	}
+
+	/**
+	 * @param reporter The reporter to check
+	 * @return True if the buffer of the reporter is empty and no worker is delivering from it
+	 */
+	public final boolean isDrained(final AbstractReporter reporter){
+		final Source source = sources.get(reporter);
+		if(source == null){
+			return reporter.getBuffer() == null || reporter.getBuffer().isEmpty();
+		}
+		return !source.scheduled.get() && source.buffer.isEmpty();
+	}
+
+	/**
+	 * Wake up a worker to run housekeeping without waiting for the interval.
+	 */
+	public final void wakeup(){
+		housekeepingSignal.release();
+	}
+
+	private final void work(){
+		while(!shutdown){
+			final Source source;
+			try{
+				source = readyQueue.take();
+			}catch(InterruptedException e){
+				continue;
+			}
+			if(source != stopMarker){
+				drain(source);
+			}
+		}
+	}
+
+	private final void housekeep(){
+		while(!shutdown){
+			try{
+				housekeepingSignal.tryAcquire(housekeepingIntervalMillis, TimeUnit.MILLISECONDS);
+				// Coalesce the wakeups received in the meantime
+				housekeepingSignal.drainPermits();
+			}catch(InterruptedException e){
+				continue;
+			}
+			if(shutdown){
+				break;
+			}
+			pipelineLock.writeLock().lock();
+			try{
+				housekeeping.run();
+			}catch(Exception e){
+				logger.log(Level.SEVERE, "Failed dispatch housekeeping", e);
+			}finally{
+				pipelineLock.writeLock().unlock();
+			}
+			report();
+		}
+	}
+
+	private final void drain(final Source source){
+		final Buffer buffer = source.buffer;
+		pipelineLock.readLock().lock();
+		try{
+			final AbstractFilter firstFilter = filters.get(0);
+			for(int i = 0; i < quantum; i++){
+				final Object bufferElement = buffer.getBufferElement();
+				if(bufferElement instanceof AbstractVertex){
+					firstFilter.putVertex((AbstractVertex)bufferElement);
+					vertexCount.increment();
+				}else if(bufferElement instanceof AbstractEdge){
+					firstFilter.putEdge((AbstractEdge)bufferElement);
+					edgeCount.increment();
+				}else if(bufferElement == null){
+					break;
+				}
+				final long latencyNanos = buffer.delivered();
+				if(latencyNanos >= 0){
+					latencyNanosSum.add(latencyNanos);
+					latencySampleCount.increment();
+					latencyNanosMax.accumulateAndGet(latencyNanos, Math::max);
+				}
+			}
+		}catch(Exception e){
+			logger.log(Level.SEVERE, "Failed to dispatch provenance element", e);
+		}finally{
+			pipelineLock.readLock().unlock();
+		}
+
+		if(!buffer.isEmpty()){
+			// Still scheduled. Go to the end of the queue to give other reporters a turn.
+			readyQueue.offer(source);
+		}else{
+			source.scheduled.set(false);
+			// An element might have been added after the check and before resetting the flag
+			if(!buffer.isEmpty()){
+				source.run();
+			}
+		}
+	}
+
+	private final void report(){
+		if(reportingIntervalMillis > 0){
+			final String stats;
+			synchronized(reportLock){
+				if(System.currentTimeMillis() - lastReportedAtMillis < reportingIntervalMillis){
+					return;
+				}
+				stats = getStatsAndReset();
+			}
+			logger.log(Level.INFO, stats);
+		}
+	}
+
+	// Must be called with reportLock held
+	private final String getStatsAndReset(){
+		final long nowMillis = System.currentTimeMillis();
+		final long vertices = vertexCount.sum();
+		final long edges = edgeCount.sum();
+		final long total = vertices + edges;
+		final double overallSeconds = Math.max(1, nowMillis - startedAtMillis) / 1000.0;
+		final double intervalSeconds = Math.max(1, nowMillis - lastReportedAtMillis) / 1000.0;
+		final long samples = latencySampleCount.sumThenReset();
+		final long latencySum = latencyNanosSum.sumThenReset();
+		final long latencyMax = latencyNanosMax.getAndSet(0);
+		final double averageLatencyMillis = samples == 0 ? 0 : (latencySum / (double)samples) / 1000000.0;
+
+		final String stats = String.format("Dispatch stats => workers: %d, ready reporters: %d, vertices: %d, edges: %d, "
+				+ "overall rate: %.3f elements/sec, interval rate: %.3f elements/sec, "
+				+ "interval latency (avg: %.3f ms, max: %.3f ms, samples: %d)",
+				workers, readyQueue.size(), vertices, edges, total / overallSeconds,
+				(total - lastReportedCount) / intervalSeconds, averageLatencyMillis, latencyMax / 1000000.0, samples);
+		lastReportedAtMillis = nowMillis;
+		lastReportedCount = total;
+		return stats;
+	}
+
+	/**
+	 * Print throughput and latency since the last report. Resets the interval.
+	 *
+	 * @param outputStream The stream to print to
+	 */
+	public final void printStats(final PrintStream outputStream){
+		synchronized(reportLock){
+			outputStream.println(getStatsAndReset());
+		}
+	}
+
+	private final class Source implements Runnable{
+		private final Buffer buffer;
+		// True while the source is in the ready queue or is being drained by a worker
+		private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+		private Source(final Buffer buffer){
+			this.buffer = buffer;
+		}
+
+		// Called by the buffer on every put
+		@Override
+		public void run(){
+			if(!scheduled.get() && scheduled.compareAndSet(false, true)){
+				readyQueue.offer(this);
+			}
+		}
+	}
+}
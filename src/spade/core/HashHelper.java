@@ -19,23 +19,87 @@
  */
 package spade.core;
 
+import java.io.File;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 
+import spade.utility.FileUtility;
+import spade.utility.HelperFunctions;
+
 /*
  * This is the class that should contains all the functions that can be required for
  * hashing of vertices and edges.
  */
 public abstract class HashHelper{
 
-	// Default hasher
-	public final static HashHelper defaultInstance = new MD5HashHelper();
+	private static final String keyAlgorithm = "algorithm";
+	// Not read through Settings because hashes are also computed by tools which do not have the SPADE settings
+	private static final String configFilePath = "cfg" + File.separator + HashHelper.class.getName() + ".config"; // Relative to the current working directory of the process
+
+	// Always available to read (and recompute) hashes in stores written with MD5
+	public final static HashHelper md5Instance = new MD5HashHelper();
+	public final static HashHelper murmur3Instance = new Murmur3HashHelper();
+
+	// Default hasher. Set in the config file.
+	public final static HashHelper defaultInstance = loadDefaultInstance();
 	
 	public final String hashAlgorithmName;
 	public final int bytesInHash;
+
+	private final ThreadLocal<Digest> digests = new ThreadLocal<Digest>(){
+		@Override
+		protected Digest initialValue(){
+			return newDigest();
+		}
+	};
+	
+	private static HashHelper loadDefaultInstance(){
+		final Logger logger = Logger.getLogger(HashHelper.class.getName());
+		try{
+			if(!new File(configFilePath).isFile()){
+				return md5Instance;
+			}
+			final Map<String, String> map = FileUtility.readConfigFileAsKeyValueMap(configFilePath, "=");
+			final String algorithm = map.get(keyAlgorithm);
+			if(HelperFunctions.isNullOrEmpty(algorithm)){
+				return md5Instance;
+			}
+			final HashHelper instance = getInstance(algorithm.trim());
+			if(instance == null){
+				logger.log(Level.WARNING, "Unknown value for '" + keyAlgorithm + "': '" + algorithm + "' in file '"
+						+ configFilePath + "'. Using: " + md5Instance);
+				return md5Instance;
+			}
+			return instance;
+		}catch(Throwable t){
+			logger.log(Level.WARNING, "Failed to read hash algorithm from file '" + configFilePath + "'. Using: "
+					+ md5Instance, t);
+			return md5Instance;
+		}
+	}
+
+	/**
+	 * @param hashAlgorithmName Name of the algorithm (case-insensitive)
+	 * @return The hasher for the algorithm or null if not found
+	 */
+	public static HashHelper getInstance(final String hashAlgorithmName){
+		for(final HashHelper instance : new HashHelper[]{md5Instance, murmur3Instance}){
+			if(instance.hashAlgorithmName.equalsIgnoreCase(hashAlgorithmName)){
+				return instance;
+			}
+		}
+		return null;
+	}
 	
 	private HashHelper(final String hashAlgorithmName, final int bytesInHash){
 		if(hashAlgorithmName == null){
@@ -50,6 +114,144 @@ public abstract class HashHelper{
 	
 	public abstract byte[] hashToByteArray(final String data);
 	public abstract String hashToHexString(final String data);
+
+	/**
+	 * @return A new streaming digest of this algorithm
+	 */
+	protected abstract Digest newDigest();
+
+	/**
+	 * Streaming digest over the UTF-8 bytes of the strings written to it.
+	 * Gives the same hash as hashing the concatenation of the strings.
+	 */
+	protected static abstract class Digest{
+		private final byte[] scratch = new byte[512];
+		private int position = 0;
+
+		protected abstract void updateBytes(final byte[] bytes, final int offset, final int length);
+		protected abstract byte[] finishBytes();
+
+		private final void flush(){
+			if(position > 0){
+				updateBytes(scratch, 0, position);
+				position = 0;
+			}
+		}
+
+		private final void put(final int b){
+			if(position == scratch.length){
+				flush();
+			}
+			scratch[position++] = (byte)b;
+		}
+
+		final Digest update(final String string){
+			final String value = String.valueOf(string);
+			final int length = value.length();
+			int i = 0;
+			while(i < length){
+				// Fast path for ASCII
+				final byte[] buffer = scratch;
+				int bufferPosition = position;
+				while(i < length && bufferPosition < buffer.length){
+					final char c = value.charAt(i);
+					if(c >= 0x80){
+						break;
+					}
+					buffer[bufferPosition++] = (byte)c;
+					i++;
+				}
+				position = bufferPosition;
+				if(i < length){
+					if(bufferPosition == buffer.length){
+						flush();
+					}else{
+						i = putNonAscii(value, i, length);
+					}
+				}
+			}
+			return this;
+		}
+
+		private final int putNonAscii(final String value, int i, final int length){
+			int c = value.charAt(i);
+			if(c < 0x800){
+				put(0xC0 | (c >> 6));
+				put(0x80 | (c & 0x3F));
+			}else if(Character.isHighSurrogate((char)c) && i + 1 < length
+					&& Character.isLowSurrogate(value.charAt(i + 1))){
+				c = Character.toCodePoint((char)c, value.charAt(++i));
+				put(0xF0 | (c >> 18));
+				put(0x80 | ((c >> 12) & 0x3F));
+				put(0x80 | ((c >> 6) & 0x3F));
+				put(0x80 | (c & 0x3F));
+			}else if(Character.isSurrogate((char)c)){
+				put('?'); // Unpaired surrogate. Same replacement as String.getBytes
+			}else{
+				put(0xE0 | (c >> 12));
+				put(0x80 | ((c >> 6) & 0x3F));
+				put(0x80 | (c & 0x3F));
+			}
+			return i + 1;
+		}
+
+		// Same format as java.util.AbstractMap.toString
+		final Digest update(final Map<String, String> map){
+			put('{');
+			boolean first = true;
+			for(final Map.Entry<String, String> entry : map.entrySet()){
+				if(!first){
+					put(',');
+					put(' ');
+				}
+				first = false;
+				update(entry.getKey());
+				put('=');
+				update(entry.getValue());
+			}
+			put('}');
+			return this;
+		}
+
+		final byte[] finish(){
+			flush();
+			return finishBytes();
+		}
+	}
+
+	protected final Digest digest(){
+		final Digest digest = digests.get();
+		digest.position = 0;
+		return digest;
+	}
+
+	/**
+	 * Hashes the annotations without building the string of the map.
+	 * Same as hashToBigHash(annotations.toString()).
+	 * 
+	 * @param annotations Map of annotations
+	 * @return BigHash
+	 */
+	public final BigHash hashToBigHash(final Map<String, String> annotations){
+		return toBigHash(digest().update(annotations).finish());
+	}
+
+	/**
+	 * Hashes the annotations between the prefix and the suffix without building the string.
+	 * Same as hashToBigHash(prefix + "," + annotations.toString() + "," + suffix).
+	 * 
+	 * @param prefix String before the annotations
+	 * @param annotations Map of annotations
+	 * @param suffix String after the annotations
+	 * @return BigHash
+	 */
+	public final BigHash hashToBigHash(final String prefix, final Map<String, String> annotations, final String suffix){
+		return toBigHash(digest().update(prefix).update(",").update(annotations).update(",").update(suffix).finish());
+	}
+
+	private final BigHash toBigHash(final byte[] bytes){
+		return new BigHash(convertHashByteArrayToHashHexString(bytes), bytes);
+	}
 	
 	public final boolean isValidHashByteArray(final byte[] hash){
 		if(hash != null){
@@ -103,6 +305,26 @@ public abstract class HashHelper{
 		}
 	}
 	
+	/**
+	 * Hashes the data once and returns the hash in all the forms.
+	 * 
+	 * @param data String to hash
+	 * @return BigHash
+	 */
+	public final BigHash hashToBigHash(final String data){
+		return toBigHash(hashToByteArray(data));
+	}
+	
+	/**
+	 * Wraps an existing hex hash string.
+	 * 
+	 * @param hexString Must be a valid hash hex string
+	 * @return BigHash
+	 */
+	public final BigHash hexStringToBigHash(final String hexString){
+		return new BigHash(hexString, convertHashHexStringToHashByteArray(hexString));
+	}
+	
 	@Override
 	public final String toString(){
 		return this.getClass().getSimpleName() + " [hashAlgorithmName=" + hashAlgorithmName + ", bytesInHash=" + bytesInHash + "]";
@@ -124,6 +346,211 @@ public abstract class HashHelper{
 			return DigestUtils.md5Hex(data);
 		}
 
+		@Override
+		protected Digest newDigest(){
+			final MessageDigest messageDigest = DigestUtils.getMd5Digest();
+			return new Digest(){
+				@Override
+				protected void updateBytes(final byte[] bytes, final int offset, final int length){
+					messageDigest.update(bytes, offset, length);
+				}
+
+				@Override
+				protected byte[] finishBytes(){
+					return messageDigest.digest();
+				}
+			};
+		}
+	}
+
+	/*
+	 * Non-cryptographic 128-bit MurmurHash3 (x64 variant). Much cheaper than MD5 and the same size so that the keys
+	 * of the stores written with MD5 are still valid hashes.
+	 */
+	public static final class Murmur3HashHelper extends HashHelper{
+
+		private Murmur3HashHelper(){
+			super("murmur3_128", 16);
+		}
+
+		@Override
+		public byte[] hashToByteArray(String data){
+			return digest().update(data).finish();
+		}
+
+		@Override
+		public String hashToHexString(String data){
+			return convertHashByteArrayToHashHexString(hashToByteArray(data));
+		}
+
+		@Override
+		protected Digest newDigest(){
+			return new Murmur3Digest();
+		}
+
+		/*
+		 * MurmurHash3_x64_128 with seed 0 over a stream of bytes. Same output as Guava's Hashing.murmur3_128().
+		 */
+		private static final class Murmur3Digest extends Digest{
+			private static final VarHandle longView = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+			private static final long C1 = 0x87c37b91114253d5L, C2 = 0x4cf5ad432745937fL;
+
+			private final byte[] tail = new byte[16];
+			private int tailLength = 0;
+			private long h1 = 0, h2 = 0, length = 0;
+
+			@Override
+			protected void updateBytes(final byte[] bytes, int offset, int count){
+				length += count;
+				if(tailLength > 0){
+					final int n = Math.min(16 - tailLength, count);
+					System.arraycopy(bytes, offset, tail, tailLength, n);
+					tailLength += n;
+					offset += n;
+					count -= n;
+					if(tailLength < 16){
+						return;
+					}
+					block(tail, 0);
+					tailLength = 0;
+				}
+				while(count >= 16){
+					block(bytes, offset);
+					offset += 16;
+					count -= 16;
+				}
+				if(count > 0){
+					System.arraycopy(bytes, offset, tail, 0, count);
+					tailLength = count;
+				}
+			}
+
+			private void block(final byte[] bytes, final int offset){
+				long k1 = (long)longView.get(bytes, offset);
+				long k2 = (long)longView.get(bytes, offset + 8);
+
+				h1 ^= mixK1(k1);
+				h1 = Long.rotateLeft(h1, 27);
+				h1 += h2;
+				h1 = h1 * 5 + 0x52dce729;
+
+				h2 ^= mixK2(k2);
+				h2 = Long.rotateLeft(h2, 31);
+				h2 += h1;
+				h2 = h2 * 5 + 0x38495ab5;
+			}
+
+			@Override
+			protected byte[] finishBytes(){
+				long k1 = 0, k2 = 0;
+				for(int i = tailLength - 1; i >= 8; i--){
+					k2 ^= ((long)(tail[i] & 0xFF)) << ((i - 8) * 8);
+				}
+				for(int i = Math.min(tailLength, 8) - 1; i >= 0; i--){
+					k1 ^= ((long)(tail[i] & 0xFF)) << (i * 8);
+				}
+				if(tailLength > 8){
+					h2 ^= mixK2(k2);
+				}
+				if(tailLength > 0){
+					h1 ^= mixK1(k1);
+				}
+
+				h1 ^= length;
+				h2 ^= length;
+				h1 += h2;
+				h2 += h1;
+				h1 = fmix64(h1);
+				h2 = fmix64(h2);
+				h1 += h2;
+				h2 += h1;
+
+				final byte[] result = new byte[16];
+				longView.set(result, 0, h1);
+				longView.set(result, 8, h2);
+
+				h1 = h2 = length = 0;
+				tailLength = 0;
+				return result;
+			}
+
+			private static long mixK1(long k1){
+				k1 *= C1;
+				k1 = Long.rotateLeft(k1, 31);
+				k1 *= C2;
+				return k1;
+			}
+
+			private static long mixK2(long k2){
+				k2 *= C2;
+				k2 = Long.rotateLeft(k2, 33);
+				k2 *= C1;
+				return k2;
+			}
+
+			private static long fmix64(long k){
+				k ^= k >>> 33;
+				k *= 0xff51afd7ed558ccdL;
+				k ^= k >>> 33;
+				k *= 0xc4ceb9fe1a85ec53L;
+				k ^= k >>> 33;
+				return k;
+			}
+		}
+	}
+	
+	/**
+	 * Immutable hash of a vertex or an edge in the hex, byte array, and two long forms.
+	 * Storages can use the binary forms to avoid the round-trip through the hex string.
+	 */
+	public static final class BigHash{
+		public final String hexString;
+		private final byte[] bytes;
+		/**
+		 * First 8 bytes of the hash (big-endian)
+		 */
+		public final long mostSignificantBits;
+		/**
+		 * Next 8 bytes of the hash (big-endian). Zero padded if the hash is shorter.
+		 */
+		public final long leastSignificantBits;
+		
+		private BigHash(final String hexString, final byte[] bytes){
+			this.hexString = hexString;
+			this.bytes = bytes;
+			this.mostSignificantBits = toLong(bytes, 0);
+			this.leastSignificantBits = toLong(bytes, 8);
+		}
+		
+		private static long toLong(final byte[] bytes, final int offset){
+			long value = 0;
+			for(int i = offset; i < offset + 8; i++){
+				value <<= 8;
+				if(i < bytes.length){
+					value |= (bytes[i] & 0xFF);
+				}
+			}
+			return value;
+		}
+		
+		/**
+		 * @return A copy of the hash bytes
+		 */
+		public final byte[] getBytes(){
+			return bytes.clone();
+		}
+		
+		/**
+		 * @return Number of bytes in the hash
+		 */
+		public final int length(){
+			return bytes.length;
+		}
+		
+		@Override
+		public final String toString(){
+			return hexString;
+		}
 	}
 	
 	private static List<Byte> toList(final byte[] bytes){
@@ -67,6 +67,7 @@ import spade.query.quickgrail.core.QueryInstructionExecutor;
 import spade.utility.HelperFunctions;
 import spade.utility.HostInfo;
 import spade.utility.LogManager;
+import spade.utility.RemoteSPADEQueryConnectionPool;
 import spade.utility.Result;
 
 /**
@@ -204,10 +205,10 @@ public class Kernel
     private static Set<AbstractStorage> removeStorages;
     private static Set<AbstractAnalyzer> removeAnalyzers;
 
-    private static final int BATCH_BUFFER_ELEMENTS = 1000000;
+    private static DispatchEngine dispatchEngine;
+
     private static final int MAIN_THREAD_SLEEP_DELAY = 10;
     private static final int REMOVE_WAIT_DELAY = 100;
-    private static final int FIRST_FILTER = 0;
     private static Logger logger;
     private static boolean ANDROID_PLATFORM = false;
 
@@ -220,7 +221,7 @@ public class Kernel
     private static final String SET_QUERY_STORAGE_STRING = "set storage <class name>";
     private static final String REMOVE_REPORTER_STORAGE_SKETCH_ANALYZER_STRING = "remove reporter|analyzer|storage|sketch <class name>";
     private static final String REMOVE_FILTER_TRANSFORMER_STRING = "remove filter|transformer <position number>";
-    private static final String LIST_STRING = "list reporters|storages|analyzers|filters|sketches|transformers|all";
+    private static final String LIST_STRING = "list reporters|storages|analyzers|filters|sketches|transformers|dispatch|all";
     private static final String CONFIG_STRING = "config load|save <filename>";
     public static final String EXIT_STRING = "exit";
 
@@ -297,7 +298,12 @@ public class Kernel
 
         initializeObjects();
 
-        registerMainThread();
+        if (!registerMainThread())
+        {
+            // Nothing to save or shut down yet. Keep the shutdown hook from saving an empty configuration.
+            shutdown = true;
+            System.exit(1);
+        }
 
         registerControlThread();
 
@@ -430,107 +436,82 @@ public class Kernel
     }
 
     /**
-     * Initialize the main thread. This thread performs critical
+     * Initialize the main threads. These threads perform critical
      * provenance-related work inside SPADE.
-     * It extracts provenance objects (vertices, edges) from the
-     * buffers, adds the source_reporter annotation to each object which is
-     * class name of the reporter, and then sends these objects to the filter list.
-     * This thread is also used for cleanly removing reporters and storages
+     * They extract provenance objects (vertices, edges) from the
+     * buffers as soon as the reporters add them, and then send these objects
+     * to the filter list. See DispatchEngine for the scheduling of reporters.
+     * These threads are also used for cleanly removing reporters and storages
      * through the control commands and also when shutting down. This is done by
      * ensuring that once a reporter is marked for removal, the provenance objects from
      * its buffer are completely flushed.
+     *
+     * @return True if the main threads were started
      */
-    private static void registerMainThread()
+    private static boolean registerMainThread()
     {
-        Runnable mainRunnable = new Runnable()
+        Runnable housekeepingRunnable = new Runnable()
         {
             @Override
             public void run()
             {
-                try
+                if (!removeStorages.isEmpty())
                 {
-                    while (true)
+                    // Check if a storage is marked for removal.
+                    // If it is, shut it down and remove it from the list.
+                    Iterator<AbstractStorage> iterator = removeStorages.iterator();
+                    while(iterator.hasNext())
                     {
-//                        if (flushTransactions)
-//                        {
-//                            // Flushing of transactions is also handled by this thread to ensure that
-//                            // there are no errors/problems when using storages that are sensitive to
-//                            // thread-context for their transactions.
-//                            // For example, this is true for the embedded neo4j graph database.
-//                            for (AbstractStorage currentStorage : storages)
-//                            {
-//                                currentStorage.flushTransactions(false);
-//                            }
-//                            flushTransactions = false;
-//                        }
-
-                        if (!removeStorages.isEmpty())
-                        {
-                            // Check if a storage is marked for removal.
-                            // If it is, shut it down and remove it from the list.
-                            Iterator<AbstractStorage> iterator = removeStorages.iterator();
-                            while(iterator.hasNext())
-                            {
-                                AbstractStorage currentStorage = iterator.next();
-                                AbstractScreen.shutdownScreens(currentStorage.getScreens());
-                                currentStorage.shutdown();
-                                iterator.remove();
-                            }
-                        }
-                        if (!removeAnalyzers.isEmpty())
+                        AbstractStorage currentStorage = iterator.next();
+                        AbstractScreen.shutdownScreens(currentStorage.getScreens());
+                        currentStorage.shutdown();
+                        iterator.remove();
+                    }
+                }
+                if (!removeAnalyzers.isEmpty())
+                {
+                    // Check if an analyzer is marked for removal.
+                    // If it is, shut it down and remove it from the list.
+                    Iterator<AbstractAnalyzer> iterator = removeAnalyzers.iterator();
+                    while(iterator.hasNext())
+                    {
+                        AbstractAnalyzer currentAnalyzer = iterator.next();
+                        currentAnalyzer.shutdown();
+                        iterator.remove();
+                    }
+                }
+                if (!removeReporters.isEmpty())
+                {
+                    // A reporter marked for removal is removed once all of its buffer
+                    // elements have been passed to the filter list.
+                    synchronized (removeReporters)
+                    {
+                        Iterator<AbstractReporter> iterator = removeReporters.iterator();
+                        while(iterator.hasNext())
                         {
-                            // Check if an analyzer is marked for removal.
-                            // If it is, shut it down and remove it from the list.
-                            Iterator<AbstractAnalyzer> iterator = removeAnalyzers.iterator();
-                            while(iterator.hasNext())
+                            AbstractReporter reporter = iterator.next();
+                            if (dispatchEngine.isDrained(reporter))
                             {
-                                AbstractAnalyzer currentAnalyzer = iterator.next();
-                                currentAnalyzer.shutdown();
+                                dispatchEngine.unregister(reporter);
                                 iterator.remove();
                             }
                         }
-
-                        for (AbstractReporter reporter : reporters)
-                        {
-                            // This loop performs the actual task of committing provenance data to
-                            // the storages. Each reporter is selected and the nested loop is used to
-                            // extract buffer elements in a batch manner for increased efficiency.
-                            // The elements are then passed to the filter list.
-                            Buffer buffer = reporter.getBuffer();
-                            for (int i = 0; i < BATCH_BUFFER_ELEMENTS; i++)
-                            {
-                                Object bufferElement = buffer.getBufferElement();
-                                if (bufferElement instanceof AbstractVertex)
-                                {
-                                    AbstractVertex tempVertex = (AbstractVertex) bufferElement;
-                                    filters.get(FIRST_FILTER).putVertex(tempVertex);
-                                }
-                                else if (bufferElement instanceof AbstractEdge)
-                                {
-                                    AbstractEdge tempEdge = (AbstractEdge) bufferElement;
-                                    filters.get(FIRST_FILTER).putEdge(tempEdge);
-                                }
-                                else if (bufferElement == null)
-                                {
-                                    if (removeReporters.contains(reporter))
-                                    {
-                                        removeReporters.remove(reporter);
-                                    }
-                                    break;
-                                }
-                            }
-                        }
-                        Thread.sleep(MAIN_THREAD_SLEEP_DELAY);
                     }
                 }
-                catch (Exception exception)
-                {
-                    logger.log(Level.SEVERE, "Error registering Main Thread", exception);
-                }
             }
         };
-        Thread mainThread = new Thread(mainRunnable, "mainSPADE-Thread");
-        mainThread.start();
+        try
+        {
+            dispatchEngine = new DispatchEngine(Settings.getDefaultConfigFilePath(DispatchEngine.class),
+                    filters, housekeepingRunnable);
+        }
+        catch (Exception exception)
+        {
+            logger.log(Level.SEVERE, "Error registering Main Thread. Aborting startup", exception);
+            return false;
+        }
+        dispatchEngine.start();
+        return true;
     }
 
     /**
@@ -1039,6 +1020,7 @@ public class Kernel
 			// SPADE thread to extract buffer elements.
 			reporter.arguments = arguments;
 			reporters.add(reporter);
+			dispatchEngine.register(reporter);
 			logger.log(Level.INFO, "Reporter added: {0}", classNameString + " " + arguments);
 			outputStream.println("done");
 			return;
@@ -1652,6 +1634,11 @@ public class Kernel
 
                 break;
 
+            case "dispatch":
+                dispatchEngine.printStats(outputStream);
+
+                break;
+
             case "all":
                 listCommand("list reporters ", outputStream);
                 listCommand("list analyzers " , outputStream);
@@ -1659,6 +1646,7 @@ public class Kernel
                 listCommand("list filters " , outputStream);
                 listCommand("list transformers " , outputStream);
                 listCommand("list sketches " , outputStream);
+                listCommand("list dispatch " , outputStream);
                 break;
 
             default:
@@ -1773,6 +1761,7 @@ public class Kernel
                         	reporter.getBuffer().shutdown();
                             reporter.shutdown();
                             removeReporters.add(reporter);
+                            dispatchEngine.wakeup();
                             found = true;
                             logger.log(Level.INFO, "Shutting down reporter: {0}", className);
                             outputStream.print("Shutting down reporter " + className + "... ");
@@ -1952,8 +1941,8 @@ public class Kernel
         while (!reporters.isEmpty()) {
             for (Iterator<AbstractReporter> reporterIterator = reporters.iterator(); reporterIterator.hasNext();) {
                 AbstractReporter currentReporter = reporterIterator.next();
-                Buffer currentBuffer = currentReporter.getBuffer();
-                if (currentBuffer.isEmpty()) {
+                if (dispatchEngine.isDrained(currentReporter)) {
+                    dispatchEngine.unregister(currentReporter);
                     reporterIterator.remove();
                 }
             }
@@ -1963,6 +1952,7 @@ public class Kernel
                 logger.log(Level.WARNING, null, ex);
             }
         }
+        dispatchEngine.shutdown();
 
         // Shut down filters.
         for (int i = 0; i < filters.size() - 1; i++)
@@ -1989,6 +1979,8 @@ public class Kernel
         {
             analyzer.shutdown();
         }
+        // Close idle remote query connections.
+        RemoteSPADEQueryConnectionPool.closeDefaultInstance();
 
         // Shut down server sockets.
         for (ServerSocket socket : serverSockets)
@@ -0,0 +1,259 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bloom filter which keeps a target false positive probability as the number of elements grows beyond the expected
+ * number (Almeida et al., Scalable Bloom Filters).
+ *
+ * A chain of ConcurrentBloomFilter. Elements are added to the last filter only. When the last filter reaches its
+ * expected number of elements a new filter is appended with twice the capacity and half the false positive
+ * probability. The compound false positive probability is then bounded by the target.
+ *
+ * If not growable then the filter is a single ConcurrentBloomFilter at the target false positive probability.
+ *
+ * Thread-safe. Adds and lookups do not lock. Appending a filter does.
+ *
+ * @param <E> Element type. Elements are hashed by their toString value.
+ */
+public class ScalableBloomFilter<E>{
+
+	// 'SBS1'
+	private static final int magic = 0x53425331;
+	private static final byte version = 1;
+
+	private static final int growthFactor = 2;
+	private static final double tighteningRatio = 0.5;
+
+	private final double falsePositiveProbability;
+	private final boolean growable;
+	// Copy-on-write. Never empty. Not modified after being set.
+	private volatile List<ConcurrentBloomFilter<E>> filters;
+
+	/**
+	 * @param falsePositiveProbability target between 0 and 1 (exclusive)
+	 * @param expectedElements capacity of the first filter
+	 * @param growable true to append filters when full
+	 */
+	public ScalableBloomFilter(final double falsePositiveProbability, final long expectedElements, final boolean growable){
+		this(falsePositiveProbability, growable, Collections.singletonList(new ConcurrentBloomFilter<E>(
+				growable ? falsePositiveProbability * (1 - tighteningRatio) : falsePositiveProbability, expectedElements)));
+	}
+
+	private ScalableBloomFilter(final double falsePositiveProbability, final boolean growable,
+			final List<ConcurrentBloomFilter<E>> filters){
+		if(!(falsePositiveProbability > 0 && falsePositiveProbability < 1)){
+			throw new IllegalArgumentException("False positive probability must be between 0 and 1 (exclusive): "
+					+ falsePositiveProbability);
+		}
+		this.falsePositiveProbability = falsePositiveProbability;
+		this.growable = growable;
+		this.filters = filters;
+	}
+
+	/**
+	 * @param element element to add
+	 * @return true if the element was definitely not in the filter before this call
+	 */
+	public boolean add(final E element){
+		final long[] hash = ConcurrentBloomFilter.hash(element);
+		final List<ConcurrentBloomFilter<E>> current = this.filters;
+		final int last = current.size() - 1;
+		for(int i = 0; i < last; i++){
+			if(current.get(i).contains(hash)){
+				return false;
+			}
+		}
+		final ConcurrentBloomFilter<E> filter = current.get(last);
+		final boolean changed = filter.add(hash);
+		if(changed && growable && filter.count() >= filter.getExpectedElements()){
+			grow(filter);
+		}
+		return changed;
+	}
+
+	/**
+	 * @param element element to check
+	 * @return false if the element is definitely not in the filter
+	 */
+	public boolean contains(final E element){
+		final long[] hash = ConcurrentBloomFilter.hash(element);
+		for(final ConcurrentBloomFilter<E> filter : this.filters){
+			if(filter.contains(hash)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private synchronized void grow(final ConcurrentBloomFilter<E> full){
+		final List<ConcurrentBloomFilter<E>> current = this.filters;
+		if(current.get(current.size() - 1) != full){
+			return; // Already grown by another thread
+		}
+		final List<ConcurrentBloomFilter<E>> grown = new ArrayList<ConcurrentBloomFilter<E>>(current.size() + 1);
+		grown.addAll(current);
+		grown.add(new ConcurrentBloomFilter<E>(full.getFalsePositiveProbability() * tighteningRatio,
+				full.getExpectedElements() * growthFactor));
+		this.filters = grown;
+	}
+
+	/**
+	 * Drops all but the first filter and clears it. Not atomic with respect to concurrent adds.
+	 */
+	public synchronized void clear(){
+		final ConcurrentBloomFilter<E> first = this.filters.get(0);
+		first.clear();
+		this.filters = Collections.singletonList(first);
+	}
+
+	/**
+	 * @return approximate number of distinct elements added
+	 */
+	public long count(){
+		long count = 0;
+		for(final ConcurrentBloomFilter<E> filter : this.filters){
+			count += filter.count();
+		}
+		return count;
+	}
+
+	public int getFilterCount(){
+		return this.filters.size();
+	}
+
+	public boolean isGrowable(){
+		return growable;
+	}
+
+	/**
+	 * @return capacity of the first filter
+	 */
+	public long getExpectedElements(){
+		return this.filters.get(0).getExpectedElements();
+	}
+
+	/**
+	 * @return target false positive probability
+	 */
+	public double getFalsePositiveProbability(){
+		return falsePositiveProbability;
+	}
+
+	/**
+	 * @return false positive probability at the current number of added elements
+	 */
+	public double getEstimatedFalsePositiveProbability(){
+		double trueNegativeProbability = 1;
+		for(final ConcurrentBloomFilter<E> filter : this.filters){
+			trueNegativeProbability *= 1 - filter.getEstimatedFalsePositiveProbability();
+		}
+		return 1 - trueNegativeProbability;
+	}
+
+	/**
+	 * @return bytes used by the bits of all the filters
+	 */
+	public long getSizeInBytes(){
+		long size = 0;
+		for(final ConcurrentBloomFilter<E> filter : this.filters){
+			size += filter.getSizeInBytes();
+		}
+		return size;
+	}
+
+	/**
+	 * Writes the filter in the binary format read by {@link #read(DataInput, boolean)}.
+	 * Concurrent adds may or may not be included.
+	 */
+	public void write(final DataOutput output) throws IOException{
+		final List<ConcurrentBloomFilter<E>> current = this.filters;
+		output.writeInt(magic);
+		output.writeByte(version);
+		output.writeDouble(falsePositiveProbability);
+		output.writeInt(current.size());
+		for(final ConcurrentBloomFilter<E> filter : current){
+			filter.write(output);
+		}
+	}
+
+	/**
+	 * @param input stream positioned at the start of a filter written by {@link #write(DataOutput)}
+	 * @param growable true to append filters when full. Not saved in the file.
+	 * @return the filter
+	 * @throws IOException if the stream does not contain a filter in the binary format
+	 */
+	public static <E> ScalableBloomFilter<E> read(final DataInput input, final boolean growable) throws IOException{
+		final int readMagic = input.readInt();
+		if(readMagic != magic){
+			throw new IOException("Not a binary scalable bloom filter. Unexpected magic number: " + Integer.toHexString(readMagic));
+		}
+		final byte readVersion = input.readByte();
+		if(readVersion != version){
+			throw new IOException("Unsupported binary scalable bloom filter version: " + readVersion);
+		}
+		final double falsePositiveProbability = input.readDouble();
+		final int filterCount = input.readInt();
+		if(filterCount <= 0){
+			throw new IOException("Invalid binary scalable bloom filter count: " + filterCount);
+		}
+		final List<ConcurrentBloomFilter<E>> filters = new ArrayList<ConcurrentBloomFilter<E>>(filterCount);
+		for(int i = 0; i < filterCount; i++){
+			filters.add(ConcurrentBloomFilter.<E>read(input));
+		}
+		try{
+			return new ScalableBloomFilter<E>(falsePositiveProbability, growable, filters);
+		}catch(IllegalArgumentException e){
+			throw new IOException("Invalid binary scalable bloom filter header", e);
+		}
+	}
+
+	/**
+	 * A single filter becomes the first filter of the chain. Its false positive probability is the target so the
+	 * compound probability after growing is bounded by twice the target.
+	 */
+	public static <E> ScalableBloomFilter<E> wrap(final ConcurrentBloomFilter<E> filter, final boolean growable){
+		return new ScalableBloomFilter<E>(filter.getFalsePositiveProbability(), growable, Collections.singletonList(filter));
+	}
+
+	/**
+	 * @param header first 4 bytes of a stream
+	 * @return true if the stream starts with a filter in the binary format
+	 */
+	public static boolean isBinaryFormat(final byte[] header){
+		return header != null && header.length >= 4 && ByteBuffer.wrap(header).getInt(0) == magic;
+	}
+
+	@Override
+	public String toString(){
+		return "ScalableBloomFilter [filters=" + getFilterCount() + ", growable=" + growable + ", count=" + count()
+				+ ", falsePositiveProbability=" + falsePositiveProbability
+				+ ", estimatedFalsePositiveProbability=" + String.format("%.9f", getEstimatedFalsePositiveProbability())
+				+ ", sizeInBytes=" + getSizeInBytes() + "]";
+	}
+}
@@ -33,7 +33,8 @@ public class EnvironmentVariableManager{
 		maxDepth(Integer.class), 
 		limit(Integer.class),
 		precision(Integer.class),
-		exportLimit(Integer.class);
+		exportLimit(Integer.class),
+		exportBatchSize(Integer.class);
 		
 		private final Class<?> type;
 		private Name(final Class<?> type){
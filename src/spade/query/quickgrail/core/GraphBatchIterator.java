@@ -0,0 +1,75 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.quickgrail.core;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Batches of the vertices or the edges of a graph being exported.
+ *
+ * The next batch is fetched when hasNextBatch is called so that the end is known without a count query.
+ * Close to release the resources held by the storage (e.g. a cursor) if not read till the end.
+ *
+ * @param <T> Type of one batch
+ */
+public abstract class GraphBatchIterator<T> extends BatchIterator implements AutoCloseable{
+
+	private T fetchedBatch = null;
+	private boolean exhausted = false;
+
+	public GraphBatchIterator(final int batchSize){
+		super(batchSize);
+	}
+
+	/**
+	 * @return the next batch of at most batchSize elements or null if no more elements
+	 */
+	protected abstract T fetchNextBatch();
+
+	@Override
+	public final boolean hasNextBatch(){
+		if(fetchedBatch == null && !exhausted){
+			fetchedBatch = fetchNextBatch();
+			if(fetchedBatch == null){
+				exhausted = true;
+				close();
+			}
+		}
+		return fetchedBatch != null;
+	}
+
+	@Override
+	public final T nextBatch(){
+		if(!hasNextBatch()){
+			throw new NoSuchElementException("No more batches");
+		}
+		final T batch = fetchedBatch;
+		fetchedBatch = null;
+		return batch;
+	}
+
+	/**
+	 * Must be safe to call more than once
+	 */
+	@Override
+	public void close(){
+		// Nothing
+	}
+}
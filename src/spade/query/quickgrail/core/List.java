@@ -61,6 +61,10 @@ public abstract class List implements Serializable{
 			return map.get(symbolName) != null;
 		}
 
+		public final GraphStatistic.Count get(final String symbolName){
+			return map.get(symbolName);
+		}
+
 		private final void addRow(final ResultTable table, final String name){
 			final GraphStatistic.Count count = map.get(name);
 			final ResultTable.Row row = new ResultTable.Row();
@@ -19,6 +19,8 @@
  */
 package spade.query.quickgrail.core;
 
+import java.io.BufferedWriter;
+import java.io.FileWriter;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -45,11 +47,11 @@ import spade.query.quickgrail.entities.GraphMetadata;
 import spade.query.quickgrail.entities.GraphPredicate;
 import spade.query.quickgrail.instruction.DescribeGraph;
 import spade.query.quickgrail.instruction.DescribeGraph.ElementType;
-import spade.query.quickgrail.instruction.ExportGraph;
 import spade.query.quickgrail.instruction.GetEdgeEndpoint.Component;
 import spade.query.quickgrail.instruction.GetGraphStatistic;
 import spade.query.quickgrail.instruction.GetLineage;
 import spade.query.quickgrail.instruction.GetLineage.Direction;
+import spade.query.quickgrail.instruction.RemoteVariableOperation;
 import spade.query.quickgrail.instruction.SaveGraph;
 import spade.query.quickgrail.instruction.SetGraphMetadata;
 import spade.query.quickgrail.utility.QuickGrailPredicateTree.PredicateNode;
@@ -63,6 +65,9 @@ public abstract class QueryInstructionExecutor{
 
 	private static final Logger logger = Logger.getLogger(QueryInstructionExecutor.class.getName());
 
+	// Used if the 'exportBatchSize' environment variable is undefined
+	private static final int defaultExportBatchSize = 10000;
+
 	private final DiscrepancyDetector discrepancyDetector;
 
 	public QueryInstructionExecutor(){
@@ -100,9 +105,84 @@ public abstract class QueryInstructionExecutor{
 	public abstract ResultTable evaluateQuery(final String nativeQuery);
 
 	public final spade.core.Graph exportGraph(final Graph targetGraph, final boolean force){
-		final GraphStatistic.Count count = getGraphCount(targetGraph);
-		long verticesAndEdges = count.getVertices() + count.getEdges();
+		checkExportLimit(targetGraph, force);
+		final int batchSize = getExportBatchSize();
+		final Map<String, AbstractVertex> verticesMap = new HashMap<String, AbstractVertex>();
+		final spade.core.Graph resultGraph = new spade.core.Graph();
+		try(final GraphBatchIterator<Map<String, Map<String, String>>> vertexBatches = exportVerticesInBatches(targetGraph, batchSize)){
+			while(vertexBatches.hasNextBatch()){
+				for(Map.Entry<String, Map<String, String>> entry : vertexBatches.nextBatch().entrySet()){
+					AbstractVertex vertex = new Vertex(entry.getKey()); // always create reference vertices
+					vertex.addAnnotations(entry.getValue());
+					verticesMap.put(entry.getKey(), vertex);
+					resultGraph.vertexSet().add(vertex);
+				}
+			}
+		}
+
+		try(final GraphBatchIterator<Set<QueriedEdge>> edgeBatches = exportEdgesInBatches(targetGraph, batchSize)){
+			while(edgeBatches.hasNextBatch()){
+				for(final QueriedEdge queriedEdge : edgeBatches.nextBatch()){
+					resultGraph.edgeSet().add(toEdge(queriedEdge, verticesMap));
+				}
+			}
+		}
+		return resultGraph;
+	}
+
+	/**
+	 * Writes the vertices and then the edges of the graph to the output storage one batch at a time.
+	 * Only one batch of the graph is in memory at a time. The output storage is not shutdown.
+	 * 
+	 * @return the number of vertices and edges written
+	 */
+	public final long exportGraph(final Graph targetGraph, final boolean force, final AbstractStorage outputStorage){
+		return exportGraph(targetGraph, force, outputStorage, null, null);
+	}
+
+	/**
+	 * @param vertexHashes if not null then the hashes of the written vertices are removed from it
+	 * @param edgeHashes if not null then the hashes of the written edges are removed from it
+	 */
+	private final long exportGraph(final Graph targetGraph, final boolean force, final AbstractStorage outputStorage,
+			final Set<String> vertexHashes, final Set<String> edgeHashes){
+		checkExportLimit(targetGraph, force);
+		final int batchSize = getExportBatchSize();
+		long written = 0;
+		try(final GraphBatchIterator<Map<String, Map<String, String>>> vertexBatches = exportVerticesInBatches(targetGraph, batchSize)){
+			while(vertexBatches.hasNextBatch()){
+				for(Map.Entry<String, Map<String, String>> entry : vertexBatches.nextBatch().entrySet()){
+					AbstractVertex vertex = new Vertex(entry.getKey());
+					vertex.addAnnotations(entry.getValue());
+					outputStorage.putVertex(vertex);
+					written++;
+					if(vertexHashes != null){
+						vertexHashes.remove(entry.getKey());
+					}
+				}
+			}
+		}
+
+		// Reference vertices only for the endpoints since vertices are not looked up
+		final Map<String, AbstractVertex> noVerticesMap = new HashMap<String, AbstractVertex>();
+		try(final GraphBatchIterator<Set<QueriedEdge>> edgeBatches = exportEdgesInBatches(targetGraph, batchSize)){
+			while(edgeBatches.hasNextBatch()){
+				for(final QueriedEdge queriedEdge : edgeBatches.nextBatch()){
+					outputStorage.putEdge(toEdge(queriedEdge, noVerticesMap));
+					written++;
+					if(edgeHashes != null){
+						edgeHashes.remove(queriedEdge.edgeHash);
+					}
+				}
+			}
+		}
+		return written;
+	}
+
+	private final void checkExportLimit(final Graph targetGraph, final boolean force){
 		if(!force){
+			final GraphStatistic.Count count = getGraphCount(targetGraph);
+			long verticesAndEdges = count.getVertices() + count.getEdges();
 			final int exportLimit = (int)getQueryEnvironment().getEnvVarManager().get(Name.exportLimit).getValue();
 			if(verticesAndEdges > exportLimit){
 				throw new RuntimeException(
@@ -110,36 +190,30 @@ public abstract class QueryInstructionExecutor{
 								+ verticesAndEdges + "'. " + "Please use 'dump all ...' to force the print.");
 			}
 		}
-		final Map<String, Map<String, String>> queriedVerticesMap = exportVertices(targetGraph);
-		final Map<String, AbstractVertex> verticesMap = new HashMap<String, AbstractVertex>();
-		for(Map.Entry<String, Map<String, String>> entry : queriedVerticesMap.entrySet()){
-			AbstractVertex vertex = new Vertex(entry.getKey()); // always create reference vertices
-			vertex.addAnnotations(entry.getValue());
-			verticesMap.put(entry.getKey(), vertex);
-		}
+	}
 
-		final Set<QueriedEdge> queriedEdges = exportEdges(targetGraph);
-		final Set<AbstractEdge> edges = new HashSet<AbstractEdge>();
-		for(final QueriedEdge queriedEdge : queriedEdges){
-			AbstractVertex child = verticesMap.get(queriedEdge.childHash);
-			AbstractVertex parent = verticesMap.get(queriedEdge.parentHash);
-			if(child == null){
-				child = new Vertex(queriedEdge.childHash);
-				// verticesMap.put(queriedEdge.childHash, child);
-			}
-			if(parent == null){
-				parent = new Vertex(queriedEdge.parentHash);
-				// verticesMap.put(queriedEdge.parentHash, parent);
-			}
-			final AbstractEdge edge = new Edge(queriedEdge.edgeHash, child, parent);
-			edge.addAnnotations(queriedEdge.getCopyOfAnnotations());
-			edges.add(edge);
+	private final int getExportBatchSize(){
+		final Object value = getQueryEnvironment().getEnvVarManager().get(Name.exportBatchSize).getValue();
+		if(value == null || (Integer)value <= 0){
+			return defaultExportBatchSize;
 		}
+		return (Integer)value;
+	}
 
-		final spade.core.Graph resultGraph = new spade.core.Graph();
-		resultGraph.vertexSet().addAll(verticesMap.values());
-		resultGraph.edgeSet().addAll(edges);
-		return resultGraph;
+	private static AbstractEdge toEdge(final QueriedEdge queriedEdge, final Map<String, AbstractVertex> verticesMap){
+		AbstractVertex child = verticesMap.get(queriedEdge.childHash);
+		AbstractVertex parent = verticesMap.get(queriedEdge.parentHash);
+		if(child == null){
+			child = new Vertex(queriedEdge.childHash);
+			// verticesMap.put(queriedEdge.childHash, child);
+		}
+		if(parent == null){
+			parent = new Vertex(queriedEdge.parentHash);
+			// verticesMap.put(queriedEdge.parentHash, parent);
+		}
+		final AbstractEdge edge = new Edge(queriedEdge.edgeHash, child, parent);
+		edge.addAnnotations(queriedEdge.getCopyOfAnnotations());
+		return edge;
 	}
 
 	public abstract void getAdjacentVertex(Graph targetGraph, Graph subjectGraph, Graph sourceGraph, GetLineage.Direction direction);
@@ -260,13 +334,60 @@ public abstract class QueryInstructionExecutor{
 
 	public final void saveGraph(final Graph targetGraph, final SaveGraph.Format format, final boolean force,
 			final String filePath){
+		// Streamed to the file instead of exporting the whole graph first
 		final boolean verify = false;
-		final spade.core.Graph exportedGraph = new ExportGraph(targetGraph, force, verify).execute(this);
+		final AbstractStorage outputStorage;
+		BufferedWriter writer = null;
 		try{
-			spade.core.Graph.exportGraphToFile(format, filePath, exportedGraph);
+			writer = new BufferedWriter(new FileWriter(filePath));
+			outputStorage = spade.core.Graph.createExportStorage(format, writer, true);
 		}catch(Exception e){
+			// The storage owns the writer only once created
+			if(writer != null){
+				try{
+					writer.close();
+				}catch(Exception closeException){
+					// ignore
+				}
+			}
 			throw new RuntimeException("Failed to save graph to file '" + filePath + "' on SPADE server", e);
 		}
+		try{
+			// The remote graph is in memory anyway. Its elements which are also in the local graph are skipped
+			// i.e. the same as the union of the two graphs. Only the remote hashes are kept, not the local ones.
+			final RemoteGraph remoteGraph = new RemoteVariableOperation.Export(targetGraph, force, verify).execute(this);
+			final Set<String> remoteVertexHashes = new HashSet<String>();
+			final Set<String> remoteEdgeHashes = new HashSet<String>();
+			if(remoteGraph != null){
+				for(final AbstractVertex vertex : remoteGraph.vertexSet()){
+					remoteVertexHashes.add(vertex.bigHashCode());
+				}
+				for(final AbstractEdge edge : remoteGraph.edgeSet()){
+					remoteEdgeHashes.add(edge.bigHashCode());
+				}
+			}
+			exportGraph(targetGraph, force, outputStorage, remoteVertexHashes, remoteEdgeHashes);
+			if(remoteGraph != null){
+				for(final AbstractVertex vertex : remoteGraph.vertexSet()){
+					if(remoteVertexHashes.contains(vertex.bigHashCode())){
+						outputStorage.putVertex(vertex);
+					}
+				}
+				for(final AbstractEdge edge : remoteGraph.edgeSet()){
+					if(remoteEdgeHashes.contains(edge.bigHashCode())){
+						outputStorage.putEdge(edge);
+					}
+				}
+			}
+		}catch(Exception e){
+			throw new RuntimeException("Failed to save graph to file '" + filePath + "' on SPADE server", e);
+		}finally{
+			try{
+				outputStorage.shutdown();
+			}catch(Exception e){
+				// ignore
+			}
+		}
 	}
 
 	public abstract void setGraphMetadata(GraphMetadata targetMetadata, SetGraphMetadata.Component component, Graph sourceGraph, String name,
@@ -282,6 +403,45 @@ public abstract class QueryInstructionExecutor{
 
 	public abstract Set<QueriedEdge> exportEdges(final Graph targetGraph);
 
+	/**
+	 * Override to read the vertices from the storage one batch at a time.
+	 * Default is one batch with all the vertices from exportVertices.
+	 */
+	public GraphBatchIterator<Map<String, Map<String, String>>> exportVerticesInBatches(final Graph targetGraph,
+			final int batchSize){
+		return new GraphBatchIterator<Map<String, Map<String, String>>>(batchSize){
+			private boolean fetched = false;
+			@Override
+			protected Map<String, Map<String, String>> fetchNextBatch(){
+				if(fetched){
+					return null;
+				}
+				fetched = true;
+				final Map<String, Map<String, String>> vertices = exportVertices(targetGraph);
+				return (vertices == null || vertices.isEmpty()) ? null : vertices;
+			}
+		};
+	}
+
+	/**
+	 * Override to read the edges from the storage one batch at a time.
+	 * Default is one batch with all the edges from exportEdges.
+	 */
+	public GraphBatchIterator<Set<QueriedEdge>> exportEdgesInBatches(final Graph targetGraph, final int batchSize){
+		return new GraphBatchIterator<Set<QueriedEdge>>(batchSize){
+			private boolean fetched = false;
+			@Override
+			protected Set<QueriedEdge> fetchNextBatch(){
+				if(fetched){
+					return null;
+				}
+				fetched = true;
+				final Set<QueriedEdge> edges = exportEdges(targetGraph);
+				return (edges == null || edges.isEmpty()) ? null : edges;
+			}
+		};
+	}
+
 	public final Graph createNewGraph(){
 		Graph newGraph = getQueryEnvironment().allocateGraph();
 		createEmptyGraph(newGraph);
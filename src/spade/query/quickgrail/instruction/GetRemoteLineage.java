@@ -21,20 +21,24 @@ package spade.query.quickgrail.instruction;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import spade.core.AbstractVertex;
-import spade.core.Kernel;
 import spade.core.Settings;
 import spade.query.quickgrail.core.GraphStatistic;
+import spade.query.quickgrail.core.List;
 import spade.query.quickgrail.core.QueryInstructionExecutor;
 import spade.query.quickgrail.core.QuickGrailQueryResolver.PredicateOperator;
 import spade.query.quickgrail.entities.Graph;
 import spade.reporter.audit.OPMConstants;
+import spade.utility.ArgumentFunctions;
 import spade.utility.DiscrepancyDetector;
 import spade.utility.HelperFunctions;
 import spade.utility.RemoteSPADEQueryConnection;
+import spade.utility.RemoteSPADEQueryConnectionPool;
 
 public class GetRemoteLineage extends GetLineage{
 
@@ -42,6 +46,9 @@ public class GetRemoteLineage extends GetLineage{
 
 	private static final Object lock = new Object();
 	private static DiscrepancyDetector discrepancyDetector = null;
+	private static LineageCache lineageCache = null;
+
+	private static final String keyCacheTtlMillis = "cacheTtlMillis", keyCacheMaxEntries = "cacheMaxEntries";
 
 	public GetRemoteLineage(Graph targetGraph, Graph subjectGraph, Graph startGraph, int depth, Direction direction){
 		super(targetGraph, subjectGraph, startGraph, depth, direction);
@@ -62,6 +69,17 @@ public class GetRemoteLineage extends GetLineage{
 					throw new RuntimeException("Failed to initialize discrepancy detector", e);
 				}
 			}
+			if(lineageCache == null){
+				try{
+					final Map<String, String> map = HelperFunctions.getGlobalsMapFromConfigAndArguments(
+							GetRemoteLineage.class, null);
+					final long ttlMillis = ArgumentFunctions.mustParseLong(keyCacheTtlMillis, map);
+					final int maxEntries = ArgumentFunctions.mustParseInteger(keyCacheMaxEntries, map);
+					lineageCache = new LineageCache(ttlMillis, maxEntries);
+				}catch(Exception e){
+					throw new RuntimeException("Failed to initialize remote lineage cache", e);
+				}
+			}
 		}
 
 		if(Direction.kAncestor.equals(direction) || Direction.kDescendant.equals(direction)){
@@ -77,6 +95,10 @@ public class GetRemoteLineage extends GetLineage{
 	}
 
 	private final void executeOneDirection(final QueryInstructionExecutor executor, final Direction direction){
+		final int spadeQueryPort = Settings.getCommandLineQueryPort();
+		// Key: remote address. Network vertices not in the cache.
+		final Map<String, ArrayList<RemoteVertex>> pendingRemoteVertices = new LinkedHashMap<String, ArrayList<RemoteVertex>>();
+
 		Graph networkVerticesGraph = executor.createNewGraph();
 		executor.getVertex(networkVerticesGraph, targetGraph, OPMConstants.ARTIFACT_SUBTYPE, PredicateOperator.EQUAL,
 				OPMConstants.SUBTYPE_NETWORK_SOCKET, true);
@@ -110,28 +132,94 @@ public class GetRemoteLineage extends GetLineage{
 			final AbstractVertex oneNetworkVertexMaterialized = oneNetworkVertexGraphMaterialized.vertexSet().iterator()
 					.next();
 
-			RemoteSPADEQueryConnection connection = null;
-			try{
-				final String remoteAddress = getRemoteAddress(oneNetworkVertexMaterialized);
-				final int spadeQueryPort = Settings.getCommandLineQueryPort();
-				connection = new RemoteSPADEQueryConnection(Kernel.getHostName(), remoteAddress, spadeQueryPort);
-				connection.connect(Kernel.getClientSocketFactory(), 5 * 1000);
-
-				final String remoteVerticesPredicate = buildRemoteGetVertexPredicate(oneNetworkVertexMaterialized);
-				final String remoteVerticesSymbol = connection.getBaseVertices(remoteVerticesPredicate);
-				final GraphStatistic.Count remoteVerticesCount = connection.getGraphCount(remoteVerticesSymbol);
-				if(remoteVerticesCount.getVertices() <= 0){
-					continue;
+			final String remoteAddress = getRemoteAddress(oneNetworkVertexMaterialized);
+			final int remoteDepth = depth - oneNetworkVertexMinDepth;
+			final String cacheKey = LineageCache.buildKey(remoteAddress, spadeQueryPort,
+					oneNetworkVertexMaterialized.bigHashCode(), remoteDepth, direction);
+			final LineageCache.Entry cachedEntry = lineageCache.get(cacheKey);
+			if(cachedEntry != null){
+				if(cachedEntry.remoteSymbol != null){
+					synchronized(lock){
+						executor.getQueryEnvironment().setRemoteSymbol(targetGraph,
+								new Graph.Remote(remoteAddress, spadeQueryPort, cachedEntry.remoteSymbol));
+					}
+				}
+				continue;
+			}
+
+			ArrayList<RemoteVertex> hostRemoteVertices = pendingRemoteVertices.get(remoteAddress);
+			if(hostRemoteVertices == null){
+				hostRemoteVertices = new ArrayList<RemoteVertex>();
+				pendingRemoteVertices.put(remoteAddress, hostRemoteVertices);
+			}
+			hostRemoteVertices.add(new RemoteVertex(oneNetworkVertexMaterialized, remoteDepth, cacheKey));
+		}
+
+		for(final Map.Entry<String, ArrayList<RemoteVertex>> entry : pendingRemoteVertices.entrySet()){
+			executeOneHost(executor, direction, entry.getKey(), spadeQueryPort, entry.getValue());
+		}
+	}
+
+	/*
+	 * All the network vertices of the host are queried in one round trip over one connection. The vertices are matched
+	 * in the remote base graph using one 'or' predicate. The lineage of each vertex is assigned to its own remote symbol
+	 * so that the cached result of a vertex is only its own lineage.
+	 */
+	private final void executeOneHost(final QueryInstructionExecutor executor, final Direction direction,
+			final String remoteAddress, final int spadeQueryPort, final ArrayList<RemoteVertex> remoteVertices){
+		// Idle connection to the host reused if available
+		final RemoteSPADEQueryConnectionPool connectionPool = RemoteSPADEQueryConnectionPool.getDefaultInstance();
+		RemoteSPADEQueryConnection connection = null;
+		boolean failed = true;
+		try{
+			connection = connectionPool.borrow(remoteAddress, spadeQueryPort);
+			failed = false;
+
+			final java.util.List<String> remoteLineageSymbols = connection
+					.generateUniqueRemoteSymbolNames(remoteVertices.size());
+			final ArrayList<String> remoteVerticesSymbols = new ArrayList<String>();
+
+			String remoteAllVerticesPredicate = "";
+			for(final RemoteVertex remoteVertex : remoteVertices){
+				if(!remoteAllVerticesPredicate.isEmpty()){
+					remoteAllVerticesPredicate += " or ";
+				}
+				remoteAllVerticesPredicate += buildRemoteGetVertexPredicate(remoteVertex.localNetworkVertex);
+			}
+			final String remoteAllVerticesSymbol = connection.generateSymbol();
+			String query = remoteAllVerticesSymbol + " = " + RemoteSPADEQueryConnection
+					.buildGetVerticesExpression(RemoteSPADEQueryConnection.baseSymbol, remoteAllVerticesPredicate) + ";";
+			for(int i = 0; i < remoteVertices.size(); i++){
+				final RemoteVertex remoteVertex = remoteVertices.get(i);
+				final String remoteVerticesSymbol = connection.generateSymbol();
+				remoteVerticesSymbols.add(remoteVerticesSymbol);
+				query += remoteVerticesSymbol + " = " + RemoteSPADEQueryConnection.buildGetVerticesExpression(
+						remoteAllVerticesSymbol, buildRemoteGetVertexPredicate(remoteVertex.localNetworkVertex)) + ";";
+				query += remoteLineageSymbols.get(i) + " = " + RemoteSPADEQueryConnection.buildGetLineageExpression(
+						RemoteSPADEQueryConnection.baseSymbol, remoteVerticesSymbol, remoteVertex.remoteDepth, direction)
+						+ ";";
+			}
+			// Counts of all the assigned symbols in the same round trip
+			query += "list graph";
+			final List.GraphList graphList = (List.GraphList)connection.executeQuery(query).getResult();
+
+			String unlinkedSymbols = "";
+			for(int i = 0; i < remoteVertices.size(); i++){
+				final RemoteVertex remoteVertex = remoteVertices.get(i);
+				final String remoteVerticesSymbol = remoteVerticesSymbols.get(i);
+				final String remoteLineageSymbol = remoteLineageSymbols.get(i);
+
+				final GraphStatistic.Count remoteVerticesCount = graphList.get(remoteVerticesSymbol);
+				final GraphStatistic.Count remoteLineageStats = graphList.get(remoteLineageSymbol);
+				if(remoteVerticesCount == null || remoteLineageStats == null){
+					throw new RuntimeException("Missing remote symbols in response: " + remoteVerticesSymbol + ", "
+							+ remoteLineageSymbol);
 				}
-				final Integer remoteDepth = depth - oneNetworkVertexMinDepth;
-				final String remoteLineageSymbol = connection.getBaseLineage(remoteVerticesSymbol, remoteDepth,
-						direction);
-				final GraphStatistic.Count remoteLineageStats = connection.getGraphCount(remoteLineageSymbol);
-				if(remoteLineageStats.isEmpty()){
+				if(remoteVerticesCount.getVertices() <= 0 || remoteLineageStats.isEmpty()){
+					unlinkedSymbols += " " + remoteLineageSymbol;
+					lineageCache.put(remoteVertex.cacheKey, null);
 					continue;
 				}
-				final String toLinkSymbolName = connection.generateUniqueRemoteSymbolName();
-				connection.executeQuery(toLinkSymbolName + " = " + remoteLineageSymbol);
 
 				synchronized(lock){
 					try{
@@ -144,7 +232,7 @@ public class GetRemoteLineage extends GetLineage{
 
 							isValidRemoteGraph = discrepancyDetector.doDiscrepancyDetection(
 									remoteLineageGraph, new HashSet<AbstractVertex>(remoteVertexGraph.vertexSet()), 
-									remoteDepth, direction, remoteLineageGraph.getHostName()
+									remoteVertex.remoteDepth, direction, remoteLineageGraph.getHostName()
 											);
 						}else{
 							// Everything is valid if discrepancyDetector disabled
@@ -152,23 +240,29 @@ public class GetRemoteLineage extends GetLineage{
 						}
 						if(isValidRemoteGraph == false){
 							logger.log(Level.WARNING, "Discrepancies found in result graph. Remote graph discarded.");
+							unlinkedSymbols += " " + remoteLineageSymbol;
 						}else{
 							executor.getQueryEnvironment().setRemoteSymbol(targetGraph,
-									new Graph.Remote(remoteAddress, spadeQueryPort, toLinkSymbolName));
+									new Graph.Remote(remoteAddress, spadeQueryPort, remoteLineageSymbol));
+							lineageCache.put(remoteVertex.cacheKey, remoteLineageSymbol);
 						}
 					}catch(Exception e){
 						throw new RuntimeException("Failed to detect discrepancies in remote graph", e);
 					}
 				}
-			}catch(Exception e){
-				logger.log(Level.WARNING, "Failed to query remote SPADE server", e);
-			}finally{
-				if(connection != null){
-					try{
-						connection.close();
-					}catch(Exception e){
-
-					}
+			}
+			if(!unlinkedSymbols.isEmpty()){
+				connection.executeQuery("erase" + unlinkedSymbols);
+			}
+		}catch(Exception e){
+			failed = true;
+			logger.log(Level.WARNING, "Failed to query remote SPADE server", e);
+		}finally{
+			if(connection != null){
+				if(failed){
+					connectionPool.invalidate(connection);
+				}else{
+					connectionPool.release(connection);
 				}
 			}
 		}
@@ -230,4 +324,75 @@ public class GetRemoteLineage extends GetLineage{
 		return networkVertex.getAnnotation(getAnnotationLocalPort());
 	}
 
+	private static final class RemoteVertex{
+		private final AbstractVertex localNetworkVertex;
+		private final int remoteDepth;
+		private final String cacheKey;
+
+		private RemoteVertex(final AbstractVertex localNetworkVertex, final int remoteDepth, final String cacheKey){
+			this.localNetworkVertex = localNetworkVertex;
+			this.remoteDepth = remoteDepth;
+			this.cacheKey = cacheKey;
+		}
+	}
+
+	/*
+	 * Remote lineage symbol of a network vertex keyed by (remote host, vertex hash, remote depth, direction). A NULL
+	 * symbol is cached for a vertex with no remote lineage.
+	 */
+	private static final class LineageCache{
+		private final long ttlMillis;
+		private final int maxEntries;
+		private final LinkedHashMap<String, Entry> map;
+
+		private LineageCache(final long ttlMillis, final int maxEntries){
+			this.ttlMillis = ttlMillis;
+			this.maxEntries = maxEntries;
+			this.map = new LinkedHashMap<String, Entry>(16, 0.75f, true){
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest){
+					return size() > LineageCache.this.maxEntries;
+				}
+			};
+		}
+
+		private static String buildKey(final String host, final int port, final String vertexHash,
+				final int remoteDepth, final Direction direction){
+			return host + ":" + port + "," + vertexHash + "," + remoteDepth + "," + direction;
+		}
+
+		private synchronized Entry get(final String key){
+			if(ttlMillis <= 0 || maxEntries <= 0){
+				return null;
+			}
+			final Entry entry = map.get(key);
+			if(entry == null){
+				return null;
+			}
+			if(System.currentTimeMillis() - entry.cachedAtMillis >= ttlMillis){
+				map.remove(key);
+				return null;
+			}
+			return entry;
+		}
+
+		private synchronized void put(final String key, final String remoteSymbol){
+			if(ttlMillis <= 0 || maxEntries <= 0){
+				return;
+			}
+			map.put(key, new Entry(remoteSymbol, System.currentTimeMillis()));
+		}
+
+		private static final class Entry{
+			private final String remoteSymbol;
+			private final long cachedAtMillis;
+
+			private Entry(final String remoteSymbol, final long cachedAtMillis){
+				this.remoteSymbol = remoteSymbol;
+				this.cachedAtMillis = cachedAtMillis;
+			}
+		}
+	}
+
 }
@@ -0,0 +1,593 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.scaffold;
+
+import spade.core.AbstractEdge;
+import spade.core.Graph;
+import spade.core.HashHelper;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static spade.core.AbstractStorage.DIRECTION_ANCESTORS;
+import static spade.core.AbstractStorage.DIRECTION_DESCENDANTS;
+
+/**
+ * In-memory scaffold which interns every vertex hash to an int id once.
+ *
+ * Adjacency per direction is kept in CSR form (offsets and sorted, deduplicated targets) plus an append
+ * buffer of per-vertex linked lists in int arrays. The buffer is merged into the CSR arrays when it grows
+ * past half of the CSR size. Lineage and path traversals run on the int ids and only the result is
+ * converted back to hex hashes.
+ *
+ * Not persisted on shutdown.
+ */
+public class CompactInMemory extends Scaffold
+{
+    private static final Logger logger = Logger.getLogger(CompactInMemory.class.getName());
+    private static final int INITIAL_VERTEX_CAPACITY = 1 << 16;
+    private static final int MIN_BUFFERED_EDGES = 1 << 20;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Open addressing table from hash to (id + 1). Zero means empty.
+    private long[] tableHashes = new long[2 * 2 * INITIAL_VERTEX_CAPACITY];
+    private int[] tableIds = new int[2 * INITIAL_VERTEX_CAPACITY];
+    // Id to hash
+    private long[] vertexHashes = new long[2 * INITIAL_VERTEX_CAPACITY];
+    private int vertexCount = 0;
+
+    private final Adjacency children = new Adjacency();
+    private final Adjacency parents = new Adjacency();
+    private long edgeCount = 0;
+
+    /**
+     * Growable int list
+     */
+    private static final class IntList
+    {
+        private int[] values = new int[16];
+        private int size = 0;
+
+        private void add(int value)
+        {
+            if(size == values.length)
+            {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private void clear()
+        {
+            size = 0;
+        }
+    }
+
+    private static final class Adjacency
+    {
+        // CSR part for ids below offsets.length - 1
+        private int[] offsets = new int[]{0};
+        private int[] targets = new int[0];
+        // Append buffer. head is indexed by vertex id. -1 means empty.
+        private int[] head = new int[0];
+        private int[] next = new int[1024];
+        private int[] buffered = new int[1024];
+        private int bufferedCount = 0;
+
+        private void ensureVertices(int count)
+        {
+            if(head.length < count)
+            {
+                int oldLength = head.length;
+                head = Arrays.copyOf(head, Math.max(count, oldLength * 2));
+                Arrays.fill(head, oldLength, head.length, -1);
+            }
+        }
+
+        private void add(int from, int to)
+        {
+            if(bufferedCount == buffered.length)
+            {
+                next = Arrays.copyOf(next, bufferedCount * 2);
+                buffered = Arrays.copyOf(buffered, bufferedCount * 2);
+            }
+            buffered[bufferedCount] = to;
+            next[bufferedCount] = head[from];
+            head[from] = bufferedCount;
+            bufferedCount++;
+        }
+
+        private boolean shouldMerge()
+        {
+            return bufferedCount >= Math.max(MIN_BUFFERED_EDGES, targets.length / 2);
+        }
+
+        private boolean contains(int vertex)
+        {
+            return (vertex < offsets.length - 1 && offsets[vertex] < offsets[vertex + 1])
+                    || (vertex < head.length && head[vertex] != -1);
+        }
+
+        /**
+         * Appends the neighbors to the list. Buffered neighbors may repeat.
+         */
+        private void collect(int vertex, IntList neighbors)
+        {
+            if(vertex < offsets.length - 1)
+            {
+                for(int i = offsets[vertex]; i < offsets[vertex + 1]; i++)
+                {
+                    neighbors.add(targets[i]);
+                }
+            }
+            if(vertex < head.length)
+            {
+                for(int i = head[vertex]; i != -1; i = next[i])
+                {
+                    neighbors.add(buffered[i]);
+                }
+            }
+        }
+
+        private void merge(int vertexCount)
+        {
+            int frozenVertices = offsets.length - 1;
+            int[] newOffsets = new int[vertexCount + 1];
+            for(int vertex = 0; vertex < vertexCount; vertex++)
+            {
+                int degree = vertex < frozenVertices ? offsets[vertex + 1] - offsets[vertex] : 0;
+                for(int i = head[vertex]; i != -1; i = next[i])
+                {
+                    degree++;
+                }
+                newOffsets[vertex + 1] = newOffsets[vertex] + degree;
+            }
+            int[] newTargets = new int[newOffsets[vertexCount]];
+            int size = 0;
+            for(int vertex = 0; vertex < vertexCount; vertex++)
+            {
+                int start = newOffsets[vertex];
+                int position = start;
+                if(vertex < frozenVertices)
+                {
+                    int length = offsets[vertex + 1] - offsets[vertex];
+                    System.arraycopy(targets, offsets[vertex], newTargets, position, length);
+                    position += length;
+                }
+                for(int i = head[vertex]; i != -1; i = next[i])
+                {
+                    newTargets[position++] = buffered[i];
+                }
+                Arrays.sort(newTargets, start, position);
+                // Compact in place. Safe because size <= start.
+                newOffsets[vertex] = size;
+                for(int i = start; i < position; i++)
+                {
+                    if(i == start || newTargets[i] != newTargets[i - 1])
+                    {
+                        newTargets[size++] = newTargets[i];
+                    }
+                }
+            }
+            newOffsets[vertexCount] = size;
+            offsets = newOffsets;
+            targets = Arrays.copyOf(newTargets, size);
+            Arrays.fill(head, -1);
+            bufferedCount = 0;
+        }
+    }
+
+    /**
+     * This method is invoked by the kernel to initialize the storage.
+     *
+     * @param arguments Ignored.
+     * @return True always.
+     */
+    @Override
+    public boolean initialize(String arguments)
+    {
+        logger.log(Level.INFO, "Scaffold initialized");
+        return true;
+    }
+
+    @Override
+    protected void globalTxCheckin(boolean forcedFlush)
+    {
+
+    }
+
+    /**
+     * This method is invoked by the AbstractStorage to shut down the storage.
+     *
+     * @return True always.
+     */
+    @Override
+    public boolean shutdown()
+    {
+        logger.log(Level.INFO, "Scaffold shut down. Vertices: " + vertexCount + ", edges inserted: " + edgeCount);
+        return true;
+    }
+
+    private static int slot(long msb, long lsb, int mask)
+    {
+        long hash = msb ^ (lsb * 0x9E3779B97F4A7C15L);
+        return (int)(hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * Must be called with the read or write lock held
+     *
+     * @return id or -1 if not interned
+     */
+    private int lookup(long msb, long lsb)
+    {
+        int mask = tableIds.length - 1;
+        for(int slot = slot(msb, lsb, mask); tableIds[slot] != 0; slot = (slot + 1) & mask)
+        {
+            if(tableHashes[2 * slot] == msb && tableHashes[2 * slot + 1] == lsb)
+            {
+                return tableIds[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    private int lookup(String hash)
+    {
+        HashHelper.BigHash bigHash = HashHelper.defaultInstance.hexStringToBigHash(hash);
+        return lookup(bigHash.mostSignificantBits, bigHash.leastSignificantBits);
+    }
+
+    /**
+     * Must be called with the write lock held
+     */
+    private int intern(HashHelper.BigHash hash)
+    {
+        long msb = hash.mostSignificantBits, lsb = hash.leastSignificantBits;
+        int mask = tableIds.length - 1;
+        int slot = slot(msb, lsb, mask);
+        for(; tableIds[slot] != 0; slot = (slot + 1) & mask)
+        {
+            if(tableHashes[2 * slot] == msb && tableHashes[2 * slot + 1] == lsb)
+            {
+                return tableIds[slot] - 1;
+            }
+        }
+        int id = vertexCount++;
+        if(2 * vertexCount > vertexHashes.length)
+        {
+            vertexHashes = Arrays.copyOf(vertexHashes, vertexHashes.length * 2);
+        }
+        vertexHashes[2 * id] = msb;
+        vertexHashes[2 * id + 1] = lsb;
+        tableHashes[2 * slot] = msb;
+        tableHashes[2 * slot + 1] = lsb;
+        tableIds[slot] = id + 1;
+        // Load factor of one half
+        if(2 * vertexCount > tableIds.length)
+        {
+            rehash(tableIds.length * 2);
+        }
+        children.ensureVertices(vertexCount);
+        parents.ensureVertices(vertexCount);
+        return id;
+    }
+
+    private void rehash(int capacity)
+    {
+        long[] newTableHashes = new long[2 * capacity];
+        int[] newTableIds = new int[capacity];
+        int mask = capacity - 1;
+        for(int id = 0; id < vertexCount; id++)
+        {
+            long msb = vertexHashes[2 * id], lsb = vertexHashes[2 * id + 1];
+            int slot = slot(msb, lsb, mask);
+            while(newTableIds[slot] != 0)
+            {
+                slot = (slot + 1) & mask;
+            }
+            newTableHashes[2 * slot] = msb;
+            newTableHashes[2 * slot + 1] = lsb;
+            newTableIds[slot] = id + 1;
+        }
+        tableHashes = newTableHashes;
+        tableIds = newTableIds;
+    }
+
+    private String toHash(int id)
+    {
+        return NeighborBlock.toHex(vertexHashes[2 * id], vertexHashes[2 * id + 1]);
+    }
+
+    /**
+     * This function inserts hashes of the end vertices of given edge
+     * into the scaffold storage.
+     *
+     * @param incomingEdge edge whose end points to insert into the storage
+     * @return returns true if the insertion is successful.
+     */
+    @Override
+    public boolean insertEntry(AbstractEdge incomingEdge)
+    {
+        HashHelper.BigHash childHash, parentHash;
+        try
+        {
+            childHash = getChildHash(incomingEdge);
+            parentHash = getParentHash(incomingEdge);
+        }
+        catch(Exception ex)
+        {
+            logger.log(Level.SEVERE, "Invalid edge end point hashes!", ex);
+            return false;
+        }
+        lock.writeLock().lock();
+        try
+        {
+            int child = intern(childHash);
+            int parent = intern(parentHash);
+            parents.add(child, parent);
+            children.add(parent, child);
+            edgeCount++;
+            if(parents.shouldMerge())
+            {
+                parents.merge(vertexCount);
+            }
+            if(children.shouldMerge())
+            {
+                children.merge(vertexCount);
+            }
+            return true;
+        }
+        catch(Exception ex)
+        {
+            logger.log(Level.SEVERE, "Error inserting scaffold entry!", ex);
+            return false;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Set<String> getNeighbors(String hash, Adjacency adjacency)
+    {
+        lock.readLock().lock();
+        try
+        {
+            int id = lookup(hash);
+            if(id == -1 || !adjacency.contains(id))
+            {
+                return null;
+            }
+            IntList neighbors = new IntList();
+            adjacency.collect(id, neighbors);
+            Set<String> result = new HashSet<>();
+            for(int i = 0; i < neighbors.size; i++)
+            {
+                result.add(toHash(neighbors.values[i]));
+            }
+            return result;
+        }
+        catch(Exception ex)
+        {
+            logger.log(Level.SEVERE, "Scaffold get neighbors error!", ex);
+            return null;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<String> getChildren(String parentHash)
+    {
+        return getNeighbors(parentHash, children);
+    }
+
+    @Override
+    public Set<String> getParents(String childHash)
+    {
+        return getNeighbors(childHash, parents);
+    }
+
+    @Override
+    public Set<String> getNeighbors(String hash)
+    {
+        Set<String> neighbors = new HashSet<>();
+        Set<String> childHashes = getChildren(hash);
+        if(childHashes != null)
+        {
+            neighbors.addAll(childHashes);
+        }
+        Set<String> parentHashes = getParents(hash);
+        if(parentHashes != null)
+        {
+            neighbors.addAll(parentHashes);
+        }
+        return neighbors;
+    }
+
+    private Adjacency getAdjacency(String direction)
+    {
+        if(DIRECTION_ANCESTORS.startsWith(direction.toLowerCase()))
+        {
+            return parents;
+        }
+        else if(DIRECTION_DESCENDANTS.startsWith(direction.toLowerCase()))
+        {
+            return children;
+        }
+        return null;
+    }
+
+    /**
+     * Breadth first on ids. Must be called with the read lock held.
+     *
+     * @param expandedVertices filled with the vertices which have neighbors in the direction
+     * @return bitmap of the expanded vertices
+     */
+    private long[] traverse(int start, Adjacency adjacency, int maxDepth, IntList expandedVertices)
+    {
+        long[] visited = new long[(vertexCount + 63) >>> 6];
+        long[] expanded = new long[visited.length];
+        visited[start >>> 6] |= 1L << start;
+        IntList currentLevel = new IntList(), nextLevel = new IntList(), neighbors = new IntList();
+        currentLevel.add(start);
+        for(int depth = 0; depth < maxDepth && currentLevel.size > 0; depth++)
+        {
+            nextLevel.clear();
+            for(int i = 0; i < currentLevel.size; i++)
+            {
+                int vertex = currentLevel.values[i];
+                if(!adjacency.contains(vertex))
+                {
+                    continue;
+                }
+                expanded[vertex >>> 6] |= 1L << vertex;
+                expandedVertices.add(vertex);
+                neighbors.clear();
+                adjacency.collect(vertex, neighbors);
+                for(int j = 0; j < neighbors.size; j++)
+                {
+                    int neighbor = neighbors.values[j];
+                    if((visited[neighbor >>> 6] & (1L << neighbor)) == 0)
+                    {
+                        visited[neighbor >>> 6] |= 1L << neighbor;
+                        nextLevel.add(neighbor);
+                    }
+                }
+            }
+            IntList swap = currentLevel;
+            currentLevel = nextLevel;
+            nextLevel = swap;
+        }
+        return expanded;
+    }
+
+    /**
+     * Adds the vertex and its deduplicated neighbors to the map
+     */
+    private void putNeighbors(Map<String, Set<String>> map, int vertex, Adjacency adjacency, IntList buffer)
+    {
+        buffer.clear();
+        adjacency.collect(vertex, buffer);
+        Set<String> neighbors = map.get(toHash(vertex));
+        if(neighbors == null)
+        {
+            neighbors = new HashSet<>();
+            map.put(toHash(vertex), neighbors);
+        }
+        for(int i = 0; i < buffer.size; i++)
+        {
+            neighbors.add(toHash(buffer.values[i]));
+        }
+    }
+
+    @Override
+    public Map<String, Set<String>> getLineage(String hash, String direction, int maxDepth)
+    {
+        Adjacency adjacency = getAdjacency(direction);
+        if(adjacency == null)
+        {
+            logger.log(Level.SEVERE, "Invalid direction: " + direction);
+            return null;
+        }
+        lock.readLock().lock();
+        try
+        {
+            Map<String, Set<String>> lineageMap = new HashMap<>();
+            int start = lookup(hash);
+            if(start != -1)
+            {
+                IntList expandedVertices = new IntList();
+                traverse(start, adjacency, maxDepth, expandedVertices);
+                IntList buffer = new IntList();
+                for(int i = 0; i < expandedVertices.size; i++)
+                {
+                    putNeighbors(lineageMap, expandedVertices.values[i], adjacency, buffer);
+                }
+            }
+            return lineageMap;
+        }
+        catch(Exception ex)
+        {
+            logger.log(Level.SEVERE, "Scaffold Get Lineage error!", ex);
+            return null;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return vertices which are both ancestors of the source and descendants of the destination,
+     * with their neighbors in both directions
+     */
+    @Override
+    public Map<String, Set<String>> getPaths(String source_hash, String destination_hash, int maxLength)
+    {
+        lock.readLock().lock();
+        try
+        {
+            Map<String, Set<String>> paths = new HashMap<>();
+            int source = lookup(source_hash);
+            int destination = lookup(destination_hash);
+            if(source != -1 && destination != -1)
+            {
+                IntList upVertices = new IntList();
+                traverse(source, parents, maxLength, upVertices);
+                long[] down = traverse(destination, children, maxLength, new IntList());
+                IntList buffer = new IntList();
+                for(int i = 0; i < upVertices.size; i++)
+                {
+                    int vertex = upVertices.values[i];
+                    if((down[vertex >>> 6] & (1L << vertex)) != 0)
+                    {
+                        putNeighbors(paths, vertex, parents, buffer);
+                        putNeighbors(paths, vertex, children, buffer);
+                    }
+                }
+            }
+            return paths;
+        }
+        catch(Exception ex)
+        {
+            logger.log(Level.SEVERE, "Scaffold Get Paths error!", ex);
+            return null;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Graph queryManager(Map<String, List<String>> params)
+    {
+        return null;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.scaffold;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Packed encoding of a set of 16 byte vertex hashes.
+ *
+ * A hash is held as two longs (most and least significant 8 bytes). A block is:
+ * <count varint> followed by the hashes in unsigned ascending order, each as
+ * <delta of most significant bits varlong> and then either <delta of least significant bits varlong>
+ * if the most significant bits were equal to the previous hash, or the 8 raw least significant bytes.
+ */
+final class NeighborBlock
+{
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private NeighborBlock()
+    {
+    }
+
+    /**
+     * Growable list of hashes stored as (most, least) significant bit pairs.
+     */
+    static final class Ids
+    {
+        private long[] values = new long[16];
+        private int size = 0;
+
+        void add(long msb, long lsb)
+        {
+            if(2 * size + 2 > values.length)
+            {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[2 * size] = msb;
+            values[2 * size + 1] = lsb;
+            size++;
+        }
+
+        int size()
+        {
+            return size;
+        }
+
+        long msb(int index)
+        {
+            return values[2 * index];
+        }
+
+        long lsb(int index)
+        {
+            return values[2 * index + 1];
+        }
+
+        void sortAndDeduplicate()
+        {
+            sort(0, size - 1);
+            int count = 0;
+            for(int i = 0; i < size; i++)
+            {
+                if(count == 0 || values[2 * count - 2] != values[2 * i] || values[2 * count - 1] != values[2 * i + 1])
+                {
+                    values[2 * count] = values[2 * i];
+                    values[2 * count + 1] = values[2 * i + 1];
+                    count++;
+                }
+            }
+            size = count;
+        }
+
+        // Quicksort on the pairs in place to avoid boxing
+        private void sort(int low, int high)
+        {
+            while(low < high)
+            {
+                int middle = (low + high) >>> 1;
+                long pivotMsb = values[2 * middle], pivotLsb = values[2 * middle + 1];
+                int i = low, j = high;
+                while(i <= j)
+                {
+                    while(compare(values[2 * i], values[2 * i + 1], pivotMsb, pivotLsb) < 0)
+                    {
+                        i++;
+                    }
+                    while(compare(values[2 * j], values[2 * j + 1], pivotMsb, pivotLsb) > 0)
+                    {
+                        j--;
+                    }
+                    if(i <= j)
+                    {
+                        swap(i++, j--);
+                    }
+                }
+                // Recurse on the smaller side
+                if(j - low < high - i)
+                {
+                    sort(low, j);
+                    low = i;
+                }
+                else
+                {
+                    sort(i, high);
+                    high = j;
+                }
+            }
+        }
+
+        private void swap(int a, int b)
+        {
+            long msb = values[2 * a], lsb = values[2 * a + 1];
+            values[2 * a] = values[2 * b];
+            values[2 * a + 1] = values[2 * b + 1];
+            values[2 * b] = msb;
+            values[2 * b + 1] = lsb;
+        }
+    }
+
+    private static int compare(long msbA, long lsbA, long msbB, long lsbB)
+    {
+        int result = Long.compareUnsigned(msbA, msbB);
+        return result != 0 ? result : Long.compareUnsigned(lsbA, lsbB);
+    }
+
+    /**
+     * @param ids must be sorted and deduplicated
+     * @param from inclusive
+     * @param to exclusive
+     */
+    static byte[] encode(Ids ids, int from, int to)
+    {
+        byte[] bytes = new byte[5 + (to - from) * 18];
+        int position = writeVarLong(bytes, 0, to - from);
+        long previousMsb = 0, previousLsb = 0;
+        for(int i = from; i < to; i++)
+        {
+            long msb = ids.msb(i), lsb = ids.lsb(i);
+            position = writeVarLong(bytes, position, msb - previousMsb);
+            if(i > from && msb == previousMsb)
+            {
+                position = writeVarLong(bytes, position, lsb - previousLsb);
+            }
+            else
+            {
+                for(int shift = 56; shift >= 0; shift -= 8)
+                {
+                    bytes[position++] = (byte)(lsb >>> shift);
+                }
+            }
+            previousMsb = msb;
+            previousLsb = lsb;
+        }
+        return Arrays.copyOf(bytes, position);
+    }
+
+    static void decode(byte[] bytes, Ids ids)
+    {
+        int[] position = new int[]{0};
+        long count = readVarLong(bytes, position);
+        long msb = 0, lsb = 0;
+        for(long i = 0; i < count; i++)
+        {
+            long delta = readVarLong(bytes, position);
+            if(i > 0 && delta == 0)
+            {
+                lsb += readVarLong(bytes, position);
+            }
+            else
+            {
+                lsb = 0;
+                for(int j = 0; j < 8; j++)
+                {
+                    lsb = (lsb << 8) | (bytes[position[0]++] & 0xFF);
+                }
+            }
+            msb += delta;
+            ids.add(msb, lsb);
+        }
+    }
+
+    /**
+     * Decodes the hashes directly as hex strings
+     */
+    static void decode(byte[] bytes, Collection<String> hashes)
+    {
+        Ids ids = new Ids();
+        decode(bytes, ids);
+        for(int i = 0; i < ids.size(); i++)
+        {
+            hashes.add(toHex(ids.msb(i), ids.lsb(i)));
+        }
+    }
+
+    static String toHex(long msb, long lsb)
+    {
+        char[] chars = new char[32];
+        for(int i = 0; i < 16; i++)
+        {
+            chars[15 - i] = HEX[(int)(msb >>> (4 * i)) & 0xF];
+            chars[31 - i] = HEX[(int)(lsb >>> (4 * i)) & 0xF];
+        }
+        return new String(chars);
+    }
+
+    static int writeVarLong(byte[] bytes, int position, long value)
+    {
+        while((value & ~0x7FL) != 0)
+        {
+            bytes[position++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[position++] = (byte)value;
+        return position;
+    }
+
+    static long readVarLong(byte[] bytes, int[] position)
+    {
+        long value = 0;
+        for(int shift = 0; shift < 70; shift += 7)
+        {
+            int b = bytes[position[0]++] & 0xFF;
+            value |= (long)(b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in neighbor block");
+    }
+}
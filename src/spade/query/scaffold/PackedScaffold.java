@@ -0,0 +1,492 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.scaffold;
+
+import static spade.core.AbstractStorage.DIRECTION_ANCESTORS;
+import static spade.core.AbstractStorage.DIRECTION_DESCENDANTS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.core.AbstractEdge;
+import spade.core.HashHelper;
+
+/**
+ * Scaffold for key-value stores which keeps the neighbors of a vertex as packed blocks (see NeighborBlock).
+ *
+ * Keys are binary:
+ * <16 byte vertex hash><direction byte> -> <total chunks varint><compacted chunks varint>
+ *     (<run chunks varint><run hashes varint>)*
+ * <16 byte vertex hash><direction byte><4 byte chunk number> -> neighbor block
+ *
+ * Inserted edges are buffered and each flush appends one new chunk per touched vertex instead of rewriting
+ * the whole neighbor list. After MAX_UNCOMPACTED_CHUNKS appends the uncompacted chunks are merged into a
+ * sorted run without duplicates. The compacted chunks are a list of such runs, oldest first. A new run is
+ * merged with the previous runs only while they are less than twice its size (size-tiered) so a hub vertex
+ * is not rewritten in full on every merge. Duplicates can remain across runs and are removed on read.
+ * Buffered edges are flushed before every read.
+ */
+public abstract class PackedScaffold extends Scaffold
+{
+    private static final Logger logger = Logger.getLogger(PackedScaffold.class.getName());
+
+    private static final byte DIRECTION_CHILDREN = 'c';
+    private static final byte DIRECTION_PARENTS = 'p';
+    private static final int MAX_UNCOMPACTED_CHUNKS = 16;
+    private static final int MAX_HASHES_PER_COMPACTED_CHUNK = 4096;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Pending> pendingChildren = new HashMap<>();
+    private final Map<String, Pending> pendingParents = new HashMap<>();
+    private volatile int pendingEdges = 0;
+    private long lastFlushMillis = System.currentTimeMillis();
+
+    private static final class Pending
+    {
+        private final long msb;
+        private final long lsb;
+        private final NeighborBlock.Ids neighbors = new NeighborBlock.Ids();
+
+        private Pending(HashHelper.BigHash hash)
+        {
+            this.msb = hash.mostSignificantBits;
+            this.lsb = hash.leastSignificantBits;
+        }
+    }
+
+    /**
+     * @return value or null if the key does not exist
+     */
+    protected abstract byte[] get(byte[] key) throws Exception;
+
+    /**
+     * Writes all the entries atomically if supported by the store.
+     *
+     * @param keys keys to write
+     * @param values values for the keys. Null value means delete.
+     */
+    protected abstract void write(List<byte[]> keys, List<byte[]> values) throws Exception;
+
+    @Override
+    protected void globalTxCheckin(boolean forcedFlush)
+    {
+        lock.writeLock().lock();
+        try
+        {
+            flushIfNeeded(forcedFlush);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Must be called with the write lock held
+     */
+    private void flushIfNeeded(boolean forcedFlush)
+    {
+        if(pendingEdges > 0 && (forcedFlush || pendingEdges >= GLOBAL_TX_SIZE
+                || System.currentTimeMillis() - lastFlushMillis >= MAX_WAIT_TIME_BEFORE_FLUSH))
+        {
+            try
+            {
+                flush();
+            }
+            catch(Exception ex)
+            {
+                logger.log(Level.SEVERE, "Error flushing scaffold entries!", ex);
+            }
+        }
+    }
+
+    /**
+     * This function inserts hashes of the end vertices of given edge
+     * into the scaffold storage.
+     *
+     * @param incomingEdge edge whose end points to insert into the storage
+     * @return returns true if the insertion is successful.
+     */
+    @Override
+    public boolean insertEntry(AbstractEdge incomingEdge)
+    {
+        HashHelper.BigHash childHash, parentHash;
+        try
+        {
+            childHash = getChildHash(incomingEdge);
+            parentHash = getParentHash(incomingEdge);
+        }
+        catch(Exception ex)
+        {
+            logger.log(Level.SEVERE, "Invalid edge end point hashes!", ex);
+            return false;
+        }
+        lock.writeLock().lock();
+        try
+        {
+            addPending(pendingParents, childHash, parentHash);
+            addPending(pendingChildren, parentHash, childHash);
+            pendingEdges++;
+            flushIfNeeded(false);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+        return true;
+    }
+
+    private static void addPending(Map<String, Pending> pending, HashHelper.BigHash vertex, HashHelper.BigHash neighbor)
+    {
+        Pending entry = pending.get(vertex.hexString);
+        if(entry == null)
+        {
+            entry = new Pending(vertex);
+            pending.put(vertex.hexString, entry);
+        }
+        entry.neighbors.add(neighbor.mostSignificantBits, neighbor.leastSignificantBits);
+    }
+
+    /**
+     * Must be called with the write lock held
+     */
+    private void flush() throws Exception
+    {
+        List<byte[]> keys = new ArrayList<>();
+        List<byte[]> values = new ArrayList<>();
+        for(Pending entry : pendingChildren.values())
+        {
+            append(entry, DIRECTION_CHILDREN, keys, values);
+        }
+        for(Pending entry : pendingParents.values())
+        {
+            append(entry, DIRECTION_PARENTS, keys, values);
+        }
+        write(keys, values);
+        pendingChildren.clear();
+        pendingParents.clear();
+        pendingEdges = 0;
+        lastFlushMillis = System.currentTimeMillis();
+    }
+
+    private void append(Pending entry, byte direction, List<byte[]> keys, List<byte[]> values) throws Exception
+    {
+        byte[] headKey = key(entry.msb, entry.lsb, direction, -1);
+        byte[] head = get(headKey);
+        int totalChunks = 0, compactedChunks = 0;
+        // Chunk count and hash count of each compacted run, oldest first
+        List<int[]> runs = new ArrayList<>();
+        if(head != null)
+        {
+            int[] position = new int[]{0};
+            totalChunks = (int)NeighborBlock.readVarLong(head, position);
+            compactedChunks = (int)NeighborBlock.readVarLong(head, position);
+            while(position[0] < head.length)
+            {
+                int runChunks = (int)NeighborBlock.readVarLong(head, position);
+                int runHashes = (int)NeighborBlock.readVarLong(head, position);
+                runs.add(new int[]{runChunks, runHashes});
+            }
+        }
+
+        NeighborBlock.Ids neighbors = entry.neighbors;
+        if(totalChunks - compactedChunks + 1 >= MAX_UNCOMPACTED_CHUNKS)
+        {
+            // Merge the uncompacted chunks into a new run
+            for(int chunk = compactedChunks; chunk < totalChunks; chunk++)
+            {
+                readChunk(entry, direction, chunk, neighbors);
+            }
+            neighbors.sortAndDeduplicate();
+            // Size-tiered. Merge with the previous runs while they are less than twice as large so that
+            // the run sizes at least double towards the oldest and each hash is rewritten O(log n) times.
+            int firstChunk = compactedChunks;
+            while(!runs.isEmpty() && runs.get(runs.size() - 1)[1] < 2 * neighbors.size())
+            {
+                int[] run = runs.remove(runs.size() - 1);
+                firstChunk -= run[0];
+                for(int chunk = firstChunk; chunk < firstChunk + run[0]; chunk++)
+                {
+                    readChunk(entry, direction, chunk, neighbors);
+                }
+                neighbors.sortAndDeduplicate();
+            }
+            int newTotalChunks = firstChunk;
+            for(int from = 0; from < neighbors.size(); from += MAX_HASHES_PER_COMPACTED_CHUNK)
+            {
+                int to = Math.min(neighbors.size(), from + MAX_HASHES_PER_COMPACTED_CHUNK);
+                keys.add(key(entry.msb, entry.lsb, direction, newTotalChunks++));
+                values.add(NeighborBlock.encode(neighbors, from, to));
+            }
+            for(int chunk = newTotalChunks; chunk < totalChunks; chunk++)
+            {
+                keys.add(key(entry.msb, entry.lsb, direction, chunk));
+                values.add(null);
+            }
+            runs.add(new int[]{newTotalChunks - firstChunk, neighbors.size()});
+            totalChunks = newTotalChunks;
+            compactedChunks = newTotalChunks;
+        }
+        else
+        {
+            neighbors.sortAndDeduplicate();
+            keys.add(key(entry.msb, entry.lsb, direction, totalChunks++));
+            values.add(NeighborBlock.encode(neighbors, 0, neighbors.size()));
+        }
+
+        byte[] newHead = new byte[10 * (2 + 2 * runs.size())];
+        int length = NeighborBlock.writeVarLong(newHead, 0, totalChunks);
+        length = NeighborBlock.writeVarLong(newHead, length, compactedChunks);
+        for(int[] run : runs)
+        {
+            length = NeighborBlock.writeVarLong(newHead, length, run[0]);
+            length = NeighborBlock.writeVarLong(newHead, length, run[1]);
+        }
+        keys.add(headKey);
+        values.add(Arrays.copyOf(newHead, length));
+    }
+
+    private void readChunk(Pending entry, byte direction, int chunk, NeighborBlock.Ids neighbors) throws Exception
+    {
+        byte[] block = get(key(entry.msb, entry.lsb, direction, chunk));
+        if(block != null)
+        {
+            NeighborBlock.decode(block, neighbors);
+        }
+    }
+
+    /**
+     * @param chunk negative for the head key
+     */
+    private static byte[] key(long msb, long lsb, byte direction, int chunk)
+    {
+        byte[] key = new byte[chunk < 0 ? 17 : 21];
+        for(int i = 0; i < 8; i++)
+        {
+            key[i] = (byte)(msb >>> (56 - 8 * i));
+            key[8 + i] = (byte)(lsb >>> (56 - 8 * i));
+        }
+        key[16] = direction;
+        if(chunk >= 0)
+        {
+            key[17] = (byte)(chunk >>> 24);
+            key[18] = (byte)(chunk >>> 16);
+            key[19] = (byte)(chunk >>> 8);
+            key[20] = (byte)chunk;
+        }
+        return key;
+    }
+
+    /**
+     * Flushes buffered edges so that reads see them. Returns with the read lock held.
+     */
+    private void lockForRead()
+    {
+        if(pendingEdges == 0)
+        {
+            lock.readLock().lock();
+            return;
+        }
+        lock.writeLock().lock();
+        try
+        {
+            flushIfNeeded(true);
+        }
+        finally
+        {
+            // Downgrade
+            lock.readLock().lock();
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Decodes all chunks of the vertex into the given set. Must be called with the read lock held.
+     *
+     * @return false if the vertex has no entry for the direction
+     */
+    private boolean readNeighbors(HashHelper.BigHash hash, byte direction, Set<String> neighbors) throws Exception
+    {
+        long msb = hash.mostSignificantBits, lsb = hash.leastSignificantBits;
+        byte[] head = get(key(msb, lsb, direction, -1));
+        if(head == null)
+        {
+            return false;
+        }
+        int totalChunks = (int)NeighborBlock.readVarLong(head, new int[]{0});
+        for(int chunk = 0; chunk < totalChunks; chunk++)
+        {
+            byte[] block = get(key(msb, lsb, direction, chunk));
+            if(block != null)
+            {
+                NeighborBlock.decode(block, neighbors);
+            }
+        }
+        return true;
+    }
+
+    private Set<String> getNeighbors(String hash, byte direction)
+    {
+        lockForRead();
+        try
+        {
+            Set<String> neighbors = new HashSet<>();
+            return readNeighbors(HashHelper.defaultInstance.hexStringToBigHash(hash), direction, neighbors)
+                    ? neighbors : null;
+        }
+        catch(Exception ex)
+        {
+            logger.log(Level.SEVERE, "Scaffold get neighbors error!", ex);
+            return null;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<String> getChildren(String parentHash)
+    {
+        return getNeighbors(parentHash, DIRECTION_CHILDREN);
+    }
+
+    @Override
+    public Set<String> getParents(String childHash)
+    {
+        return getNeighbors(childHash, DIRECTION_PARENTS);
+    }
+
+    @Override
+    public Set<String> getNeighbors(String hash)
+    {
+        Set<String> neighbors = new HashSet<>();
+        Set<String> children = getChildren(hash);
+        if(children != null)
+        {
+            neighbors.addAll(children);
+        }
+        Set<String> parents = getParents(hash);
+        if(parents != null)
+        {
+            neighbors.addAll(parents);
+        }
+        return neighbors;
+    }
+
+    /**
+     * Breadth first from the given vertex. Each level is read block by block and only unvisited vertices
+     * go into the next level.
+     *
+     * @return map of each visited vertex to its neighbors in the direction, or null on error
+     */
+    @Override
+    public Map<String, Set<String>> getLineage(String hash, String direction, int maxDepth)
+    {
+        byte directionByte;
+        if(DIRECTION_ANCESTORS.startsWith(direction.toLowerCase()))
+        {
+            directionByte = DIRECTION_PARENTS;
+        }
+        else if(DIRECTION_DESCENDANTS.startsWith(direction.toLowerCase()))
+        {
+            directionByte = DIRECTION_CHILDREN;
+        }
+        else
+        {
+            logger.log(Level.SEVERE, "Invalid direction: " + direction);
+            return null;
+        }
+
+        lockForRead();
+        try
+        {
+            Map<String, Set<String>> lineageMap = new HashMap<>();
+            Set<String> visitedVertices = new HashSet<>();
+            List<String> currentLevel = new ArrayList<>();
+            currentLevel.add(hash);
+            visitedVertices.add(hash);
+            int currentDepth = 0;
+            while(!currentLevel.isEmpty() && currentDepth < maxDepth)
+            {
+                List<String> nextLevel = new ArrayList<>();
+                for(String currentHash : currentLevel)
+                {
+                    Set<String> neighbors = new HashSet<>();
+                    if(readNeighbors(HashHelper.defaultInstance.hexStringToBigHash(currentHash), directionByte, neighbors))
+                    {
+                        lineageMap.put(currentHash, neighbors);
+                        for(String neighbor : neighbors)
+                        {
+                            if(visitedVertices.add(neighbor))
+                            {
+                                nextLevel.add(neighbor);
+                            }
+                        }
+                    }
+                }
+                currentLevel = nextLevel;
+                currentDepth++;
+            }
+            return lineageMap;
+        }
+        catch(Exception ex)
+        {
+            logger.log(Level.SEVERE, "Scaffold Get Lineage error!", ex);
+            return null;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return vertices which are both ancestors of the source and descendants of the destination,
+     * with their neighbors in both directions
+     */
+    @Override
+    public Map<String, Set<String>> getPaths(String source_hash, String destination_hash, int maxLength)
+    {
+        Map<String, Set<String>> lineageUp = getLineage(source_hash, DIRECTION_ANCESTORS, maxLength);
+        Map<String, Set<String>> lineageDown = getLineage(destination_hash, DIRECTION_DESCENDANTS, maxLength);
+        if(lineageUp == null || lineageDown == null)
+        {
+            return null;
+        }
+        Map<String, Set<String>> paths = new HashMap<>();
+        for(Map.Entry<String, Set<String>> entry : lineageUp.entrySet())
+        {
+            Set<String> down = lineageDown.get(entry.getKey());
+            if(down != null)
+            {
+                Set<String> pathEntry = new HashSet<>(entry.getValue());
+                pathEntry.addAll(down);
+                paths.put(entry.getKey(), pathEntry);
+            }
+        }
+        return paths;
+    }
+}
@@ -20,6 +20,7 @@ import spade.core.AbstractEdge;
 import spade.core.AbstractVertex;
 import spade.core.Edge;
 import spade.core.Graph;
+import spade.core.HashHelper;
 import spade.core.Vertex;
 
 import java.util.Date;
@@ -27,6 +28,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import static spade.core.AbstractStorage.CHILD_VERTEX_KEY;
+import static spade.core.AbstractStorage.PARENT_VERTEX_KEY;
+
 
 /**
  * @author raza
@@ -86,6 +90,26 @@ public abstract class Scaffold
 
     public abstract Graph queryManager(Map<String, List<String>> params);
 
+    /**
+     * @return hash of the child vertex. The CHILD_VERTEX_KEY annotation is used if present.
+     */
+    protected static HashHelper.BigHash getChildHash(AbstractEdge edge)
+    {
+        String childKey = edge.getAnnotation(CHILD_VERTEX_KEY);
+        return childKey != null ? HashHelper.defaultInstance.hexStringToBigHash(childKey)
+                : edge.getChildVertex().getBigHash();
+    }
+
+    /**
+     * @return hash of the parent vertex. The PARENT_VERTEX_KEY annotation is used if present.
+     */
+    protected static HashHelper.BigHash getParentHash(AbstractEdge edge)
+    {
+        String parentKey = edge.getAnnotation(PARENT_VERTEX_KEY);
+        return parentKey != null ? HashHelper.defaultInstance.hexStringToBigHash(parentKey)
+                : edge.getParentVertex().getBigHash();
+    }
+
     public static void main(String args[])
     {
         // testing code
@@ -21,16 +21,35 @@ package spade.reporter;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
+import java.io.InputStream;
 import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
 import spade.core.AbstractEdge;
 import spade.core.AbstractReporter;
 import spade.core.AbstractVertex;
@@ -72,7 +91,11 @@ public class JSON extends AbstractReporter{
 	
 	//
 	
-	private static final String keyInput = "input", keyReportingIntervalSeconds = "reportingIntervalSeconds";
+	private static final String keyInput = "input", keyReportingIntervalSeconds = "reportingIntervalSeconds",
+			keyParallelism = "parallelism", keyChunkSize = "chunkSize";
+
+	private static final int defaultParallelism = 1;
+	private static final long defaultChunkSize = 4 * 1024 * 1024;
 
 	private String inputFilePath = null;
 	private Long reportingIntervalMillis = null;
@@ -82,6 +105,10 @@ public class JSON extends AbstractReporter{
 	private boolean isLaunched = false;
 	private boolean closeReaderOnShutdown = true;
 	private boolean logAll = true;
+
+	// Parallel mode is only used when reading from a file path with parallelism > 1
+	private int parallelism = defaultParallelism;
+	private int chunkSize = (int)defaultChunkSize;
 	
 	///////////////////////////////////////////////////////
 	
@@ -202,13 +229,36 @@ public class JSON extends AbstractReporter{
 
 		final String inputFilePathString = map.remove(keyInput);
 		final String reportingIntervalSecondsString = map.remove(keyReportingIntervalSeconds);
+		final String parallelismString = map.remove(keyParallelism);
+		final String chunkSizeString = map.remove(keyChunkSize);
+
+		if(!HelperFunctions.isNullOrEmpty(parallelismString)){
+			final Result<Long> parallelismResult = HelperFunctions.parseLong(parallelismString, 10, 1, 1024);
+			if(parallelismResult.error){
+				log(Level.SEVERE, "Invalid value for '" + keyParallelism + "': '" + parallelismString + "'. "
+						+ parallelismResult.errorMessage);
+				return false;
+			}
+			this.parallelism = parallelismResult.result.intValue();
+		}
+
+		if(!HelperFunctions.isNullOrEmpty(chunkSizeString)){
+			final Result<Long> chunkSizeResult = HelperFunctions.parseBytes(chunkSizeString, 1024, 1024 * 1024 * 1024);
+			if(chunkSizeResult.error){
+				log(Level.SEVERE, "Invalid value for '" + keyChunkSize + "': '" + chunkSizeString + "'. "
+						+ chunkSizeResult.errorMessage);
+				return false;
+			}
+			this.chunkSize = chunkSizeResult.result.intValue();
+		}
 		
 		try{
 			final boolean blocking = false;
 			final boolean closeReaderOnShutdown = true;
 			final boolean logAll = true;
 			launch(inputFilePathString, reportingIntervalSecondsString, blocking, closeReaderOnShutdown, logAll);
-			log(Level.INFO, "Arguments ["+keyInput+"="+inputFilePathString+", "+keyReportingIntervalSeconds+"="+reportingIntervalSecondsString+"]");
+			log(Level.INFO, "Arguments ["+keyInput+"="+inputFilePathString+", "+keyReportingIntervalSeconds+"="+reportingIntervalSecondsString
+					+", "+keyParallelism+"="+parallelism+", "+keyChunkSize+"="+chunkSize+"]");
 
 			if(!map.isEmpty()){
 				log(Level.INFO, "Unused key-value pairs in the arguments and/or config file: " + map);
@@ -245,14 +295,20 @@ public class JSON extends AbstractReporter{
 			throw new Exception("Reporter already launched");
 		}
 
+		this.inputFilePath = validateInputFilePath;
+		this.reportingIntervalMillis = reportingIntervalSeconds * 1000L;
+		if(this.reportingIntervalMillis > 0){
+			this.reportingEnabled = true;
+		}
+		
+		if(this.parallelism > 1){
+			// Input is read as bytes by the parallel main thread
+			launchParallelUnsafe(blocking, logAll);
+			return;
+		}
+
 		BufferedReader reader = null;
 		try{
-			this.inputFilePath = validateInputFilePath;
-			this.reportingIntervalMillis = reportingIntervalSeconds * 1000L;
-			if(this.reportingIntervalMillis > 0){
-				this.reportingEnabled = true;
-			}
-			
 			reader = new BufferedReader(new FileReader(new File(this.inputFilePath)));
 		}catch(Exception e){
 			throw new Exception("Failed to create input file reader for file: '" + validateInputFilePath + "'", e);
@@ -316,6 +372,392 @@ public class JSON extends AbstractReporter{
 		}
 	}
 	
+	private final void launchParallelUnsafe(final boolean blocking, final boolean logAll) throws Exception{
+		this.closeReaderOnShutdown = true;
+		this.logAll = logAll;
+
+		try{
+			final Thread thread = new Thread(parallelMain, this.getClass().getSimpleName() + "-reporter-thread");
+			thread.start();
+
+			this.isLaunched = true;
+
+		}catch(Exception e){
+			shutdown();
+			throw new Exception("Failed to start main thread", e);
+		}
+
+		if(blocking){
+			// Wait for the thread to stop on its own
+			while(!mainStopped){
+				HelperFunctions.sleepSafe(100);
+			}
+		}
+	}
+
+	/*
+	 * Reads the input file in chunks of complete top-level JSON objects, parses the chunks on a worker pool
+	 * and puts the parsed elements into the buffer in the same order as in the file. Keeping the file order
+	 * keeps vertices ahead of the edges that reference them.
+	 */
+	private final Runnable parallelMain = new Runnable(){
+		@Override
+		public void run(){
+			final AtomicInteger workerCount = new AtomicInteger(0);
+			final ExecutorService executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory(){
+				@Override
+				public Thread newThread(final Runnable runnable){
+					final Thread thread = new Thread(runnable,
+							JSON.this.getClass().getSimpleName() + "-parser-thread-" + workerCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			final JsonFactory jsonFactory = new JsonFactory();
+			// Bound the number of parsed chunks held in memory
+			final int maxPendingChunks = parallelism * 2;
+			final LinkedList<Future<ParsedChunk>> pendingChunks = new LinkedList<Future<ParsedChunk>>();
+			InputStream inputStream = null;
+			try{
+				mainRunning = true;
+
+				lastReportedAtMillis = System.currentTimeMillis();
+
+				try{
+					inputStream = new FileInputStream(new File(inputFilePath));
+				}catch(Exception e){
+					log(Level.SEVERE, "Failed to open input file for reading: '" + inputFilePath + "'", e);
+					return;
+				}
+
+				final ChunkSplitter chunkSplitter = new ChunkSplitter(inputStream, chunkSize);
+				boolean stop = false;
+				while(!stop && !isShutdown()){
+					final ChunkSplitter.Chunk chunk;
+					try{
+						chunk = chunkSplitter.next();
+					}catch(Exception e){
+						log(Level.SEVERE, "Failed to read JSON input", e);
+						break;
+					}
+					if(chunk == null){ // end of input
+						break;
+					}
+					pendingChunks.addLast(executor.submit(new ChunkParser(jsonFactory, chunk.bytes, chunk.length)));
+					while(!stop && pendingChunks.size() >= maxPendingChunks){
+						stop = !putParsedChunk(pendingChunks.removeFirst());
+					}
+				}
+				while(!stop && !isShutdown() && !pendingChunks.isEmpty()){
+					stop = !putParsedChunk(pendingChunks.removeFirst());
+				}
+			}finally{
+				executor.shutdownNow();
+				if(inputStream != null){
+					try{
+						inputStream.close();
+					}catch(Exception e){
+						log(Level.WARNING, "Failed to close input file", e);
+					}
+				}
+				mainRunning = false;
+				log(Level.INFO, "Exited main thread");
+				mainStopped = true;
+			}
+		}
+	};
+
+	/*
+	 * Returns false if the reporter must stop reading the input
+	 */
+	private final boolean putParsedChunk(final Future<ParsedChunk> future){
+		final ParsedChunk parsedChunk;
+		try{
+			parsedChunk = future.get();
+		}catch(Exception e){
+			log(Level.SEVERE, "Failed to parse JSON chunk", e);
+			return false;
+		}
+		for(final Object element : parsedChunk.elements){
+			if(isShutdown()){
+				return false;
+			}
+			printStats(false);
+			if(element instanceof AbstractVertex){
+				vertexCountIncrement();
+				putVertexToBuffer((AbstractVertex)element);
+			}else{
+				edgeCountIncrement();
+				putEdgeToBuffer((AbstractEdge)element);
+			}
+		}
+		if(parsedChunk.errorMessage != null){
+			log(Level.SEVERE, parsedChunk.errorMessage, parsedChunk.exception);
+			return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Cuts the input at the end of the last complete top-level object in each read.
+	 * Top-level array brackets and commas are blanked out so that both newline-delimited
+	 * objects and an array of objects end up as a plain sequence of root-level objects.
+	 */
+	private static final class ChunkSplitter{
+		private static final class Chunk{
+			private final byte[] bytes;
+			private final int length;
+			private Chunk(final byte[] bytes, final int length){
+				this.bytes = bytes;
+				this.length = length;
+			}
+		}
+
+		private final InputStream inputStream;
+		private final int chunkSize;
+
+		private byte[] buffer;
+		private int filled = 0;
+		private int scanned = 0;
+		private int lastBoundary = 0;
+		private boolean endOfInput = false;
+
+		private int depth = 0;
+		private boolean inString = false;
+		private boolean escaped = false;
+
+		private ChunkSplitter(final InputStream inputStream, final int chunkSize){
+			this.inputStream = inputStream;
+			this.chunkSize = chunkSize;
+			this.buffer = new byte[chunkSize];
+		}
+
+		private final Chunk next() throws Exception{
+			while(true){
+				if(lastBoundary > 0 && (filled == buffer.length || endOfInput)){
+					return cut(lastBoundary);
+				}
+				if(endOfInput){
+					if(!inString && depth == 0 && isBlank(0, filled)){
+						return null;
+					}
+					// Incomplete trailing object. Handed to the parser to report the error.
+					final Chunk chunk = new Chunk(buffer, filled);
+					buffer = new byte[0];
+					filled = scanned = lastBoundary = 0;
+					depth = 0;
+					inString = escaped = false;
+					return chunk;
+				}
+				if(filled == buffer.length){
+					// A single object larger than the buffer
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				}
+				final int read = inputStream.read(buffer, filled, buffer.length - filled);
+				if(read < 0){
+					endOfInput = true;
+				}else{
+					filled += read;
+					scan();
+				}
+			}
+		}
+
+		private final Chunk cut(final int boundary){
+			final byte[] remainingBuffer = new byte[Math.max(chunkSize, filled - boundary)];
+			final int remaining = filled - boundary;
+			System.arraycopy(buffer, boundary, remainingBuffer, 0, remaining);
+			final Chunk chunk = new Chunk(buffer, boundary);
+			buffer = remainingBuffer;
+			filled = remaining;
+			scanned -= boundary;
+			lastBoundary = 0;
+			return chunk;
+		}
+
+		private final void scan(){
+			final byte[] buffer = this.buffer;
+			for(int i = scanned; i < filled; i++){
+				final byte b = buffer[i];
+				if(inString){
+					if(escaped){
+						escaped = false;
+					}else if(b == '\\'){
+						escaped = true;
+					}else if(b == '"'){
+						inString = false;
+					}
+				}else if(b == '"'){
+					inString = true;
+				}else if(depth == 0){
+					if(b == '{'){
+						depth++;
+					}else if(b == '[' || b == ']' || b == ','){
+						buffer[i] = ' ';
+					}
+				}else if(b == '{' || b == '['){
+					depth++;
+				}else if(b == '}' || b == ']'){
+					if(--depth == 0){
+						lastBoundary = i + 1;
+					}
+				}
+			}
+			scanned = filled;
+		}
+
+		private final boolean isBlank(final int from, final int to){
+			for(int i = from; i < to; i++){
+				final byte b = buffer[i];
+				if(b != ' ' && b != '\n' && b != '\r' && b != '\t'){
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static final class ParsedChunk{
+		// Instances of AbstractVertex and AbstractEdge in the input order
+		private final List<Object> elements = new ArrayList<Object>();
+		private String errorMessage = null;
+		private Exception exception = null;
+	}
+
+	private final class ChunkParser implements Callable<ParsedChunk>{
+		private final JsonFactory jsonFactory;
+		private final byte[] bytes;
+		private final int length;
+
+		private ChunkParser(final JsonFactory jsonFactory, final byte[] bytes, final int length){
+			this.jsonFactory = jsonFactory;
+			this.bytes = bytes;
+			this.length = length;
+		}
+
+		@Override
+		public ParsedChunk call(){
+			final ParsedChunk parsedChunk = new ParsedChunk();
+			JsonParser parser = null;
+			try{
+				parser = jsonFactory.createParser(bytes, 0, length);
+				JsonToken token;
+				while((token = parser.nextToken()) != null){
+					if(token != JsonToken.START_OBJECT){
+						parsedChunk.errorMessage = "Unexpected JSON element '" + parser.getText() + "'. Expected JSON object";
+						break;
+					}
+					final Object element = parseObject(parser);
+					if(element != null){
+						parsedChunk.elements.add(element);
+					}
+				}
+			}catch(Exception e){
+				parsedChunk.errorMessage = "Failed to read JSON object";
+				parsedChunk.exception = e;
+			}finally{
+				if(parser != null){
+					try{
+						parser.close();
+					}catch(Exception e){
+						// ignore
+					}
+				}
+			}
+			return parsedChunk;
+		}
+
+		private final Object parseObject(final JsonParser parser) throws Exception{
+			final int startOffset = (int)parser.getTokenLocation().getByteOffset();
+			String idString = null, typeString = null, fromIdString = null, toIdString = null;
+			Map<String, String> annotationsMap = null;
+			while(parser.nextToken() != JsonToken.END_OBJECT){
+				final String fieldName = parser.getCurrentName();
+				final JsonToken valueToken = parser.nextToken();
+				if(AbstractVertex.annotationsKey.equals(fieldName)){
+					annotationsMap = valueToken == JsonToken.START_OBJECT ? parseAnnotations(parser) : null;
+					if(annotationsMap == null){
+						parser.skipChildren();
+					}
+				}else if(valueToken == JsonToken.START_OBJECT || valueToken == JsonToken.START_ARRAY){
+					parser.skipChildren();
+				}else if(valueToken != JsonToken.VALUE_NULL){
+					if(AbstractVertex.typeKey.equals(fieldName)){
+						typeString = parser.getText();
+					}else if(AbstractVertex.idKey.equals(fieldName)){
+						idString = parser.getText();
+					}else if(AbstractEdge.fromIdKey.equals(fieldName)){
+						fromIdString = parser.getText();
+					}else if(AbstractEdge.toIdKey.equals(fieldName)){
+						toIdString = parser.getText();
+					}
+				}
+			}
+			final int endOffset = (int)parser.getCurrentLocation().getByteOffset();
+
+			if(AbstractVertex.isVertexType(typeString)){
+				if(HelperFunctions.isNullOrEmpty(idString)){
+					log(Level.WARNING, "NULL/Empty vertex 'id' in JSON object: " + getText(startOffset, endOffset));
+					return null;
+				}
+				if(annotationsMap == null){
+					log(Level.WARNING, "Failed to get/parse vertex 'annotations' map in JSON object: " + getText(startOffset, endOffset));
+					return null;
+				}
+				annotationsMap.put(AbstractVertex.typeKey, typeString);
+				final Vertex vertex = new Vertex(idString);
+				vertex.addAnnotations(annotationsMap);
+				return vertex;
+			}else if(AbstractEdge.isEdgeType(typeString)){
+				if(HelperFunctions.isNullOrEmpty(fromIdString)){
+					log(Level.WARNING, "NULL/Empty edge 'from' id in JSON object: " + getText(startOffset, endOffset));
+					return null;
+				}
+				if(HelperFunctions.isNullOrEmpty(toIdString)){
+					log(Level.WARNING, "NULL/Empty edge 'to' id in JSON object: " + getText(startOffset, endOffset));
+					return null;
+				}
+				if(annotationsMap == null){
+					log(Level.WARNING, "Failed to get/parse edge 'annotations' map in JSON object: " + getText(startOffset, endOffset));
+					return null;
+				}
+				annotationsMap.put(AbstractEdge.typeKey, typeString);
+				final AbstractEdge edge = new Edge(new Vertex(fromIdString), new Vertex(toIdString));
+				edge.addAnnotations(annotationsMap);
+				return edge;
+			}else{
+				log(Level.WARNING, "Unhandled 'type' in JSON object: " + getText(startOffset, endOffset));
+				return null;
+			}
+		}
+
+		private final Map<String, String> parseAnnotations(final JsonParser parser) throws Exception{
+			final Map<String, String> annotationsMap = new HashMap<String, String>();
+			while(parser.nextToken() != JsonToken.END_OBJECT){
+				final String key = parser.getCurrentName();
+				final JsonToken valueToken = parser.nextToken();
+				if(valueToken == JsonToken.START_OBJECT || valueToken == JsonToken.START_ARRAY){
+					// Nested values are kept as compact JSON text
+					final StringWriter writer = new StringWriter();
+					final JsonGenerator generator = jsonFactory.createGenerator(writer);
+					generator.copyCurrentStructure(parser);
+					generator.close();
+					annotationsMap.put(key, writer.toString());
+				}else if(valueToken == JsonToken.VALUE_NUMBER_FLOAT){
+					// Same text as the sequential mode
+					annotationsMap.put(key, String.valueOf(parser.getDoubleValue()));
+				}else{
+					annotationsMap.put(key, parser.getText());
+				}
+			}
+			return annotationsMap;
+		}
+
+		private final String getText(final int startOffset, final int endOffset){
+			return new String(bytes, startOffset, endOffset - startOffset, StandardCharsets.UTF_8);
+		}
+	}
+	
 	@Override
 	public final boolean shutdown(){
 		if(!isShutdown()){
@@ -30,6 +30,15 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,6 +54,10 @@ import spade.utility.HelperFunctions;
  * Assumes that the all of the records for an event are received 
  * contiguously and are not spread out.
  * 
+ * If 'parserThreads' is greater than 0 in the config then the stream is read on a separate thread
+ * and the records of events are parsed in batches by a pool of threads. The parsed batches are
+ * returned in the order of the stream.
+ * 
  */
 public class AuditEventReader{
 
@@ -171,12 +184,13 @@ public class AuditEventReader{
 	private boolean reportingEnabled = false;
 	private long reportEveryMs;
 	private long startTime, lastReportedTime;
-	private long lastReportedRecordCount, recordCount;
+	private long lastReportedRecordCount;
+	private volatile long recordCount;
 
 	/**
 	 * Buffers all the records for the current event being read
 	 */
-	private final Set<AuditRecord> currentEventRecords = new HashSet<AuditRecord>();
+	private Set<AuditRecord> currentEventRecords = new HashSet<AuditRecord>();
 
 	/**
 	 * Keeps track of the current event id being buffered
@@ -204,6 +218,43 @@ public class AuditEventReader{
 	 */
 	private boolean EOF = false;
 
+	private static final int EVENTS_PER_PARSE_TASK = 256;
+	/**
+	 * Number of threads to parse events with. 0 means that the events are parsed by the thread calling readEventData.
+	 */
+	private int parserThreads = 0;
+	private ExecutorService parserExecutor = null;
+	private Thread streamReaderThread = null;
+	/**
+	 * Parse tasks in the order of the events in the stream. A null batch marks the end of the stream.
+	 */
+	private BlockingQueue<Future<List<ParsedEvent>>> parsedEventBatches = null;
+	/**
+	 * Events read but not submitted for parsing yet. Only accessed by the stream reader thread.
+	 */
+	private List<ParsedEvent> pendingEventBatch = null;
+	/**
+	 * Parsed events being returned. Only accessed by the thread calling readEventData.
+	 */
+	private List<ParsedEvent> currentEventBatch = null;
+	private int currentEventBatchIndex = 0;
+	private boolean parsedEOF = false;
+	private volatile boolean closed = false;
+
+	/**
+	 * Records of an event which are replaced by either the event map or the error after parsing
+	 */
+	private static final class ParsedEvent{
+		private Set<AuditRecord> records;
+		private Map<String, String> eventMap;
+		private Exception error;
+
+		private ParsedEvent(final Set<AuditRecord> records, final Exception error){
+			this.records = records;
+			this.error = error;
+		}
+	}
+
 	/**
 	 * Create instance of the class that reads from the given stream
 	 * 
@@ -241,6 +292,14 @@ public class AuditEventReader{
 							recordCount = lastReportedRecordCount = 0;
 						}
 					}
+					Integer parserThreads = HelperFunctions.parseInt(properties.get("parserThreads"), null);
+					if(parserThreads != null){
+						if(parserThreads < 0){
+							logger.log(Level.WARNING, "Invalid 'parserThreads': " + parserThreads + ". Parsing on the calling thread");
+						}else{
+							this.parserThreads = parserThreads;
+						}
+					}
 				}
 			}
 		}catch(Exception e){
@@ -286,12 +345,12 @@ public class AuditEventReader{
 		if(reportingEnabled){
 			printStats();
 		}
-		if(outputLogWriter != null){
-			try{
-				outputLogWriter.close();
-			}catch(Exception e){
-				logger.log(Level.SEVERE, "Failed to close output log writer", e);
-			}
+		closed = true;
+		if(parserExecutor != null){
+			parserExecutor.shutdownNow();
+		}
+		if(streamReaderThread != null){
+			streamReaderThread.interrupt();
 		}
 		if(stream != null){
 			try{
@@ -300,6 +359,21 @@ public class AuditEventReader{
 				logger.log(Level.SEVERE, "Failed to close the stream '"+streamId+"'", e);
 			}
 		}
+		if(streamReaderThread != null){
+			try{
+				// The output log is written by the reader thread
+				streamReaderThread.join(1000);
+			}catch(InterruptedException e){
+				// Ignore
+			}
+		}
+		if(outputLogWriter != null){
+			try{
+				outputLogWriter.close();
+			}catch(Exception e){
+				logger.log(Level.SEVERE, "Failed to close output log writer", e);
+			}
+		}
 	}
 
 	private void printStats(){
@@ -324,8 +398,24 @@ public class AuditEventReader{
 			}
 		}
 
+		if(parserThreads > 0){
+			return readParsedEventData();
+		}
+
+		final Set<AuditRecord> auditRecords = readEventRecords();
+		if(auditRecords == null){
+			return null;
+		}
+		return convertAuditRecordsToEventMap(auditRecords);
+	}
+
+	/**
+	 * @return Records of the next event or null on EOF
+	 * @throws Exception MalformedAuditDataException for a malformed record or IOException
+	 */
+	private final Set<AuditRecord> readEventRecords() throws Exception{
 		while(!EOF){
-			final String line = stream.readLine();
+			final String line = readLine();
 			if(line == null){
 				EOF = true;
 				break;
@@ -356,14 +446,13 @@ public class AuditEventReader{
 				currentEventRecords.add(record);
 				continue;
 			}else{
-				final Set<AuditRecord> auditRecordsToFlush = new HashSet<AuditRecord>();
-				auditRecordsToFlush.addAll(currentEventRecords);
+				final Set<AuditRecord> auditRecordsToFlush = currentEventRecords;
 
-				currentEventRecords.clear();
+				currentEventRecords = new HashSet<AuditRecord>();
 				currentEventRecords.add(record);
 				currentEventIdString = record.id;
 
-				return convertAuditRecordsToEventMap(auditRecordsToFlush);
+				return auditRecordsToFlush;
 			}
 		}
 
@@ -371,12 +460,129 @@ public class AuditEventReader{
 			return null;
 		}
 
-		final Set<AuditRecord> auditRecordsToFlush = new HashSet<AuditRecord>();
-		auditRecordsToFlush.addAll(currentEventRecords);
+		final Set<AuditRecord> auditRecordsToFlush = currentEventRecords;
 
-		currentEventRecords.clear();
+		currentEventRecords = new HashSet<AuditRecord>();
+
+		return auditRecordsToFlush;
+	}
+
+	private final String readLine() throws Exception{
+		// Don't hold back read events while blocked on the stream
+		if(pendingEventBatch != null && !pendingEventBatch.isEmpty() && !stream.ready()){
+			submitPendingEventBatch();
+		}
+		return stream.readLine();
+	}
 
-		return convertAuditRecordsToEventMap(auditRecordsToFlush);
+	private final Map<String, String> readParsedEventData() throws Exception{
+		if(parsedEventBatches == null){
+			startParsers();
+		}
+		while(true){
+			if(currentEventBatch != null){
+				if(currentEventBatchIndex < currentEventBatch.size()){
+					final ParsedEvent parsedEvent = currentEventBatch.get(currentEventBatchIndex++);
+					if(parsedEvent.error != null){
+						throw parsedEvent.error;
+					}
+					return parsedEvent.eventMap;
+				}
+				currentEventBatch = null;
+			}
+			if(parsedEOF){
+				return null;
+			}
+			final List<ParsedEvent> batch = parsedEventBatches.take().get();
+			if(batch == null){
+				parsedEOF = true;
+				return null;
+			}
+			currentEventBatch = batch;
+			currentEventBatchIndex = 0;
+		}
+	}
+
+	private final void startParsers(){
+		final AtomicInteger parserThreadCount = new AtomicInteger(0);
+		parserExecutor = Executors.newFixedThreadPool(parserThreads, new ThreadFactory(){
+			@Override
+			public Thread newThread(final Runnable runnable){
+				final Thread thread = new Thread(runnable, "Audit-Event-Parser-Thread-" + parserThreadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		// Bounded to limit the events held in memory
+		parsedEventBatches = new ArrayBlockingQueue<Future<List<ParsedEvent>>>(parserThreads * 2);
+		pendingEventBatch = new ArrayList<ParsedEvent>(EVENTS_PER_PARSE_TASK);
+		streamReaderThread = new Thread(new Runnable(){
+			@Override
+			public void run(){
+				try{
+					while(!closed){
+						try{
+							final Set<AuditRecord> auditRecords = readEventRecords();
+							if(auditRecords == null){
+								break;
+							}
+							addToPendingEventBatch(new ParsedEvent(auditRecords, null));
+						}catch(MalformedAuditDataException made){
+							addToPendingEventBatch(new ParsedEvent(null, made));
+						}catch(InterruptedException ie){
+							throw ie;
+						}catch(Exception e){
+							if(!closed){
+								addToPendingEventBatch(new ParsedEvent(null, e));
+							}
+							break;
+						}
+					}
+					submitPendingEventBatch();
+					parsedEventBatches.put(CompletableFuture.completedFuture((List<ParsedEvent>)null));
+				}catch(InterruptedException ie){
+					// Closed
+				}catch(Exception e){
+					if(!closed){
+						logger.log(Level.SEVERE, "Failed to submit events for parsing", e);
+					}
+				}
+			}
+		}, "Audit-Event-Reader-Thread");
+		streamReaderThread.setDaemon(true);
+		streamReaderThread.start();
+	}
+
+	private final void addToPendingEventBatch(final ParsedEvent parsedEvent) throws InterruptedException{
+		pendingEventBatch.add(parsedEvent);
+		if(pendingEventBatch.size() >= EVENTS_PER_PARSE_TASK){
+			submitPendingEventBatch();
+		}
+	}
+
+	private final void submitPendingEventBatch() throws InterruptedException{
+		if(pendingEventBatch.isEmpty()){
+			return;
+		}
+		final List<ParsedEvent> batch = pendingEventBatch;
+		pendingEventBatch = new ArrayList<ParsedEvent>(EVENTS_PER_PARSE_TASK);
+		final Future<List<ParsedEvent>> parsedBatch = parserExecutor.submit(new Callable<List<ParsedEvent>>(){
+			@Override
+			public List<ParsedEvent> call(){
+				for(final ParsedEvent parsedEvent : batch){
+					if(parsedEvent.records != null){
+						try{
+							parsedEvent.eventMap = convertAuditRecordsToEventMap(parsedEvent.records);
+						}catch(Exception e){
+							parsedEvent.error = e;
+						}
+						parsedEvent.records = null;
+					}
+				}
+				return batch;
+			}
+		});
+		parsedEventBatches.put(parsedBatch);
 	}
 
 	private final Map<String, String> convertAuditRecordsToEventMap(final Set<AuditRecord> auditRecords)
@@ -19,17 +19,15 @@
  */
 package spade.reporter.audit;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
-import java.sql.Statement;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -72,23 +70,6 @@ public class NetfilterHooksManager{
 
 	////////////////////////////////////////////
 
-	private PreparedStatement 
-			__syscall_statement_0 = null, __syscall_statement_1 = null, __syscall_statement_2 = null,
-			__syscall_statement_3 = null, __syscall_statement_4 = null, __syscall_statement_5 = null,
-			__localout_statement_0 = null, __localout_statement_1 = null, __localout_statement_2 = null,
-			__localout_statement_3 = null, __localout_statement_4 = null,
-			__postroute_statement_0 = null, __postroute_statement_1 = null, __postroute_statement_2 = null,
-			__postroute_statement_3 = null,
-			__preroute_statement_0 = null, __preroute_statement_1 = null, __preroute_statement_2 = null,
-			__localin_statement_0 = null, __localin_statement_1 = null, __localin_statement_2 = null, 
-			__localin_statement_3 = null, __localin_statement_4 = null;
-
-	private final Map<String, PreparedStatement> __delete_row_by_id_statements = new HashMap<String, PreparedStatement>();
-	private final Map<String, PreparedStatement> __delete_expired_statements = new HashMap<String, PreparedStatement>();
-	private final Map<String, PreparedStatement> __delete_min_statements = new HashMap<String, PreparedStatement>();
-
-	////////////////////////////////////////////
-
 	private final Map<String, Long> statsMap = new HashMap<String, Long>();
 
 	private final boolean debug;
@@ -96,11 +77,8 @@ public class NetfilterHooksManager{
 
 	private final boolean namespaces;
 	private final Audit reporter;
-	private final Connection connection;
 
-	private final Map<String, Long> perTableTtlMillis = new HashMap<String, Long>();
-	private final Map<String, Long> perTableMaxCounts = new HashMap<String, Long>();
-	private final Map<String, Long> perTableCurrentCounts = new HashMap<String, Long>();
+	private final Table syscallTable, localOutTable, postRoutingTable, localInTable, preRoutingTable;
 
 	public NetfilterHooksManager(final Audit reporter, final boolean namespaces) throws Exception{
 		this.namespaces = namespaces;
@@ -166,32 +144,12 @@ public class NetfilterHooksManager{
 				+ ""+keySyscallEntryTtlMillis+"="+syscallEntryTtlMillis
 				+"]");
 
-		this.connection = DriverManager.getConnection("jdbc:h2:mem:");
-		sqlCreateLocalInTable();
-		sqlCreateLocalOutTable();
-		sqlCreatePostRoutingTable();
-		sqlCreatePreRoutingTable();
-		sqlCreateSyscallTable();
-		
-		initializePreparedStatements();
-
-		perTableCurrentCounts.put(sqlGetLocalInTableName(), 0L);
-		perTableCurrentCounts.put(sqlGetLocalOutTableName(), 0L);
-		perTableCurrentCounts.put(sqlGetPostRoutingTableName(), 0L);
-		perTableCurrentCounts.put(sqlGetPreRoutingTableName(), 0L);
-		perTableCurrentCounts.put(sqlGetSyscallTableName(), 0L);
-
-		perTableMaxCounts.put(sqlGetLocalInTableName(), maxPerHookEntries);
-		perTableMaxCounts.put(sqlGetLocalOutTableName(), maxPerHookEntries);
-		perTableMaxCounts.put(sqlGetPostRoutingTableName(), maxPerHookEntries);
-		perTableMaxCounts.put(sqlGetPreRoutingTableName(), maxPerHookEntries);
-		perTableMaxCounts.put(sqlGetSyscallTableName(), maxSyscallEntries);
-
-		perTableTtlMillis.put(sqlGetLocalInTableName(), hookEntryTtlMillis);
-		perTableTtlMillis.put(sqlGetLocalOutTableName(), hookEntryTtlMillis);
-		perTableTtlMillis.put(sqlGetPostRoutingTableName(), hookEntryTtlMillis);
-		perTableTtlMillis.put(sqlGetPreRoutingTableName(), hookEntryTtlMillis);
-		perTableTtlMillis.put(sqlGetSyscallTableName(), syscallEntryTtlMillis);
+		// Syscall and local-out entries are looked up by the first addresses, local-in entries by the last addresses
+		this.syscallTable = new Table("SPADE_SYSCALL", maxSyscallEntries, syscallEntryTtlMillis, true, false);
+		this.localOutTable = new Table("SPADE_LOCAL_OUT", maxPerHookEntries, hookEntryTtlMillis, true, false);
+		this.postRoutingTable = new Table("SPADE_POST_ROUTING", maxPerHookEntries, hookEntryTtlMillis, false, false);
+		this.localInTable = new Table("SPADE_LOCAL_IN", maxPerHookEntries, hookEntryTtlMillis, false, true);
+		this.preRoutingTable = new Table("SPADE_PRE_ROUTING", maxPerHookEntries, hookEntryTtlMillis, false, false);
 	}
 
 	private final void incrementStats(String statId, long incrementBy){
@@ -202,17 +160,17 @@ public class NetfilterHooksManager{
 	}
 
 	public final synchronized void printStats(){
+		final Map<String, Long> perTableCurrentCounts = new HashMap<String, Long>();
+		for(final Table table : Arrays.asList(localInTable, localOutTable, postRoutingTable, preRoutingTable, syscallTable)){
+			perTableCurrentCounts.put(table.name, table.size);
+		}
 		logger.log(Level.INFO, "Netfilter entries: " + perTableCurrentCounts + "]");
 		logger.log(Level.INFO, "NetfilterStats[" + statsMap + "]");
 	}
 
 	public synchronized final void shutdown(){
-		if(this.connection != null){
-			try{
-				this.connection.close();
-			}catch(Exception e){
-				logger.log(Level.WARNING, "Failed to close database connection", e);
-			}
+		for(final Table table : Arrays.asList(localInTable, localOutTable, postRoutingTable, preRoutingTable, syscallTable)){
+			table.clear();
 		}
 	}
 
@@ -232,11 +190,27 @@ public class NetfilterHooksManager{
 		return String.format("%.3f", eventTimeDouble);
 	}
 
-	private final boolean areTheFirstAndTheLastAddressesTheSame(Map<String, Object> row){
-		return HelperFunctions.objectsEqual(row.get(sqlColumnNameRemoteIp), row.get(sqlColumnNameRemoteIpLast))
-				&& HelperFunctions.objectsEqual(row.get(sqlColumnNameRemotePort), row.get(sqlColumnNameRemotePortLast))
-				&& HelperFunctions.objectsEqual(row.get(sqlColumnNameLocalIp), row.get(sqlColumnNameLocalIpLast))
-				&& HelperFunctions.objectsEqual(row.get(sqlColumnNameLocalPort), row.get(sqlColumnNameLocalPortLast));
+	private final boolean areTheFirstAndTheLastAddressesTheSame(Entry entry){
+		return HelperFunctions.objectsEqual(entry.remoteIp, entry.remoteIpLast)
+				&& HelperFunctions.objectsEqual(entry.remotePort, entry.remotePortLast)
+				&& HelperFunctions.objectsEqual(entry.localIp, entry.localIpLast)
+				&& HelperFunctions.objectsEqual(entry.localPort, entry.localPortLast);
+	}
+
+	private final boolean areTheFirstAddressesTheSame(Entry entry, final String remoteIp, final String remotePort,
+			final String localIp, final String localPort){
+		return HelperFunctions.objectsEqual(entry.remoteIp, remoteIp)
+				&& HelperFunctions.objectsEqual(entry.remotePort, remotePort)
+				&& HelperFunctions.objectsEqual(entry.localIp, localIp)
+				&& HelperFunctions.objectsEqual(entry.localPort, localPort);
+	}
+
+	private final boolean areTheLastAddressesTheSame(Entry entry, final String remoteIpLast, final String remotePortLast,
+			final String localIpLast, final String localPortLast){
+		return HelperFunctions.objectsEqual(entry.remoteIpLast, remoteIpLast)
+				&& HelperFunctions.objectsEqual(entry.remotePortLast, remotePortLast)
+				&& HelperFunctions.objectsEqual(entry.localIpLast, localIpLast)
+				&& HelperFunctions.objectsEqual(entry.localPortLast, localPortLast);
 	}
 
 	private final Artifact __createNetworkArtifact(final Object netNs, final Object protocol, final Object remoteIp,
@@ -263,11 +237,11 @@ public class NetfilterHooksManager{
 				OPMConstants.SOURCE_AUDIT_NETFILTER);
 	}
 
-	private final Artifact createSyscallNetworkArtifact(final Map<String, Object> syscallTableRow){
-		return __createNetworkArtifact(syscallTableRow.get(sqlColumnNameNetns), syscallTableRow.get(sqlColumnNameProtocol), 
-				syscallTableRow.get(sqlColumnNameRemoteIp), syscallTableRow.get(sqlColumnNameRemotePort), 
-				syscallTableRow.get(sqlColumnNameLocalIp), syscallTableRow.get(sqlColumnNameLocalPort), 
-				syscallTableRow.get(sqlColumnNameEpoch), syscallTableRow.get(sqlColumnNameVersion), 
+	private final Artifact createSyscallNetworkArtifact(final Entry syscallEntry){
+		return __createNetworkArtifact(syscallEntry.netNs, syscallEntry.protocol, 
+				syscallEntry.remoteIp, syscallEntry.remotePort, 
+				syscallEntry.localIp, syscallEntry.localPort, 
+				syscallEntry.epoch, syscallEntry.version, 
 				OPMConstants.SOURCE_AUDIT_SYSCALL);
 	}
 
@@ -278,8 +252,8 @@ public class NetfilterHooksManager{
 		}
 	}
 
-	private final void putNetfilterWasDerivedFromEdge(final Artifact from, final Artifact to, Map<String, Object> row){
-		putNetfilterWasDerivedFromEdge(from, to, sqlGetEventTime(row), row.get(sqlColumnNameEventId));
+	private final void putNetfilterWasDerivedFromEdge(final Artifact from, final Artifact to, Entry entry){
+		putNetfilterWasDerivedFromEdge(from, to, entry.eventTime, entry.eventId);
 	}
 
 	private final void putNetfilterWasDerivedFromEdge(final Artifact from, final Artifact to, final long eventTime, final Object eventId){
@@ -294,477 +268,284 @@ public class NetfilterHooksManager{
 		}
 	}
 
-	private final void sqlInsertSyscallTable(final long eventTime, final String eventId,
-			final String version, final String epoch, final String netNs, final String protocol,
-			final String remoteIp, final String remotePort, final String localIp, final String localPort,
-			final boolean ingress) throws Exception{
-		sm_syscallEventInsertSyscall(eventTime, eventId, version, epoch, netNs, protocol, remoteIp, remotePort, localIp, localPort, ingress);
-	}
+	////// lookups and updates on the correlation tables
 
-	////// function calls to implement new storage of data
-
-	private final List<Map<String, Object>> sm_syscallEventFindLocalOut(final boolean isFirst, final String netNs,
-			final String protocol, final String remoteIp, final String remotePort, final String localIp, final String localPort) 
-					throws Exception{
-		//__syscall_statement_0
-		__syscall_statement_0.setBoolean(1, isFirst); 
-		__syscall_statement_0.setString(2, netNs); 
-		__syscall_statement_0.setString(3, protocol); 
-		__syscall_statement_0.setString(4, remoteIp); 
-		__syscall_statement_0.setString(5, remotePort); 
-		__syscall_statement_0.setString(6, localIp);
-		__syscall_statement_0.setString(7, localPort);
-		return sqlGetResult(__syscall_statement_0);
+	private final Entry sm_syscallEventFindLocalOut(final boolean isFirst, final String netNs,
+			final String protocol, final String remoteIp, final String remotePort, final String localIp, final String localPort){
+		for(final Entry entry : localOutTable.getByAddresses(netNs, protocol, remoteIp, remotePort, localIp, localPort)){
+			if(entry.isFirst == isFirst){
+				return entry;
+			}
+		}
+		return null;
 	}
 
-	private final List<Map<String, Object>> sm_syscallEventFindPostRouting(final boolean isFirst, final Object skbId, 
-			final Object protocol, final Object remoteIp, final Object remotePort, final Object localIp, final Object localPort)
-					throws Exception{
-		//__syscall_statement_1
-		__syscall_statement_1.setBoolean(1, isFirst);
-		__syscall_statement_1.setObject(2, skbId);
-		__syscall_statement_1.setObject(3, protocol);
-		__syscall_statement_1.setObject(4, remoteIp);
-		__syscall_statement_1.setObject(5, remotePort);
-		__syscall_statement_1.setObject(6, localIp);
-		__syscall_statement_1.setObject(7, localPort);
-		return sqlGetResult(__syscall_statement_1);
+	private final Entry sm_syscallEventFindPostRouting(final boolean isFirst, final String skbId, 
+			final String protocol, final String remoteIp, final String remotePort, final String localIp, final String localPort){
+		for(final Entry entry : postRoutingTable.getBySkbId(skbId)){
+			if(entry.isFirst == isFirst && HelperFunctions.objectsEqual(entry.protocol, protocol)
+					&& areTheFirstAddressesTheSame(entry, remoteIp, remotePort, localIp, localPort)){
+				return entry;
+			}
+		}
+		return null;
 	}
 
 	private final void sm_syscallEventUpdateLocalOut(final String version, final String epoch, 
-			final boolean updatedBySyscall, final long rowId) throws Exception{
-		//__syscall_statement_2
-		__syscall_statement_2.setString(1, version);
-		__syscall_statement_2.setString(2, epoch); 
-		__syscall_statement_2.setBoolean(3, updatedBySyscall);
-		__syscall_statement_2.setLong(4, rowId);
-		sqlUpdate(sqlGetLocalOutTableName(), __syscall_statement_2);
+			final boolean updatedBySyscall, final Entry entry){
+		entry.version = version;
+		entry.epoch = epoch;
+		entry.updatedBySyscall = updatedBySyscall;
 	}
 
-	private final List<Map<String, Object>> sm_syscallEventFindLocalIn(final boolean isFirst, final String netNs, final String protocol,
-			final String remoteIpLast, final String remotePortLast, final String localIpLast, final String localPortLast)
-					throws Exception{
-		//__syscall_statement_3
-		__syscall_statement_3.setBoolean(1, isFirst);
-		__syscall_statement_3.setString(2, netNs);
-		__syscall_statement_3.setString(3, protocol); 
-		__syscall_statement_3.setString(4, remoteIpLast);
-		__syscall_statement_3.setString(5, remotePortLast);
-		__syscall_statement_3.setString(6, localIpLast);
-		__syscall_statement_3.setString(7, localPortLast);
-		return sqlGetResult(__syscall_statement_3);
+	private final Entry sm_syscallEventFindLocalIn(final boolean isFirst, final String netNs, final String protocol,
+			final String remoteIpLast, final String remotePortLast, final String localIpLast, final String localPortLast){
+		for(final Entry entry : localInTable.getByAddresses(netNs, protocol, remoteIpLast, remotePortLast, localIpLast, localPortLast)){
+			if(entry.isFirst == isFirst){
+				return entry;
+			}
+		}
+		return null;
 	}
 
-	private final List<Map<String, Object>> sm_syscallEventFindPreRouting(final boolean isFirst, final Object skbId, final Object protocol,
-			final Object remoteIpLast, final Object remotePortLast, final Object localIpLast, final Object localPortLast)
-				throws Exception{
-		//__syscall_statement_4
-		__syscall_statement_4.setBoolean(1, isFirst);
-		__syscall_statement_4.setObject(2, skbId); 
-		__syscall_statement_4.setObject(3, protocol);
-		__syscall_statement_4.setObject(4, remoteIpLast);
-		__syscall_statement_4.setObject(5, remotePortLast);
-		__syscall_statement_4.setObject(6, localIpLast);
-		__syscall_statement_4.setObject(7, localPortLast);
-		return sqlGetResult(__syscall_statement_4);
+	private final Entry sm_syscallEventFindPreRouting(final boolean isFirst, final String skbId, final String protocol,
+			final String remoteIpLast, final String remotePortLast, final String localIpLast, final String localPortLast){
+		for(final Entry entry : preRoutingTable.getBySkbId(skbId)){
+			if(entry.isFirst == isFirst && HelperFunctions.objectsEqual(entry.protocol, protocol)
+					&& areTheLastAddressesTheSame(entry, remoteIpLast, remotePortLast, localIpLast, localPortLast)){
+				return entry;
+			}
+		}
+		return null;
 	}
 
 	private final void sm_syscallEventInsertSyscall(final long eventTime, final String eventId, final String version,
 			final String epoch, final String netNs, final String protocol, final String remoteIp, final String remotePort,
-			final String localIp, final String localPort, final boolean isIngress) throws Exception{
-		//__syscall_statement_5
-		__syscall_statement_5.setLong(1, eventTime);
-		__syscall_statement_5.setString(2, eventId);
-		__syscall_statement_5.setString(3, version);
-		__syscall_statement_5.setString(4, epoch);
-		__syscall_statement_5.setString(5, netNs);
-		__syscall_statement_5.setString(6, protocol);
-		__syscall_statement_5.setString(7, remoteIp);
-		__syscall_statement_5.setString(8, remotePort);
-		__syscall_statement_5.setString(9, localIp);
-		__syscall_statement_5.setString(10, localPort);
-		__syscall_statement_5.setBoolean(11, isIngress);
-		sqlInsert(sqlGetSyscallTableName(), eventTime, __syscall_statement_5);
+			final String localIp, final String localPort, final boolean isIngress){
+		final Entry entry = new Entry();
+		entry.eventTime = eventTime;
+		entry.eventId = eventId;
+		entry.version = version;
+		entry.epoch = epoch;
+		entry.netNs = netNs;
+		entry.protocol = protocol;
+		entry.remoteIp = remoteIp;
+		entry.remotePort = remotePort;
+		entry.localIp = localIp;
+		entry.localPort = localPort;
+		entry.isIngress = isIngress;
+		syscallTable.insert(entry);
 	}
 
 	//////
 
 	private final void sm_localOutEventInsertLocalOut(final long eventTime, final String eventId,
 			final String netNs, final String protocol, final String remoteIp, final String remotePort,
-			final String localIp, final String localPort, final String skbId, final boolean isFirst, final boolean updatedBySyscall)
-				throws Exception{
-		//__localout_statement_0
-		__localout_statement_0.setLong(1, eventTime);
-		__localout_statement_0.setString(2, eventId);
-		__localout_statement_0.setString(3, netNs);
-		__localout_statement_0.setString(4, protocol);
-		__localout_statement_0.setString(5, remoteIp);
-		__localout_statement_0.setString(6, remotePort);
-		__localout_statement_0.setString(7, localIp);
-		__localout_statement_0.setString(8, localPort);
-		__localout_statement_0.setString(9, skbId);
-		__localout_statement_0.setBoolean(10, isFirst);
-		__localout_statement_0.setBoolean(11, updatedBySyscall);
-		sqlInsert(sqlGetLocalOutTableName(), eventTime, __localout_statement_0);
+			final String localIp, final String localPort, final String skbId, final boolean isFirst, final boolean updatedBySyscall){
+		final Entry entry = new Entry();
+		entry.eventTime = eventTime;
+		entry.eventId = eventId;
+		entry.netNs = netNs;
+		entry.protocol = protocol;
+		entry.remoteIp = remoteIp;
+		entry.remotePort = remotePort;
+		entry.localIp = localIp;
+		entry.localPort = localPort;
+		entry.skbId = skbId;
+		entry.isFirst = isFirst;
+		entry.updatedBySyscall = updatedBySyscall;
+		localOutTable.insert(entry);
 	}
 
-	private final List<Map<String, Object>> sm_localOutEventFindLocalOut(final String skbId, final boolean isFirst, final String protocol)
-		throws Exception{
-		//__localout_statement_1
-		__localout_statement_1.setString(1, skbId);
-		__localout_statement_1.setBoolean(2, isFirst);
-		__localout_statement_1.setString(3, protocol);
-		return sqlGetResult(__localout_statement_1);
+	private final Entry sm_localOutEventFindLocalOut(final String skbId, final boolean isFirst, final String protocol){
+		return findBySkbId(localOutTable, skbId, isFirst, protocol);
 	}
 
-	private final List<Map<String, Object>> sm_localOutEventFindSyscall(final boolean isIngress, final Object netNs, final Object protocol,
-			final Object remoteIp, final Object remotePort, final Object localIp, final Object localPort) throws Exception{
-		//__localout_statement_2
-		__localout_statement_2.setBoolean(1, isIngress);
-		__localout_statement_2.setObject(2, netNs);
-		__localout_statement_2.setObject(3, protocol);
-		__localout_statement_2.setObject(4, remoteIp);
-		__localout_statement_2.setObject(5, remotePort);
-		__localout_statement_2.setObject(6, localIp);
-		__localout_statement_2.setObject(7, localPort);
-		return sqlGetResult(__localout_statement_2);
+	private final Entry sm_localOutEventFindSyscall(final boolean isIngress, final String netNs, final String protocol,
+			final String remoteIp, final String remotePort, final String localIp, final String localPort){
+		return findSyscall(isIngress, netNs, protocol, remoteIp, remotePort, localIp, localPort);
 	}
 
 	private final void sm_localOutEventUpdateLocalOutByLast(final long eventTime, final String eventId, final String remoteIpLast,
 			final String remotePortLast, final String localIpLast, final String localPortLast, final boolean isFirst,
-			final long rowId) throws Exception{
-		//__localout_statement_3
-		__localout_statement_3.setLong(1, eventTime);
-		__localout_statement_3.setString(2, eventId);
-		__localout_statement_3.setString(3, remoteIpLast);
-		__localout_statement_3.setString(4, remotePortLast);
-		__localout_statement_3.setString(5, localIpLast);
-		__localout_statement_3.setString(6, localPortLast);
-		__localout_statement_3.setBoolean(7, isFirst);
-		__localout_statement_3.setLong(8, rowId);
-		sqlUpdate(sqlGetLocalOutTableName(), __localout_statement_3);
+			final Entry entry){
+		localOutTable.unindex(entry);
+		entry.eventTime = eventTime;
+		entry.eventId = eventId;
+		entry.remoteIpLast = remoteIpLast;
+		entry.remotePortLast = remotePortLast;
+		entry.localIpLast = localIpLast;
+		entry.localPortLast = localPortLast;
+		entry.isFirst = isFirst;
+		localOutTable.index(entry);
 	}
 
 	private final void sm_localOutEventUpdateLocalOutBySyscall(final long eventTime, final String eventId, final String remoteIpLast,
 			final String remotePortLast, final String localIpLast, final String localPortLast, final boolean isFirst,
-			final Object version, final Object epoch, final boolean updatedBySyscall, final long rowId) throws Exception{
-		//__localout_statement_4
-		__localout_statement_4.setLong(1, eventTime);
-		__localout_statement_4.setString(2, eventId);
-		__localout_statement_4.setString(3, remoteIpLast);
-		__localout_statement_4.setString(4, remotePortLast);
-		__localout_statement_4.setString(5, localIpLast);
-		__localout_statement_4.setString(6, localPortLast);
-		__localout_statement_4.setBoolean(7, isFirst);
-		__localout_statement_4.setObject(8, version);
-		__localout_statement_4.setObject(9, epoch);
-		__localout_statement_4.setBoolean(10, updatedBySyscall);
-		__localout_statement_4.setLong(11, rowId);
-		sqlUpdate(sqlGetLocalOutTableName(), __localout_statement_4);
+			final String version, final String epoch, final boolean updatedBySyscall, final Entry entry){
+		sm_localOutEventUpdateLocalOutByLast(eventTime, eventId, remoteIpLast, remotePortLast, localIpLast, localPortLast, 
+				isFirst, entry);
+		entry.version = version;
+		entry.epoch = epoch;
+		entry.updatedBySyscall = updatedBySyscall;
 	}
 
 	//////
 
 	private final void sm_postRoutingEventInsertPostRouting(final long eventTime, final String eventId, final String protocol,
 			final String remoteIp, final String remotePort, final String localIp, final String localPort, final String skbId,
-			final boolean isFirst) throws Exception{
-		//__postroute_statement_0
-		__postroute_statement_0.setLong(1, eventTime);
-		__postroute_statement_0.setString(2, eventId); 
-		__postroute_statement_0.setString(3, protocol);
-		__postroute_statement_0.setString(4, remoteIp);
-		__postroute_statement_0.setString(5, remotePort);
-		__postroute_statement_0.setString(6, localIp);
-		__postroute_statement_0.setString(7, localPort);
-		__postroute_statement_0.setString(8, skbId);
-		__postroute_statement_0.setBoolean(9, isFirst);
-		sqlInsert(sqlGetPostRoutingTableName(), eventTime, __postroute_statement_0);
+			final boolean isFirst){
+		preRoutingOrPostRoutingInsert(postRoutingTable, eventTime, eventId, protocol, remoteIp, remotePort, localIp, localPort, 
+				skbId, isFirst);
 	}
 
-	private final List<Map<String, Object>> sm_postRoutingEventFindPostRouting(final String skbId, final boolean isFirst,
-			final String protocol) throws Exception{
-		//__postroute_statement_1
-		__postroute_statement_1.setString(1, skbId);
-		__postroute_statement_1.setBoolean(2, isFirst);
-		__postroute_statement_1.setString(3, protocol);
-		return sqlGetResult(__postroute_statement_1);
+	private final Entry sm_postRoutingEventFindPostRouting(final String skbId, final boolean isFirst,
+			final String protocol){
+		return findBySkbId(postRoutingTable, skbId, isFirst, protocol);
 	}
 
-	private final List<Map<String, Object>> sm_postRoutingEventFindLocalOut(final String skbId, final boolean isFirst,
-			final boolean updatedBySyscall, final String protocol, final Object remoteIpLast, final Object remotePortLast,
-			final Object localIpLast, final Object localPortLast) throws Exception{
-		//__postroute_statement_2
-		__postroute_statement_2.setString(1, skbId);
-		__postroute_statement_2.setBoolean(2, isFirst);
-		__postroute_statement_2.setBoolean(3, updatedBySyscall);
-		__postroute_statement_2.setString(4, protocol);
-		__postroute_statement_2.setObject(5, remoteIpLast);
-		__postroute_statement_2.setObject(6, remotePortLast);
-		__postroute_statement_2.setObject(7, localIpLast);
-		__postroute_statement_2.setObject(8, localPortLast);
-		return sqlGetResult(__postroute_statement_2);
+	private final Entry sm_postRoutingEventFindLocalOut(final String skbId, final boolean isFirst,
+			final boolean updatedBySyscall, final String protocol, final String remoteIpLast, final String remotePortLast,
+			final String localIpLast, final String localPortLast){
+		for(final Entry entry : localOutTable.getBySkbId(skbId)){
+			if(entry.isFirst == isFirst && entry.updatedBySyscall == updatedBySyscall 
+					&& HelperFunctions.objectsEqual(entry.protocol, protocol)
+					&& areTheLastAddressesTheSame(entry, remoteIpLast, remotePortLast, localIpLast, localPortLast)){
+				return entry;
+			}
+		}
+		return null;
 	}
 
 	private final void sm_postRoutingEventUpdatePostRouting(final long eventTime, final String eventId, final String remoteIpLast,
 			final String remotePortLast, final String localIpLast, final String localPortLast, final boolean isFirst,
-			final long rowId) throws Exception{
-		//__postroute_statement_3
-		__postroute_statement_3.setLong(1, eventTime);
-		__postroute_statement_3.setString(2, eventId);
-		__postroute_statement_3.setString(3, remoteIpLast);
-		__postroute_statement_3.setString(4, remotePortLast);
-		__postroute_statement_3.setString(5, localIpLast);
-		__postroute_statement_3.setString(6, localPortLast);
-		__postroute_statement_3.setBoolean(7, isFirst);
-		__postroute_statement_3.setLong(8, rowId);
-		sqlUpdate(sqlGetPostRoutingTableName(), __postroute_statement_3);
+			final Entry entry){
+		preRoutingOrPostRoutingUpdate(postRoutingTable, eventTime, eventId, remoteIpLast, remotePortLast, localIpLast, localPortLast, 
+				isFirst, entry);
 	}
 
 	//////
 
 	private final void sm_preRoutingEventInsertPreRouting(final long eventTime, final String eventId, final String protocol,
 			final String remoteIp, final String remotePort, final String localIp, final String localPort, final String skbId,
-			final boolean isFirst) throws Exception{
-		//__preroute_statement_0
-		__preroute_statement_0.setLong(1, eventTime);
-		__preroute_statement_0.setString(2, eventId); 
-		__preroute_statement_0.setString(3, protocol);
-		__preroute_statement_0.setString(4, remoteIp);
-		__preroute_statement_0.setString(5, remotePort);
-		__preroute_statement_0.setString(6, localIp);
-		__preroute_statement_0.setString(7, localPort);
-		__preroute_statement_0.setString(8, skbId);
-		__preroute_statement_0.setBoolean(9, isFirst);
-		sqlInsert(sqlGetPreRoutingTableName(), eventTime, __preroute_statement_0);
+			final boolean isFirst){
+		preRoutingOrPostRoutingInsert(preRoutingTable, eventTime, eventId, protocol, remoteIp, remotePort, localIp, localPort, 
+				skbId, isFirst);
 	}
 
-	private final List<Map<String, Object>> sm_preRoutingEventFindPreRoutingBySkb(final String skbId, final boolean isFirst,
-			final String protocol) throws Exception{
-		//__preroute_statement_1
-		__preroute_statement_1.setString(1, skbId);
-		__preroute_statement_1.setBoolean(2, isFirst);
-		__preroute_statement_1.setString(3, protocol);
-		return sqlGetResult(__preroute_statement_1);
+	private final Entry sm_preRoutingEventFindPreRoutingBySkb(final String skbId, final boolean isFirst,
+			final String protocol){
+		return findBySkbId(preRoutingTable, skbId, isFirst, protocol);
 	}
 
 	private final void sm_preRoutingEventUpdatePreRouting(final long eventTime, final String eventId,
 			final String remoteIpLast, final String remotePortLast, final String localIpLast, final String localPortLast,
-			final boolean isFirst, final long rowId) throws Exception{
-		//__preroute_statement_2
-		__preroute_statement_2.setLong(1, eventTime);
-		__preroute_statement_2.setString(2, eventId);
-		__preroute_statement_2.setString(3, remoteIpLast);
-		__preroute_statement_2.setString(4, remotePortLast);
-		__preroute_statement_2.setString(5, localIpLast);
-		__preroute_statement_2.setString(6, localPortLast);
-		__preroute_statement_2.setBoolean(7, isFirst);
-		__preroute_statement_2.setLong(8, rowId);
-		sqlUpdate(sqlGetPostRoutingTableName(), __preroute_statement_2);
+			final boolean isFirst, final Entry entry){
+		preRoutingOrPostRoutingUpdate(preRoutingTable, eventTime, eventId, remoteIpLast, remotePortLast, localIpLast, localPortLast, 
+				isFirst, entry);
 	}
 
 	//////
 
 	private final void sm_localInEventInsertLocalIn(final long eventTime, final String eventId, final String netNs, final String protocol,
 			final String remoteIp, final String remotePort, final String localIp, final String localPort, final String skbId,
-			final boolean isFirst) throws Exception{
-		//__localin_statement_0
-		__localin_statement_0.setLong(1, eventTime);
-		__localin_statement_0.setString(2, eventId);
-		__localin_statement_0.setString(3, netNs);
-		__localin_statement_0.setString(4, protocol);
-		__localin_statement_0.setString(5, remoteIp);
-		__localin_statement_0.setString(6, remotePort);
-		__localin_statement_0.setString(7, localIp);
-		__localin_statement_0.setString(8, localPort);
-		__localin_statement_0.setString(9, skbId);
-		__localin_statement_0.setBoolean(10, isFirst);
-		sqlInsert(sqlGetLocalInTableName(), eventTime, __localin_statement_0);
+			final boolean isFirst){
+		final Entry entry = new Entry();
+		entry.eventTime = eventTime;
+		entry.eventId = eventId;
+		entry.netNs = netNs;
+		entry.protocol = protocol;
+		entry.remoteIp = remoteIp;
+		entry.remotePort = remotePort;
+		entry.localIp = localIp;
+		entry.localPort = localPort;
+		entry.skbId = skbId;
+		entry.isFirst = isFirst;
+		localInTable.insert(entry);
 	}
 
-	private final List<Map<String, Object>> sm_localInEventFindLocalIn(final String skbId, final boolean isFirst, final String protocol)
-		throws Exception{
-		//__localin_statement_1
-		__localin_statement_1.setString(1, skbId);
-		__localin_statement_1.setBoolean(2, isFirst);
-		__localin_statement_1.setString(3, protocol);
-		return sqlGetResult(__localin_statement_1);
+	private final Entry sm_localInEventFindLocalIn(final String skbId, final boolean isFirst, final String protocol){
+		return findBySkbId(localInTable, skbId, isFirst, protocol);
 	}
 
-	private final List<Map<String, Object>> sm_localInEventFindSyscall(final boolean isIngress, final String netNs, final String protocol,
-			final String remoteIp, final String remotePort, final String localIp, final String localPort) throws Exception{
-		//__localin_statement_2
-		__localin_statement_2.setBoolean(1, isIngress);
-		__localin_statement_2.setString(2, netNs);
-		__localin_statement_2.setString(3, protocol);
-		__localin_statement_2.setString(4, remoteIp);
-		__localin_statement_2.setString(5, remotePort);
-		__localin_statement_2.setString(6, localIp);
-		__localin_statement_2.setString(7, localPort);
-		return sqlGetResult(__localin_statement_2);
+	private final Entry sm_localInEventFindSyscall(final boolean isIngress, final String netNs, final String protocol,
+			final String remoteIp, final String remotePort, final String localIp, final String localPort){
+		return findSyscall(isIngress, netNs, protocol, remoteIp, remotePort, localIp, localPort);
 	}
 
 	private final void sm_localInEventUpdateLocalIn(final long eventTime, final String eventId, final String remoteIpLast,
 			final String remotePortLast, final String localIpLast, final String localPortLast, final boolean isFirst,
-			final String netNs, final long rowId) throws Exception{
-		//__localin_statement_3
-		__localin_statement_3.setLong(1, eventTime);
-		__localin_statement_3.setString(2, eventId);
-		__localin_statement_3.setString(3, remoteIpLast);
-		__localin_statement_3.setString(4, remotePortLast);
-		__localin_statement_3.setString(5, localIpLast);
-		__localin_statement_3.setString(6, localPortLast);
-		__localin_statement_3.setBoolean(7, isFirst);
-		__localin_statement_3.setString(8, netNs); 
-		__localin_statement_3.setLong(9, rowId);
-		sqlUpdate(sqlGetLocalInTableName(), __localin_statement_3);
+			final String netNs, final Entry entry){
+		// The last addresses and the netns are part of the address index key of this table
+		localInTable.unindex(entry);
+		entry.eventTime = eventTime;
+		entry.eventId = eventId;
+		entry.remoteIpLast = remoteIpLast;
+		entry.remotePortLast = remotePortLast;
+		entry.localIpLast = localIpLast;
+		entry.localPortLast = localPortLast;
+		entry.isFirst = isFirst;
+		entry.netNs = netNs;
+		localInTable.index(entry);
 	}
 
-	private final List<Map<String, Object>> sm_localInEventFindPreRouting(final String skbId, final boolean isFirst, final String protocol)
-		throws Exception{
-		//__localin_statement_4
-		__localin_statement_4.setString(1, skbId);
-		__localin_statement_4.setBoolean(2, isFirst);
-		__localin_statement_4.setString(3, protocol);
-		return sqlGetResult(__localin_statement_4);
+	private final Entry sm_localInEventFindPreRouting(final String skbId, final boolean isFirst, final String protocol){
+		return findBySkbId(preRoutingTable, skbId, isFirst, protocol);
 	}
 
 	//////
 
-	private final int sm_deleteRowById(final String tableName, final long rowId) throws Exception{
-		PreparedStatement statement = __delete_row_by_id_statements.get(tableName);
-		statement.setLong(1, rowId);
-		return statement.executeUpdate();
+	private final Entry findBySkbId(final Table table, final String skbId, final boolean isFirst, final String protocol){
+		for(final Entry entry : table.getBySkbId(skbId)){
+			if(entry.isFirst == isFirst && HelperFunctions.objectsEqual(entry.protocol, protocol)){
+				return entry;
+			}
+		}
+		return null;
 	}
 
-	private final int sm_deleteExpiredRows(final String tableName, final long olderThanEventTime) throws Exception{
-		final PreparedStatement deleteStatement0 = __delete_expired_statements.get(tableName);
-		deleteStatement0.setLong(1, olderThanEventTime);
-		return deleteStatement0.executeUpdate();
+	private final Entry findSyscall(final boolean isIngress, final String netNs, final String protocol,
+			final String remoteIp, final String remotePort, final String localIp, final String localPort){
+		for(final Entry entry : syscallTable.getByAddresses(netNs, protocol, remoteIp, remotePort, localIp, localPort)){
+			if(entry.isIngress == isIngress){
+				return entry;
+			}
+		}
+		return null;
 	}
 
-	private final int sm_deleteOldestRows(final String tableName) throws Exception{
-		final PreparedStatement deleteStatement1 = __delete_min_statements.get(tableName);
-		return deleteStatement1.executeUpdate();
+	private final void preRoutingOrPostRoutingInsert(final Table table, final long eventTime, final String eventId,
+			final String protocol, final String remoteIp, final String remotePort, final String localIp, final String localPort,
+			final String skbId, final boolean isFirst){
+		final Entry entry = new Entry();
+		entry.eventTime = eventTime;
+		entry.eventId = eventId;
+		entry.protocol = protocol;
+		entry.remoteIp = remoteIp;
+		entry.remotePort = remotePort;
+		entry.localIp = localIp;
+		entry.localPort = localPort;
+		entry.skbId = skbId;
+		entry.isFirst = isFirst;
+		table.insert(entry);
 	}
 
-	////// function calls to implement new storage of data
-
-	private final synchronized void initializePreparedStatements() throws Exception{
-		__syscall_statement_0 = connection.prepareStatement("select * from " + sqlGetLocalOutTableName() + " where"
-				+ " ("+sqlColumnNameIsFirst+"=?) and " + sqlColumnNameNetns + "=? and " + sqlColumnNameProtocol + "=? and "
-				+ sqlColumnNameRemoteIp + "=? and " + sqlColumnNameRemotePort + "=? and " + sqlColumnNameLocalIp + "=? and " 
-				+ sqlColumnNameLocalPort + "=?");
-		__syscall_statement_1 = connection.prepareStatement("select * from " + sqlGetPostRoutingTableName() + " where"
-				+ " ("+sqlColumnNameIsFirst+"=?) and " + sqlColumnNameSkbId + "=? and " + sqlColumnNameProtocol + "=? and "
-				+ sqlColumnNameRemoteIp + "=? and " + sqlColumnNameRemotePort + "=? and " + sqlColumnNameLocalIp + "=? and " 
-				+ sqlColumnNameLocalPort + "=?");
-		__syscall_statement_2 = connection.prepareStatement("update " + sqlGetLocalOutTableName() + " set"
-				+ " " + sqlColumnNameVersion + "=?," + " " + sqlColumnNameEpoch + "=?,"
-				+ " " + sqlColumnNameUpdatedBySyscall + "=?" + " where " + sqlColumnNameRowId + "=?");
-		__syscall_statement_3 = connection.prepareStatement("select * from " + sqlGetLocalInTableName() + " where"
-				+ " ("+sqlColumnNameIsFirst+"=?) and " + sqlColumnNameNetns + "=? and " + sqlColumnNameProtocol + "=? and "
-				+ sqlColumnNameRemoteIpLast + "=? and " + sqlColumnNameRemotePortLast + "=? and " + sqlColumnNameLocalIpLast + "=? and " 
-				+ sqlColumnNameLocalPortLast + "=?");
-		__syscall_statement_4 = connection.prepareStatement("select * from " + sqlGetPreRoutingTableName() + " where "
-				+ "(" + sqlColumnNameIsFirst + "=?) and " + sqlColumnNameSkbId + "=? and " + sqlColumnNameProtocol + "=? and "
-				+ sqlColumnNameRemoteIpLast + "=? and " + sqlColumnNameRemotePortLast + "=? and " + sqlColumnNameLocalIpLast + "=? and "
-				+ sqlColumnNameLocalPortLast + "=?");
-		__syscall_statement_5 = connection.prepareStatement("insert into " + sqlGetSyscallTableName()
-				+ " (" + sqlColumnNameEventTime + ", " + sqlColumnNameEventId + ", " + sqlColumnNameVersion + ", " + sqlColumnNameEpoch
-				+ ", " + sqlColumnNameNetns + ", " + sqlColumnNameProtocol + ", " + sqlColumnNameRemoteIp
-				+ ", " + sqlColumnNameRemotePort + ", " + sqlColumnNameLocalIp + ", " + sqlColumnNameLocalPort
-				+ ", " + sqlColumnNameIsIngress
-				+ ") values (?, ? ,?, ?, ? ,?, ?, ? ,?, ?, ?)");
-		////
-		__localout_statement_0 = connection.prepareStatement("insert into " + sqlGetLocalOutTableName() 
-				+ "(" + sqlColumnNameEventTime + ", " + sqlColumnNameEventId + ", " + sqlColumnNameNetns + ", " + sqlColumnNameProtocol
-				+ ", " + sqlColumnNameRemoteIp + ", " + sqlColumnNameRemotePort + ", " + sqlColumnNameLocalIp + ", " + sqlColumnNameLocalPort
-				+ ", " + sqlColumnNameSkbId + ", " + sqlColumnNameIsFirst + ", " + sqlColumnNameUpdatedBySyscall
-				+ ") values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
-		__localout_statement_1 = connection.prepareStatement("select * from " + sqlGetLocalOutTableName() + " where "
-				+ sqlColumnNameSkbId + "=? and " + sqlColumnNameIsFirst + "=? and " + sqlColumnNameProtocol + "=?");
-		__localout_statement_2 = connection.prepareStatement("select * from " + sqlGetSyscallTableName() + " where "
-				+ sqlColumnNameIsIngress + "=? and " + sqlColumnNameNetns + "=? and " + sqlColumnNameProtocol + "=? and "
-				+ sqlColumnNameRemoteIp + "=? and " + sqlColumnNameRemotePort + "=? and " + sqlColumnNameLocalIp + "=? and "
-				+ sqlColumnNameLocalPort + "=?"
-				);
-		__localout_statement_3 = connection.prepareStatement("update " + sqlGetLocalOutTableName() + " set "
-				+ sqlColumnNameEventTime + "=?, " + sqlColumnNameEventId + "=?, " + sqlColumnNameRemoteIpLast + "=?, "
-				+ sqlColumnNameRemotePortLast + "=?, " + sqlColumnNameLocalIpLast + "=?, " + sqlColumnNameLocalPortLast + "=?, "
-				+ sqlColumnNameIsFirst + "=? where " + sqlColumnNameRowId + "=?");
-		__localout_statement_4 = connection.prepareStatement("update " + sqlGetLocalOutTableName() + " set "
-				+ sqlColumnNameEventTime + "=?, " + sqlColumnNameEventId + "=?, " + sqlColumnNameRemoteIpLast + "=?, "
-				+ sqlColumnNameRemotePortLast + "=?, " + sqlColumnNameLocalIpLast + "=?, " + sqlColumnNameLocalPortLast + "=?, "
-				+ sqlColumnNameIsFirst + "=?, " + sqlColumnNameVersion + "=?, " + sqlColumnNameEpoch + "=?, "
-				+ sqlColumnNameUpdatedBySyscall + "=? where " + sqlColumnNameRowId + "=?");
-		////
-		__postroute_statement_0 = connection.prepareStatement("insert into " + sqlGetPostRoutingTableName()
-				+ "(" + sqlColumnNameEventTime + ", " + sqlColumnNameEventId + ", " + sqlColumnNameProtocol
-				+ ", " + sqlColumnNameRemoteIp + ", " + sqlColumnNameRemotePort + ", " + sqlColumnNameLocalIp + ", " + sqlColumnNameLocalPort
-				+ ", " + sqlColumnNameSkbId + ", " + sqlColumnNameIsFirst
-				+ ") values (?, ?, ?, ?, ?, ?, ?, ?, ?)");
-		__postroute_statement_1 = connection.prepareStatement("select * from " + sqlGetPostRoutingTableName() + " where "
-				+ sqlColumnNameSkbId + "=? and " + sqlColumnNameIsFirst + "=? and " + sqlColumnNameProtocol + "=?");
-		__postroute_statement_2 = connection.prepareStatement("select * from " + sqlGetLocalOutTableName() + " where "
-				+ sqlColumnNameSkbId + "=? and " + sqlColumnNameIsFirst + "=? and " + sqlColumnNameUpdatedBySyscall + "=? and "
-				+ sqlColumnNameProtocol + "=? and " + sqlColumnNameRemoteIpLast + "=? and "
-				+ sqlColumnNameRemotePortLast + "=? and " + sqlColumnNameLocalIpLast + "=? and " + sqlColumnNameLocalPortLast + "=?");
-		__postroute_statement_3 = connection.prepareStatement("update " + sqlGetPostRoutingTableName() + " set "
-				+ sqlColumnNameEventTime + "=?, " + sqlColumnNameEventId + "=?, " + sqlColumnNameRemoteIpLast + "=?, "
-				+ sqlColumnNameRemotePortLast + "=?, " + sqlColumnNameLocalIpLast + "=?, " + sqlColumnNameLocalPortLast + "=?, "
-				+ sqlColumnNameIsFirst + "=? where " + sqlColumnNameRowId + "=?");
-		////
-		__preroute_statement_0 = connection.prepareStatement("insert into " + sqlGetPreRoutingTableName()
-				+ "(" + sqlColumnNameEventTime + ", " + sqlColumnNameEventId + ", " + sqlColumnNameProtocol
-				+ ", " + sqlColumnNameRemoteIp + ", " + sqlColumnNameRemotePort + ", " + sqlColumnNameLocalIp + ", " + sqlColumnNameLocalPort
-				+ ", " + sqlColumnNameSkbId + ", " + sqlColumnNameIsFirst
-				+ ") values (?, ?, ?, ?, ?, ?, ?, ?, ?)");
-		__preroute_statement_1 = connection.prepareStatement("select * from " + sqlGetPreRoutingTableName() + " where "
-				+ sqlColumnNameSkbId + "=? and " + sqlColumnNameIsFirst + "=? and " + sqlColumnNameProtocol + "=?");
-		__preroute_statement_2 = connection.prepareStatement("update " + sqlGetPreRoutingTableName() + " set "
-				+ sqlColumnNameEventTime + "=?, " + sqlColumnNameEventId + "=?, " + sqlColumnNameRemoteIpLast + "=?, "
-				+ sqlColumnNameRemotePortLast + "=?, " + sqlColumnNameLocalIpLast + "=?, " + sqlColumnNameLocalPortLast + "=?, "
-				+ sqlColumnNameIsFirst + "=? where " + sqlColumnNameRowId + "=?");
-		////
-		__localin_statement_0 = connection.prepareStatement("insert into " + sqlGetLocalInTableName()
-				+ "(" + sqlColumnNameEventTime + ", " + sqlColumnNameEventId + ", " + sqlColumnNameNetns + ", " + sqlColumnNameProtocol
-				+ ", " + sqlColumnNameRemoteIp + ", " + sqlColumnNameRemotePort + ", " + sqlColumnNameLocalIp + ", " + sqlColumnNameLocalPort
-				+ ", " + sqlColumnNameSkbId + ", " + sqlColumnNameIsFirst
-				+ ") values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
-		__localin_statement_1 = connection.prepareStatement("select * from " + sqlGetLocalInTableName() + " where "
-				+ sqlColumnNameSkbId + "=? and " + sqlColumnNameIsFirst + "=? and " + sqlColumnNameProtocol + "=?");
-		__localin_statement_2 = connection.prepareStatement("select * from " + sqlGetSyscallTableName() + " where "
-				+ sqlColumnNameIsIngress + "=? and " + sqlColumnNameNetns + "=? and " + sqlColumnNameProtocol + "=? and "
-				+ sqlColumnNameRemoteIp + "=? and " + sqlColumnNameRemotePort + "=? and " + sqlColumnNameLocalIp + "=? and "
-				+ sqlColumnNameLocalPort + "=?");
-		__localin_statement_3 = connection.prepareStatement("update " + sqlGetLocalInTableName() + " set "
-				+ sqlColumnNameEventTime + "=?, " + sqlColumnNameEventId + "=?, " 
-				+ sqlColumnNameRemoteIpLast + "=?, " + sqlColumnNameRemotePortLast + "=?, "
-				+ sqlColumnNameLocalIpLast + "=?, " + sqlColumnNameLocalPortLast + "=?, "
-				+ sqlColumnNameIsFirst + "=?, " + sqlColumnNameNetns + "=? where "
-				+ sqlColumnNameRowId + "=?");
-		__localin_statement_4 = connection.prepareStatement("select * from " + sqlGetPreRoutingTableName() + " where "
-				+ sqlColumnNameSkbId + "=? and " + sqlColumnNameIsFirst + "=? and " + sqlColumnNameProtocol + "=?");
-		////
-		__delete_row_by_id_statements.put(sqlGetSyscallTableName(), connection.prepareStatement("delete from " + sqlGetSyscallTableName() + " where " + sqlColumnNameRowId + "=?"));
-		__delete_row_by_id_statements.put(sqlGetLocalOutTableName(), connection.prepareStatement("delete from " + sqlGetLocalOutTableName() + " where " + sqlColumnNameRowId + "=?"));
-		__delete_row_by_id_statements.put(sqlGetLocalInTableName(), connection.prepareStatement("delete from " + sqlGetLocalInTableName() + " where " + sqlColumnNameRowId + "=?"));
-		__delete_row_by_id_statements.put(sqlGetPostRoutingTableName(), connection.prepareStatement("delete from " + sqlGetPostRoutingTableName() + " where " + sqlColumnNameRowId + "=?"));
-		__delete_row_by_id_statements.put(sqlGetPreRoutingTableName(), connection.prepareStatement("delete from " + sqlGetPreRoutingTableName() + " where " + sqlColumnNameRowId + "=?"));
-		////
-		__delete_expired_statements.put(sqlGetSyscallTableName(), connection.prepareStatement("delete from "+ sqlGetSyscallTableName() + " where " + sqlColumnNameEventTime + " < ?"));
-		__delete_expired_statements.put(sqlGetLocalOutTableName(), connection.prepareStatement("delete from "+ sqlGetLocalOutTableName() + " where " + sqlColumnNameEventTime + " < ?"));
-		__delete_expired_statements.put(sqlGetLocalInTableName(), connection.prepareStatement("delete from "+ sqlGetLocalInTableName() + " where " + sqlColumnNameEventTime + " < ?"));
-		__delete_expired_statements.put(sqlGetPostRoutingTableName(), connection.prepareStatement("delete from "+ sqlGetPostRoutingTableName() + " where " + sqlColumnNameEventTime + " < ?"));
-		__delete_expired_statements.put(sqlGetPreRoutingTableName(), connection.prepareStatement("delete from "+ sqlGetPreRoutingTableName() + " where " + sqlColumnNameEventTime + " < ?"));
-		////
-		__delete_min_statements.put(sqlGetSyscallTableName(), connection.prepareStatement("delete from "+ sqlGetSyscallTableName() + " where " + sqlColumnNameEventTime + " in (select min("+sqlColumnNameEventTime+") from "+sqlGetSyscallTableName()+")"));
-		__delete_min_statements.put(sqlGetLocalOutTableName(), connection.prepareStatement("delete from "+ sqlGetLocalOutTableName() + " where " + sqlColumnNameEventTime + " in (select min("+sqlColumnNameEventTime+") from "+sqlGetLocalOutTableName()+")"));
-		__delete_min_statements.put(sqlGetLocalInTableName(), connection.prepareStatement("delete from "+ sqlGetLocalInTableName() + " where " + sqlColumnNameEventTime + " in (select min("+sqlColumnNameEventTime+") from "+sqlGetLocalInTableName()+")"));
-		__delete_min_statements.put(sqlGetPostRoutingTableName(), connection.prepareStatement("delete from "+ sqlGetPostRoutingTableName() + " where " + sqlColumnNameEventTime + " in (select min("+sqlColumnNameEventTime+") from "+sqlGetPostRoutingTableName()+")"));
-		__delete_min_statements.put(sqlGetPreRoutingTableName(), connection.prepareStatement("delete from "+ sqlGetPreRoutingTableName() + " where " + sqlColumnNameEventTime + " in (select min("+sqlColumnNameEventTime+") from "+sqlGetPreRoutingTableName()+")"));
+	private final void preRoutingOrPostRoutingUpdate(final Table table, final long eventTime, final String eventId,
+			final String remoteIpLast, final String remotePortLast, final String localIpLast, final String localPortLast,
+			final boolean isFirst, final Entry entry){
+		table.unindex(entry);
+		entry.eventTime = eventTime;
+		entry.eventId = eventId;
+		entry.remoteIpLast = remoteIpLast;
+		entry.remotePortLast = remotePortLast;
+		entry.localIpLast = localIpLast;
+		entry.localPortLast = localPortLast;
+		entry.isFirst = isFirst;
+		table.index(entry);
 	}
 
+	////// lookups and updates on the correlation tables
+
 	public synchronized final void handleNetworkSyscallEvent(final String eventTimeString, final String eventId, final boolean ingress,
 			final Artifact syscallArtifact) throws Exception{
 		final long eventTime = parseAuditEventTimeToMillis(eventTimeString);
@@ -782,114 +563,93 @@ public class NetfilterHooksManager{
 		final String remotePort = syscallArtifact.getAnnotation(OPMConstants.ARTIFACT_REMOTE_PORT);
 
 		if(!ingress){ // outgoing
-			final List<Map<String, Object>> result0 =
-					sm_syscallEventFindLocalOut(false, netNs, protocol, remoteIp, remotePort, localIp, localPort);
-			if(result0.size() == 0){
-				sqlInsertSyscallTable(eventTime, eventId, version, epoch, netNs, protocol, remoteIp, remotePort, localIp, localPort, ingress);
+			final Entry row0 = sm_syscallEventFindLocalOut(false, netNs, protocol, remoteIp, remotePort, localIp, localPort);
+			if(row0 == null){
+				sm_syscallEventInsertSyscall(eventTime, eventId, version, epoch, netNs, protocol, remoteIp, remotePort, localIp, localPort, ingress);
 			}else{
-				final Map<String, Object> row0 = result0.get(0);
-				if(result0.size() > 1){
-					debug("Expected only one match in "+sqlGetLocalOutTableName()+" but found '"+result0.size()+"' for: " + syscallArtifact);
-				}
 				final boolean row0AddressesAreSame = areTheFirstAndTheLastAddressesTheSame(row0);
 				if(row0AddressesAreSame){
 					// Don't draw an edge
 				}else{
 					final Artifact netfilterArtifact0 = createNetfilterNetworkArtifact(
-							row0.get(sqlColumnNameNetns), row0.get(sqlColumnNameProtocol), row0.get(sqlColumnNameRemoteIpLast), 
-							row0.get(sqlColumnNameRemotePortLast), row0.get(sqlColumnNameLocalIpLast), row0.get(sqlColumnNameLocalPortLast), 
+							row0.netNs, row0.protocol, row0.remoteIpLast, 
+							row0.remotePortLast, row0.localIpLast, row0.localPortLast, 
 							epoch, version);
 					putNetfilterArtifact(netfilterArtifact0);
 					putNetfilterWasDerivedFromEdge(netfilterArtifact0, syscallArtifact, row0);
 				}
-				final List<Map<String, Object>> result1 = 
-						sm_syscallEventFindPostRouting(false, row0.get(sqlColumnNameSkbId), row0.get(sqlColumnNameProtocol), 
-								row0.get(sqlColumnNameRemoteIpLast), row0.get(sqlColumnNameRemotePortLast), 
-								row0.get(sqlColumnNameLocalIpLast), row0.get(sqlColumnNameLocalPortLast));
-				if(result1.size() == 0){
-					sm_syscallEventUpdateLocalOut(version, epoch, true, sqlGetRowIdForSql(row0));
+				final Entry row1 = 
+						sm_syscallEventFindPostRouting(false, row0.skbId, row0.protocol, 
+								row0.remoteIpLast, row0.remotePortLast, 
+								row0.localIpLast, row0.localPortLast);
+				if(row1 == null){
+					sm_syscallEventUpdateLocalOut(version, epoch, true, row0);
 				}else{
-					final Map<String, Object> row1 = result1.get(0);
-					if(result1.size() > 1){
-						debug("Expected only one match in "+sqlGetPostRoutingTableName()+" but found '"+result1.size()+"' for: " 
-								+ syscallArtifact);
-					}
 					final boolean row1AddressesAreSame = areTheFirstAndTheLastAddressesTheSame(row1);
 					if(row1AddressesAreSame){
 						// Don't draw an edge
 					}else{
 						final Artifact sourceArtifact = row0AddressesAreSame ? syscallArtifact 
 								: createNetfilterNetworkArtifact(
-										row0.get(sqlColumnNameNetns), row0.get(sqlColumnNameProtocol), 
-										row0.get(sqlColumnNameRemoteIpLast), row0.get(sqlColumnNameRemotePortLast), 
-										row0.get(sqlColumnNameLocalIpLast), row0.get(sqlColumnNameLocalPortLast), 
+										row0.netNs, row0.protocol, 
+										row0.remoteIpLast, row0.remotePortLast, 
+										row0.localIpLast, row0.localPortLast, 
 										epoch, version);
 						final Artifact netfilterArtifact1 = createNetfilterNetworkArtifact(
 								sourceArtifact.getAnnotation(OPMConstants.PROCESS_NET_NAMESPACE), 
-								row1.get(sqlColumnNameProtocol), 
-								row1.get(sqlColumnNameRemoteIpLast), row1.get(sqlColumnNameRemotePortLast), 
-								row1.get(sqlColumnNameLocalIpLast), row1.get(sqlColumnNameLocalPortLast), 
+								row1.protocol, 
+								row1.remoteIpLast, row1.remotePortLast, 
+								row1.localIpLast, row1.localPortLast, 
 								sourceArtifact.getAnnotation(OPMConstants.ARTIFACT_EPOCH), 
 								sourceArtifact.getAnnotation(OPMConstants.ARTIFACT_VERSION));
 						putNetfilterArtifact(netfilterArtifact1);
 						putNetfilterWasDerivedFromEdge(netfilterArtifact1, sourceArtifact, row1);
 					}
-					sqlDeleteRowByRowId(sqlGetLocalOutTableName(), row0);
-					sqlDeleteRowByRowId(sqlGetPostRoutingTableName(), row1);
+					localOutTable.delete(row0);
+					postRoutingTable.delete(row1);
 				}
 			}
 		}else{
 			// incoming i.e. ingress = true
-			final List<Map<String, Object>> result0 = 
-					sm_syscallEventFindLocalIn(false, netNs, protocol, remoteIp, remotePort, localIp, localPort);
-			if(result0.size() == 0){
-				sqlInsertSyscallTable(eventTime, eventId, version, epoch, netNs, protocol, remoteIp, remotePort, localIp, localPort, ingress);
+			final Entry row0 = sm_syscallEventFindLocalIn(false, netNs, protocol, remoteIp, remotePort, localIp, localPort);
+			if(row0 == null){
+				sm_syscallEventInsertSyscall(eventTime, eventId, version, epoch, netNs, protocol, remoteIp, remotePort, localIp, localPort, ingress);
 			}else{
-				final Map<String, Object> row0 = result0.get(0);
-				if(result0.size() > 1){
-					debug("Expected only one match in "+sqlGetLocalInTableName()+" but found '"+result0.size()+"' for: " 
-							+ syscallArtifact);
-				}
 				final boolean areFirstAndLastAddressesSame = areTheFirstAndTheLastAddressesTheSame(row0);
 				if(areFirstAndLastAddressesSame){
 					// Don't draw an edge
 				}else{
 					final Artifact netfilterArtifact0 = createNetfilterNetworkArtifact(
-							row0.get(sqlColumnNameNetns), row0.get(sqlColumnNameProtocol), row0.get(sqlColumnNameRemoteIp), 
-							row0.get(sqlColumnNameRemotePort), row0.get(sqlColumnNameLocalIp), row0.get(sqlColumnNameLocalPort), 
+							row0.netNs, row0.protocol, row0.remoteIp, 
+							row0.remotePort, row0.localIp, row0.localPort, 
 							epoch, version);
 					putNetfilterArtifact(netfilterArtifact0);
 					putNetfilterWasDerivedFromEdge(syscallArtifact, netfilterArtifact0, row0);
 				}
-				final List<Map<String, Object>> result1 = 
-						sm_syscallEventFindPreRouting(false, row0.get(sqlColumnNameSkbId), row0.get(sqlColumnNameProtocol), 
-								row0.get(sqlColumnNameRemoteIp), row0.get(sqlColumnNameRemotePort), row0.get(sqlColumnNameLocalIp), 
-								row0.get(sqlColumnNameLocalPort));
+				final Entry row1 = 
+						sm_syscallEventFindPreRouting(false, row0.skbId, row0.protocol, 
+								row0.remoteIp, row0.remotePort, row0.localIp, 
+								row0.localPort);
 		
-				if(result1.size() == 0){
+				if(row1 == null){
 					// nothing to do
 				}else{
-					final Map<String, Object> row1 = result1.get(0);
-					if(result1.size() > 1){
-						debug("Expected only one match in "+sqlGetPreRoutingTableName()+" but found '"+result1.size()+"' for: " 
-								+ syscallArtifact);
-					}
 					final Artifact sourceArtifact = areFirstAndLastAddressesSame ? syscallArtifact :
 						createNetfilterNetworkArtifact(
-								row0.get(sqlColumnNameNetns), row0.get(sqlColumnNameProtocol), row0.get(sqlColumnNameRemoteIp), 
-								row0.get(sqlColumnNameRemotePort), row0.get(sqlColumnNameLocalIp), row0.get(sqlColumnNameLocalPort), 
+								row0.netNs, row0.protocol, row0.remoteIp, 
+								row0.remotePort, row0.localIp, row0.localPort, 
 								epoch, version);
 					final Artifact netfilterArtifact1 = createNetfilterNetworkArtifact(
 							sourceArtifact.getAnnotation(OPMConstants.PROCESS_NET_NAMESPACE), 
-							row1.get(sqlColumnNameProtocol), row1.get(sqlColumnNameRemoteIp), 
-							row1.get(sqlColumnNameRemotePort), row1.get(sqlColumnNameLocalIp), 
-							row1.get(sqlColumnNameLocalPort), sourceArtifact.getAnnotation(OPMConstants.ARTIFACT_EPOCH), 
+							row1.protocol, row1.remoteIp, 
+							row1.remotePort, row1.localIp, 
+							row1.localPort, sourceArtifact.getAnnotation(OPMConstants.ARTIFACT_EPOCH), 
 							sourceArtifact.getAnnotation(OPMConstants.ARTIFACT_VERSION));
 					putNetfilterArtifact(netfilterArtifact1);
 					putNetfilterWasDerivedFromEdge(sourceArtifact, netfilterArtifact1, row1);
-					sqlDeleteRowByRowId(sqlGetPreRoutingTableName(), row1);
+					preRoutingTable.delete(row1);
 				}
-				sqlDeleteRowByRowId(sqlGetLocalInTableName(), row0);
+				localInTable.delete(row0);
 			}
 		}
 	}
@@ -1044,43 +804,31 @@ public class NetfilterHooksManager{
 			sm_localOutEventInsertLocalOut(eventTime, eventId, netNs, protocol, remoteIp, remotePort, localIp, localPort, 
 					skbId, isFirst, false);
 		}else{
-			final List<Map<String, Object>> result0 = sm_localOutEventFindLocalOut(skbId, true, protocol);
-			if(result0.size() == 0){
-				debug("Missing first entry in "+sqlGetLocalOutTableName()+" for: " + eventData);
+			final Entry row0 = sm_localOutEventFindLocalOut(skbId, true, protocol);
+			if(row0 == null){
+				debug("Missing first entry in "+localOutTable.name+" for: " + eventData);
 			}else{
-				final Map<String, Object> row0 = result0.get(0);
-				if(result0.size() > 1){
-					debug("Expected only one first entry match in "+sqlGetLocalOutTableName()+" but found '"+result0.size()+"' for: " 
-							+ eventData);
-				}
-				final List<Map<String, Object>> result1 = 
-						sm_localOutEventFindSyscall(false, row0.get(sqlColumnNameNetns), row0.get(sqlColumnNameProtocol), 
-								row0.get(sqlColumnNameRemoteIp), row0.get(sqlColumnNameRemotePort), 
-								row0.get(sqlColumnNameLocalIp), row0.get(sqlColumnNameLocalPort));
-				if(result1.size() == 0){
+				final Entry row1 = 
+						sm_localOutEventFindSyscall(false, row0.netNs, row0.protocol, 
+								row0.remoteIp, row0.remotePort, 
+								row0.localIp, row0.localPort);
+				if(row1 == null){
 					sm_localOutEventUpdateLocalOutByLast(eventTime, eventId, remoteIp, remotePort, localIp, localPort, 
-							isFirst, sqlGetRowIdForSql(row0));
+							isFirst, row0);
 				}else{
-					final Map<String, Object> row1 = result1.get(0);
-					if(result1.size() > 1){
-						debug("Unexpected multiple entries in " + sqlGetSyscallTableName() + " for: " + eventData);
-					}
-					if(HelperFunctions.objectsEqual(row0.get(sqlColumnNameRemoteIp), remoteIp)
-							&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameRemotePort), remotePort)
-							&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameLocalIp), localIp)
-							&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameLocalPort), localPort)){
+					if(areTheFirstAddressesTheSame(row0, remoteIp, remotePort, localIp, localPort)){
 						// Don't draw the edge
 					}else{
 						final Artifact syscallArtifact = createSyscallNetworkArtifact(row1);
-						final Artifact netfilterArtifact = createNetfilterNetworkArtifact(row0.get(sqlColumnNameNetns), 
-								protocol, remoteIp, remotePort, localIp, localPort, row1.get(sqlColumnNameEpoch), 
-								row1.get(sqlColumnNameVersion));
+						final Artifact netfilterArtifact = createNetfilterNetworkArtifact(row0.netNs, 
+								protocol, remoteIp, remotePort, localIp, localPort, row1.epoch, 
+								row1.version);
 						putNetfilterArtifact(netfilterArtifact);
 						putNetfilterWasDerivedFromEdge(netfilterArtifact, syscallArtifact, eventTime, eventId);
-						sqlDeleteRowByRowId(sqlGetSyscallTableName(), row1);
+						syscallTable.delete(row1);
 					}
 					sm_localOutEventUpdateLocalOutBySyscall(eventTime, eventId, remoteIp, remotePort, localIp, localPort, 
-							isFirst, row1.get(sqlColumnNameVersion), row1.get(sqlColumnNameEpoch), true, sqlGetRowIdForSql(row0));
+							isFirst, row1.version, row1.epoch, true, row0);
 				}
 			}
 		}
@@ -1093,43 +841,31 @@ public class NetfilterHooksManager{
 		if(isFirst){
 			sm_postRoutingEventInsertPostRouting(eventTime, eventId, protocol, remoteIp, remotePort, localIp, localPort, skbId, isFirst);
 		}else{
-			final List<Map<String, Object>> result0 = sm_postRoutingEventFindPostRouting(skbId, true, protocol);
-			if(result0.size() == 0){
-				debug("Missing first entry in "+sqlGetPostRoutingTableName()+" for: " + eventData);
+			final Entry row0 = sm_postRoutingEventFindPostRouting(skbId, true, protocol);
+			if(row0 == null){
+				debug("Missing first entry in "+postRoutingTable.name+" for: " + eventData);
 			}else{
-				final Map<String, Object> row0 = result0.get(0);
-				if(result0.size() > 1){
-					debug("Expected only one first entry match in "+sqlGetPostRoutingTableName()+" but found '"+result0.size()+"' for: " 
-							+ eventData);
-				}
-				final List<Map<String, Object>> result1 = 
-						sm_postRoutingEventFindLocalOut(skbId, false, true, protocol, row0.get(sqlColumnNameRemoteIp), 
-								row0.get(sqlColumnNameRemotePort), row0.get(sqlColumnNameLocalIp), row0.get(sqlColumnNameLocalPort));
-				if(result1.size() == 0){
+				final Entry row1 = 
+						sm_postRoutingEventFindLocalOut(skbId, false, true, protocol, row0.remoteIp, 
+								row0.remotePort, row0.localIp, row0.localPort);
+				if(row1 == null){
 					sm_postRoutingEventUpdatePostRouting(eventTime, eventId, remoteIp, remotePort, localIp, localPort, false, 
-							sqlGetRowIdForSql(row0));
+							row0);
 				}else{
-					final Map<String, Object> row1 = result1.get(0);
-					if(result1.size() > 1){
-						debug("Unexpected multiple entries in " + sqlGetLocalOutTableName() + " for: " + eventData);
-					}
-					if(HelperFunctions.objectsEqual(row0.get(sqlColumnNameRemoteIp), remoteIp)
-							&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameRemotePort), remotePort)
-							&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameLocalIp), localIp)
-							&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameLocalPort), localPort)){
+					if(areTheFirstAddressesTheSame(row0, remoteIp, remotePort, localIp, localPort)){
 						// Don't draw the edge
 					}else{
-						final Artifact netfilterArtifactFromLocalOut = createNetfilterNetworkArtifact(row1.get(sqlColumnNameNetns),
-								row1.get(sqlColumnNameProtocol), row1.get(sqlColumnNameRemoteIpLast), 
-								row1.get(sqlColumnNameRemotePortLast), row1.get(sqlColumnNameLocalIpLast), 
-								row1.get(sqlColumnNameLocalPortLast), row1.get(sqlColumnNameEpoch), row1.get(sqlColumnNameVersion));
-						final Artifact netfilterArtifactFromPostRouting = createNetfilterNetworkArtifact(row1.get(sqlColumnNameNetns), 
-								protocol, remoteIp, remotePort, localIp, localPort, row1.get(sqlColumnNameEpoch), 
-								row1.get(sqlColumnNameVersion));
+						final Artifact netfilterArtifactFromLocalOut = createNetfilterNetworkArtifact(row1.netNs,
+								row1.protocol, row1.remoteIpLast, 
+								row1.remotePortLast, row1.localIpLast, 
+								row1.localPortLast, row1.epoch, row1.version);
+						final Artifact netfilterArtifactFromPostRouting = createNetfilterNetworkArtifact(row1.netNs, 
+								protocol, remoteIp, remotePort, localIp, localPort, row1.epoch, 
+								row1.version);
 						putNetfilterArtifact(netfilterArtifactFromPostRouting);
 						putNetfilterWasDerivedFromEdge(netfilterArtifactFromPostRouting, netfilterArtifactFromLocalOut, eventTime, eventId);
-						sqlDeleteRowByRowId(sqlGetPostRoutingTableName(), row0);
-						sqlDeleteRowByRowId(sqlGetLocalOutTableName(), row1);
+						postRoutingTable.delete(row0);
+						localOutTable.delete(row1);
 					}
 				}
 			}
@@ -1143,22 +879,15 @@ public class NetfilterHooksManager{
 		if(isFirst){
 			sm_preRoutingEventInsertPreRouting(eventTime, eventId, protocol, remoteIp, remotePort, localIp, localPort, skbId, isFirst);
 		}else{
-			final List<Map<String, Object>> result0 = sm_preRoutingEventFindPreRoutingBySkb(skbId, true, protocol);
-			if(result0.size() == 0){
-				debug("Missing first entry in "+sqlGetPreRoutingTableName()+" for: " + eventData);
+			final Entry row0 = sm_preRoutingEventFindPreRoutingBySkb(skbId, true, protocol);
+			if(row0 == null){
+				debug("Missing first entry in "+preRoutingTable.name+" for: " + eventData);
 			}else{
-				final Map<String, Object> row0 = result0.get(0);
-				if(result0.size() > 1){
-					debug("Unexpected multiple entries in " + sqlGetPreRoutingTableName() + " for: " + eventData);
-				}
-				if(HelperFunctions.objectsEqual(row0.get(sqlColumnNameRemoteIp), remoteIp)
-						&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameRemotePort), remotePort)
-						&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameLocalIp), localIp)
-						&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameLocalPort), localPort)){
-					sqlDeleteRowByRowId(sqlGetPreRoutingTableName(), row0);
+				if(areTheFirstAddressesTheSame(row0, remoteIp, remotePort, localIp, localPort)){
+					preRoutingTable.delete(row0);
 				}else{
 					sm_preRoutingEventUpdatePreRouting(eventTime, eventId, remoteIp, remotePort, localIp, localPort, 
-							false, sqlGetRowIdForSql(row0));
+							false, row0);
 				}
 			}
 		}
@@ -1171,317 +900,211 @@ public class NetfilterHooksManager{
 		if(isFirst){
 			sm_localInEventInsertLocalIn(eventTime, eventId, netNs, protocol, remoteIp, remotePort, localIp, localPort, skbId, isFirst);
 		}else{
-			final List<Map<String, Object>> result0 = sm_localInEventFindLocalIn(skbId, true, protocol);
-			if(result0.size() == 0){
-				debug("Missing first entry in "+sqlGetLocalInTableName()+" for: " + eventData);
+			final Entry row0 = sm_localInEventFindLocalIn(skbId, true, protocol);
+			if(row0 == null){
+				debug("Missing first entry in "+localInTable.name+" for: " + eventData);
 			}else{
-				final Map<String, Object> row0 = result0.get(0);
-				if(result0.size() > 1){
-					debug("Unexpected multiple entries in " + sqlGetLocalInTableName() + " for: " + eventData);
-				}
-				final List<Map<String, Object>> result1 = 
+				final Entry row1 = 
 						sm_localInEventFindSyscall(true, netNs, protocol, remoteIp, remotePort, localIp, localPort);
-				if(result1.size() == 0){
+				if(row1 == null){
 					sm_localInEventUpdateLocalIn(eventTime, eventId, remoteIp, remotePort, localIp, localPort, false, 
-							netNs, sqlGetRowIdForSql(row0));
+							netNs, row0);
 				}else{
-					final Map<String, Object> row1 = result1.get(0);
-					if(result1.size() > 1){
-						debug("Unexpected multiple entries in " + sqlGetSyscallTableName() + " for: " + eventData);
-					}
 					final boolean areFirstAndLastAddressSame;
-					if(HelperFunctions.objectsEqual(row0.get(sqlColumnNameRemoteIp), remoteIp)
-							&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameRemotePort), remotePort)
-							&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameLocalIp), localIp)
-							&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameLocalPort), localPort)){
+					if(areTheFirstAddressesTheSame(row0, remoteIp, remotePort, localIp, localPort)){
 						// Don't draw an edge
 						areFirstAndLastAddressSame = true;
 					}else{
 						final Artifact syscallArtifact = createSyscallNetworkArtifact(row1);
 						final Artifact netfilterArtifact = createNetfilterNetworkArtifact(netNs, protocol, 
-								row0.get(sqlColumnNameRemoteIp), row0.get(sqlColumnNameRemotePort), 
-								row0.get(sqlColumnNameLocalIp), row0.get(sqlColumnNameLocalPort), 
-								row1.get(sqlColumnNameEpoch), row1.get(sqlColumnNameVersion));
+								row0.remoteIp, row0.remotePort, 
+								row0.localIp, row0.localPort, 
+								row1.epoch, row1.version);
 						putNetfilterArtifact(netfilterArtifact);
 						putNetfilterWasDerivedFromEdge(syscallArtifact, netfilterArtifact, eventTime, eventId);
-						sqlDeleteRowByRowId(sqlGetSyscallTableName(), row1);
+						syscallTable.delete(row1);
 						areFirstAndLastAddressSame = false;
 					}
-					final List<Map<String, Object>> result2 = sm_localInEventFindPreRouting(skbId, false, protocol);
-					if(result2.size() == 0){
+					final Entry row2 = sm_localInEventFindPreRouting(skbId, false, protocol);
+					if(row2 == null){
 						// Nothing to do
 					}else{
-						final Map<String, Object> row2 = result2.get(0);
-						if(result2.size() > 1){
-							debug("Unexpected multiple entries in " + sqlGetPreRoutingTableName() + " for: " + eventData);
-						}
 						final Artifact sourceArtifact = areFirstAndLastAddressSame ? createSyscallNetworkArtifact(row1)
 								: createNetfilterNetworkArtifact(netNs, protocol, 
-										row0.get(sqlColumnNameRemoteIp), row0.get(sqlColumnNameRemotePort), 
-										row0.get(sqlColumnNameLocalIp), row0.get(sqlColumnNameLocalPort), 
-										row1.get(sqlColumnNameEpoch), row1.get(sqlColumnNameVersion));
+										row0.remoteIp, row0.remotePort, 
+										row0.localIp, row0.localPort, 
+										row1.epoch, row1.version);
 						final Artifact netfilterArtifact1 = createNetfilterNetworkArtifact(
 								sourceArtifact.getAnnotation(OPMConstants.PROCESS_NET_NAMESPACE), 
-								row2.get(sqlColumnNameProtocol), row2.get(sqlColumnNameRemoteIp), 
-								row2.get(sqlColumnNameRemotePort), row2.get(sqlColumnNameLocalIp), 
-								row2.get(sqlColumnNameLocalPort), sourceArtifact.getAnnotation(OPMConstants.ARTIFACT_EPOCH), 
+								row2.protocol, row2.remoteIp, 
+								row2.remotePort, row2.localIp, 
+								row2.localPort, sourceArtifact.getAnnotation(OPMConstants.ARTIFACT_EPOCH), 
 								sourceArtifact.getAnnotation(OPMConstants.ARTIFACT_VERSION));
 						putNetfilterArtifact(netfilterArtifact1);
 						putNetfilterWasDerivedFromEdge(sourceArtifact, netfilterArtifact1, row2);
-						sqlDeleteRowByRowId(sqlGetPreRoutingTableName(), row2);
+						preRoutingTable.delete(row2);
 					}
-					sqlDeleteRowByRowId(sqlGetLocalInTableName(), row0);
+					localInTable.delete(row0);
 				}
 			}
 		}
 	}
 
 	//////////////////////////////////////////////////////////////////////////////////
-	// ***************** SQL **********************
+	// ***************** TABLES **********************
 	//////////////////////////////////////////////////////////////////////////////////
-	
-	private static final String 
-		sqlKeywordAutoIncrement = "auto_increment",
-		sqlDataTypeLong = "long",
-		sqlDataTypeVarChar = "varchar",
-		sqlDataTypeBoolean = "boolean";
-
-	private static final String
-		sqlColumnNameRowId = "ROW_ID",
-		sqlColumnNameEventTime = "EVENT_TIME",
-		sqlColumnNameEventId = "EVENT_ID",
-		sqlColumnNameVersion = "VERSION",
-		sqlColumnNameEpoch = "EPOCH",
-		sqlColumnNameNetns = "NETNS",
-		sqlColumnNameProtocol = "PROTOCOL",
-		sqlColumnNameRemoteIp = "REMOTE_IP",
-		sqlColumnNameRemotePort = "REMOTE_PORT",
-		sqlColumnNameLocalIp = "LOCAL_IP",
-		sqlColumnNameLocalPort = "LOCAL_PORT",
-		sqlColumnNameRemoteIpLast = "REMOTE_IP_LAST",
-		sqlColumnNameRemotePortLast = "REMOTE_PORT_LAST",
-		sqlColumnNameLocalIpLast = "LOCAL_IP_LAST",
-		sqlColumnNameLocalPortLast = "LOCAL_PORT_LAST",
-		sqlColumnNameSkbId = "SKB_ID",
-		sqlColumnNameIsFirst = "IS_FIRST",
-		sqlColumnNameIsIngress = "IS_INGRESS",
-		sqlColumnNameUpdatedBySyscall = "UPDATED_BY_SYSCALL";
-	
-	private final String sqlGetRowIdColumnDefinition(){ return sqlColumnNameRowId + " " + sqlDataTypeLong + " " + sqlKeywordAutoIncrement; }
-	private final String sqlGetEventTimeColumnDefinition(){ return sqlColumnNameEventTime + " " + sqlDataTypeLong; }
-	private final String __sqlGetVarcharColumnDefinition(String columnName){ return columnName + " " + sqlDataTypeVarChar; }
-	private final String sqlGetEventIdColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameEventId); }
-	private final String sqlGetVersionColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameVersion); }
-	private final String sqlGetEpochColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameEpoch); }
-	private final String sqlGetNetnsColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameNetns); }
-	private final String sqlGetProtocolColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameProtocol); }
-	private final String sqlGetRemoteIpColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameRemoteIp); }
-	private final String sqlGetRemotePortColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameRemotePort); }
-	private final String sqlGetLocalIpColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameLocalIp); }
-	private final String sqlGetLocalPortColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameLocalPort); }
-	private final String sqlGetRemoteIpLastColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameRemoteIpLast); }
-	private final String sqlGetRemotePortLastColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameRemotePortLast); }
-	private final String sqlGetLocalIpLastColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameLocalIpLast); }
-	private final String sqlGetLocalPortLastColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameLocalPortLast); }
-	private final String sqlGetSkbIdColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameSkbId); }
-	private final String sqlGetIsFirstColumnDefinition(){ return sqlColumnNameIsFirst + " " + sqlDataTypeBoolean; }
-	private final String sqlGetIsIngressColumnDefinition(){ return sqlColumnNameIsIngress + " " + sqlDataTypeBoolean; }
-	private final String sqlGetUpdatedBySyscallColumnDefinition(){ return sqlColumnNameUpdatedBySyscall + " " + sqlDataTypeBoolean; }
-	
-	private final String sqlGetSyscallTableName(){ return "SPADE_SYSCALL"; }
-	private final String sqlGetLocalOutTableName(){ return "SPADE_LOCAL_OUT"; }
-	private final String sqlGetPostRoutingTableName(){ return "SPADE_POST_ROUTING"; }
-	private final String sqlGetLocalInTableName(){ return "SPADE_LOCAL_IN"; }
-	private final String sqlGetPreRoutingTableName(){ return "SPADE_PRE_ROUTING"; }
-	
-	//////////////////////////////////////////////////////////////////////////////////
-	// ***************** CREATE **********************
-	//////////////////////////////////////////////////////////////////////////////////
-	
-	private final void sqlCreateSyscallTable() throws Exception{
-		try(Statement statement = connection.createStatement()){
-			statement.execute(
-					String.format(
-								"create table %s ("
-								+ " %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s "
-								+ ")", 
-								sqlGetSyscallTableName(),
-								sqlGetRowIdColumnDefinition(), sqlGetEventIdColumnDefinition(),
-								sqlGetEventTimeColumnDefinition(), sqlGetVersionColumnDefinition(),
-								sqlGetEpochColumnDefinition(), sqlGetNetnsColumnDefinition(),
-								sqlGetProtocolColumnDefinition(), sqlGetRemoteIpColumnDefinition(),
-								sqlGetRemotePortColumnDefinition(), sqlGetLocalIpColumnDefinition(),
-								sqlGetLocalPortColumnDefinition(), sqlGetIsIngressColumnDefinition()
-								)
-							);
-		}catch(Exception e){
-			throw e;
-		}
+
+	private static final class Entry{
+		private long eventTime;
+		private String eventId, version, epoch, netNs, protocol;
+		private String remoteIp, remotePort, localIp, localPort;
+		private String remoteIpLast, remotePortLast, localIpLast, localPortLast;
+		private String skbId;
+		private boolean isFirst, isIngress, updatedBySyscall;
 	}
 
-	private final void sqlCreateLocalOutTable() throws Exception{
-		try(Statement statement = connection.createStatement()){
-			statement.execute(
-					String.format(
-								"create table %s ("
-								+ " %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s "
-								+ ")", 
-								sqlGetLocalOutTableName(),
-								sqlGetRowIdColumnDefinition(), sqlGetEventIdColumnDefinition(),
-								sqlGetEventTimeColumnDefinition(), sqlGetVersionColumnDefinition(),
-								sqlGetEpochColumnDefinition(), sqlGetNetnsColumnDefinition(),
-								sqlGetProtocolColumnDefinition(), sqlGetRemoteIpColumnDefinition(),
-								sqlGetRemotePortColumnDefinition(), sqlGetLocalIpColumnDefinition(),
-								sqlGetLocalPortColumnDefinition(), sqlGetRemoteIpLastColumnDefinition(),
-								sqlGetRemotePortLastColumnDefinition(), sqlGetLocalIpLastColumnDefinition(),
-								sqlGetLocalPortLastColumnDefinition(), sqlGetSkbIdColumnDefinition(),
-								sqlGetIsFirstColumnDefinition(), sqlGetUpdatedBySyscallColumnDefinition()
-								)
-							);
-		}catch(Exception e){
-			throw e;
+	/*
+	 * Entries of one hook (or of the syscalls) with hash indexes on the skb id and on the (netns, protocol, addresses) tuple.
+	 * Entries are also bucketed by event time so that the expired ones are dropped from the head on insert, and the oldest 
+	 * ones are evicted when the table is full. Time is the audit event time and not the wall clock time.
+	 */
+	private final class Table{
+		private final String name;
+		private final long maxEntries, entryTtlMillis;
+		private final boolean indexFirstAddresses, indexLastAddresses;
+
+		private final Map<String, Set<Entry>> skbIdIndex = new HashMap<String, Set<Entry>>();
+		private final Map<List<String>, Set<Entry>> addressesIndex = new HashMap<List<String>, Set<Entry>>();
+		private final TreeMap<Long, Set<Entry>> eventTimeIndex = new TreeMap<Long, Set<Entry>>();
+		private long size = 0;
+
+		private Table(final String name, final long maxEntries, final long entryTtlMillis,
+				final boolean indexFirstAddresses, final boolean indexLastAddresses){
+			this.name = name;
+			this.maxEntries = maxEntries;
+			this.entryTtlMillis = entryTtlMillis;
+			this.indexFirstAddresses = indexFirstAddresses;
+			this.indexLastAddresses = indexLastAddresses;
 		}
-	}
-	
-	private final void sqlCreatePostRoutingTable() throws Exception{
-		try(Statement statement = connection.createStatement()){
-			statement.execute(
-					String.format(
-								"create table %s ("
-								+ " %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s "
-								+ ")", 
-								sqlGetPostRoutingTableName(),
-								sqlGetRowIdColumnDefinition(), sqlGetEventIdColumnDefinition(),
-								sqlGetEventTimeColumnDefinition(), sqlGetProtocolColumnDefinition(), 
-								sqlGetRemoteIpColumnDefinition(), sqlGetRemotePortColumnDefinition(), 
-								sqlGetLocalIpColumnDefinition(), sqlGetLocalPortColumnDefinition(), 
-								sqlGetRemoteIpLastColumnDefinition(), sqlGetRemotePortLastColumnDefinition(), 
-								sqlGetLocalIpLastColumnDefinition(), sqlGetLocalPortLastColumnDefinition(), 
-								sqlGetSkbIdColumnDefinition(), sqlGetIsFirstColumnDefinition()
-								)
-							);
-		}catch(Exception e){
-			throw e;
+
+		private final Collection<Entry> getBySkbId(final String skbId){
+			final Set<Entry> entries = skbIdIndex.get(skbId);
+			return entries == null ? Collections.<Entry>emptySet() : entries;
 		}
-	}
-	
-	private final void sqlCreateLocalInTable() throws Exception{
-		try(Statement statement = connection.createStatement()){
-			statement.execute(
-					String.format(
-								"create table %s ("
-								+ " %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s "
-								+ ")", 
-								sqlGetLocalInTableName(),
-								sqlGetRowIdColumnDefinition(), sqlGetEventIdColumnDefinition(),
-								sqlGetEventTimeColumnDefinition(), sqlGetNetnsColumnDefinition(),
-								sqlGetProtocolColumnDefinition(), sqlGetRemoteIpColumnDefinition(),
-								sqlGetRemotePortColumnDefinition(), sqlGetLocalIpColumnDefinition(),
-								sqlGetLocalPortColumnDefinition(), sqlGetRemoteIpLastColumnDefinition(),
-								sqlGetRemotePortLastColumnDefinition(), sqlGetLocalIpLastColumnDefinition(),
-								sqlGetLocalPortLastColumnDefinition(), sqlGetSkbIdColumnDefinition(),
-								sqlGetIsFirstColumnDefinition()
-								)
-							);
-		}catch(Exception e){
-			throw e;
+
+		private final Collection<Entry> getByAddresses(final String netNs, final String protocol, 
+				final String remoteIp, final String remotePort, final String localIp, final String localPort){
+			final Set<Entry> entries = addressesIndex.get(Arrays.asList(netNs, protocol, remoteIp, remotePort, localIp, localPort));
+			return entries == null ? Collections.<Entry>emptySet() : entries;
 		}
-	}
-	
-	private final void sqlCreatePreRoutingTable() throws Exception{
-		try(Statement statement = connection.createStatement()){
-			statement.execute(
-					String.format(
-								"create table %s ("
-								+ " %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s "
-								+ ")", 
-								sqlGetPreRoutingTableName(),
-								sqlGetRowIdColumnDefinition(), sqlGetEventIdColumnDefinition(),
-								sqlGetEventTimeColumnDefinition(), sqlGetProtocolColumnDefinition(), 
-								sqlGetRemoteIpColumnDefinition(), sqlGetRemotePortColumnDefinition(), 
-								sqlGetLocalIpColumnDefinition(), sqlGetLocalPortColumnDefinition(), 
-								sqlGetRemoteIpLastColumnDefinition(), sqlGetRemotePortLastColumnDefinition(), 
-								sqlGetLocalIpLastColumnDefinition(), sqlGetLocalPortLastColumnDefinition(), 
-								sqlGetSkbIdColumnDefinition(), sqlGetIsFirstColumnDefinition()
-								)
-							);
-		}catch(Exception e){
-			throw e;
+
+		private final List<String> getAddressesKey(final Entry entry){
+			if(indexFirstAddresses){
+				return Arrays.asList(entry.netNs, entry.protocol, entry.remoteIp, entry.remotePort, entry.localIp, entry.localPort);
+			}else if(indexLastAddresses){
+				return Arrays.asList(entry.netNs, entry.protocol, entry.remoteIpLast, entry.remotePortLast, 
+						entry.localIpLast, entry.localPortLast);
+			}else{
+				return null;
+			}
 		}
-	}
-	
-	private final List<Map<String, Object>> sqlMapifyResultSet(final ResultSet resultSet) throws Exception{
-		final List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
-		final ResultSetMetaData resultSetMetadata = resultSet.getMetaData();
-		final int columnCount = resultSetMetadata.getColumnCount();
-		final String[] columnNames = new String[columnCount];
-		for(int a = 0; a < columnCount; a++){
-			columnNames[a] = resultSetMetadata.getColumnLabel(a+1).toUpperCase();
+
+		private final void insert(final Entry entry){
+			expire(entry.eventTime - entryTtlMillis);
+			if(size >= maxEntries){
+				evict();
+			}
+			index(entry);
+			size++;
+			incrementStats("inserted(total)", 1);
+			incrementStats("inserted("+name+")", 1);
 		}
-		if(resultSet.next()){
-			final Map<String, Object> map = new HashMap<String, Object>();
-			for(String columnName : columnNames){
-				map.put(columnName, resultSet.getObject(columnName));
+
+		private final void delete(final Entry entry){
+			if(unindex(entry)){
+				size--;
+				incrementStats("deleted(total)", 1);
+				incrementStats("deleted("+name+")", 1);
 			}
-			rows.add(map);
 		}
-		return rows;
-	}
-	
-	private final List<Map<String, Object>> sqlGetResult(PreparedStatement statement) throws Exception{
-		ResultSet resultSet = statement.executeQuery();
-		List<Map<String, Object>> result = sqlMapifyResultSet(resultSet);
-		resultSet.close();
-		return result;
-	}
-	
-	private final void sqlInsert(String tableName, long eventTime, PreparedStatement statement) throws Exception{
-		long currentCount = perTableCurrentCounts.get(tableName);
-		final long maxCount = perTableMaxCounts.get(tableName);
-		if(currentCount >= maxCount){
-			final int expiredRows = sm_deleteExpiredRows(tableName, eventTime - perTableTtlMillis.get(tableName));
-			
-			if(expiredRows > 0){
-				currentCount -= expiredRows;
-				debug("Cleanup(expired): Discarded " + expiredRows + " entries from " + tableName);
-				incrementStats("expired(total)", expiredRows);
-				incrementStats("expired("+tableName+")", expiredRows);
-			}else{
-				final int deletedRows = sm_deleteOldestRows(tableName);
-				//deleteStatement1.close();
-				currentCount -= deletedRows;
-				incrementStats("evicted(total)", deletedRows);
-				incrementStats("evicted("+tableName+")", deletedRows);
-				debug("Cleanup(forced): Discarded " + deletedRows + " entries from " + tableName);
+
+		private final void expire(final long olderThanEventTime){
+			long expiredEntries = 0;
+			while(!eventTimeIndex.isEmpty() && eventTimeIndex.firstKey() < olderThanEventTime){
+				expiredEntries += removeOldestBucket();
+			}
+			if(expiredEntries > 0){
+				debug("Cleanup(expired): Discarded " + expiredEntries + " entries from " + name);
+				incrementStats("expired(total)", expiredEntries);
+				incrementStats("expired("+name+")", expiredEntries);
 			}
-			perTableCurrentCounts.put(tableName, currentCount);
 		}
-		
-		int rowsInserted = statement.executeUpdate();
-		perTableCurrentCounts.put(tableName, currentCount + rowsInserted);
-		incrementStats("inserted(total)", rowsInserted);
-		incrementStats("inserted("+tableName+")", rowsInserted);
-	}
 
-	private final void sqlUpdate(String tableName, PreparedStatement statement) throws Exception{
-		statement.execute();
-	}
-	
-	private final void sqlDeleteRowByRowId(String tableName, Map<String, Object> row) throws Exception{
-		final int deletedRows = sm_deleteRowById(tableName, sqlGetRowIdForSql(row));
-		long currentCount = perTableCurrentCounts.get(tableName);
-		currentCount -= deletedRows;
-		perTableCurrentCounts.put(tableName, currentCount);
-		incrementStats("deleted(total)", deletedRows);
-		incrementStats("deleted("+tableName+")", deletedRows);
+		private final void evict(){
+			final long evictedEntries = removeOldestBucket();
+			incrementStats("evicted(total)", evictedEntries);
+			incrementStats("evicted("+name+")", evictedEntries);
+			debug("Cleanup(forced): Discarded " + evictedEntries + " entries from " + name);
+		}
+
+		private final long removeOldestBucket(){
+			final Set<Entry> entries = eventTimeIndex.pollFirstEntry().getValue();
+			for(final Entry entry : entries){
+				removeFromIndex(skbIdIndex, entry.skbId, entry);
+				removeFromIndex(addressesIndex, getAddressesKey(entry), entry);
+			}
+			size -= entries.size();
+			return entries.size();
+		}
+
+		/*
+		 * Must be called before changing the event time or any indexed field of an entry in the table
+		 */
+		private final boolean unindex(final Entry entry){
+			if(!removeFromIndex(eventTimeIndex, entry.eventTime, entry)){
+				return false;
+			}
+			removeFromIndex(skbIdIndex, entry.skbId, entry);
+			removeFromIndex(addressesIndex, getAddressesKey(entry), entry);
+			return true;
+		}
+
+		private final void index(final Entry entry){
+			addToIndex(skbIdIndex, entry.skbId, entry);
+			addToIndex(addressesIndex, getAddressesKey(entry), entry);
+			addToIndex(eventTimeIndex, entry.eventTime, entry);
+		}
+
+		private final void clear(){
+			skbIdIndex.clear();
+			addressesIndex.clear();
+			eventTimeIndex.clear();
+			size = 0;
+		}
 	}
-	
-	private final long sqlGetRowIdForSql(Map<String, Object> row){
-		return (long)row.get(sqlColumnNameRowId);
+
+	private static final <K> void addToIndex(final Map<K, Set<Entry>> index, final K key, final Entry entry){
+		if(key != null){
+			Set<Entry> entries = index.get(key);
+			if(entries == null){
+				entries = new LinkedHashSet<Entry>();
+				index.put(key, entries);
+			}
+			entries.add(entry);
+		}
 	}
-	
-	private final long sqlGetEventTime(Map<String, Object> row){
-		return (long)row.get(sqlColumnNameEventTime);
+
+	private static final <K> boolean removeFromIndex(final Map<K, Set<Entry>> index, final K key, final Entry entry){
+		if(key != null){
+			final Set<Entry> entries = index.get(key);
+			if(entries != null && entries.remove(entry)){
+				if(entries.isEmpty()){
+					index.remove(key);
+				}
+				return true;
+			}
+		}
+		return false;
 	}
 
 	///////////////////////
@@ -0,0 +1,155 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter.audit.artifact;
+
+import spade.reporter.audit.OPMConstants;
+import spade.utility.BinaryConverter;
+
+/**
+ * Compact codec for all artifact identifier types. A tag byte for the type followed by the identifying fields.
+ *
+ * Tags must never be reordered because they are stored in external maps.
+ */
+public class ArtifactIdentifierConverter extends BinaryConverter<ArtifactIdentifier>{
+
+	private static final int
+		TAG_FILE = 1, TAG_DIRECTORY = 2, TAG_BLOCK_DEVICE = 3, TAG_CHARACTER_DEVICE = 4,
+		TAG_LINK = 5, TAG_NAMED_PIPE = 6, TAG_UNIX_SOCKET = 7, TAG_POSIX_MSG_Q = 8,
+		TAG_MEMORY = 9, TAG_NETWORK_SOCKET = 10, TAG_UNKNOWN = 11,
+		TAG_UNNAMED_NETWORK_SOCKET_PAIR = 12, TAG_UNNAMED_PIPE = 13, TAG_UNNAMED_UNIX_SOCKET_PAIR = 14,
+		TAG_SYSV_MSG_Q = 15, TAG_SYSV_SHARED_MEMORY = 16;
+
+	public static final ArtifactIdentifierConverter instance = new ArtifactIdentifierConverter();
+
+	private static int getTag(final String subtype){
+		switch(subtype){
+			case OPMConstants.SUBTYPE_FILE: return TAG_FILE;
+			case OPMConstants.SUBTYPE_DIRECTORY: return TAG_DIRECTORY;
+			case OPMConstants.SUBTYPE_BLOCK_DEVICE: return TAG_BLOCK_DEVICE;
+			case OPMConstants.SUBTYPE_CHARACTER_DEVICE: return TAG_CHARACTER_DEVICE;
+			case OPMConstants.SUBTYPE_LINK: return TAG_LINK;
+			case OPMConstants.SUBTYPE_NAMED_PIPE: return TAG_NAMED_PIPE;
+			case OPMConstants.SUBTYPE_UNIX_SOCKET: return TAG_UNIX_SOCKET;
+			case OPMConstants.SUBTYPE_POSIX_MSG_Q: return TAG_POSIX_MSG_Q;
+			case OPMConstants.SUBTYPE_MEMORY_ADDRESS: return TAG_MEMORY;
+			case OPMConstants.SUBTYPE_NETWORK_SOCKET: return TAG_NETWORK_SOCKET;
+			case OPMConstants.SUBTYPE_UNKNOWN: return TAG_UNKNOWN;
+			case OPMConstants.SUBTYPE_UNNAMED_NETWORK_SOCKET_PAIR: return TAG_UNNAMED_NETWORK_SOCKET_PAIR;
+			case OPMConstants.SUBTYPE_UNNAMED_PIPE: return TAG_UNNAMED_PIPE;
+			case OPMConstants.SUBTYPE_UNNAMED_UNIX_SOCKET_PAIR: return TAG_UNNAMED_UNIX_SOCKET_PAIR;
+			case OPMConstants.SUBTYPE_SYSV_MSG_Q: return TAG_SYSV_MSG_Q;
+			case OPMConstants.SUBTYPE_SYSV_SHARED_MEMORY: return TAG_SYSV_SHARED_MEMORY;
+			default: throw new IllegalArgumentException("Unexpected subtype: " + subtype);
+		}
+	}
+
+	@Override
+	protected void write(final Output output, final ArtifactIdentifier i) throws Exception{
+		final int tag = getTag(i.getSubtype());
+		output.writeByte(tag);
+		switch(tag){
+			case TAG_FILE:
+			case TAG_DIRECTORY:
+			case TAG_BLOCK_DEVICE:
+			case TAG_CHARACTER_DEVICE:
+			case TAG_LINK:
+			case TAG_NAMED_PIPE:
+			case TAG_UNIX_SOCKET:
+			case TAG_POSIX_MSG_Q:
+				final PathIdentifier path = (PathIdentifier)i;
+				output.writeString(path.path);
+				output.writeString(path.rootFSPath);
+				output.writeString(path.inode);
+				break;
+			case TAG_MEMORY:
+				final MemoryIdentifier memory = (MemoryIdentifier)i;
+				output.writeString(memory.getTgid());
+				output.writeString(memory.getMemoryAddress());
+				output.writeString(memory.getSize());
+				break;
+			case TAG_NETWORK_SOCKET:
+				final NetworkSocketIdentifier network = (NetworkSocketIdentifier)i;
+				output.writeString(network.getLocalHost());
+				output.writeString(network.getLocalPort());
+				output.writeString(network.getRemoteHost());
+				output.writeString(network.getRemotePort());
+				output.writeString(network.getProtocol());
+				output.writeString(network.netNamespaceId);
+				break;
+			case TAG_UNKNOWN:
+				final UnknownIdentifier unknown = (UnknownIdentifier)i;
+				output.writeString(unknown.getTgid());
+				output.writeString(unknown.getFD());
+				break;
+			case TAG_UNNAMED_NETWORK_SOCKET_PAIR:
+				final UnnamedNetworkSocketPairIdentifier networkPair = (UnnamedNetworkSocketPairIdentifier)i;
+				output.writeString(networkPair.tgid);
+				output.writeString(networkPair.fd0);
+				output.writeString(networkPair.fd1);
+				output.writeString(networkPair.protocol);
+				break;
+			case TAG_UNNAMED_PIPE:
+			case TAG_UNNAMED_UNIX_SOCKET_PAIR:
+				final FdPairIdentifier fdPair = (FdPairIdentifier)i;
+				output.writeString(fdPair.tgid);
+				output.writeString(fdPair.fd0);
+				output.writeString(fdPair.fd1);
+				break;
+			case TAG_SYSV_MSG_Q:
+			case TAG_SYSV_SHARED_MEMORY:
+				final SystemVArtifactIdentifier sysv = (SystemVArtifactIdentifier)i;
+				output.writeString(sysv.id);
+				output.writeString(sysv.ouid);
+				output.writeString(sysv.ogid);
+				output.writeString(sysv.ipcNamespace);
+				break;
+			default: throw new IllegalArgumentException("Unhandled tag: " + tag);
+		}
+	}
+
+	@Override
+	protected ArtifactIdentifier read(final Input input) throws Exception{
+		final int tag = input.readByte();
+		switch(tag){
+			case TAG_FILE: return new FileIdentifier(input.readString(), input.readString(), input.readString());
+			case TAG_DIRECTORY: return new DirectoryIdentifier(input.readString(), input.readString(), input.readString());
+			case TAG_BLOCK_DEVICE: return new BlockDeviceIdentifier(input.readString(), input.readString(), input.readString());
+			case TAG_CHARACTER_DEVICE: return new CharacterDeviceIdentifier(input.readString(), input.readString(), input.readString());
+			case TAG_LINK: return new LinkIdentifier(input.readString(), input.readString(), input.readString());
+			case TAG_NAMED_PIPE: return new NamedPipeIdentifier(input.readString(), input.readString(), input.readString());
+			case TAG_UNIX_SOCKET: return new UnixSocketIdentifier(input.readString(), input.readString(), input.readString());
+			case TAG_POSIX_MSG_Q: return new PosixMessageQueue(input.readString(), input.readString(), input.readString());
+			case TAG_MEMORY: return new MemoryIdentifier(input.readString(), input.readString(), input.readString());
+			case TAG_NETWORK_SOCKET: return new NetworkSocketIdentifier(input.readString(), input.readString(),
+					input.readString(), input.readString(), input.readString(), input.readString());
+			case TAG_UNKNOWN: return new UnknownIdentifier(input.readString(), input.readString());
+			case TAG_UNNAMED_NETWORK_SOCKET_PAIR: return new UnnamedNetworkSocketPairIdentifier(input.readString(),
+					input.readString(), input.readString(), input.readString());
+			case TAG_UNNAMED_PIPE: return new UnnamedPipeIdentifier(input.readString(), input.readString(), input.readString());
+			case TAG_UNNAMED_UNIX_SOCKET_PAIR: return new UnnamedUnixSocketPairIdentifier(input.readString(),
+					input.readString(), input.readString());
+			case TAG_SYSV_MSG_Q: return new SystemVMessageQueueIdentifier(input.readString(), input.readString(),
+					input.readString(), input.readString());
+			case TAG_SYSV_SHARED_MEMORY: return new SystemVSharedMemoryIdentifier(input.readString(), input.readString(),
+					input.readString(), input.readString());
+			default: throw new Exception("Unexpected artifact identifier tag: " + tag);
+		}
+	}
+}
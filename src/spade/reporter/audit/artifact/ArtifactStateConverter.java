@@ -0,0 +1,75 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter.audit.artifact;
+
+import java.math.BigInteger;
+import java.util.HashSet;
+import java.util.Set;
+
+import spade.utility.BinaryConverter;
+
+/**
+ * Compact codec for ArtifactState. The set of previous permissions is written as (size + 1) with 0 for null.
+ */
+public class ArtifactStateConverter extends BinaryConverter<ArtifactState>{
+
+	public static final ArtifactStateConverter instance = new ArtifactStateConverter();
+
+	@Override
+	protected void write(final Output output, final ArtifactState i) throws Exception{
+		output.writeBoolean(i.hasBeenPut());
+		output.writeBigInteger(i.getEpoch());
+		output.writeBigInteger(i.getVersion());
+		output.writeBigInteger(i.getLastPutEpoch());
+		output.writeBigInteger(i.getLastPutVersion());
+		output.writeString(i.getPermissions());
+		output.writeString(i.getLastPutPermissions());
+		final Set<String> previousPutPermissions = i.getPreviousPutPermissions();
+		if(previousPutPermissions == null){
+			output.writeVarInt(0);
+		}else{
+			output.writeVarInt(previousPutPermissions.size() + 1);
+			for(final String permissions : previousPutPermissions){
+				output.writeString(permissions);
+			}
+		}
+	}
+
+	@Override
+	protected ArtifactState read(final Input input) throws Exception{
+		final boolean hasBeenPut = input.readBoolean();
+		final BigInteger epoch = input.readBigInteger();
+		final BigInteger version = input.readBigInteger();
+		final BigInteger lastPutEpoch = input.readBigInteger();
+		final BigInteger lastPutVersion = input.readBigInteger();
+		final String permissions = input.readString();
+		final String lastPutPermissions = input.readString();
+		final int previousPutPermissionsSize = input.readVarInt() - 1;
+		Set<String> previousPutPermissions = null;
+		if(previousPutPermissionsSize >= 0){
+			previousPutPermissions = new HashSet<String>();
+			for(int j = 0; j < previousPutPermissionsSize; j++){
+				previousPutPermissions.add(input.readString());
+			}
+		}
+		return new ArtifactState(hasBeenPut, epoch, version, lastPutEpoch,
+				lastPutVersion, permissions, lastPutPermissions, previousPutPermissions);
+	}
+}
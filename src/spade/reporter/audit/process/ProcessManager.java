@@ -35,6 +35,7 @@ import spade.reporter.audit.AuditEventReader;
 import spade.reporter.audit.LinuxConstants;
 import spade.reporter.audit.OPMConstants;
 import spade.reporter.audit.SYSCALL;
+import spade.utility.BinaryConverter;
 import spade.utility.HelperFunctions;
 import spade.utility.Result;
 import spade.utility.map.external.ExternalMap;
@@ -106,7 +107,8 @@ public abstract class ProcessManager extends ProcessStateManager{
 			throw new Exception("Failed to parse external map arguments");
 		}else{
 			ExternalMapArgument externalMapArgument = externalMapArgumentResult.result;
-			Result<ExternalMap<ProcessKey, ProcessUnitState>> externalMapResult = ExternalMapManager.create(externalMapArgument);
+			Result<ExternalMap<ProcessKey, ProcessUnitState>> externalMapResult = ExternalMapManager.createWithCodec(externalMapArgument,
+					ProcessKey.converter, ProcessUnitStateConverter.instance);
 			if(externalMapResult.error){
 				logger.log(Level.SEVERE, "Failed to create external map '"+processUnitStateMapId+"' from arguments: " + externalMapArgument);
 				logger.log(Level.SEVERE, externalMapResult.toErrorString());
@@ -1157,6 +1159,18 @@ class ProcessKey implements Serializable{
 	String pid;
 	String time; // starttime or null
 	
+	static final BinaryConverter<ProcessKey> converter = new BinaryConverter<ProcessKey>(){
+		@Override
+		protected void write(final Output output, final ProcessKey key){
+			output.writeString(key.pid);
+			output.writeString(key.time);
+		}
+		@Override
+		protected ProcessKey read(final Input input) throws Exception{
+			return new ProcessKey(input.readString(), input.readString());
+		}
+	};
+	
 	ProcessKey(String pid, String time){
 		this.pid = pid;
 		this.time = time;
@@ -74,6 +74,23 @@ public class ProcessUnitState implements Serializable{
 		}
 	}
 	
+	// Used by ProcessUnitStateConverter only
+	ProcessUnitState(ProcessIdentifier process, AgentIdentifier agent, UnitIdentifier unit, NamespaceIdentifier namespace,
+			String threadGroupId, Series<Double, SimpleEntry<AgentIdentifier, NamespaceIdentifier>> timeToAgentAndNamespace,
+			boolean hadUnits){
+		this.process = process;
+		this.agent = agent;
+		this.unit = unit;
+		this.namespace = namespace;
+		this.threadGroupId = threadGroupId;
+		this.timeToAgentAndNamespace = timeToAgentAndNamespace;
+		this.hadUnits = hadUnits;
+	}
+	
+	Series<Double, SimpleEntry<AgentIdentifier, NamespaceIdentifier>> getTimeToAgentAndNamespace(){
+		return timeToAgentAndNamespace;
+	}
+	
 	protected void setThreadGroupId(String threadGroupId){
 		this.threadGroupId = threadGroupId;
 	}
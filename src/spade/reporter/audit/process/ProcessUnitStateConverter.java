@@ -0,0 +1,169 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter.audit.process;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.List;
+
+import spade.utility.BinaryConverter;
+import spade.utility.Series;
+
+/**
+ * Compact codec for the values of the Audit processes external map. Keys use ProcessKey.converter.
+ *
+ * Optional identifiers are prefixed with a presence byte.
+ */
+public class ProcessUnitStateConverter extends BinaryConverter<ProcessUnitState>{
+
+	public static final ProcessUnitStateConverter instance = new ProcessUnitStateConverter();
+
+	@Override
+	protected void write(final Output output, final ProcessUnitState state) throws Exception{
+		writeProcess(output, state.getProcess());
+		writeAgent(output, state.getAgent());
+		writeUnit(output, state.getUnit());
+		writeNamespace(output, state.getNamespace());
+		output.writeString(state.getThreadGroupId());
+		output.writeBoolean(state.hadUnits());
+		final List<SimpleEntry<Double, SimpleEntry<AgentIdentifier, NamespaceIdentifier>>> entries =
+				state.getTimeToAgentAndNamespace().getEntries();
+		output.writeVarInt(entries.size());
+		for(final SimpleEntry<Double, SimpleEntry<AgentIdentifier, NamespaceIdentifier>> entry : entries){
+			output.writeDouble(entry.getKey());
+			final SimpleEntry<AgentIdentifier, NamespaceIdentifier> value = entry.getValue();
+			output.writeBoolean(value != null);
+			if(value != null){
+				writeAgent(output, value.getKey());
+				writeNamespace(output, value.getValue());
+			}
+		}
+	}
+
+	@Override
+	protected ProcessUnitState read(final Input input) throws Exception{
+		final ProcessIdentifier process = readProcess(input);
+		final AgentIdentifier agent = readAgent(input);
+		final UnitIdentifier unit = readUnit(input);
+		final NamespaceIdentifier namespace = readNamespace(input);
+		final String threadGroupId = input.readString();
+		final boolean hadUnits = input.readBoolean();
+		final Series<Double, SimpleEntry<AgentIdentifier, NamespaceIdentifier>> timeToAgentAndNamespace =
+				new Series<Double, SimpleEntry<AgentIdentifier, NamespaceIdentifier>>();
+		final int entries = input.readVarInt();
+		for(int i = 0; i < entries; i++){
+			final double time = input.readDouble();
+			SimpleEntry<AgentIdentifier, NamespaceIdentifier> value = null;
+			if(input.readBoolean()){
+				final AgentIdentifier entryAgent = readAgent(input);
+				final NamespaceIdentifier entryNamespace = readNamespace(input);
+				value = new SimpleEntry<AgentIdentifier, NamespaceIdentifier>(entryAgent, entryNamespace);
+			}
+			timeToAgentAndNamespace.add(time, value);
+		}
+		return new ProcessUnitState(process, agent, unit, namespace, threadGroupId, timeToAgentAndNamespace, hadUnits);
+	}
+
+	private static void writeProcess(final Output output, final ProcessIdentifier process){
+		output.writeBoolean(process != null);
+		if(process != null){
+			output.writeString(process.pid);
+			output.writeString(process.ppid);
+			output.writeString(process.name);
+			output.writeString(process.cwd);
+			output.writeString(process.commandLine);
+			output.writeString(process.startTime);
+			output.writeString(process.seenTime);
+			output.writeString(process.processUnitId);
+			output.writeString(process.processSource);
+			output.writeString(process.nsPid);
+			output.writeString(process.exe);
+		}
+	}
+
+	private static ProcessIdentifier readProcess(final Input input) throws Exception{
+		if(!input.readBoolean()){
+			return null;
+		}
+		return new ProcessIdentifier(input.readString(), input.readString(), input.readString(), input.readString(),
+				input.readString(), input.readString(), input.readString(), input.readString(), input.readString(),
+				input.readString(), input.readString());
+	}
+
+	private static void writeAgent(final Output output, final AgentIdentifier agent){
+		output.writeBoolean(agent != null);
+		if(agent != null){
+			output.writeString(agent.uid);
+			output.writeString(agent.euid);
+			output.writeString(agent.gid);
+			output.writeString(agent.egid);
+			output.writeString(agent.suid);
+			output.writeString(agent.fsuid);
+			output.writeString(agent.sgid);
+			output.writeString(agent.fsgid);
+		}
+	}
+
+	private static AgentIdentifier readAgent(final Input input) throws Exception{
+		if(!input.readBoolean()){
+			return null;
+		}
+		return new AgentIdentifier(input.readString(), input.readString(), input.readString(), input.readString(),
+				input.readString(), input.readString(), input.readString(), input.readString());
+	}
+
+	private static void writeUnit(final Output output, final UnitIdentifier unit){
+		output.writeBoolean(unit != null);
+		if(unit != null){
+			output.writeString(unit.id);
+			output.writeString(unit.iteration);
+			output.writeString(unit.count);
+			output.writeString(unit.startTime);
+			output.writeString(unit.eventId);
+		}
+	}
+
+	private static UnitIdentifier readUnit(final Input input) throws Exception{
+		if(!input.readBoolean()){
+			return null;
+		}
+		return new UnitIdentifier(input.readString(), input.readString(), input.readString(), input.readString(),
+				input.readString());
+	}
+
+	private static void writeNamespace(final Output output, final NamespaceIdentifier namespace){
+		output.writeBoolean(namespace != null);
+		if(namespace != null){
+			output.writeString(namespace.mount);
+			output.writeString(namespace.user);
+			output.writeString(namespace.net);
+			output.writeString(namespace.pid);
+			output.writeString(namespace.pid_children);
+			output.writeString(namespace.ipc);
+		}
+	}
+
+	private static NamespaceIdentifier readNamespace(final Input input) throws Exception{
+		if(!input.readBoolean()){
+			return null;
+		}
+		return new NamespaceIdentifier(input.readString(), input.readString(), input.readString(), input.readString(),
+				input.readString(), input.readString());
+	}
+}
@@ -19,25 +19,40 @@
  */
 package spade.screen;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import spade.core.AbstractEdge;
 import spade.core.AbstractScreen;
 import spade.core.AbstractVertex;
+import spade.core.ConcurrentBloomFilter;
+import spade.core.ScalableBloomFilter;
 import spade.core.Settings;
 import spade.utility.FileUtility;
 import spade.utility.HelperFunctions;
 import spade.utility.Result;
 import spade.utility.map.external.cache.LRUCache;
 
+/**
+ * Blocks vertices and edges which have been seen before.
+ *
+ * The bloom filters are lock-free. Only the LRU caches are locked (one lock per cache) to decide which one of
+ * the concurrent callers with the same new hash passes.
+ */
 public final class Deduplicate extends AbstractScreen{
 
 	private final static Logger logger = Logger.getLogger(Deduplicate.class.getName());
@@ -45,30 +60,34 @@ public final class Deduplicate extends AbstractScreen{
 	private final String keyLoadSavePathVertex = "vertex.bloomFilter.path";
 	private final String keyExpectedElementsVertex = "vertex.bloomFilter.expectedElements";
 	private final String keyFalsePositiveProbabilityVertex = "vertex.bloomFilter.falsePositiveProbability";
+	private final String keyScalableVertex = "vertex.bloomFilter.scalable";
 	private final String keyCacheSizeVertex = "vertex.cache.size";
 	private final String keyLoadSavePathEdge = "edge.bloomFilter.path";
 	private final String keyExpectedElementsEdge = "edge.bloomFilter.expectedElements";
 	private final String keyFalsePositiveProbabilityEdge = "edge.bloomFilter.falsePositiveProbability";
+	private final String keyScalableEdge = "edge.bloomFilter.scalable";
 	private final String keyCacheSizeEdge = "edge.cache.size";
 	private final String keyReportingIntervalSeconds = "reportingIntervalSeconds";
 
 	private final Object blankObject = new Object();
-	private final Object lockObject = new Object();
+	// Guards the caches. The bloom filters do not need a lock.
+	private final Object vertexCacheLock = new Object();
+	private final Object edgeCacheLock = new Object();
 	
 	private String loadSavePathVertex = null;
-	private spade.core.BloomFilter<String> bloomFilterVertex = null;
+	private ScalableBloomFilter<String> bloomFilterVertex = null;
 	private LRUCache<String, Object> cacheVertex;
 	private String loadSavePathEdge = null;
-	private spade.core.BloomFilter<String> bloomFilterEdge = null;
+	private ScalableBloomFilter<String> bloomFilterEdge = null;
 	private LRUCache<String, Object> cacheEdge;
 	
 	private boolean reportingEnabled;
 	private long reportingIntervalMillis;
-	private long lastReportedAtMillis;
-	private long verticesBlocked = 0;
-	private long verticesNotBlocked = 0;
-	private long edgeBlocked = 0;
-	private long edgesNotBlocked = 0;
+	private final AtomicLong lastReportedAtMillis = new AtomicLong(0);
+	private final LongAdder verticesBlocked = new LongAdder();
+	private final LongAdder verticesNotBlocked = new LongAdder();
+	private final LongAdder edgeBlocked = new LongAdder();
+	private final LongAdder edgesNotBlocked = new LongAdder();
 	
 	@Override
 	public boolean initialize(final String argumentsString){
@@ -81,17 +100,21 @@ public final class Deduplicate extends AbstractScreen{
 			final String vertexLoadSavePathString = map.get(keyLoadSavePathVertex);
 			final String vertexBloomFilterExpectedElementsString = map.get(keyExpectedElementsVertex);
 			final String vertexBloomFilterFalsePositiveProbabilityString = map.get(keyFalsePositiveProbabilityVertex);
+			final String vertexScalableString = map.get(keyScalableVertex);
 			final String vertexCacheSizeString = map.get(keyCacheSizeVertex);
 			final String edgeLoadSavePathString = map.get(keyLoadSavePathEdge);
 			final String edgeBloomFilterExpectedElementsString = map.get(keyExpectedElementsEdge);
 			final String edgeBloomFilterFalsePositiveProbabilityString = map.get(keyFalsePositiveProbabilityEdge);
+			final String edgeScalableString = map.get(keyScalableEdge);
 			final String edgeCacheSizeString = map.get(keyCacheSizeEdge);
 
 			initialize(reportingIntervalSecondsString, 
 					vertexLoadSavePathString, 
-					vertexBloomFilterExpectedElementsString, vertexBloomFilterFalsePositiveProbabilityString, vertexCacheSizeString, 
+					vertexBloomFilterExpectedElementsString, vertexBloomFilterFalsePositiveProbabilityString, vertexScalableString,
+					vertexCacheSizeString, 
 					edgeLoadSavePathString, 
-					edgeBloomFilterExpectedElementsString, edgeBloomFilterFalsePositiveProbabilityString, edgeCacheSizeString);
+					edgeBloomFilterExpectedElementsString, edgeBloomFilterFalsePositiveProbabilityString, edgeScalableString,
+					edgeCacheSizeString);
 
 			printStats(true);
 
@@ -104,9 +127,11 @@ public final class Deduplicate extends AbstractScreen{
 	
 	public final void initialize(final String reportingIntervalSecondsString, 
 			final String vertexLoadSavePathString, 
-			final String vertexBloomFilterExpectedElementsString, final String vertexBloomFilterFalsePositiveProbabilityString, final String vertexCacheSizeString,
+			final String vertexBloomFilterExpectedElementsString, final String vertexBloomFilterFalsePositiveProbabilityString,
+			final String vertexScalableString, final String vertexCacheSizeString,
 			final String edgeLoadSavePathString, 
-			final String edgeBloomFilterExpectedElementsString, final String edgeBloomFilterFalsePositiveProbabilityString, final String edgeCacheSizeString)
+			final String edgeBloomFilterExpectedElementsString, final String edgeBloomFilterFalsePositiveProbabilityString,
+			final String edgeScalableString, final String edgeCacheSizeString)
 		throws Exception{
 		
 		final Result<Long> reportingIntervalSecondsResult = HelperFunctions.parseLong(reportingIntervalSecondsString, 10, Integer.MIN_VALUE, Integer.MAX_VALUE);
@@ -117,7 +142,7 @@ public final class Deduplicate extends AbstractScreen{
 		if(reportingIntervalSecondsResult.result > 0){
 			this.reportingEnabled = true;
 			this.reportingIntervalMillis = reportingIntervalSecondsResult.result.intValue() * 1000;
-			this.lastReportedAtMillis = System.currentTimeMillis();
+			this.lastReportedAtMillis.set(System.currentTimeMillis());
 		}else{
 			this.reportingEnabled = false;
 		}
@@ -129,9 +154,9 @@ public final class Deduplicate extends AbstractScreen{
 		}
 		
 		loadBloomFilterAndCache(vertexLoadSavePathString, vertexBloomFilterExpectedElementsString, vertexBloomFilterFalsePositiveProbabilityString, 
-				vertexCacheSizeString, true);
+				vertexScalableString, vertexCacheSizeString, true);
 		loadBloomFilterAndCache(edgeLoadSavePathString, edgeBloomFilterExpectedElementsString, edgeBloomFilterFalsePositiveProbabilityString,
-				edgeCacheSizeString, false);
+				edgeScalableString, edgeCacheSizeString, false);
 		
 	}
 
@@ -159,6 +184,14 @@ public final class Deduplicate extends AbstractScreen{
 		}
 	}
 
+	private final String getScalableKeyFor(final boolean isForVertex){
+		if(isForVertex){
+			return keyScalableVertex;
+		}else{
+			return keyScalableEdge;
+		}
+	}
+
 	private final String getCacheSizeKeyFor(final boolean isForVertex){
 		if(isForVertex){
 			return keyCacheSizeVertex;
@@ -167,12 +200,23 @@ public final class Deduplicate extends AbstractScreen{
 		}
 	}
 
-	@SuppressWarnings("unchecked")
 	private final void loadBloomFilterAndCache(String loadSavePathString,
-			final String expectedElementsString, final String falsePositiveString, final String cacheSizeString,
-			final boolean isForVertex) throws Exception{
+			final String expectedElementsString, final String falsePositiveString, final String scalableString,
+			final String cacheSizeString, final boolean isForVertex) throws Exception{
 		final String logName = isForVertex ? "Vertex" : "Edge";
 
+		final boolean scalable;
+		if(HelperFunctions.isNullOrEmpty(scalableString)){
+			scalable = false;
+		}else{
+			final Result<Boolean> scalableResult = HelperFunctions.parseBoolean(scalableString);
+			if(scalableResult.error){
+				throw new Exception("Invalid "+logName+" BloomFilter scalable value with key '"+getScalableKeyFor(isForVertex)+"'. "
+						+ scalableResult.errorMessage);
+			}
+			scalable = scalableResult.result;
+		}
+
 		boolean loadFromFile = false;
 
 		if(loadSavePathString != null && loadSavePathString.trim().isEmpty()){
@@ -200,35 +244,42 @@ public final class Deduplicate extends AbstractScreen{
 			}
 		}
 
-		spade.core.BloomFilter<String> bloomFilter = null;
+		ScalableBloomFilter<String> bloomFilter = null;
 		List<String> cacheEntries = null;
 		Integer cacheSize = null;
 		
 		if(loadFromFile){
-			try(final ObjectInputStream objectInputStream = new ObjectInputStream(
-					new FileInputStream(new File(loadSavePathString).getAbsolutePath()))){
-				bloomFilter = (spade.core.BloomFilter<String>)objectInputStream.readObject();
+			try(final DataInputStream inputStream = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(new File(loadSavePathString).getAbsolutePath())))){
+				final byte[] header = new byte[4];
+				inputStream.mark(header.length);
+				final boolean headerRead = inputStream.read(header) == header.length;
+				inputStream.reset();
+				if(headerRead && ScalableBloomFilter.isBinaryFormat(header)){
+					bloomFilter = ScalableBloomFilter.read(inputStream, scalable);
+				}else if(headerRead && ConcurrentBloomFilter.isBinaryFormat(header)){
+					// Saved with a single filter
+					bloomFilter = ScalableBloomFilter.wrap(ConcurrentBloomFilter.<String>read(inputStream), scalable);
+				}
 				if(bloomFilter != null){
 					logger.log(Level.INFO,
 							logName + " BloomFilter initialized from file: " + loadSavePathString + " [falsePositiveProbability="
 									+ bloomFilter.getFalsePositiveProbability() + ", " + "expectedElements="
-									+ bloomFilter.getExpectedBitsPerElement() + "]");
+									+ bloomFilter.getExpectedElements() + ", filters=" + bloomFilter.getFilterCount() + ", "
+									+ "scalable=" + scalable + "]");
 					logger.log(Level.INFO, "Keys ignored: ['"+getExpectedElementsKeyFor(isForVertex)+"', '"+getFalsePositiveKeyFor(isForVertex)+"']");
-					cacheSize = (Integer)objectInputStream.readObject();
-					if(cacheSize != null){
-						cacheEntries = (List<String>)objectInputStream.readObject();
-						if(cacheEntries != null){
-							logger.log(Level.INFO,
-									logName + " Cache initialized from file: " + loadSavePathString + " [cacheSize=" + cacheSize + "]");
-							logger.log(Level.INFO, "Key ignored: ['"+getCacheSizeKeyFor(isForVertex)+"']");
-						}else{
-							// Fall back to creating from arguments
-						}
-					}else{
-						// Fall back to creating from arguments
+					cacheSize = inputStream.readInt();
+					final int cacheEntriesCount = inputStream.readInt();
+					cacheEntries = new ArrayList<String>(cacheEntriesCount);
+					for(int i = 0; i < cacheEntriesCount; i++){
+						cacheEntries.add(inputStream.readUTF());
 					}
+					logger.log(Level.INFO,
+							logName + " Cache initialized from file: " + loadSavePathString + " [cacheSize=" + cacheSize + "]");
+					logger.log(Level.INFO, "Key ignored: ['"+getCacheSizeKeyFor(isForVertex)+"']");
 				}else{
-					// Fall back to creating from arguments
+					// Cache size is read from the arguments
+					cacheEntries = readLegacyCacheEntries(inputStream, loadSavePathString, logName);
 				}
 			}catch(Exception e){
 				throw new Exception("Invalid "+logName+" BloomFilter file format: " + loadSavePathString, e);
@@ -248,23 +299,38 @@ public final class Deduplicate extends AbstractScreen{
 						+ "Must be between 0 and 1 (inclusive) but is '"+falsePositiveString+"'");
 			}
 
-			bloomFilter = new spade.core.BloomFilter<String>(falsePositiveResult.result, expectedElementsResult.result.intValue());
+			if(!(falsePositiveResult.result > 0 && falsePositiveResult.result < 1)){
+				throw new Exception("Invalid "+logName+" BloomFilter false positive probability value with key '"+getFalsePositiveKeyFor(isForVertex)+"'. "
+						+ "Must be between 0 and 1 (exclusive) but is '"+falsePositiveString+"'");
+			}
+
+			bloomFilter = new ScalableBloomFilter<String>(falsePositiveResult.result, expectedElementsResult.result, scalable);
+			if(cacheEntries != null){
+				// Only the cached keys survive from a legacy file
+				for(final String cacheEntryKey : cacheEntries){
+					if(cacheEntryKey != null){
+						bloomFilter.add(cacheEntryKey);
+					}
+				}
+			}
 			logger.log(Level.INFO,
 					logName + " BloomFilter initialized from arguments: " + "[falsePositiveProbability="
 							+ String.format("%.9f", falsePositiveResult.result) + ", "
-							+ "expectedElements=" + expectedElementsResult.result.intValue() + "]");
+							+ "expectedElements=" + expectedElementsResult.result.intValue() + ", "
+							+ "scalable=" + scalable + "]");
 		}
 
 		LRUCache<String, Object> cache = null;
 
-		if(cacheEntries == null){
+		if(cacheSize == null){
 			final Result<Long> cacheSizeResult = HelperFunctions.parseLong(cacheSizeString, 10, 0, Integer.MAX_VALUE);
 			if(cacheSizeResult.error){
 				throw new Exception("Invalid "+logName+" '"+getCacheSizeKeyFor(isForVertex)+"' value. Must be non-negative: " + cacheSizeResult.errorMessage);
 			}
-			cache = new LRUCache<String, Object>(cacheSizeResult.result.intValue());
-		}else{
-			cache = new LRUCache<String, Object>(cacheSize);
+			cacheSize = cacheSizeResult.result.intValue();
+		}
+		cache = new LRUCache<String, Object>(cacheSize);
+		if(cacheEntries != null){
 			for(int x = cacheEntries.size() - 1; x >= 0; x--){
 				final String cacheEntryKey = cacheEntries.get(x);
 				if(cacheEntryKey != null){
@@ -296,19 +362,40 @@ public final class Deduplicate extends AbstractScreen{
 		logger.log(Level.INFO, logName + " cache created with max size '"+cache.getMaximumSize()+"'");
 	}
 
+	/*
+	 * Files written before the binary format contain a serialized spade.core.BloomFilter, the cache size and the
+	 * cache keys. The MD5 bits of that filter cannot be mapped to the bits of the new filter so only the cache keys
+	 * are returned.
+	 */
+	@SuppressWarnings("unchecked")
+	private final List<String> readLegacyCacheEntries(final DataInputStream inputStream, final String path,
+			final String logName) throws Exception{
+		final ObjectInputStream objectInputStream = new ObjectInputStream(inputStream);
+		final Object legacyBloomFilter = objectInputStream.readObject();
+		if(!(legacyBloomFilter instanceof spade.core.BloomFilter)){
+			throw new Exception("Unexpected object instead of a BloomFilter: " + 
+					(legacyBloomFilter == null ? null : legacyBloomFilter.getClass()));
+		}
+		logger.log(Level.WARNING, logName + " BloomFilter in file '" + path + "' is in the legacy serialized format. "
+				+ "Its contents cannot be converted and only the cached keys are loaded. "
+				+ "The file would be rewritten in the binary format on shutdown.");
+		final Integer cacheSize = (Integer)objectInputStream.readObject();
+		if(cacheSize == null){
+			return null;
+		}
+		return (List<String>)objectInputStream.readObject();
+	}
+
 	@Override
 	public boolean blockVertex(final AbstractVertex vertex){
 		if(vertex != null){
 			final String hashCode = vertex.bigHashCode();
 			if(hashCode != null){
-				final boolean block;
-				synchronized(lockObject){
-					block = block(hashCode, this.bloomFilterVertex, this.cacheVertex);
-				}
+				final boolean block = block(hashCode, this.bloomFilterVertex, this.cacheVertex, vertexCacheLock);
 				if(block){
-					verticesBlocked++;
+					verticesBlocked.increment();
 				}else{
-					verticesNotBlocked++;
+					verticesNotBlocked.increment();
 				}
 				return block;
 			}
@@ -321,14 +408,11 @@ public final class Deduplicate extends AbstractScreen{
 		if(edge != null){
 			final String hashCode = edge.bigHashCode();
 			if(hashCode != null){
-				final boolean block;
-				synchronized(lockObject){
-					block = block(hashCode, this.bloomFilterEdge, this.cacheEdge);
-				}
+				final boolean block = block(hashCode, this.bloomFilterEdge, this.cacheEdge, edgeCacheLock);
 				if(block){
-					edgeBlocked++;
+					edgeBlocked.increment();
 				}else{
-					edgesNotBlocked++;
+					edgesNotBlocked.increment();
 				}
 				return block;
 			}
@@ -336,23 +420,19 @@ public final class Deduplicate extends AbstractScreen{
 		return true;
 	}
 	
-	private final synchronized boolean block(final String hashCode, 
-			final spade.core.BloomFilter<String> bloomFilter, final LRUCache<String, Object> cache){
+	private final boolean block(final String hashCode, 
+			final ScalableBloomFilter<String> bloomFilter, final LRUCache<String, Object> cache, final Object cacheLock){
 		printStats(false);
 		
-		if(bloomFilter.contains(hashCode)){
-			if(cache.get(hashCode) == null){
-				cache.put(hashCode, blankObject);
-				while(cache.hasExceededMaximumSize()){
-					cache.evict();
-				}
-				return false;
-			}else{
+		// Lock-free
+		bloomFilter.add(hashCode);
+		synchronized(cacheLock){
+			// Checked even if the hash was just added to the bloom filter because a concurrent caller with the same
+			// hash might have passed already
+			if(cache.get(hashCode) != null){
 				return true;
 			}
-		}else{
-			// Not in bloomfilter. Must put so do NOT block
-			bloomFilter.add(hashCode);
+			// Not in cache (or a bloom filter false positive). Must put so do NOT block
 			cache.put(hashCode, blankObject);
 			while(cache.hasExceededMaximumSize()){
 				cache.evict();
@@ -362,40 +442,38 @@ public final class Deduplicate extends AbstractScreen{
 	}
 	
 	public final void reset(){
-		synchronized(lockObject){
-			this.bloomFilterVertex.clear();
-			this.bloomFilterEdge.clear();
+		this.bloomFilterVertex.clear();
+		this.bloomFilterEdge.clear();
+		synchronized(vertexCacheLock){
 			this.cacheVertex.clear();
+		}
+		synchronized(edgeCacheLock){
 			this.cacheEdge.clear();
 		}
 	}
 	
 	public final Object getVertexCacheValueForStorage(final String hashCode){
-		synchronized(lockObject){
+		synchronized(vertexCacheLock){
 			return getCacheValueForStorage(cacheVertex, hashCode);
 		}
 	}
 	
 	public final Object getEdgeCacheValueForStorage(final String hashCode){
-		synchronized(lockObject){
+		synchronized(edgeCacheLock){
 			return getCacheValueForStorage(cacheEdge, hashCode);
 		}
 	}
 	
 	public final void setVertexCacheValueForStorage(final String hashCode, final Object value){
-		synchronized(lockObject){
-			setCacheValueForStorage(bloomFilterVertex, cacheVertex, hashCode, value);
-		}
+		setCacheValueForStorage(bloomFilterVertex, cacheVertex, vertexCacheLock, hashCode, value);
 	}
 	
 	public final void setEdgeCacheValueForStorage(final String hashCode, final Object value){
-		synchronized(lockObject){
-			setCacheValueForStorage(bloomFilterEdge, cacheEdge, hashCode, value);
-		}
+		setCacheValueForStorage(bloomFilterEdge, cacheEdge, edgeCacheLock, hashCode, value);
 	}
 	
 	public final void unsetAllVertexCacheValuesForStorage(){
-		synchronized(lockObject){
+		synchronized(vertexCacheLock){
 			final List<String> keyList = cacheVertex.getKeysInLRUAccessOrder();
 			for(int x = keyList.size() - 1; x >= 0; x--){
 				final String key = keyList.get(x);
@@ -418,72 +496,95 @@ public final class Deduplicate extends AbstractScreen{
 		return value;
 	}
 	
-	private final void setCacheValueForStorage(
-			final spade.core.BloomFilter<String> bloomFilter, final LRUCache<String, Object> cache, final String hashCode, final Object value){
+	private final void setCacheValueForStorage(final ScalableBloomFilter<String> bloomFilter,
+			final LRUCache<String, Object> cache, final Object cacheLock, final String hashCode, final Object value){
 		if(hashCode == null){
 			return;
 		}
-		if(value == null){
-			cache.put(hashCode, blankObject);
-		}else{
-			cache.put(hashCode, value);
-		}
-		if(!bloomFilter.contains(hashCode)){
-			bloomFilter.add(hashCode);
-		}
-		while(cache.hasExceededMaximumSize()){
-			cache.evict();
+		bloomFilter.add(hashCode);
+		synchronized(cacheLock){
+			if(value == null){
+				cache.put(hashCode, blankObject);
+			}else{
+				cache.put(hashCode, value);
+			}
+			while(cache.hasExceededMaximumSize()){
+				cache.evict();
+			}
 		}
 	}
 	
 	private final void printStats(final boolean force){
-		if(force || (reportingEnabled && (System.currentTimeMillis() - lastReportedAtMillis >= reportingIntervalMillis))){
-			logger.log(Level.INFO, "verticesBlocked=" + verticesBlocked + ", verticesNotBlocked=" + verticesNotBlocked + ", "
-					+ "edgesBlocked=" + edgeBlocked + ", edgesNotBlocked=" + edgesNotBlocked);
-			lastReportedAtMillis = System.currentTimeMillis();
+		final long lastReportedAt = lastReportedAtMillis.get();
+		final long current = System.currentTimeMillis();
+		if(force || (reportingEnabled && (current - lastReportedAt >= reportingIntervalMillis)
+				&& lastReportedAtMillis.compareAndSet(lastReportedAt, current))){
+			logger.log(Level.INFO, "verticesBlocked=" + verticesBlocked.sum() + ", verticesNotBlocked=" + verticesNotBlocked.sum() + ", "
+					+ "edgesBlocked=" + edgeBlocked.sum() + ", edgesNotBlocked=" + edgesNotBlocked.sum() + ", "
+					+ "vertexBloomFilter=" + getBloomFilterStats(bloomFilterVertex) + ", "
+					+ "edgeBloomFilter=" + getBloomFilterStats(bloomFilterEdge));
+			lastReportedAtMillis.set(current);
 		}
 	}
 
+	private final String getBloomFilterStats(final ScalableBloomFilter<String> bloomFilter){
+		if(bloomFilter == null){
+			return null;
+		}
+		return "[filters=" + bloomFilter.getFilterCount() + ", count=" + bloomFilter.count() + ", "
+				+ "estimatedFalsePositiveProbability=" + String.format("%.9f", bloomFilter.getEstimatedFalsePositiveProbability()) + ", "
+				+ "memory=" + FileUtility.formatBytesSizeToDisplaySize(BigInteger.valueOf(bloomFilter.getSizeInBytes())) + "]";
+	}
+
 	@Override
 	public boolean shutdown(){
-		synchronized(lockObject){
-			if(this.loadSavePathVertex != null){
+		// Before the bloom filters are cleared
+		printStats(true);
+
+		if(this.loadSavePathVertex != null){
+			synchronized(vertexCacheLock){
 				saveBloomFilterAndCache(this.bloomFilterVertex, this.cacheVertex, this.loadSavePathVertex, "Vertex");
-				this.bloomFilterVertex.clear();
 			}
-			if(this.loadSavePathEdge != null){
+			this.bloomFilterVertex.clear();
+		}
+		if(this.loadSavePathEdge != null){
+			synchronized(edgeCacheLock){
 				saveBloomFilterAndCache(this.bloomFilterEdge, this.cacheEdge, this.loadSavePathEdge, "Edge");
-				this.bloomFilterEdge.clear();
 			}
-			if(this.cacheEdge != null){
+			this.bloomFilterEdge.clear();
+		}
+		if(this.cacheEdge != null){
+			synchronized(edgeCacheLock){
 				this.cacheEdge.clear();
 			}
-			if(this.cacheVertex != null){
+		}
+		if(this.cacheVertex != null){
+			synchronized(vertexCacheLock){
 				this.cacheVertex.clear();
 			}
 		}
 		
-		printStats(true);
-		
 		return true;
 	}
 	
-	private final void saveBloomFilterAndCache(final spade.core.BloomFilter<String> bloomFilter, 
+	/*
+	 * Binary format: the bloom filter (see ScalableBloomFilter.write), the cache size as int, the count of the cache
+	 * keys as int and then the cache keys in LRU access order as modified UTF-8.
+	 */
+	private final void saveBloomFilterAndCache(final ScalableBloomFilter<String> bloomFilter, 
 			final LRUCache<String, Object> cache,
 			final String path, final String logName){
-		ObjectOutputStream objectOutputStream = null;
-		try{
-			objectOutputStream = new ObjectOutputStream(new FileOutputStream(path));
-			objectOutputStream.writeObject(bloomFilter);
-			objectOutputStream.writeObject(cache.getMaximumSize());
-			objectOutputStream.writeObject(cache.getKeysInLRUAccessOrder());
+		try(final DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))){
+			bloomFilter.write(outputStream);
+			outputStream.writeInt(cache.getMaximumSize());
+			final List<String> keys = cache.getKeysInLRUAccessOrder();
+			outputStream.writeInt(keys.size());
+			for(final String key : keys){
+				outputStream.writeUTF(key);
+			}
 			logger.log(Level.INFO, logName+" BloomFilter saved to path: " + path);
 		}catch(Exception e){
 			logger.log(Level.SEVERE, "Failed to save "+logName+" BloomFilter at path: " + path, e);
-		}finally{
-			if(objectOutputStream != null){
-				try{ objectOutputStream.close(); }catch(Exception e){}
-			}
 		}
 	}
 
@@ -21,9 +21,13 @@
 package spade.storage;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -43,6 +47,7 @@ import spade.storage.kafka.ServerWriter;
 import spade.storage.kafka.Vertex;
 import spade.utility.FileUtility;
 import spade.utility.HelperFunctions;
+import spade.utility.Result;
 
 public class Kafka extends AbstractStorage{
 
@@ -53,12 +58,27 @@ public class Kafka extends AbstractStorage{
 			SCHEMA_FILE_KEY = "schema",
 			SERVER_KEY = "kafkaserver",
 			TOPIC_KEY = "kafkatopic",
-			PRODUCER_ID_KEY = "kafkaproducerid";
+			PRODUCER_ID_KEY = "kafkaproducerid",
+			BATCH_SIZE_KEY = "batchsize",
+			LINGER_MILLIS_KEY = "lingermillis";
 	
 	private static final Logger logger = Logger.getLogger(Kafka.class.getName());
     
     private List<DataWriter> dataWriters = new ArrayList<DataWriter>();
     
+    // Records are handed to the data writers in blocks of 'batchSize' or after 'lingerMillis', whichever comes first
+    private final Object pendingRecordsLock = new Object();
+    private final List<GenericContainer> pendingRecords = new ArrayList<GenericContainer>();
+    private long firstPendingRecordMillis;
+    private int batchSize = 1;
+    private long lingerMillis = 0;
+    private Timer lingerTimer;
+    
+    // Reused for every block. Slot 'i' is used by the i-th pending record and is free again once the block is written
+    private Vertex[] vertexRecords = new Vertex[1];
+    private Edge[] edgeRecords = new Edge[1];
+    private GraphElement[] graphElementRecords = new GraphElement[1];
+    
     private String defaultConfigFilePath = Settings.getDefaultConfigFilePath(this.getClass()); //depending on the instance get the correct config file
   	
     public boolean writeDataToServer(Map<String, String> args){
@@ -82,6 +102,10 @@ public class Kafka extends AbstractStorage{
            
             Map<String, String> passedArguments = HelperFunctions.makeKeysLowerCase(HelperFunctions.parseKeyValPairs(arguments));
             
+            if(!initializeBatching(passedArguments)){
+            	return false;
+            }
+            
             //if output file key exists then handle as file 
             if(passedArguments.get(OUTPUT_FILE_KEY) != null){  
             	
@@ -189,6 +213,51 @@ public class Kafka extends AbstractStorage{
         }
 	}
 	
+	private boolean initializeBatching(Map<String, String> passedArguments) throws Exception{
+		Map<String, String> defaultArguments = HelperFunctions.makeKeysLowerCase(FileUtility.readConfigFileAsKeyValueMap(defaultConfigFilePath, "="));
+		
+		String batchSizeString = passedArguments.containsKey(BATCH_SIZE_KEY) ? passedArguments.get(BATCH_SIZE_KEY) : defaultArguments.get(BATCH_SIZE_KEY);
+		if(!HelperFunctions.isNullOrEmpty(batchSizeString)){
+			Result<Long> batchSizeResult = HelperFunctions.parseLong(batchSizeString.trim(), 10, 1, Integer.MAX_VALUE);
+			if(batchSizeResult.error){
+				logger.log(Level.SEVERE, "Invalid value for '" + BATCH_SIZE_KEY + "': " + batchSizeResult.toErrorString());
+				return false;
+			}
+			batchSize = batchSizeResult.result.intValue();
+		}
+		
+		String lingerMillisString = passedArguments.containsKey(LINGER_MILLIS_KEY) ? passedArguments.get(LINGER_MILLIS_KEY) : defaultArguments.get(LINGER_MILLIS_KEY);
+		if(!HelperFunctions.isNullOrEmpty(lingerMillisString)){
+			Result<Long> lingerMillisResult = HelperFunctions.parseLong(lingerMillisString.trim(), 10, 0, Long.MAX_VALUE);
+			if(lingerMillisResult.error){
+				logger.log(Level.SEVERE, "Invalid value for '" + LINGER_MILLIS_KEY + "': " + lingerMillisResult.toErrorString());
+				return false;
+			}
+			lingerMillis = lingerMillisResult.result;
+		}
+		
+		vertexRecords = new Vertex[batchSize];
+		edgeRecords = new Edge[batchSize];
+		graphElementRecords = new GraphElement[batchSize];
+		
+		if(batchSize > 1 && lingerMillis > 0){
+			lingerTimer = new Timer("kafka-storage-linger", true);
+			lingerTimer.schedule(new TimerTask(){
+				@Override
+				public void run(){
+					synchronized(pendingRecordsLock){
+						if(!pendingRecords.isEmpty() && System.currentTimeMillis() - firstPendingRecordMillis >= lingerMillis){
+							flushPendingRecords();
+						}
+					}
+				}
+			}, lingerMillis, lingerMillis);
+		}
+		
+		logger.log(Level.INFO, "Params: BatchSize={0} LingerMillis={1}", new Object[]{batchSize, lingerMillis});
+		return true;
+	}
+	
 	public static DataWriter getDataWriter(Properties properties) throws Exception{
 		if(properties.get(Kafka.OUTPUT_FILE_KEY) != null){
 			if(String.valueOf(properties.get(Kafka.OUTPUT_FILE_KEY)).endsWith(".json")){
@@ -213,16 +282,40 @@ public class Kafka extends AbstractStorage{
 		return properties;
 	}
 	
+	// Must be called with 'pendingRecordsLock' held. Returns the slot of the next record
+	private int nextRecordSlot(){
+		if(pendingRecords.size() >= graphElementRecords.length){
+			flushPendingRecords();
+		}
+		return pendingRecords.size();
+	}
+	
+	private GraphElement graphElementRecord(int slot){
+		if(graphElementRecords[slot] == null){
+			graphElementRecords[slot] = new GraphElement();
+		}
+		return graphElementRecords[slot];
+	}
+	
 	@Override
 	public boolean storeVertex(AbstractVertex vertex){
 		try{
-			List<GenericContainer> recordsToPublish = new ArrayList<GenericContainer>();
-			Vertex.Builder vertexBuilder = Vertex.newBuilder();
-			vertexBuilder.setAnnotations(vertex.getCopyOfAnnotations());
-			vertexBuilder.setHash(String.valueOf(vertex.bigHashCode()));
-			Vertex kafkaVertex = vertexBuilder.build();
-			recordsToPublish.add(GraphElement.newBuilder().setElement(kafkaVertex).build());
-			return publishRecords(recordsToPublish) > 0;
+			synchronized(pendingRecordsLock){
+				int slot = nextRecordSlot();
+				Vertex kafkaVertex = vertexRecords[slot];
+				if(kafkaVertex == null){
+					kafkaVertex = vertexRecords[slot] = new Vertex(new HashMap<String, String>(), null);
+				}
+				Map<String, String> annotations = kafkaVertex.getAnnotations();
+				annotations.clear();
+				for(String key : vertex.getAnnotationKeys()){
+					annotations.put(key, vertex.getAnnotation(key));
+				}
+				kafkaVertex.setHash(String.valueOf(vertex.bigHashCode()));
+				GraphElement graphElement = graphElementRecord(slot);
+				graphElement.setElement(kafkaVertex);
+				return publishRecords(Collections.<GenericContainer>singletonList(graphElement)) > 0;
+			}
 		}catch(Exception e){
 			logger.log(Level.SEVERE, "Failed to publish vertex : " + vertex);
 			return false;
@@ -238,37 +331,79 @@ public class Kafka extends AbstractStorage{
 	@Override
 	public boolean storeEdge(AbstractEdge edge){
 		try{
-			List<GenericContainer> recordsToPublish = new ArrayList<GenericContainer>();
-			Edge.Builder edgeBuilder = Edge.newBuilder();
-			edgeBuilder.setAnnotations(edge.getCopyOfAnnotations());
-			edgeBuilder.setChildVertexHash(String.valueOf(edge.getChildVertex().bigHashCode()));
-			edgeBuilder.setParentVertexHash(String.valueOf(edge.getParentVertex().bigHashCode()));
-			edgeBuilder.setHash(String.valueOf(edge.bigHashCode()));
-			Edge kafkaEdge = edgeBuilder.build();
-			recordsToPublish.add(GraphElement.newBuilder().setElement(kafkaEdge).build());
-			return publishRecords(recordsToPublish) > 0;	
+			synchronized(pendingRecordsLock){
+				int slot = nextRecordSlot();
+				Edge kafkaEdge = edgeRecords[slot];
+				if(kafkaEdge == null){
+					kafkaEdge = edgeRecords[slot] = new Edge(new HashMap<String, String>(), null, null, null);
+				}
+				Map<String, String> annotations = kafkaEdge.getAnnotations();
+				annotations.clear();
+				for(String key : edge.getAnnotationKeys()){
+					annotations.put(key, edge.getAnnotation(key));
+				}
+				kafkaEdge.setChildVertexHash(String.valueOf(edge.getChildVertex().bigHashCode()));
+				kafkaEdge.setParentVertexHash(String.valueOf(edge.getParentVertex().bigHashCode()));
+				kafkaEdge.setHash(String.valueOf(edge.bigHashCode()));
+				GraphElement graphElement = graphElementRecord(slot);
+				graphElement.setElement(kafkaEdge);
+				return publishRecords(Collections.<GenericContainer>singletonList(graphElement)) > 0;
+			}
 		}catch(Exception e){
 			logger.log(Level.SEVERE, "Failed to publish edge : " + edge);
 			return false;
 		}
 	}
 	
-	//function to call to save data to the storage
+	//function to call to save data to the storage. Records are buffered if batching is enabled
 	protected int publishRecords(List<GenericContainer> genericContainers) {
+		if(genericContainers == null){
+			return 0;
+		}
+		synchronized(pendingRecordsLock){
+			if(batchSize <= 1){
+				return writeRecords(genericContainers, false);
+			}
+			if(pendingRecords.isEmpty()){
+				firstPendingRecordMillis = System.currentTimeMillis();
+			}
+			pendingRecords.addAll(genericContainers);
+			if(pendingRecords.size() >= batchSize){
+				flushPendingRecords();
+			}
+			return genericContainers.size();
+		}
+	}
+	
+	// Must be called with 'pendingRecordsLock' held
+	private void flushPendingRecords(){
+		if(!pendingRecords.isEmpty()){
+			writeRecords(pendingRecords, true);
+			pendingRecords.clear();
+		}
+	}
+	
+	private int writeRecords(List<GenericContainer> genericContainers, boolean asBlock){
 		int recordCount = 0;
-		if(genericContainers != null){
-			for (GenericContainer genericContainer : genericContainers) {
-				//            logger.log(Level.INFO, "Attempting to publish record {0}", genericContainer.toString());
-				for(DataWriter dataWriter : dataWriters){
+		for(DataWriter dataWriter : dataWriters){
+			if(!asBlock){
+				for(GenericContainer genericContainer : genericContainers){
 					try {
 						dataWriter.writeRecord(genericContainer);
 						recordCount += 1;
-						//                    logger.log(Level.INFO, "Sent record: ({0})", recordCount);
 					} catch (Exception exception) {
 						logger.log(Level.INFO, "Failed to publish record {0}", genericContainer.toString());
 						logger.log(Level.WARNING, "{0}", exception);
-					} 
-				}                
+					}
+				}
+			}else{
+				try {
+					dataWriter.writeRecords(genericContainers);
+					recordCount += genericContainers.size();
+				} catch (Exception exception) {
+					logger.log(Level.INFO, "Failed to publish block of {0} records", genericContainers.size());
+					logger.log(Level.WARNING, "{0}", exception);
+				}
 			}
 		}
 		return (recordCount / dataWriters.size());
@@ -276,6 +411,12 @@ public class Kafka extends AbstractStorage{
 	
 	public boolean shutdown(){
 		boolean success = true;
+		if(lingerTimer != null){
+			lingerTimer.cancel();
+		}
+		synchronized(pendingRecordsLock){
+			flushPendingRecords();
+		}
 		for(DataWriter dataWriter : dataWriters){
 			try{
 				dataWriter.close();
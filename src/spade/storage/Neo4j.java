@@ -33,6 +33,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.schema.IndexDefinition;
 
@@ -44,6 +46,7 @@ import spade.core.Settings;
 import spade.core.Vertex;
 import spade.query.quickgrail.core.QueriedEdge;
 import spade.query.quickgrail.core.QueryInstructionExecutor;
+import spade.storage.neo4j.BulkImporter;
 import spade.storage.neo4j.CacheManager;
 import spade.storage.neo4j.Configuration;
 import spade.storage.neo4j.Configuration.IndexMode;
@@ -58,6 +61,7 @@ import spade.storage.neo4j.TaskCreateIndex;
 import spade.storage.neo4j.TaskExecuteQuery;
 import spade.storage.neo4j.TaskGetHashToVertexMap;
 import spade.storage.neo4j.TaskGetQueriedEdgeSet;
+import spade.storage.neo4j.TaskPutBatch;
 import spade.storage.neo4j.TaskPutEdge;
 import spade.storage.neo4j.TaskPutVertex;
 import spade.utility.HelperFunctions;
@@ -78,6 +82,7 @@ public class Neo4j extends AbstractStorage{
 	private CacheManager cacheManager;
 	private Neo4jInstructionExecutor queryInstructionExecutor;
 	private Neo4jQueryEnvironment queryEnvironment;
+	private BulkImporter bulkImporter;
 	
 	private final Object shutdownLock = new Object();
 	private volatile boolean shutdown = false;
@@ -345,6 +350,24 @@ public class Neo4j extends AbstractStorage{
 		return null;
 	}
 
+	// Drains the put tasks directly following the given one, stopping at the first task of any other kind to keep the order
+	private final TaskPutBatch removeFirstPendingPutTasks(final StorageTask<?> firstTask){
+		final TaskPutBatch batch = new TaskPutBatch();
+		batch.add(firstTask);
+		synchronized(neo4jDbTasksPending){
+			while(batch.size() < getConfiguration().putBatchSize){
+				final StorageTask<?> task = neo4jDbTasksPending.peekFirst();
+				if(!TaskPutBatch.isBatchable(task)){
+					break;
+				}
+				neo4jDbTasksPending.pollFirst();
+				getStorageStats().pendingTasksOutgoing.increment();
+				batch.add(task);
+			}
+		}
+		return batch;
+	}
+
 	private final void appendPendingTask(final StorageTask<?> task){
 		if(task != null){
 			if(isMainThreadRunning()){
@@ -498,6 +521,9 @@ public class Neo4j extends AbstractStorage{
 						}
 
 						task = removeFirstPendingTask();
+						if(getConfiguration().putBatchSize > 1 && TaskPutBatch.isBatchable(task)){
+							task = removeFirstPendingPutTasks(task);
+						}
 						if(task != null){
 							Timer timer = null;
 							try{
@@ -526,7 +552,11 @@ public class Neo4j extends AbstractStorage{
 									tx = getANewTransaction(tx, true);
 								}
 							}catch(Throwable t){
-								task.setError(t);
+								if(task instanceof TaskPutBatch){
+									((TaskPutBatch)task).setErrorAll(t);
+								}else{
+									task.setError(t);
+								}
 								
 								tx = getANewTransaction(tx, false);
 								
@@ -540,8 +570,13 @@ public class Neo4j extends AbstractStorage{
 									}
 								}
 								getStorageStats().stopActionTimer("EXECUTE-" + task.getClass().getSimpleName());
-								tasksExecutedSinceLastFlush++;
-								task.completed();
+								if(task instanceof TaskPutBatch){
+									tasksExecutedSinceLastFlush += ((TaskPutBatch)task).size();
+									((TaskPutBatch)task).completedAll();
+								}else{
+									tasksExecutedSinceLastFlush++;
+									task.completed();
+								}
 							}
 						}
 						fatalErrorCount = 0;
@@ -617,6 +652,10 @@ public class Neo4j extends AbstractStorage{
 				logger.log(Level.WARNING, "Failed to gracefully shutdown storage", e);
 			}
 
+			if(bulkImporter != null){
+				finishBulkImport();
+			}
+
 			getStorageStats().print(logger, true);
 		}else{
 			logger.log(Level.INFO, "Storage already shutdown");
@@ -624,6 +663,61 @@ public class Neo4j extends AbstractStorage{
 		return true;
 	}
 
+	private final boolean isDatabaseEmpty(){
+		try(final Transaction tx = getDatabaseManager().beginANewTransaction()){
+			try(final ResourceIterator<Node> nodeIterator = tx.findNodes(getConfiguration().neo4jVertexLabel)){
+				return !nodeIterator.hasNext();
+			}
+		}
+	}
+
+	// The database must have been shutdown before this because the batch inserter needs exclusive access
+	private final void finishBulkImport(){
+		try{
+			bulkImporter.load();
+		}catch(Exception e){
+			logger.log(Level.SEVERE, "Failed to load staged elements into the database. "
+					+ "Replay the same stream with '" + Configuration.keyBulkImport + "=true' to load again", e);
+			return;
+		}
+
+		try{
+			getDatabaseManager().initialize();
+			createIndexesAfterBulkImport(bulkImporter.getNodePropertyNames(), true);
+			createIndexesAfterBulkImport(bulkImporter.getRelationshipPropertyNames(), false);
+		}catch(Exception e){
+			logger.log(Level.SEVERE, "Failed to create indexes after bulk import", e);
+		}finally{
+			try{
+				getDatabaseManager().shutdown();
+			}catch(Exception e){
+				logger.log(Level.WARNING, "Failed to gracefully shutdown storage", e);
+			}
+		}
+	}
+
+	private final void createIndexesAfterBulkImport(final Set<String> keys, final boolean forNodes){
+		final IndexMode indexMode = forNodes ? getConfiguration().indexVertexMode : getConfiguration().indexEdgeMode;
+		if(!IndexMode.ALL.equals(indexMode)){
+			return;
+		}
+		final Set<String> indexedKeys = forNodes ? nodePropertyNamesIndexed : relationshipPropertyNamesIndexed;
+		for(final String key : keys){
+			synchronized(indexedKeys){
+				if(!indexedKeys.add(key)){
+					continue;
+				}
+			}
+			final TaskCreateIndex task = new TaskCreateIndex(key, forNodes);
+			try(final Transaction tx = getDatabaseManager().beginANewTransaction()){
+				task.execute(this, tx);
+				getDatabaseManager().timedCommit(tx);
+			}catch(Exception e){
+				logger.log(Level.WARNING, "Failed to execute a task: " + task, e);
+			}
+		}
+	}
+
 	@Override
 	public final boolean initialize(final String arguments){
 		
@@ -663,6 +757,17 @@ public class Neo4j extends AbstractStorage{
 					neo4jStats.stopActionTimer(resetTimerKey);
 				}
 			}
+
+			if(configuration.bulkImport){
+				this.bulkImporter = new BulkImporter(this);
+				final boolean loadInterrupted = bulkImporter.initialize(configuration.reset);
+				if(loadInterrupted){
+					logger.log(Level.INFO, "Previous bulk import load did not complete. Resetting database before loading again");
+					databaseManager.resetDatabase();
+				}else if(!isDatabaseEmpty()){
+					throw new Exception("Bulk import requires an empty database. Set '" + Configuration.keyReset + "=true' to reset the database");
+				}
+			}
 			
 			final Thread thread = new Thread(dbPendingTasksRunner, "db-pending-task-runner");
 			thread.start();
@@ -697,6 +802,18 @@ public class Neo4j extends AbstractStorage{
 	// start - public
 	@Override
 	public final boolean storeVertex(final AbstractVertex vertex){
+		if(bulkImporter != null){
+			if(!isShutdown()){
+				try{
+					bulkImporter.putVertex(vertex);
+				}catch(Exception e){
+					logger.log(Level.WARNING, "Failed to stage vertex for bulk import: " + vertex, e);
+				}
+			}else{
+				debug("Storage already shutdown. Vertex discarded: " + vertex);
+			}
+			return true;
+		}
 		if(!isShutdown() && isMainThreadRunning()){
 			appendPendingTask(new TaskPutVertex(vertex));
 		}else{
@@ -707,6 +824,18 @@ public class Neo4j extends AbstractStorage{
 
 	@Override
 	public final boolean storeEdge(final AbstractEdge edge){
+		if(bulkImporter != null){
+			if(!isShutdown()){
+				try{
+					bulkImporter.putEdge(edge);
+				}catch(Exception e){
+					logger.log(Level.WARNING, "Failed to stage edge for bulk import: " + edge, e);
+				}
+			}else{
+				debug("Storage already shutdown. Edge discarded: " + edge);
+			}
+			return true;
+		}
 		if(!isShutdown() && isMainThreadRunning()){
 			appendPendingTask(new TaskPutEdge(edge));
 		}else{
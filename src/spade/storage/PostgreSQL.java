@@ -19,30 +19,35 @@
  */
 package spade.storage;
 
-import java.io.BufferedReader;
-import java.io.StringReader;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.Statement;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
-import org.postgresql.copy.CopyManager;
-import org.postgresql.core.BaseConnection;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
 
 import spade.core.AbstractEdge;
 import spade.core.AbstractVertex;
 import spade.core.Settings;
 import spade.query.quickgrail.core.QueryInstructionExecutor;
 import spade.storage.postgresql.Configuration;
+import spade.storage.postgresql.CopyEncoder;
 import spade.storage.postgresql.PostgreSQLInstructionExecutor;
 import spade.storage.postgresql.PostgreSQLQueryEnvironment;
 import spade.utility.GraphBuffer;
@@ -73,6 +78,12 @@ public class PostgreSQL extends SQL{
 
 	private Connection connection = null;
 
+	// Null if the buffer is persisted synchronously
+	private CopyPipeline copyPipeline = null;
+
+	// Size of the buffers used to stream rows into a copy
+	private static final int copyBufferSize = 64 * 1024;
+
 	@Override
 	public boolean initialize(final String arguments){
 		try{
@@ -81,9 +92,7 @@ public class PostgreSQL extends SQL{
 
 			graphBuffer.setMaxSize(this.configuration.getBufferSize());
 
-			final String connectionURL = configuration.getConnectionURL();
-			final Connection connection = DriverManager.getConnection(
-					connectionURL, configuration.getDbUser(), configuration.getDbPassword());
+			final Connection connection = openConnection();
 			setConnection(connection);
 
 			if(configuration.isReset()){
@@ -92,6 +101,11 @@ public class PostgreSQL extends SQL{
 
 			setupDatabase(connection, configuration.isSecondaryIndexes());
 
+			if(configuration.isAsyncCopy()){
+				copyPipeline = new CopyPipeline(openConnection(), openConnection(),
+						configuration.getAsyncCopyPendingBatches());
+			}
+
 			logger.info(this.configuration.toString());
 			return true;
 		}catch(Exception e){
@@ -103,6 +117,9 @@ public class PostgreSQL extends SQL{
 	@Override
 	public boolean shutdown(){
 		flush();
+		if(copyPipeline != null){
+			copyPipeline.shutdown();
+		}
 		try{
 			closeConnection();
 		}catch(Exception e){
@@ -111,12 +128,13 @@ public class PostgreSQL extends SQL{
 		return true;
 	}
 
-	private void setConnection(final Connection connection){
-		this.connection = connection;
+	private Connection openConnection() throws Exception{
+		return DriverManager.getConnection(
+				configuration.getConnectionURL(), configuration.getDbUser(), configuration.getDbPassword());
 	}
 
-	private CopyManager createCopyManager() throws Exception{
-		return new CopyManager((BaseConnection)connection);
+	private void setConnection(final Connection connection){
+		this.connection = connection;
 	}
 
 	private Statement createStatement() throws Exception{
@@ -248,7 +266,9 @@ public class PostgreSQL extends SQL{
 	}
 
 	private void addToVertexColumn(final String columnName){
-		getVertexColumnNames().add(columnName);
+		if(getVertexColumnNames().add(columnName)){
+			vertexCopyColumns = null;
+		}
 	}
 
 	private void addToVertexColumn(final Set<String> columnNames){
@@ -258,7 +278,9 @@ public class PostgreSQL extends SQL{
 	}
 
 	private void addToEdgeColumn(final String columnName){
-		getEdgeColumnNames().add(columnName);
+		if(getEdgeColumnNames().add(columnName)){
+			edgeCopyColumns = null;
+		}
 	}
 	
 	private void addToEdgeColumn(final Set<String> columnNames){
@@ -395,141 +417,296 @@ public class PostgreSQL extends SQL{
 	private void addToBuffer(final AbstractVertex vertex){
 		graphBuffer.add(vertex);
 		if(graphBuffer.full()){
-			flush();
+			submitBuffer();
 		}
 	}
 
 	private void addToBuffer(final AbstractEdge edge){
 		graphBuffer.add(edge);
 		if(graphBuffer.full()){
-			flush();
+			submitBuffer();
 		}
 	}
 
-	private void persist(final GraphSnapshot graph){
-		if(graph.vertexSize() > 0){
-			final int vertexBufferSize = graph.vertexSize();
-			try{
-				final StringBuffer csvHashes = new StringBuffer();
-				csvHashes.append(getCSVLine(Arrays.asList(getPrimaryKeyName())));
-	
-				final StringBuffer csvVertices = new StringBuffer();
-				csvVertices.append(getCSVLine(getVertexColumnNames()));
-	
-				final List<String> vertexValues = new ArrayList<>();
-				final Iterator<AbstractVertex> vertices = graph.vertices();
-				while(vertices.hasNext()){
-					final AbstractVertex vertex = vertices.next();
-					for(final String vertexColumnName : getVertexColumnNames()){
-						final String vertexValue;
-						switch(vertexColumnName){
-							case PRIMARY_KEY:{
-								vertexValue = vertex.bigHashCode();
-								csvHashes.append(getCSVLine(Arrays.asList(vertexValue)));
-								break;
+	/*
+	 * Columns of a table in the order of the 'copy' resolved once instead of for every row. Immutable so that it can
+	 * be handed over to the copy pipeline while the column sets of the storage change.
+	 */
+	private final class CopyColumns{
+		private static final int HASH = 0, CHILD_HASH = 1, PARENT_HASH = 2, ANNOTATION = 3;
+
+		private final String columnList;
+		private final int[] kinds;
+		// Null for the hash columns
+		private final String[] annotationKeys;
+
+		private CopyColumns(final Collection<String> columnNames){
+			final StringBuilder columnList = new StringBuilder();
+			this.kinds = new int[columnNames.size()];
+			this.annotationKeys = new String[columnNames.size()];
+			int i = 0;
+			for(final String columnName : columnNames){
+				if(columnList.length() > 0){
+					columnList.append(", ");
+				}
+				columnList.append(formatColumnName(columnName));
+				switch(columnName){
+					case PRIMARY_KEY: kinds[i] = HASH; break;
+					case CHILD_VERTEX_KEY: kinds[i] = CHILD_HASH; break;
+					case PARENT_VERTEX_KEY: kinds[i] = PARENT_HASH; break;
+					default: kinds[i] = ANNOTATION; annotationKeys[i] = columnName; break;
+				}
+				i++;
+			}
+			this.columnList = columnList.toString();
+		}
+	}
+
+	private final CopyColumns baseTableCopyColumns = new CopyColumns(List.of(PRIMARY_KEY));
+	// Reset to null when the column sets change
+	private CopyColumns vertexCopyColumns = null;
+	private CopyColumns edgeCopyColumns = null;
+
+	private CopyColumns getVertexCopyColumns(){
+		if(vertexCopyColumns == null){
+			vertexCopyColumns = new CopyColumns(getVertexColumnNames());
+		}
+		return vertexCopyColumns;
+	}
+
+	private CopyColumns getEdgeCopyColumns(){
+		if(edgeCopyColumns == null){
+			edgeCopyColumns = new CopyColumns(getEdgeColumnNames());
+		}
+		return edgeCopyColumns;
+	}
+
+	/*
+	 * Streams the rows into a 'copy' on the connection without building them in memory
+	 */
+	private interface CopyRows{
+		void write(final CopyEncoder encoder) throws Exception;
+	}
+
+	private void copyIn(final Connection connection, final String tableName, final CopyColumns columns,
+			final CopyRows rows) throws Exception{
+		final Configuration.CopyFormat format = configuration.getCopyFormat();
+		final PGCopyOutputStream copyStream = new PGCopyOutputStream(connection.unwrap(PGConnection.class),
+				"copy " + tableName + "(" + columns.columnList + ") from stdin " + CopyEncoder.getCopyOptions(format),
+				copyBufferSize);
+		try{
+			final CopyEncoder encoder = CopyEncoder.create(format, copyStream, columns.kinds.length, copyBufferSize);
+			rows.write(encoder);
+			encoder.finish();
+			copyStream.endCopy();
+		}catch(Exception e){
+			if(copyStream.isActive()){
+				copyStream.cancelCopy();
+			}
+			throw e;
+		}
+	}
+
+	private void persistVertices(final GraphSnapshot graph, final CopyColumns columns, final Connection connection){
+		try{
+			copyIn(connection, getVertexTableName(), columns, new CopyRows(){
+				@Override
+				public void write(final CopyEncoder encoder) throws Exception{
+					final int[] kinds = columns.kinds;
+					final String[] annotationKeys = columns.annotationKeys;
+					final Iterator<AbstractVertex> vertices = graph.vertices();
+					while(vertices.hasNext()){
+						final AbstractVertex vertex = vertices.next();
+						encoder.beginRow();
+						for(int i = 0; i < kinds.length; i++){
+							if(kinds[i] == CopyColumns.ANNOTATION){
+								encoder.writeText(vertex.getAnnotation(annotationKeys[i]));
+							}else{
+								encoder.writeHash(vertex.getBigHash());
 							}
-							default: vertexValue = vertex.getAnnotation(vertexColumnName); break;
 						}
-						vertexValues.add(vertexValue);
+						encoder.endRow();
 					}
-					csvVertices.append(getCSVLine(vertexValues));
-					vertexValues.clear();
 				}
-	
-				final CopyManager copyManager = createCopyManager();
-				copyManager.copyIn(
-						"copy " + getVertexTableName() + " from stdin (format csv, header)", 
-						new BufferedReader(new StringReader(csvVertices.toString()))
-						);
-	
-				copyManager.copyIn(
-						"copy " + getBaseVertexTableName() + " from stdin (format csv, header)", 
-						new BufferedReader(new StringReader(csvHashes.toString()))
-						);
-			}catch(Exception e){
-				logger.log(Level.WARNING, "Failed to persist " + vertexBufferSize + " vertices", e);
-			}
+			});
+
+			copyIn(connection, getBaseVertexTableName(), baseTableCopyColumns, new CopyRows(){
+				@Override
+				public void write(final CopyEncoder encoder) throws Exception{
+					final Iterator<AbstractVertex> vertices = graph.vertices();
+					while(vertices.hasNext()){
+						encoder.beginRow();
+						encoder.writeHash(vertices.next().getBigHash());
+						encoder.endRow();
+					}
+				}
+			});
+		}catch(Exception e){
+			logger.log(Level.WARNING, "Failed to persist " + graph.vertexSize() + " vertices", e);
 		}
-		
-		if(graph.edgeSize() > 0){
-			final int edgeBufferSize = graph.edgeSize();
-			try{
-				final StringBuffer csvHashes = new StringBuffer();
-				csvHashes.append(getCSVLine(Arrays.asList(getPrimaryKeyName())));
-	
-				final StringBuffer csvData = new StringBuffer();
-				csvData.append(getCSVLine(getEdgeColumnNames()));
-	
-				final List<String> edgesValues = new ArrayList<>();
-				final Iterator<AbstractEdge> edges = graph.edges();
-				while(edges.hasNext()){
-					final AbstractEdge edge = edges.next();
-					for(final String edgeColumnName : getEdgeColumnNames()){
-						final String edgeValue;
-						switch(edgeColumnName){
-							case PRIMARY_KEY:{
-								edgeValue = edge.bigHashCode();
-								csvHashes.append(getCSVLine(Arrays.asList(edgeValue)));
-								break;
+	}
+
+	private void persistEdges(final GraphSnapshot graph, final CopyColumns columns, final Connection connection){
+		try{
+			copyIn(connection, getEdgeTableName(), columns, new CopyRows(){
+				@Override
+				public void write(final CopyEncoder encoder) throws Exception{
+					final int[] kinds = columns.kinds;
+					final String[] annotationKeys = columns.annotationKeys;
+					final Iterator<AbstractEdge> edges = graph.edges();
+					while(edges.hasNext()){
+						final AbstractEdge edge = edges.next();
+						encoder.beginRow();
+						for(int i = 0; i < kinds.length; i++){
+							switch(kinds[i]){
+								case CopyColumns.ANNOTATION: encoder.writeText(edge.getAnnotation(annotationKeys[i])); break;
+								case CopyColumns.HASH: encoder.writeHash(edge.getBigHash()); break;
+								case CopyColumns.CHILD_HASH: encoder.writeHash(edge.getChildVertex().getBigHash()); break;
+								case CopyColumns.PARENT_HASH: encoder.writeHash(edge.getParentVertex().getBigHash()); break;
+								default: throw new Exception("Unhandled column kind: " + kinds[i]);
 							}
-							case CHILD_VERTEX_KEY: edgeValue = edge.getChildVertex().bigHashCode(); break;
-							case PARENT_VERTEX_KEY: edgeValue = edge.getParentVertex().bigHashCode(); break;
-							default: edgeValue = edge.getAnnotation(edgeColumnName); break;
 						}
-						edgesValues.add(edgeValue);
+						encoder.endRow();
 					}
-					csvData.append(getCSVLine(edgesValues));
-					edgesValues.clear();
 				}
-	
-				final CopyManager copyManager = createCopyManager();
-				copyManager.copyIn(
-						"copy " + getEdgeTableName() + " from stdin (format csv, header)", 
-						new BufferedReader(new StringReader(csvData.toString()))
-						);
-	
-				copyManager.copyIn(
-						"copy " + getBaseEdgeTableName() + " from stdin (format csv, header)", 
-						new BufferedReader(new StringReader(csvHashes.toString()))
-						);
-	
-				if(BUILD_SCAFFOLD){
-					try{
-						final Iterator<AbstractEdge> edgesForScaffold = graph.edges();
-						while(edgesForScaffold.hasNext()){
-							final AbstractEdge edge = edgesForScaffold.next();
-							insertScaffoldEntry(edge);
-						}
-					}catch(Exception e){
-						logger.log(Level.WARNING, "Failed to update scaffold", e);
+			});
+
+			copyIn(connection, getBaseEdgeTableName(), baseTableCopyColumns, new CopyRows(){
+				@Override
+				public void write(final CopyEncoder encoder) throws Exception{
+					final Iterator<AbstractEdge> edges = graph.edges();
+					while(edges.hasNext()){
+						encoder.beginRow();
+						encoder.writeHash(edges.next().getBigHash());
+						encoder.endRow();
+					}
+				}
+			});
+
+			if(BUILD_SCAFFOLD){
+				try{
+					final Iterator<AbstractEdge> edgesForScaffold = graph.edges();
+					while(edgesForScaffold.hasNext()){
+						final AbstractEdge edge = edgesForScaffold.next();
+						insertScaffoldEntry(edge);
 					}
+				}catch(Exception e){
+					logger.log(Level.WARNING, "Failed to update scaffold", e);
 				}
+			}
+		}catch(Exception e){
+			logger.log(Level.WARNING, "Failed to persist " + graph.edgeSize() + " edges", e);
+		}
+	}
+
+	/*
+	 * If the vertex copy executor is not null then vertices are persisted on it concurrently with the edges.
+	 */
+	private void persist(final GraphSnapshot graph, final CopyColumns vertexColumns, final CopyColumns edgeColumns,
+			final Connection vertexConnection, final Connection edgeConnection,
+			final ExecutorService vertexCopyExecutor){
+		Future<?> vertexFuture = null;
+		if(graph.vertexSize() > 0){
+			if(vertexCopyExecutor == null){
+				persistVertices(graph, vertexColumns, vertexConnection);
+			}else{
+				vertexFuture = vertexCopyExecutor.submit(new Runnable(){
+					@Override
+					public void run(){
+						persistVertices(graph, vertexColumns, vertexConnection);
+					}
+				});
+			}
+		}
+
+		if(graph.edgeSize() > 0){
+			persistEdges(graph, edgeColumns, edgeConnection);
+		}
+
+		if(vertexFuture != null){
+			try{
+				vertexFuture.get();
 			}catch(Exception e){
-				logger.log(Level.WARNING, "Failed to persist " + edgeBufferSize + " edges", e);
+				logger.log(Level.WARNING, "Failed to wait for " + graph.vertexSize() + " vertices to persist", e);
 			}
 		}
 		graph.clear();
 	}
 
-	private String getCSVLine(final Iterable<String> iterable){
-		final StringBuffer str = new StringBuffer();
-		for(String item : iterable){
-			item = formatToCSV(item);
-			str.append(item).append(",");
+	/**
+	 * Persists the buffered graphs on a background thread so that the thread putting the elements does not wait
+	 * for the round-trip to the database. Vertices and edges of a graph are copied concurrently on separate
+	 * connections. At most 'pendingBatches' graphs can be pending before the submitting thread is blocked.
+	 */
+	private final class CopyPipeline{
+		private final Connection vertexConnection;
+		private final Connection edgeConnection;
+		private final int pendingBatches;
+		private final Semaphore pendingBatchesPermits;
+		private final ExecutorService batchExecutor = Executors.newSingleThreadExecutor();
+		private final ExecutorService vertexCopyExecutor = Executors.newSingleThreadExecutor();
+
+		private CopyPipeline(final Connection vertexConnection, final Connection edgeConnection,
+				final int pendingBatches){
+			this.vertexConnection = vertexConnection;
+			this.edgeConnection = edgeConnection;
+			this.pendingBatches = pendingBatches;
+			this.pendingBatchesPermits = new Semaphore(pendingBatches);
 		}
-		if(str.length() > 0){
-			str.setCharAt(str.length() - 1, '\n');
+
+		private void submit(final GraphSnapshot graph) throws InterruptedException{
+			if(graph.size() == 0){
+				return;
+			}
+			final CopyColumns vertexColumns = getVertexCopyColumns();
+			final CopyColumns edgeColumns = getEdgeCopyColumns();
+			pendingBatchesPermits.acquire();
+			try{
+				batchExecutor.submit(new Runnable(){
+					@Override
+					public void run(){
+						try{
+							persist(graph, vertexColumns, edgeColumns, vertexConnection, edgeConnection,
+									vertexCopyExecutor);
+						}finally{
+							pendingBatchesPermits.release();
+						}
+					}
+				});
+			}catch(RejectedExecutionException e){
+				pendingBatchesPermits.release();
+				throw e;
+			}
+		}
+
+		// Wait for all the submitted graphs to be persisted
+		private void await() throws InterruptedException{
+			pendingBatchesPermits.acquire(pendingBatches);
+			pendingBatchesPermits.release(pendingBatches);
 		}
-		return str.toString();
-	}
 
-	private String formatToCSV(String item){
-		if(item == null){
-			return ""; // NULL
+		private void shutdown(){
+			try{
+				await();
+			}catch(InterruptedException e){
+				logger.log(Level.WARNING, "Interrupted while waiting for pending copies to finish", e);
+			}
+			for(final ExecutorService executor : new ExecutorService[]{batchExecutor, vertexCopyExecutor}){
+				executor.shutdown();
+				try{
+					executor.awaitTermination(1, TimeUnit.MINUTES);
+				}catch(InterruptedException e){
+					logger.log(Level.WARNING, "Interrupted while waiting for copy executor to stop", e);
+				}
+			}
+			for(final Connection connection : new Connection[]{vertexConnection, edgeConnection}){
+				try{
+					connection.close();
+				}catch(Exception e){
+					logger.log(Level.SEVERE, "Failed to close copy connection", e);
+				}
+			}
 		}
-		item = item.replace('"', '\"');
-		item = '"' + item + '"';
-		return item;
 	}
 
 	@Override
@@ -549,8 +726,34 @@ public class PostgreSQL extends SQL{
 		return result;
 	}
 
+	// Hand over the full buffer to the copy pipeline (if any) without waiting for it to be persisted
+	private void submitBuffer(){
+		if(copyPipeline == null){
+			flush();
+		}else{
+			try{
+				copyPipeline.submit(graphBuffer.flush());
+			}catch(InterruptedException e){
+				logger.log(Level.WARNING, "Interrupted while submitting buffer to the copy pipeline", e);
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	// Persist the buffer and wait for everything pending to be persisted
 	private void flush(){
-		persist(graphBuffer.flush());
+		final GraphSnapshot graph = graphBuffer.flush();
+		if(copyPipeline == null){
+			persist(graph, getVertexCopyColumns(), getEdgeCopyColumns(), connection, connection, null);
+		}else{
+			try{
+				copyPipeline.submit(graph);
+				copyPipeline.await();
+			}catch(InterruptedException e){
+				logger.log(Level.WARNING, "Interrupted while waiting for the copy pipeline", e);
+				Thread.currentThread().interrupt();
+			}
+		}
 	}
 
 	public List<List<String>> executeQueryForResult(String query, boolean addColumnNames){
@@ -620,7 +823,8 @@ public class PostgreSQL extends SQL{
 					this, queryEnvironment, 
 					getPrimaryKeyName(),
 					getChildVertexKeyName(), getParentVertexKeyName(), 
-					getVertexTableName(), getEdgeTableName());
+					getVertexTableName(), getEdgeTableName(),
+					configuration.isRecursiveQueries());
 		}
 		return queryInstructionExecutor;
 	}
@@ -19,11 +19,15 @@
  */
 package spade.storage.kafka;
 
+import java.util.List;
+
 import org.apache.avro.generic.GenericContainer;
 
 public interface DataWriter {
 	
 	public abstract void writeRecord(GenericContainer genericContainer) throws Exception;
+	// Write the records as one block. The records can be reused by the caller once this returns
+	public abstract void writeRecords(List<GenericContainer> genericContainers) throws Exception;
 	public abstract void close() throws Exception;
 	
 }
@@ -28,6 +28,7 @@ import org.apache.avro.specific.SpecificDatumWriter;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -50,6 +51,15 @@ public class FileWriter implements DataWriter{
 		fileWriter.append(genericContainer);
 		checkTransactions();
 	}
+	
+	public void writeRecords(List<GenericContainer> genericContainers) throws Exception{
+		for(GenericContainer genericContainer : genericContainers){
+			fileWriter.append(genericContainer);
+		}
+		// One avro block per batch
+		fileWriter.flush();
+		transaction_count = 0;
+	}
 			
 	public void close() throws Exception{
 		fileWriter.close();
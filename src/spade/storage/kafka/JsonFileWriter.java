@@ -31,6 +31,7 @@ import org.apache.avro.specific.SpecificDatumWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
+import java.util.List;
 
 public class JsonFileWriter implements DataWriter {
 
@@ -56,6 +57,14 @@ public class JsonFileWriter implements DataWriter {
 		datumWriter.write(genericContainer, jsonEncoder);
 	}
 
+	@Override
+	public void writeRecords(List<GenericContainer> genericContainers) throws Exception {
+		for(GenericContainer genericContainer : genericContainers){
+			datumWriter.write(genericContainer, jsonEncoder);
+		}
+		jsonEncoder.flush();
+	}
+
 	@Override
 	public void close() throws Exception {
 		jsonEncoder.flush();
@@ -30,6 +30,7 @@ import spade.utility.HelperFunctions;
 import spade.utility.FileUtility;
 
 import java.io.File;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.logging.Level;
@@ -121,6 +122,16 @@ public class ServerWriter implements DataWriter{
 		}
 	}
 
+	/**
+	 * The records are serialized when they are sent. Batching on the wire is done by the producer
+	 * according to 'linger.ms' and 'batch.size'
+	 */
+	public void writeRecords(List<GenericContainer> genericContainers) throws Exception{
+		for(GenericContainer genericContainer : genericContainers){
+			writeRecord(genericContainer);
+		}
+	}
+
 	public void close() throws Exception{
 		if(reportingEnabled){
 			printStats();
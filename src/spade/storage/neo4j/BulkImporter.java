@@ -0,0 +1,497 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.neo4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.neo4j.batchinsert.BatchInserter;
+import org.neo4j.batchinsert.BatchInserters;
+import org.neo4j.configuration.Config;
+import org.neo4j.configuration.GraphDatabaseSettings;
+import org.neo4j.io.layout.DatabaseLayout;
+import org.neo4j.io.layout.Neo4jLayout;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractVertex;
+import spade.storage.Neo4j;
+import spade.storage.neo4j.Configuration.EdgeCacheFindMode;
+import spade.utility.Result;
+import spade.utility.map.external.ExternalMap;
+import spade.utility.map.external.ExternalMapArgument;
+import spade.utility.map.external.ExternalMapManager;
+
+/**
+ * Offline initial import for the Neo4j storage.
+ * 
+ * Vertices and edges are appended to a staging file instead of being put through transactions. Every
+ * 'bulkImportCheckpointInterval' elements the staging file is synced and a checkpoint is written with the number of
+ * elements seen and the length of the staging file. An interrupted import resumes by truncating the staging file to
+ * the checkpoint and skipping the elements already seen when the same stream is replayed.
+ * 
+ * The staged elements are written to the store with the Neo4j batch inserter at the end, when the database is not
+ * open anywhere else.
+ * 
+ * The staged vertex hashes (and their node ids when loading) and the loaded edge hashes are kept in the external maps
+ * 'bulkImportVertexMapId' and 'bulkImportEdgeMapId' so that the Java heap does not bound the size of the import.
+ */
+public class BulkImporter{
+
+	private static final Logger logger = Logger.getLogger(BulkImporter.class.getName());
+
+	private static final String stagingFileName = "staged.data", checkpointFileName = "checkpoint.properties";
+	private static final String keyPhase = "phase", keyElements = "elements", keyStagedBytes = "stagedBytes";
+	
+	private enum Phase{ STAGING, LOADING, DONE };
+
+	private static final byte recordVertex = 1, recordEdge = 2;
+	// Node id of a vertex which has been staged but not loaded
+	private static final Long stagedNodeId = -1L;
+
+	private final Neo4j storage;
+	private final File directory, stagingFile, checkpointFile;
+
+	private FileOutputStream stagingFileStream;
+	private BufferedOutputStream stagingStream;
+	private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+	private final DataOutputStream recordWriter = new DataOutputStream(recordBuffer);
+
+	private ExternalMap<String, Long> vertexHashToNodeId;
+	private long stagedVertices = 0;
+	private long elementsSeen = 0;
+	private long elementsToSkip = 0;
+	private long elementsSinceCheckpoint = 0;
+	private long stagedBytes = 0;
+	private boolean open = false;
+
+	private final Set<String> nodePropertyNames = new HashSet<String>();
+	private final Set<String> relationshipPropertyNames = new HashSet<String>();
+
+	public BulkImporter(final Neo4j storage){
+		this.storage = storage;
+		this.directory = storage.getConfiguration().bulkImportDirectoryFile;
+		this.stagingFile = new File(directory, stagingFileName);
+		this.checkpointFile = new File(directory, checkpointFileName);
+	}
+
+	/**
+	 * @param discardCheckpoint Start over even if there is a checkpoint
+	 * @return True if a previous load into the database was interrupted, and the database must be reset before loading again
+	 * @throws Exception
+	 */
+	public synchronized final boolean initialize(final boolean discardCheckpoint) throws Exception{
+		if(!directory.exists() && !directory.mkdirs()){
+			throw new Exception("Failed to create bulk import directory: " + directory.getAbsolutePath());
+		}
+		if(discardCheckpoint){
+			Files.deleteIfExists(checkpointFile.toPath());
+		}
+
+		Phase phase = null;
+		long elements = 0;
+		long bytes = 0;
+		if(checkpointFile.exists()){
+			final Properties checkpoint = new Properties();
+			try(final FileInputStream checkpointStream = new FileInputStream(checkpointFile)){
+				checkpoint.load(checkpointStream);
+			}
+			try{
+				phase = Phase.valueOf(checkpoint.getProperty(keyPhase));
+				elements = Long.parseLong(checkpoint.getProperty(keyElements));
+				bytes = Long.parseLong(checkpoint.getProperty(keyStagedBytes));
+			}catch(Exception e){
+				throw new Exception("Invalid bulk import checkpoint: " + checkpointFile.getAbsolutePath(), e);
+			}
+			if(Phase.DONE.equals(phase)){
+				throw new Exception("Bulk import already completed into '" + storage.getConfiguration().finalConstructedDbPath.getAbsolutePath()
+						+ "'. Set '" + Configuration.keyBulkImport + "=false' to use the database, or '" + Configuration.keyReset
+						+ "=true' to import again");
+			}
+		}
+
+		try(final RandomAccessFile file = new RandomAccessFile(stagingFile, "rw")){
+			if(file.length() < bytes){
+				throw new Exception("Staging file shorter than the checkpoint (" + bytes + " bytes): " + stagingFile.getAbsolutePath());
+			}
+			// Drop whatever was staged after the checkpoint because those elements are going to be seen again
+			file.setLength(bytes);
+		}
+
+		vertexHashToNodeId = createExternalMap(storage.getConfiguration().bulkImportVertexMapArgument);
+		// Left over by a previous run if not deleted on close
+		vertexHashToNodeId.clear();
+		try(final StagedRecordReader reader = new StagedRecordReader(stagingFile, bytes)){
+			while(reader.next()){
+				if(reader.type == recordVertex){
+					vertexHashToNodeId.put(reader.hashCode, stagedNodeId);
+					stagedVertices++;
+				}
+			}
+		}
+
+		this.elementsToSkip = elements;
+		this.stagedBytes = bytes;
+		this.stagingFileStream = new FileOutputStream(stagingFile, true);
+		this.stagingStream = new BufferedOutputStream(stagingFileStream, 1024 * 1024);
+		this.open = true;
+
+		if(phase != null){
+			logger.log(Level.INFO, "Resuming bulk import from checkpoint. Elements to skip: " + elementsToSkip
+					+ ", vertices staged: " + stagedVertices);
+		}
+		return Phase.LOADING.equals(phase);
+	}
+
+	public synchronized final Set<String> getNodePropertyNames(){
+		return new HashSet<String>(nodePropertyNames);
+	}
+
+	public synchronized final Set<String> getRelationshipPropertyNames(){
+		return new HashSet<String>(relationshipPropertyNames);
+	}
+
+	// Returns true if the element has been staged already (before the checkpoint being resumed from)
+	private final boolean skip(){
+		elementsSeen++;
+		return elementsSeen <= elementsToSkip;
+	}
+
+	private final void elementStaged() throws Exception{
+		elementsSinceCheckpoint++;
+		if(elementsSinceCheckpoint >= storage.getConfiguration().bulkImportCheckpointInterval){
+			checkpoint(Phase.STAGING);
+		}
+	}
+
+	private final void ensureOpen() throws Exception{
+		if(!open){
+			throw new Exception("Bulk import not initialized or already loaded");
+		}
+	}
+
+	public synchronized final void putVertex(final AbstractVertex vertex) throws Exception{
+		ensureOpen();
+		if(skip()){
+			return;
+		}
+		if(vertex == null){
+			throw new Exception("NULL vertex to put");
+		}
+		stageVertex(vertex);
+		elementStaged();
+	}
+
+	public synchronized final void putEdge(final AbstractEdge edge) throws Exception{
+		ensureOpen();
+		if(skip()){
+			return;
+		}
+		if(edge == null){
+			throw new Exception("NULL edge to put");
+		}
+		final String hashCode = edge.bigHashCode();
+		if(hashCode == null){
+			throw new Exception("NULL hash code for edge to put: " + edge);
+		}
+		final AbstractVertex childVertex = edge.getChildVertex();
+		final AbstractVertex parentVertex = edge.getParentVertex();
+		if(childVertex == null){
+			throw new Exception("Child vertex is NULL. Failed to put edge: " + edge);
+		}
+		if(parentVertex == null){
+			throw new Exception("Parent vertex is NULL. Failed to put edge: " + edge);
+		}
+		final Map<String, String> annotations = edge.getCopyOfAnnotations();
+		storage.validateUpdateHashKeyAndKeysInAnnotationMap(edge, "Edge", annotations);
+
+		// Endpoints are staged before the edge so that they exist when the edge is loaded
+		final String childHashCode = stageVertex(childVertex);
+		final String parentHashCode = stageVertex(parentVertex);
+
+		recordBuffer.reset();
+		recordWriter.writeByte(recordEdge);
+		writeString(recordWriter, hashCode);
+		writeString(recordWriter, childHashCode);
+		writeString(recordWriter, parentHashCode);
+		writeAnnotations(recordWriter, annotations);
+		writeRecord();
+		elementStaged();
+	}
+
+	private final String stageVertex(final AbstractVertex vertex) throws Exception{
+		final String hashCode = vertex.bigHashCode();
+		if(hashCode == null){
+			throw new Exception("NULL hash code for vertex to put: " + vertex);
+		}
+		if(vertexHashToNodeId.contains(hashCode)){
+			return hashCode;
+		}
+		final Map<String, String> annotations = vertex.getCopyOfAnnotations();
+		storage.validateUpdateHashKeyAndKeysInAnnotationMap(vertex, "Vertex", annotations);
+
+		recordBuffer.reset();
+		recordWriter.writeByte(recordVertex);
+		writeString(recordWriter, hashCode);
+		writeAnnotations(recordWriter, annotations);
+		writeRecord();
+		vertexHashToNodeId.put(hashCode, stagedNodeId);
+		stagedVertices++;
+		return hashCode;
+	}
+
+	private final void writeRecord() throws Exception{
+		recordWriter.flush();
+		recordBuffer.writeTo(stagingStream);
+		stagedBytes += recordBuffer.size();
+	}
+
+	private final void checkpoint(final Phase phase) throws Exception{
+		stagingStream.flush();
+		stagingFileStream.getChannel().force(false);
+		writeCheckpoint(phase);
+		elementsSinceCheckpoint = 0;
+	}
+
+	private final void writeCheckpoint(final Phase phase) throws Exception{
+		final Properties checkpoint = new Properties();
+		checkpoint.setProperty(keyPhase, phase.name());
+		checkpoint.setProperty(keyElements, String.valueOf(Math.max(elementsSeen, elementsToSkip)));
+		checkpoint.setProperty(keyStagedBytes, String.valueOf(stagedBytes));
+
+		final File tempFile = new File(directory, checkpointFileName + ".tmp");
+		try(final FileOutputStream tempStream = new FileOutputStream(tempFile)){
+			checkpoint.store(tempStream, null);
+			tempStream.getChannel().force(false);
+		}
+		Files.move(tempFile.toPath(), checkpointFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Writes all the staged elements to the database with the batch inserter.
+	 * Must only be called after the database has been shutdown by the storage.
+	 * 
+	 * @throws Exception
+	 */
+	public synchronized final void load() throws Exception{
+		ensureOpen();
+		checkpoint(Phase.LOADING);
+		open = false;
+		try{
+			stagingStream.close();
+		}catch(Exception e){
+			// ignore
+		}
+
+		final Configuration configuration = storage.getConfiguration();
+		Config.Builder configBuilder = Config.newBuilder();
+		if(configuration.neo4jConfigFilePath != null){
+			configBuilder = configBuilder.fromFile(configuration.neo4jConfigFilePath);
+		}
+		final Config config = configBuilder
+				.set(GraphDatabaseSettings.neo4j_home, configuration.dbHomeDirectoryFile.getAbsoluteFile().toPath())
+				.set(GraphDatabaseSettings.data_directory, Paths.get(configuration.dbDataDirectoryName))
+				// The batch inserter refuses to start if store upgrade is allowed
+				.set(GraphDatabaseSettings.allow_upgrade, false)
+				.build();
+		final DatabaseLayout databaseLayout = Neo4jLayout.of(config).databaseLayout(configuration.dbName);
+
+		// Every staged vertex is in the vertex map with the staged node id. Replaced by the node id when loaded
+		ExternalMap<String, Boolean> loadedEdgeHashes = null;
+		long vertexCount = 0, edgeCount = 0;
+
+		final long startMillis = System.currentTimeMillis();
+		storage.getStorageStats().startActionTimer("BULK-IMPORT-LOAD");
+		BatchInserter inserter = null;
+		try{
+			if(!EdgeCacheFindMode.NONE.equals(configuration.edgeCacheFindMode)){
+				loadedEdgeHashes = createExternalMap(configuration.bulkImportEdgeMapArgument);
+				loadedEdgeHashes.clear();
+			}
+			inserter = BatchInserters.inserter(databaseLayout, config);
+			try(final StagedRecordReader reader = new StagedRecordReader(stagingFile, stagedBytes)){
+				while(reader.next()){
+					final Map<String, Object> properties = new HashMap<String, Object>(reader.annotations);
+					properties.put(configuration.hashPropertyName, reader.hashCode);
+					if(reader.type == recordVertex){
+						if(!isLoaded(vertexHashToNodeId.get(reader.hashCode))){
+							final long nodeId = inserter.createNode(properties, configuration.neo4jVertexLabel);
+							vertexHashToNodeId.put(reader.hashCode, nodeId);
+							nodePropertyNames.addAll(properties.keySet());
+							vertexCount++;
+						}
+					}else{
+						if(loadedEdgeHashes != null){
+							if(loadedEdgeHashes.contains(reader.hashCode)){
+								continue;
+							}
+							loadedEdgeHashes.put(reader.hashCode, Boolean.TRUE);
+						}
+						final Long childNodeId = vertexHashToNodeId.get(reader.childHashCode);
+						final Long parentNodeId = vertexHashToNodeId.get(reader.parentHashCode);
+						if(!isLoaded(childNodeId) || !isLoaded(parentNodeId)){
+							logger.log(Level.WARNING, "Missing staged endpoint for edge '" + reader.hashCode + "'. Edge discarded");
+							continue;
+						}
+						inserter.createRelationship(childNodeId, parentNodeId, configuration.neo4jEdgeRelationshipType, properties);
+						relationshipPropertyNames.addAll(properties.keySet());
+						edgeCount++;
+					}
+				}
+			}
+		}finally{
+			if(inserter != null){
+				inserter.shutdown();
+			}
+			storage.getStorageStats().stopActionTimer("BULK-IMPORT-LOAD");
+			if(loadedEdgeHashes != null){
+				loadedEdgeHashes.close();
+			}
+			vertexHashToNodeId.close();
+		}
+
+		writeCheckpoint(Phase.DONE);
+
+		logger.log(Level.INFO, "Bulk import loaded " + vertexCount + " vertices and " + edgeCount + " edges in "
+				+ (System.currentTimeMillis() - startMillis) + " millis");
+	}
+
+	private static final boolean isLoaded(final Long nodeId){
+		return nodeId != null && nodeId >= 0;
+	}
+
+	private static final <V extends Serializable> ExternalMap<String, V> createExternalMap(final ExternalMapArgument argument)
+			throws Exception{
+		final Result<ExternalMap<String, V>> result = ExternalMapManager.create(argument);
+		if(result.error){
+			throw new Exception("Failed to create external map: " + result.toErrorString());
+		}
+		logger.log(Level.INFO, "Bulk import external map: " + argument);
+		return result.result;
+	}
+
+	private static final void writeString(final DataOutputStream out, final String string) throws Exception{
+		if(string == null){
+			out.writeInt(-1);
+		}else{
+			final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static final void writeAnnotations(final DataOutputStream out, final Map<String, String> annotations) throws Exception{
+		out.writeInt(annotations.size());
+		for(final Map.Entry<String, String> entry : annotations.entrySet()){
+			if(entry.getKey() == null){
+				throw new Exception("NULL annotation key");
+			}
+			writeString(out, entry.getKey());
+			writeString(out, entry.getValue());
+		}
+	}
+
+	/**
+	 * Reads the staging file record by record up to the given length
+	 */
+	private static final class StagedRecordReader implements AutoCloseable{
+		private final DataInputStream in;
+		private final long length;
+		private long position = 0;
+
+		private byte type;
+		private String hashCode, childHashCode, parentHashCode;
+		private final Map<String, String> annotations = new HashMap<String, String>();
+
+		private StagedRecordReader(final File file, final long length) throws Exception{
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1024 * 1024));
+			this.length = length;
+		}
+
+		private final String readString() throws Exception{
+			final int size = in.readInt();
+			position += Integer.BYTES;
+			if(size < 0){
+				return null;
+			}
+			final byte[] bytes = new byte[size];
+			in.readFully(bytes);
+			position += size;
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		private final boolean next() throws Exception{
+			if(position >= length){
+				return false;
+			}
+			try{
+				type = in.readByte();
+				position += Byte.BYTES;
+				hashCode = readString();
+				if(type == recordEdge){
+					childHashCode = readString();
+					parentHashCode = readString();
+				}else if(type == recordVertex){
+					childHashCode = parentHashCode = null;
+				}else{
+					throw new Exception("Unexpected record type '" + type + "' at offset " + position);
+				}
+				annotations.clear();
+				final int size = in.readInt();
+				position += Integer.BYTES;
+				for(int i = 0; i < size; i++){
+					final String key = readString();
+					annotations.put(key, readString());
+				}
+			}catch(EOFException e){
+				throw new Exception("Staging file ended in the middle of a record", e);
+			}
+			if(position > length){
+				throw new Exception("Staged record crosses the checkpoint at offset " + length);
+			}
+			return true;
+		}
+
+		@Override
+		public final void close() throws IOException{
+			in.close();
+		}
+	}
+}
@@ -65,6 +65,28 @@ public class CacheManager{
 			return null;
 		}
 
+		final Boolean value = edgeCacheGet(hashCode);
+		if(value != null){
+			return value;
+		}
+
+		final Boolean found = executeTaskGetRelationshipByHashCode(hashCode, tx);
+
+		if(found == null || found == false){
+			return null;
+		}
+
+		edgeCachePut(hashCode, true);
+
+		return true;
+	}
+
+	// Only looks in the cache and not in the database
+	public final Boolean edgeCacheGet(final String hashCode){
+		if(hashCode == null){
+			return null;
+		}
+
 		Object value = null;
 		synchronized(screenLock){
 			if(deduplicateScreen != null){
@@ -80,16 +102,7 @@ public class CacheManager{
 						"Invalid object ("+value+") type in cache. Expected '"+Boolean.class+"' but is '"+value.getClass()+"'", e);
 			}
 		}
-
-		final Boolean found = executeTaskGetRelationshipByHashCode(hashCode, tx);
-
-		if(found == null || found == false){
-			return null;
-		}
-
-		edgeCachePut(hashCode, true);
-
-		return true;
+		return null;
 	}
 
 	public final void edgeCachePut(final String hashCode, final boolean value){
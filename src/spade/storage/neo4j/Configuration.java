@@ -30,9 +30,11 @@ import org.neo4j.configuration.GraphDatabaseSettings;
 import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.RelationshipType;
 
+import spade.utility.ArgumentFunctions;
 import spade.utility.FileUtility;
 import spade.utility.HelperFunctions;
 import spade.utility.Result;
+import spade.utility.map.external.ExternalMapArgument;
 
 public class Configuration{
 
@@ -55,12 +57,18 @@ public class Configuration{
 		keyFlushAfterSeconds = "flushAfterSeconds",
 		keyBufferLimit = "bufferLimit",
 		keyTransactionTimeoutInSeconds = "transactionTimeoutInSeconds",
+		keyPutBatchSize = "putBatchSize",
 		// Storage and database interaction management
 		keyForceShutdown = "forceShutdown",
 		keyReset = "reset",
 		keyMaxRetries = "maxRetries",
 		keyWaitForIndexSeconds = "waitForIndexSeconds",
 		keyHashKeyCollisionAction = "hashKeyCollisionAction", 
+		keyBulkImport = "bulkImport",
+		keyBulkImportDirectoryPath = "bulkImportDirectoryPath",
+		keyBulkImportCheckpointInterval = "bulkImportCheckpointInterval",
+		keyBulkImportVertexMapId = "bulkImportVertexMapId",
+		keyBulkImportEdgeMapId = "bulkImportEdgeMapId",
 		// Database schema management
 		keyHashPropertyName = "hashPropertyName",
 		keyEdgeSymbolsPropertyName = "edgeSymbolsPropertyName",
@@ -99,12 +107,18 @@ public class Configuration{
 	public final int flushAfterSeconds;
 	public final int bufferLimit;
 	public final int transactionTimeoutInSeconds;
+	public final int putBatchSize;
 	// Storage and database interaction management
 	public final boolean forceShutdown;
 	public final boolean reset;
 	public final int maxRetries;
 	public final int waitForIndexSeconds;
 	public final HashKeyCollisionAction hashKeyCollisionAction;
+	public final boolean bulkImport;
+	public final File bulkImportDirectoryFile;
+	public final long bulkImportCheckpointInterval;
+	public final ExternalMapArgument bulkImportVertexMapArgument;
+	public final ExternalMapArgument bulkImportEdgeMapArgument;
 	// Database schema management
 	public final String hashPropertyName;
 	public final String edgeSymbolsPropertyName;
@@ -150,12 +164,18 @@ public class Configuration{
 			final int flushAfterSeconds, 
 			final int bufferLimit, 
 			final int transactionTimeoutInSeconds,
+			final int putBatchSize,
 			// Storage and database interaction management
 			final boolean forceShutdown,
 			final boolean reset,
 			final int maxRetries,
 			final int waitForIndexSeconds,
 			final HashKeyCollisionAction hashKeyCollisionAction,
+			final boolean bulkImport,
+			final File bulkImportDirectoryFile,
+			final long bulkImportCheckpointInterval,
+			final ExternalMapArgument bulkImportVertexMapArgument,
+			final ExternalMapArgument bulkImportEdgeMapArgument,
 			// Database schema management
 			final String hashPropertyName,
 			final String edgeSymbolsPropertyName,
@@ -201,12 +221,18 @@ public class Configuration{
 		this.flushAfterSeconds = flushAfterSeconds;
 		this.bufferLimit = bufferLimit;
 		this.transactionTimeoutInSeconds = transactionTimeoutInSeconds;
+		this.putBatchSize = putBatchSize;
 		// Storage and database interaction management
 		this.forceShutdown = forceShutdown;
 		this.reset = reset;
 		this.maxRetries = maxRetries;
 		this.waitForIndexSeconds = waitForIndexSeconds;
 		this.hashKeyCollisionAction = hashKeyCollisionAction;
+		this.bulkImport = bulkImport;
+		this.bulkImportDirectoryFile = bulkImportDirectoryFile;
+		this.bulkImportCheckpointInterval = bulkImportCheckpointInterval;
+		this.bulkImportVertexMapArgument = bulkImportVertexMapArgument;
+		this.bulkImportEdgeMapArgument = bulkImportEdgeMapArgument;
 		// Database schema management
 		this.hashPropertyName = hashPropertyName;
 		this.edgeSymbolsPropertyName = edgeSymbolsPropertyName;
@@ -321,6 +347,33 @@ public class Configuration{
 		return Result.successful(dbHomeDirectoryFile);
 	}
 
+	/**
+	 * Removes the map id key and the keys of the external map from the map.
+	 * 
+	 * @param map The map to get key values from
+	 * @param key The key for the map id
+	 * @param required Parse the external map argument or only remove the keys
+	 * @return The result object containing the argument (NULL if not required) or an error object
+	 */
+	private static Result<ExternalMapArgument> parseBulkImportMapArgument(final Map<String, String> map, final String key,
+			final boolean required){
+		final String mapIdString = map.get(key);
+		Result<ExternalMapArgument> result = Result.successful(null);
+		if(required){
+			try{
+				result = Result.successful(ArgumentFunctions.mustParseExternalMapArgument(key, map));
+			}catch(Exception e){
+				result = Result.failed("Invalid value for '" + key + "': '" + mapIdString + "'", e, null);
+			}
+		}
+		map.remove(key);
+		if(!HelperFunctions.isNullOrEmpty(mapIdString)){
+			final String prefix = mapIdString.trim() + ".";
+			map.keySet().removeIf(mapKey -> mapKey != null && mapKey.startsWith(prefix));
+		}
+		return result;
+	}
+
 	/**
 	 * @param arguments The arguments string for the storage
 	 * @param configFilePath The config file path of the storage
@@ -439,6 +492,19 @@ public class Configuration{
 			return Result.failed("Invalid value for '" + keyTransactionTimeoutInSeconds + "': '"+transactionTimeoutInSecondsString+"'", null, transactionTimeoutInSecondsResult);
 		}
 		final int transactionTimeoutInSeconds = transactionTimeoutInSecondsResult.result.intValue();
+
+		// Optional. Not batched by default
+		final String putBatchSizeString = map.remove(keyPutBatchSize);
+		final int putBatchSize;
+		if(HelperFunctions.isNullOrEmpty(putBatchSizeString)){
+			putBatchSize = 0;
+		}else{
+			final Result<Long> putBatchSizeResult = HelperFunctions.parseLong(putBatchSizeString, 10, 0, Integer.MAX_VALUE);
+			if(putBatchSizeResult.error){
+				return Result.failed("Invalid value for '" + keyPutBatchSize + "': '"+putBatchSizeString+"'", null, putBatchSizeResult);
+			}
+			putBatchSize = putBatchSizeResult.result.intValue();
+		}
 		// End - Storage buffer management
 
 		// Start - Storage and database interaction management
@@ -478,6 +544,55 @@ public class Configuration{
 		final HashKeyCollisionAction hashKeyCollisionAction = hashKeyCollisionActionResult.result;
 		// End - Storage and database interaction management
 
+		// Optional. Disabled by default
+		final String bulkImportString = map.remove(keyBulkImport);
+		final boolean bulkImport;
+		if(HelperFunctions.isNullOrEmpty(bulkImportString)){
+			bulkImport = false;
+		}else{
+			final Result<Boolean> bulkImportResult = HelperFunctions.parseBoolean(bulkImportString);
+			if(bulkImportResult.error){
+				return Result.failed("Invalid value for '" + keyBulkImport + "': '" + bulkImportString + "'", null, bulkImportResult);
+			}
+			bulkImport = bulkImportResult.result;
+		}
+
+		// Optional. Next to the database directory by default
+		final String bulkImportDirectoryPathString = map.remove(keyBulkImportDirectoryPath);
+		final File bulkImportDirectoryFile;
+		if(HelperFunctions.isNullOrEmpty(bulkImportDirectoryPathString)){
+			bulkImportDirectoryFile = new File(finalConstructedDbPath.getAbsolutePath() + ".bulkimport");
+		}else{
+			bulkImportDirectoryFile = new File(bulkImportDirectoryPathString.trim());
+		}
+		if(bulkImportDirectoryFile.exists() && !bulkImportDirectoryFile.isDirectory()){
+			return Result.failed("Path for key '" + keyBulkImportDirectoryPath + "' exists but is not a directory: '" + bulkImportDirectoryFile.getAbsolutePath() + "'");
+		}
+
+		// Optional
+		final String bulkImportCheckpointIntervalString = map.remove(keyBulkImportCheckpointInterval);
+		final long bulkImportCheckpointInterval;
+		if(HelperFunctions.isNullOrEmpty(bulkImportCheckpointIntervalString)){
+			bulkImportCheckpointInterval = 1000000;
+		}else{
+			final Result<Long> bulkImportCheckpointIntervalResult = HelperFunctions.parseLong(bulkImportCheckpointIntervalString, 10, 1, Long.MAX_VALUE);
+			if(bulkImportCheckpointIntervalResult.error){
+				return Result.failed("Invalid value for '" + keyBulkImportCheckpointInterval + "': '"+bulkImportCheckpointIntervalString+"'", null, bulkImportCheckpointIntervalResult);
+			}
+			bulkImportCheckpointInterval = bulkImportCheckpointIntervalResult.result;
+		}
+
+		final Result<ExternalMapArgument> bulkImportVertexMapArgumentResult = 
+				parseBulkImportMapArgument(map, keyBulkImportVertexMapId, bulkImport);
+		if(bulkImportVertexMapArgumentResult.error){
+			return Result.failed(bulkImportVertexMapArgumentResult.errorMessage, bulkImportVertexMapArgumentResult.exception, bulkImportVertexMapArgumentResult.cause);
+		}
+		final Result<ExternalMapArgument> bulkImportEdgeMapArgumentResult = 
+				parseBulkImportMapArgument(map, keyBulkImportEdgeMapId, bulkImport && !EdgeCacheFindMode.NONE.equals(edgeCacheFindMode));
+		if(bulkImportEdgeMapArgumentResult.error){
+			return Result.failed(bulkImportEdgeMapArgumentResult.errorMessage, bulkImportEdgeMapArgumentResult.exception, bulkImportEdgeMapArgumentResult.cause);
+		}
+
 		// Start - Database schema management		
 		final String hashPropertyNameString = map.remove(keyHashPropertyName);
 		if(HelperFunctions.isNullOrEmpty(hashPropertyNameString)){
@@ -672,12 +787,18 @@ public class Configuration{
 						flushAfterSeconds, 
 						bufferLimit,
 						transactionTimeoutInSeconds,
+						putBatchSize,
 						// Storage and database interaction management
 						forceShutdown, 
 						reset, 
 						maxRetries, 
 						waitForIndexSeconds, 
 						hashKeyCollisionAction,
+						bulkImport,
+						bulkImportDirectoryFile,
+						bulkImportCheckpointInterval,
+						bulkImportVertexMapArgumentResult.result,
+						bulkImportEdgeMapArgumentResult.result,
 						// Database schema management
 						hashPropertyName, 
 						edgeSymbolsPropertyName,
@@ -729,12 +850,18 @@ public class Configuration{
 				+ ", " + keyFlushAfterSeconds + "=" + flushAfterSeconds + newLine
 				+ ", " + keyBufferLimit + "=" + bufferLimit + " (buffering:" + ((bufferLimit < 0) ? ("disabled") : ("enabled") )+ ")" + newLine
 				+ ", " + keyTransactionTimeoutInSeconds + "=" + transactionTimeoutInSeconds + " (limited:" + ((transactionTimeoutInSeconds < 0) ? ("no") : ("yes") )+ ")" + newLine
+				+ ", " + keyPutBatchSize + "=" + putBatchSize + " (batching:" + ((putBatchSize > 1) ? ("enabled") : ("disabled") )+ ")" + newLine
 				// Storage and database interaction management
 				+ ", " + keyForceShutdown + "=" + forceShutdown + newLine
 				+ ", " + keyReset + "=" + reset + newLine
 				+ ", " + keyMaxRetries + "=" + maxRetries + newLine
 				+ ", " + keyWaitForIndexSeconds + "=" + waitForIndexSeconds + newLine
 				+ ", " + keyHashKeyCollisionAction + "=" + hashKeyCollisionAction + newLine
+				+ ", " + keyBulkImport + "=" + bulkImport + newLine
+				+ ", " + keyBulkImportDirectoryPath + "=" + bulkImportDirectoryFile.getAbsolutePath() + newLine
+				+ ", " + keyBulkImportCheckpointInterval + "=" + bulkImportCheckpointInterval + newLine
+				+ ", " + keyBulkImportVertexMapId + "=" + bulkImportVertexMapArgument + newLine
+				+ ", " + keyBulkImportEdgeMapId + "=" + bulkImportEdgeMapArgument + newLine
 				// Database schema management
 				+ ", " + keyHashPropertyName + "=" + hashPropertyName + newLine
 				+ ", " + keyEdgeSymbolsPropertyName + "=" + edgeSymbolsPropertyName + newLine
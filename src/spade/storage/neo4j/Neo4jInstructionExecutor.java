@@ -20,6 +20,7 @@
 package spade.storage.neo4j;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -27,8 +28,12 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
 import spade.core.AbstractStorage;
 import spade.query.quickgrail.core.EnvironmentVariableManager;
+import spade.query.quickgrail.core.GraphBatchIterator;
 import spade.query.quickgrail.core.GraphDescription;
 import spade.query.quickgrail.core.GraphStatistic;
 import spade.query.quickgrail.core.GraphStatistic.Interval;
@@ -929,76 +934,79 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 		
 		return storage.readEdgeSet("e", edgeQuery);
 	}
+
+	/*
+	 * One cursor over the whole result. See ResultBatchIterator
+	 */
+	@Override
+	public GraphBatchIterator<Map<String, Map<String, String>>> exportVerticesInBatches(final Graph targetGraph,
+			final int batchSize){
+		final String nodesQuery = "match (v:" + targetGraph.name + ") return v;";
+		return new ResultBatchIterator<Node, Map<String, Map<String, String>>>(storage, nodesQuery, "v", batchSize){
+			@Override
+			protected Map<String, Map<String, String>> newBatch(){
+				return new HashMap<String, Map<String, String>>();
+			}
+			@Override
+			protected void addToBatch(final Neo4j storage, final Map<String, Map<String, String>> batch, final Node node){
+				TaskGetHashToVertexMap.putVertex(storage, node, batch);
+			}
+		};
+	}
+
+	@Override
+	public GraphBatchIterator<Set<QueriedEdge>> exportEdgesInBatches(final Graph targetGraph, final int batchSize){
+		final String edgeProperty = "e.`"+neo4jQueryEnvironment.edgeLabelsPropertyName+"`";
+		String edgeQuery = "match ()-[e]->()";
+		if(!neo4jQueryEnvironment.isBaseGraph(targetGraph)){
+			edgeQuery += " where " + edgeProperty + " contains '," + targetGraph.name + ",'";
+		}
+		edgeQuery += " return e;";
+		return new ResultBatchIterator<Relationship, Set<QueriedEdge>>(storage, edgeQuery, "e", batchSize){
+			@Override
+			protected Set<QueriedEdge> newBatch(){
+				return new HashSet<QueriedEdge>();
+			}
+			@Override
+			protected void addToBatch(final Neo4j storage, final Set<QueriedEdge> batch, final Relationship relationship){
+				batch.add(TaskGetQueriedEdgeSet.toQueriedEdge(storage, relationship));
+			}
+		};
+	}
 	
+	/*
+	 * Breadth-first search with a visited set instead of 'match p=(a)-[*0..depth]->(b)' which enumerates every path
+	 */
 	@Override
 	public void getLineage(Graph targetGraph, Graph subjectGraph, Graph startGraph, int depth, Direction direction){
-		final String edgeProperty = "e1.`"+neo4jQueryEnvironment.edgeLabelsPropertyName+"`";
+		final boolean subjectIsBaseGraph = neo4jQueryEnvironment.isBaseGraph(subjectGraph);
 		if(direction.equals(GetLineage.Direction.kAncestor) || direction.equals(GetLineage.Direction.kBoth)){
-			String query = "match ";
-			query += "p=(a:"+startGraph.name+":"+subjectGraph.name+")"
-					+ "-[e0*0.."+depth+"]->"
-					+ "(b:"+subjectGraph.name+") ";
-			if(!neo4jQueryEnvironment.isBaseGraph(subjectGraph)){
-				query += " where all(e1 in relationships(p) where " + edgeProperty + " contains '," + subjectGraph.name + ",') ";
-			}
-			query += " foreach (n in nodes(p) | set n:" + targetGraph.name + ") ";
-			query += " foreach (e in relationships(p) | " + buildSubqueryForUpdatingEdgeSymbols("e", targetGraph.name) + ");";
-			storage.executeQuery(query);
+			storage.executeQueryAndBlockForResult(new TaskGetLineage(neo4jQueryEnvironment.edgeLabelsPropertyName,
+					subjectGraph.name, subjectIsBaseGraph, startGraph.name, targetGraph.name, depth,
+					org.neo4j.graphdb.Direction.OUTGOING));
 		}
 		
 		if(direction.equals(GetLineage.Direction.kDescendant) || direction.equals(GetLineage.Direction.kBoth)){
-			String query = "match ";
-			query += "p=(a:"+subjectGraph.name+")"
-					+ "-[e0*0.."+depth+"]->"
-					+ "(b:"+startGraph.name+":"+subjectGraph.name+") ";
-			if(!neo4jQueryEnvironment.isBaseGraph(subjectGraph)){
-				query += " where all(e1 in relationships(p) where " + edgeProperty + " contains '," + subjectGraph.name + ",') ";
-			}
-			query += " foreach (n in nodes(p) | set n:" + targetGraph.name + ") ";
-			query += " foreach (e in relationships(p) | " + buildSubqueryForUpdatingEdgeSymbols("e", targetGraph.name) + ");";
-			storage.executeQuery(query);
+			storage.executeQueryAndBlockForResult(new TaskGetLineage(neo4jQueryEnvironment.edgeLabelsPropertyName,
+					subjectGraph.name, subjectIsBaseGraph, startGraph.name, targetGraph.name, depth,
+					org.neo4j.graphdb.Direction.INCOMING));
 		}
 	}
 
+	/*
+	 * Union of the walks (not trails) of length at most max depth. See TaskGetPath
+	 */
 	@Override
 	public void getSimplePath(Graph targetGraph, Graph subjectGraph, Graph srcGraph, Graph dstGraph, int maxDepth){
-		final String edgeProperty = "e1.`"+neo4jQueryEnvironment.edgeLabelsPropertyName+"`";
-		String query = "match ";
-		query += "p=(a:"+srcGraph.name+":"+subjectGraph.name+")"
-				+ "-[e0*0.."+maxDepth+"]->"
-				+ "(b:"+dstGraph.name+":"+subjectGraph.name+") ";
-		if(!neo4jQueryEnvironment.isBaseGraph(subjectGraph)){
-			query += " where all(e1 in relationships(p) where " + edgeProperty + " contains '," + subjectGraph.name + ",') ";
-		}
-		query += " foreach (n in nodes(p) | set n:" + targetGraph.name + ") ";
-		query += " foreach (e in relationships(p) | " + buildSubqueryForUpdatingEdgeSymbols("e", targetGraph.name) + ");";
-		storage.executeQuery(query);
+		storage.executeQueryAndBlockForResult(new TaskGetPath(neo4jQueryEnvironment.edgeLabelsPropertyName,
+				subjectGraph.name, neo4jQueryEnvironment.isBaseGraph(subjectGraph), srcGraph.name, dstGraph.name,
+				targetGraph.name, maxDepth));
 	}
 	
 	@Override
 	public void getLink(Graph targetGraph, Graph subjectGraph, Graph srcGraph, Graph dstGraph, int maxDepth){
-		final String edgeProperty = "e1.`"+neo4jQueryEnvironment.edgeLabelsPropertyName+"`";
-		String query = "match ";
-		query += "p=(a:"+srcGraph.name+":"+subjectGraph.name+")"
-				+ "-[e0*0.."+maxDepth+"]->"
-				+ "(b:"+dstGraph.name+":"+subjectGraph.name+") ";
-		if(!neo4jQueryEnvironment.isBaseGraph(subjectGraph)){
-			query += " where all(e1 in relationships(p) where " + edgeProperty + " contains '," + subjectGraph.name + ",') ";
-		}
-		query += " foreach (n in nodes(p) | set n:" + targetGraph.name + ") ";
-		query += " foreach (e in relationships(p) | " + buildSubqueryForUpdatingEdgeSymbols("e", targetGraph.name) + ");";
-		storage.executeQuery(query);
-		
-		query = "match ";
-		query += "p=(a:"+dstGraph.name+":"+subjectGraph.name+")"
-				+ "-[e0*0.."+maxDepth+"]->"
-				+ "(b:"+srcGraph.name+":"+subjectGraph.name+") ";
-		if(!neo4jQueryEnvironment.isBaseGraph(subjectGraph)){
-			query += " where all(e1 in relationships(p) where " + edgeProperty + " contains '," + subjectGraph.name + ",') ";
-		}
-		query += " foreach (n in nodes(p) | set n:" + targetGraph.name + ") ";
-		query += " foreach (e in relationships(p) | " + buildSubqueryForUpdatingEdgeSymbols("e", targetGraph.name) + ");";
-		storage.executeQuery(query);
+		getSimplePath(targetGraph, subjectGraph, srcGraph, dstGraph, maxDepth);
+		getSimplePath(targetGraph, subjectGraph, dstGraph, srcGraph, maxDepth);
 	}
 
 	@Override
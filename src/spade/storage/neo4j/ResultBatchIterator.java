@@ -0,0 +1,116 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.neo4j;
+
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+
+import spade.query.quickgrail.core.GraphBatchIterator;
+import spade.storage.Neo4j;
+
+/**
+ * Batches of one column of a query result read through a single cursor.
+ *
+ * The query runs in a read transaction owned by the iterator and not on the storage thread, so the storage thread
+ * is not held while the batches are consumed. Pending writes are committed by the storage thread before the query
+ * runs, same as the other read tasks. The transaction is closed at the end of the result or on close.
+ *
+ * @param <E> Type of the column
+ * @param <T> Type of one batch
+ */
+public abstract class ResultBatchIterator<E, T> extends GraphBatchIterator<T>{
+
+	private final Neo4j storage;
+	private final String query;
+	private final String columnAlias;
+
+	private Transaction tx = null;
+	private org.neo4j.graphdb.Result result = null;
+	private ResourceIterator<E> column = null;
+	private boolean closed = false;
+
+	public ResultBatchIterator(final Neo4j storage, final String query, final String columnAlias, final int batchSize){
+		super(batchSize);
+		this.storage = storage;
+		this.query = query;
+		this.columnAlias = columnAlias;
+	}
+
+	protected abstract T newBatch();
+
+	protected abstract void addToBatch(final Neo4j storage, final T batch, final E element);
+
+	@Override
+	protected final T fetchNextBatch(){
+		if(closed){
+			return null;
+		}
+		try{
+			if(tx == null){
+				// Commit the buffered writes
+				storage.executeQueryAndBlockForResult(new StorageTask<Object>(true, false){
+					@Override
+					public Object execute(final Neo4j storage, final Transaction tx){
+						return null;
+					}
+				});
+				tx = storage.getDatabaseManager().beginANewTransaction();
+				final long startTime = System.currentTimeMillis();
+				result = tx.execute(query);
+				column = result.columnAs(columnAlias);
+				storage.debug((System.currentTimeMillis() - startTime) + " millis taken to execute query '" + query + "'");
+			}
+			if(!column.hasNext()){
+				return null;
+			}
+			final T batch = newBatch();
+			for(int i = 0; i < batchSize && column.hasNext(); i++){
+				addToBatch(storage, batch, column.next());
+			}
+			return batch;
+		}catch(RuntimeException e){
+			close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void close(){
+		if(closed){
+			return;
+		}
+		closed = true;
+		try{
+			if(result != null){
+				result.close();
+			}
+		}finally{
+			result = null;
+			column = null;
+			if(tx != null){
+				try{
+					tx.close();
+				}finally{
+					tx = null;
+				}
+			}
+		}
+	}
+}
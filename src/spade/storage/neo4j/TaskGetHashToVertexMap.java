@@ -56,30 +56,36 @@ public class TaskGetHashToVertexMap extends StorageTask<Map<String, Map<String,
 		
 		Iterator<Node> nodes = result.columnAs(vertexAliasInQuery);
 		while(nodes.hasNext()){
-			Node node = nodes.next();
-			String hashAnnotationValue = null;
-			Map<String, String> annotations = new HashMap<String, String>();
-			for(String key : node.getPropertyKeys()){
-				if(!HelperFunctions.isNullOrEmpty(key)){
-					String annotationValueString = null;
-					Object annotationValueObject = node.getProperty(key);
-					if(annotationValueObject == null){
-						annotationValueString = "";
-					}else{
-						annotationValueString = annotationValueObject.toString();
-					}
-					if(storage.getConfiguration().hashPropertyName.equals(key)){
-						hashAnnotationValue = annotationValueString;
-					}else{
-						annotations.put(key, annotationValueString);
-					}
-				}
-			}
-			hashToVertexAnnotations.put(hashAnnotationValue, annotations);
+			putVertex(storage, nodes.next(), hashToVertexAnnotations);
 		}
 		
 		setResult(hashToVertexAnnotations);
 		result.close();
 		return hashToVertexAnnotations;
 	}
+
+	/**
+	 * Adds the hash and the annotations of the node to the map
+	 */
+	static void putVertex(final Neo4j storage, final Node node, final Map<String, Map<String, String>> hashToVertexAnnotations){
+		String hashAnnotationValue = null;
+		Map<String, String> annotations = new HashMap<String, String>();
+		for(String key : node.getPropertyKeys()){
+			if(!HelperFunctions.isNullOrEmpty(key)){
+				String annotationValueString = null;
+				Object annotationValueObject = node.getProperty(key);
+				if(annotationValueObject == null){
+					annotationValueString = "";
+				}else{
+					annotationValueString = annotationValueObject.toString();
+				}
+				if(storage.getConfiguration().hashPropertyName.equals(key)){
+					hashAnnotationValue = annotationValueString;
+				}else{
+					annotations.put(key, annotationValueString);
+				}
+			}
+		}
+		hashToVertexAnnotations.put(hashAnnotationValue, annotations);
+	}
 }
@@ -0,0 +1,196 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.neo4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+
+import spade.storage.Neo4j;
+
+/**
+ * Level-synchronous breadth-first lineage through the embedded traversal API.
+ *
+ * Starts at the nodes in the start graph and follows the relationships of the subject graph in the given direction
+ * for at most depth levels. Each node is expanded once. Reached nodes and the relationships followed from the nodes
+ * before the last level are added to the target graph. These are the same nodes and relationships as the ones on the
+ * paths of length 0 to depth from the start graph.
+ */
+public class TaskGetLineage extends StorageTask<Integer>{
+
+	private final String edgeLabelsPropertyName;
+	private final String subjectGraphName;
+	// Null if the subject graph is the base graph i.e. all relationships
+	private final String subjectEdgeSymbol;
+	private final String startGraphName;
+	private final String targetGraphName;
+	private final int depth;
+	private final Direction direction;
+
+	@Override
+	public String toString(){
+		return "TaskGetLineage [subjectGraphName=" + subjectGraphName + ", startGraphName=" + startGraphName
+				+ ", targetGraphName=" + targetGraphName + ", depth=" + depth + ", direction=" + direction + "]";
+	}
+
+	/**
+	 * @param direction OUTGOING for ancestors and INCOMING for descendants
+	 */
+	public TaskGetLineage(final String edgeLabelsPropertyName, final String subjectGraphName, final boolean subjectIsBaseGraph,
+			final String startGraphName, final String targetGraphName, final int depth, final Direction direction){
+		super(true, true);
+		this.edgeLabelsPropertyName = edgeLabelsPropertyName;
+		this.subjectGraphName = subjectGraphName;
+		this.subjectEdgeSymbol = subjectIsBaseGraph ? null : toEdgeSymbol(subjectGraphName);
+		this.startGraphName = startGraphName;
+		this.targetGraphName = targetGraphName;
+		this.depth = depth;
+		this.direction = direction;
+	}
+
+	/**
+	 * @return the number of levels expanded
+	 */
+	@Override
+	public final Integer execute(final Neo4j storage, final Transaction tx) throws Exception{
+		try{
+			storage.getStorageStats().startActionTimer(this.getClass().getSimpleName());
+			final Label subjectLabel = Label.label(subjectGraphName);
+			final Label targetLabel = Label.label(targetGraphName);
+			final String targetEdgeSymbol = toEdgeSymbol(targetGraphName);
+
+			final Map<Long, Integer> levels = new HashMap<Long, Integer>();
+			List<Node> frontier = findStartNodes(tx, Label.label(startGraphName), subjectLabel, levels);
+			for(final Node node : frontier){
+				node.addLabel(targetLabel);
+			}
+
+			int level = 0;
+			while(level < depth && !frontier.isEmpty()){
+				final List<Node> nextFrontier = new ArrayList<Node>();
+				for(final Node node : frontier){
+					for(final Relationship relationship : node.getRelationships(direction)){
+						final Node other = relationship.getOtherNode(node);
+						if(!isInSubject(relationship, other, subjectLabel, edgeLabelsPropertyName, subjectEdgeSymbol)){
+							continue;
+						}
+						addEdgeSymbol(relationship, edgeLabelsPropertyName, targetEdgeSymbol);
+						if(levels.putIfAbsent(other.getId(), level + 1) == null){
+							other.addLabel(targetLabel);
+							nextFrontier.add(other);
+						}
+					}
+				}
+				frontier = nextFrontier;
+				level++;
+			}
+			setResult(level);
+			return level;
+		}finally{
+			storage.getStorageStats().stopActionTimer(this.getClass().getSimpleName());
+		}
+	}
+
+	static String toEdgeSymbol(final String graphName){
+		return "," + graphName + ",";
+	}
+
+	/**
+	 * Nodes with both labels. Their level (0) is put in the levels map.
+	 */
+	static List<Node> findStartNodes(final Transaction tx, final Label startLabel, final Label subjectLabel,
+			final Map<Long, Integer> levels){
+		final List<Node> nodes = new ArrayList<Node>();
+		try(final ResourceIterator<Node> iterator = tx.findNodes(startLabel)){
+			while(iterator.hasNext()){
+				final Node node = iterator.next();
+				if(node.hasLabel(subjectLabel) && levels.putIfAbsent(node.getId(), 0) == null){
+					nodes.add(node);
+				}
+			}
+		}
+		return nodes;
+	}
+
+	/**
+	 * @param subjectEdgeSymbol null for all relationships
+	 */
+	static boolean isInSubject(final Relationship relationship, final Node other, final Label subjectLabel,
+			final String edgeLabelsPropertyName, final String subjectEdgeSymbol){
+		if(!other.hasLabel(subjectLabel)){
+			return false;
+		}
+		if(subjectEdgeSymbol == null){
+			return true;
+		}
+		final Object symbols = relationship.getProperty(edgeLabelsPropertyName, null);
+		return symbols != null && String.valueOf(symbols).contains(subjectEdgeSymbol);
+	}
+
+	/**
+	 * Same update as the Cypher used by Neo4jInstructionExecutor for edge symbols
+	 */
+	static void addEdgeSymbol(final Relationship relationship, final String edgeLabelsPropertyName,
+			final String targetEdgeSymbol){
+		final Object symbols = relationship.getProperty(edgeLabelsPropertyName, null);
+		if(symbols == null){
+			relationship.setProperty(edgeLabelsPropertyName, targetEdgeSymbol);
+		}else{
+			final String symbolsString = String.valueOf(symbols);
+			if(!symbolsString.contains(targetEdgeSymbol)){
+				relationship.setProperty(edgeLabelsPropertyName, symbolsString + targetEdgeSymbol);
+			}
+		}
+	}
+
+	/**
+	 * Breadth-first distances from the start nodes up to the max depth without modifying the graph
+	 */
+	static Map<Long, Integer> getLevels(final Transaction tx, final Label startLabel, final Label subjectLabel,
+			final String edgeLabelsPropertyName, final String subjectEdgeSymbol, final int maxDepth,
+			final Direction direction){
+		final Map<Long, Integer> levels = new HashMap<Long, Integer>();
+		List<Node> frontier = findStartNodes(tx, startLabel, subjectLabel, levels);
+		int level = 0;
+		while(level < maxDepth && !frontier.isEmpty()){
+			final List<Node> nextFrontier = new ArrayList<Node>();
+			for(final Node node : frontier){
+				for(final Relationship relationship : node.getRelationships(direction)){
+					final Node other = relationship.getOtherNode(node);
+					if(isInSubject(relationship, other, subjectLabel, edgeLabelsPropertyName, subjectEdgeSymbol)
+							&& levels.putIfAbsent(other.getId(), level + 1) == null){
+						nextFrontier.add(other);
+					}
+				}
+			}
+			frontier = nextFrontier;
+			level++;
+		}
+		return levels;
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.neo4j;
+
+import java.util.Map;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+
+import spade.storage.Neo4j;
+
+/**
+ * Paths of length 0 to max depth from the source graph to the destination graph through the embedded traversal API.
+ *
+ * One breadth-first search forward from the source graph and one backward from the destination graph. A node is on a
+ * path if the sum of its two distances is at most the max depth, and a relationship (u -> v) if
+ * distance(source, u) + 1 + distance(v, destination) is at most the max depth. No paths are enumerated.
+ *
+ * The result is the union of the walks of length at most max depth, i.e. a relationship can be repeated. This is
+ * the same as the level-by-level PostgreSQL queries but not the same as the Cypher 'match p=(a)-[*0..n]->(b)' used
+ * before, which only matches trails (no repeated relationship). The two differ only when a cycle is reachable
+ * within the max depth. For example with src->x, x->y, y->v, v->x, y->dst and max depth 6, 'v' is on the walk
+ * src,x,y,v,x,y,dst but on no trail, so it is in the result here and was not with Cypher. Restricting to trails
+ * would need path enumeration again.
+ */
+public class TaskGetPath extends StorageTask<Integer>{
+
+	private final String edgeLabelsPropertyName;
+	private final String subjectGraphName;
+	// Null if the subject graph is the base graph i.e. all relationships
+	private final String subjectEdgeSymbol;
+	private final String srcGraphName;
+	private final String dstGraphName;
+	private final String targetGraphName;
+	private final int maxDepth;
+
+	@Override
+	public String toString(){
+		return "TaskGetPath [subjectGraphName=" + subjectGraphName + ", srcGraphName=" + srcGraphName + ", dstGraphName="
+				+ dstGraphName + ", targetGraphName=" + targetGraphName + ", maxDepth=" + maxDepth + "]";
+	}
+
+	public TaskGetPath(final String edgeLabelsPropertyName, final String subjectGraphName, final boolean subjectIsBaseGraph,
+			final String srcGraphName, final String dstGraphName, final String targetGraphName, final int maxDepth){
+		super(true, true);
+		this.edgeLabelsPropertyName = edgeLabelsPropertyName;
+		this.subjectGraphName = subjectGraphName;
+		this.subjectEdgeSymbol = subjectIsBaseGraph ? null : TaskGetLineage.toEdgeSymbol(subjectGraphName);
+		this.srcGraphName = srcGraphName;
+		this.dstGraphName = dstGraphName;
+		this.targetGraphName = targetGraphName;
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * @return the number of nodes on the paths
+	 */
+	@Override
+	public final Integer execute(final Neo4j storage, final Transaction tx) throws Exception{
+		try{
+			storage.getStorageStats().startActionTimer(this.getClass().getSimpleName());
+			final Label subjectLabel = Label.label(subjectGraphName);
+			final Label targetLabel = Label.label(targetGraphName);
+			final String targetEdgeSymbol = TaskGetLineage.toEdgeSymbol(targetGraphName);
+
+			final Map<Long, Integer> fromSrc = TaskGetLineage.getLevels(tx, Label.label(srcGraphName), subjectLabel,
+					edgeLabelsPropertyName, subjectEdgeSymbol, maxDepth, Direction.OUTGOING);
+			if(fromSrc.isEmpty()){
+				setResult(0);
+				return 0;
+			}
+			final Map<Long, Integer> toDst = TaskGetLineage.getLevels(tx, Label.label(dstGraphName), subjectLabel,
+					edgeLabelsPropertyName, subjectEdgeSymbol, maxDepth, Direction.INCOMING);
+
+			int nodeCount = 0;
+			for(final Map.Entry<Long, Integer> entry : fromSrc.entrySet()){
+				final Integer distanceToDst = toDst.get(entry.getKey());
+				if(distanceToDst == null || entry.getValue() + distanceToDst > maxDepth){
+					continue;
+				}
+				final Node node = tx.getNodeById(entry.getKey());
+				node.addLabel(targetLabel);
+				nodeCount++;
+				for(final Relationship relationship : node.getRelationships(Direction.OUTGOING)){
+					final Node other = relationship.getOtherNode(node);
+					final Integer otherDistanceToDst = toDst.get(other.getId());
+					if(otherDistanceToDst != null && entry.getValue() + 1 + otherDistanceToDst <= maxDepth
+							&& TaskGetLineage.isInSubject(relationship, other, subjectLabel, edgeLabelsPropertyName,
+									subjectEdgeSymbol)){
+						TaskGetLineage.addEdgeSymbol(relationship, edgeLabelsPropertyName, targetEdgeSymbol);
+					}
+				}
+			}
+			setResult(nodeCount);
+			return nodeCount;
+		}finally{
+			storage.getStorageStats().stopActionTimer(this.getClass().getSimpleName());
+		}
+	}
+}
@@ -59,34 +59,37 @@ public class TaskGetQueriedEdgeSet extends StorageTask<Set<QueriedEdge>>{
 		
 		Iterator<Relationship> relationships = result.columnAs(relationshipAliasInQuery);
 		while(relationships.hasNext()){
-			Relationship relationship = relationships.next();
-			Object childVertexHashObject = relationship.getStartNode().getProperty(storage.getConfiguration().hashPropertyName);
-			String childVertexHashString = childVertexHashObject == null ? null
-					: childVertexHashObject.toString();
-			Object parentVertexHashObject = relationship.getEndNode().getProperty(storage.getConfiguration().hashPropertyName);
-			String parentVertexHashString = parentVertexHashObject == null ? null
-					: parentVertexHashObject.toString();
-			Object edgeHashObject = relationship.getProperty(storage.getConfiguration().hashPropertyName);
-			String edgeHashString = edgeHashObject == null ? null : edgeHashObject.toString();
-			Map<String, String> annotations = new HashMap<String, String>();
-			for(String key : relationship.getPropertyKeys()){
-				if(!HelperFunctions.isNullOrEmpty(key)){
-					if(key.equalsIgnoreCase(storage.getConfiguration().hashPropertyName)
-							|| key.equalsIgnoreCase(storage.getConfiguration().edgeSymbolsPropertyName)){
-						// ignore
-					}else{
-						Object annotationValueObject = relationship.getProperty(key);
-						String annotationValueString = annotationValueObject == null ? ""
-								: annotationValueObject.toString();
-						annotations.put(key, annotationValueString);
-					}
-				}
-			}
-			edgeSet.add(new QueriedEdge(edgeHashString, childVertexHashString, parentVertexHashString, annotations));
+			edgeSet.add(toQueriedEdge(storage, relationships.next()));
 		}
 		
 		setResult(edgeSet);
 		result.close();
 		return edgeSet;
 	}
+
+	static QueriedEdge toQueriedEdge(final Neo4j storage, final Relationship relationship){
+		Object childVertexHashObject = relationship.getStartNode().getProperty(storage.getConfiguration().hashPropertyName);
+		String childVertexHashString = childVertexHashObject == null ? null
+				: childVertexHashObject.toString();
+		Object parentVertexHashObject = relationship.getEndNode().getProperty(storage.getConfiguration().hashPropertyName);
+		String parentVertexHashString = parentVertexHashObject == null ? null
+				: parentVertexHashObject.toString();
+		Object edgeHashObject = relationship.getProperty(storage.getConfiguration().hashPropertyName);
+		String edgeHashString = edgeHashObject == null ? null : edgeHashObject.toString();
+		Map<String, String> annotations = new HashMap<String, String>();
+		for(String key : relationship.getPropertyKeys()){
+			if(!HelperFunctions.isNullOrEmpty(key)){
+				if(key.equalsIgnoreCase(storage.getConfiguration().hashPropertyName)
+						|| key.equalsIgnoreCase(storage.getConfiguration().edgeSymbolsPropertyName)){
+					// ignore
+				}else{
+					Object annotationValueObject = relationship.getProperty(key);
+					String annotationValueString = annotationValueObject == null ? ""
+							: annotationValueObject.toString();
+					annotations.put(key, annotationValueString);
+				}
+			}
+		}
+		return new QueriedEdge(edgeHashString, childVertexHashString, parentVertexHashString, annotations);
+	}
 }
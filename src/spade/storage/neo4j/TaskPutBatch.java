@@ -0,0 +1,446 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.neo4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractVertex;
+import spade.storage.Neo4j;
+import spade.storage.neo4j.Configuration.EdgeCacheFindMode;
+import spade.storage.neo4j.Configuration.VertexCacheMode;
+
+/**
+ * A run of consecutive TaskPutVertex and TaskPutEdge tasks executed with a few UNWIND statements
+ * instead of one create call per element.
+ * 
+ * The outcome for each task is the same as executing it alone. Already stored elements are skipped,
+ * missing edge endpoints are stored, and an element rejected because of its annotations fails its own
+ * task only.
+ */
+public class TaskPutBatch extends StorageTask<Integer>{
+
+	private static final Logger logger = Logger.getLogger(TaskPutBatch.class.getName());
+
+	private final List<StorageTask<?>> tasks = new ArrayList<StorageTask<?>>();
+
+	@Override
+	public String toString(){
+		return "TaskPutBatch [size=" + tasks.size() + "]";
+	}
+
+	public TaskPutBatch(){
+		super(false, false);
+	}
+
+	public static final boolean isBatchable(final StorageTask<?> task){
+		return task instanceof TaskPutVertex || task instanceof TaskPutEdge;
+	}
+
+	public final void add(final StorageTask<?> task){
+		if(!isBatchable(task)){
+			throw new IllegalArgumentException("Task cannot be batched: " + task);
+		}
+		tasks.add(task);
+	}
+
+	public final int size(){
+		return tasks.size();
+	}
+
+	public final void completedAll(){
+		for(final StorageTask<?> task : tasks){
+			task.completed();
+		}
+		completed();
+	}
+
+	public final void setErrorAll(final Throwable error){
+		for(final StorageTask<?> task : tasks){
+			if(task.getError() == null){
+				task.setError(error);
+			}
+		}
+		setError(error);
+	}
+
+	private static final <T> void addToListInMap(final Map<String, List<T>> map, final String key, final T value){
+		List<T> list = map.get(key);
+		if(list == null){
+			list = new ArrayList<T>();
+			map.put(key, list);
+		}
+		list.add(value);
+	}
+
+	private static final Map<String, Object> createPropertiesMap(final Neo4j storage, final Object vertexOrEdgeObject,
+			final String objectName, final String hashCode, final Map<String, String> annotations) throws Exception{
+		storage.validateUpdateHashKeyAndKeysInAnnotationMap(vertexOrEdgeObject, objectName, annotations);
+		final Map<String, Object> properties = new HashMap<String, Object>();
+		for(final Map.Entry<String, String> entry : annotations.entrySet()){
+			if(entry.getKey() == null){
+				throw new Exception("NULL key in " + objectName.toLowerCase() + ": " + vertexOrEdgeObject);
+			}
+			// 'SET v = row.props' would silently skip it whereas setProperty fails
+			if(entry.getValue() == null){
+				throw new Exception("NULL value in " + objectName.toLowerCase() + ": " + vertexOrEdgeObject);
+			}
+			properties.put(entry.getKey(), entry.getValue());
+		}
+		properties.put(storage.getConfiguration().hashPropertyName, hashCode);
+		return properties;
+	}
+
+	private static final Map<String, Object> createRow(final String hashCode, final Map<String, Object> properties){
+		final Map<String, Object> row = new HashMap<String, Object>();
+		row.put("h", hashCode);
+		row.put("props", properties);
+		return row;
+	}
+
+	// Returns the hashes which exist in the database out of the given ones
+	private final Set<String> findExistingEdges(final Neo4j storage, final Transaction tx, final Set<String> hashCodes){
+		final Set<String> found = new HashSet<String>();
+		if(hashCodes.isEmpty()){
+			return found;
+		}
+		final EdgeCacheFindMode edgeCacheFindMode = storage.getConfiguration().edgeCacheFindMode;
+		if(EdgeCacheFindMode.NONE.equals(edgeCacheFindMode)){
+			return found;
+		}else if(EdgeCacheFindMode.ITERATE.equals(edgeCacheFindMode)){
+			for(final String hashCode : hashCodes){
+				final Boolean exists = storage.getCacheManager().executeTaskGetRelationshipByHashCode(hashCode, tx);
+				if(exists != null && exists){
+					found.add(hashCode);
+				}
+			}
+			return found;
+		}else if(EdgeCacheFindMode.CYPHER.equals(edgeCacheFindMode)){
+			final String query = "unwind $hashes as h match ()-[e:`"
+					+ storage.getConfiguration().neo4jEdgeRelationshipType.name() + "`]->() where e.`"
+					+ storage.getConfiguration().hashPropertyName + "` = h return distinct h as h";
+			final Map<String, Object> parameters = new HashMap<String, Object>();
+			parameters.put("hashes", new ArrayList<String>(hashCodes));
+			storage.getStorageStats().startActionTimer("RELATIONSHIP-FIND-BATCH");
+			final Result result = tx.execute(query, parameters);
+			try{
+				while(result.hasNext()){
+					found.add(String.valueOf(result.next().get("h")));
+				}
+			}finally{
+				result.close();
+				storage.getStorageStats().stopActionTimer("RELATIONSHIP-FIND-BATCH");
+			}
+			return found;
+		}else{
+			throw new RuntimeException("Failed to find relationships. Unhandled edge cache find mode: " + edgeCacheFindMode);
+		}
+	}
+
+	// Adds the ids of the nodes which exist in the database to the given map
+	private final void findExistingNodes(final Neo4j storage, final Transaction tx, final Set<String> hashCodes,
+			final Map<String, Long> hashToNodeId){
+		if(hashCodes.isEmpty()){
+			return;
+		}
+		final String query = "unwind $hashes as h match (v:`"
+				+ storage.getConfiguration().neo4jVertexLabel.name() + "` {`"
+				+ storage.getConfiguration().hashPropertyName + "`: h}) return h as h, id(v) as id";
+		final Map<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("hashes", new ArrayList<String>(hashCodes));
+		storage.getStorageStats().startActionTimer("NODE-FIND-BATCH");
+		final Result result = tx.execute(query, parameters);
+		try{
+			while(result.hasNext()){
+				final Map<String, Object> row = result.next();
+				hashToNodeId.put(String.valueOf(row.get("h")), ((Number)row.get("id")).longValue());
+			}
+		}finally{
+			result.close();
+			storage.getStorageStats().stopActionTimer("NODE-FIND-BATCH");
+		}
+	}
+
+	private final void cacheNode(final Neo4j storage, final String hashCode, final Node node){
+		if(VertexCacheMode.ID.equals(storage.getConfiguration().vertexCacheMode)){
+			storage.getCacheManager().vertexCachePutNodeId(hashCode, node.getId());
+		}else if(VertexCacheMode.NODE.equals(storage.getConfiguration().vertexCacheMode)){
+			storage.getCacheManager().vertexCachePutNode(hashCode, node);
+		}else{
+			throw new RuntimeException(
+					"Failed to cache node. Unhandled vertex cache mode: " + storage.getConfiguration().vertexCacheMode);
+		}
+	}
+
+	@Override
+	public final Integer execute(final Neo4j storage, final Transaction tx) throws Exception{
+		final Configuration configuration = storage.getConfiguration();
+		final CacheManager cacheManager = storage.getCacheManager();
+
+		// Hash to the element to put and the tasks waiting on it. Duplicates within the batch are put once.
+		final Map<String, AbstractVertex> vertices = new LinkedHashMap<String, AbstractVertex>();
+		final Map<String, List<TaskPutVertex>> vertexTasks = new HashMap<String, List<TaskPutVertex>>();
+		final Map<String, AbstractEdge> edges = new LinkedHashMap<String, AbstractEdge>();
+		final Map<String, List<TaskPutEdge>> edgeTasks = new HashMap<String, List<TaskPutEdge>>();
+
+		for(final StorageTask<?> task : tasks){
+			if(task instanceof TaskPutVertex){
+				final TaskPutVertex vertexTask = (TaskPutVertex)task;
+				final AbstractVertex vertex = vertexTask.getVertex();
+				if(vertex == null){
+					vertexTask.setError(new Exception("NULL vertex to put"));
+					continue;
+				}
+				final String hashCode = vertex.bigHashCode();
+				if(hashCode == null){
+					vertexTask.setError(new Exception("NULL hash code for vertex to put: " + vertex));
+					continue;
+				}
+				if(!vertices.containsKey(hashCode)){
+					vertices.put(hashCode, vertex);
+				}
+				addToListInMap(vertexTasks, hashCode, vertexTask);
+			}else if(task instanceof TaskPutEdge){
+				final TaskPutEdge edgeTask = (TaskPutEdge)task;
+				final AbstractEdge edge = edgeTask.getEdge();
+				if(edge == null){
+					edgeTask.setError(new Exception("NULL edge to put"));
+					continue;
+				}
+				final String hashCode = edge.bigHashCode();
+				if(hashCode == null){
+					edgeTask.setError(new Exception("NULL hash code for edge to put: " + edge));
+					continue;
+				}
+				if(cacheManager.edgeCacheGet(hashCode) != null){
+					continue;
+				}
+				if(!edges.containsKey(hashCode)){
+					edges.put(hashCode, edge);
+				}
+				addToListInMap(edgeTasks, hashCode, edgeTask);
+			}
+		}
+
+		// Edges already in the database are skipped along with their endpoints
+		for(final String hashCode : findExistingEdges(storage, tx, edges.keySet())){
+			cacheManager.edgeCachePut(hashCode, true);
+			edges.remove(hashCode);
+			edgeTasks.remove(hashCode);
+		}
+
+		for(final Map.Entry<String, AbstractEdge> entry : edges.entrySet()){
+			final AbstractEdge edge = entry.getValue();
+			final AbstractVertex childVertex = edge.getChildVertex();
+			final AbstractVertex parentVertex = edge.getParentVertex();
+			if(childVertex != null && childVertex.bigHashCode() != null && !vertices.containsKey(childVertex.bigHashCode())){
+				vertices.put(childVertex.bigHashCode(), childVertex);
+			}
+			if(parentVertex != null && parentVertex.bigHashCode() != null && !vertices.containsKey(parentVertex.bigHashCode())){
+				vertices.put(parentVertex.bigHashCode(), parentVertex);
+			}
+		}
+
+		final Map<String, Long> hashToNodeId = new HashMap<String, Long>();
+		final Map<String, Node> hashToNode = new HashMap<String, Node>();
+		final Set<String> uncachedVertices = new HashSet<String>();
+		for(final String hashCode : vertices.keySet()){
+			final Object value = cacheManager.vertexCacheGet(hashCode);
+			if(value == null){
+				uncachedVertices.add(hashCode);
+			}else if(value instanceof Node){
+				hashToNode.put(hashCode, (Node)value);
+				hashToNodeId.put(hashCode, ((Node)value).getId());
+			}else if(value instanceof Long){
+				hashToNodeId.put(hashCode, (Long)value);
+			}else{
+				throw new RuntimeException("Invalid object ("+value+") type in vertex cache: '"+value.getClass()+"'");
+			}
+		}
+
+		final Map<String, Long> foundNodeIds = new HashMap<String, Long>();
+		findExistingNodes(storage, tx, uncachedVertices, foundNodeIds);
+		for(final Map.Entry<String, Long> entry : foundNodeIds.entrySet()){
+			final Node node = tx.getNodeById(entry.getValue());
+			cacheNode(storage, entry.getKey(), node);
+			hashToNode.put(entry.getKey(), node);
+			hashToNodeId.put(entry.getKey(), entry.getValue());
+		}
+
+		// Reasons for the vertices which could not be put
+		final Map<String, Exception> vertexErrors = new HashMap<String, Exception>();
+		final List<Map<String, Object>> vertexRows = new ArrayList<Map<String, Object>>();
+		final Set<String> nodePropertyNames = new HashSet<String>();
+		for(final Map.Entry<String, AbstractVertex> entry : vertices.entrySet()){
+			final String hashCode = entry.getKey();
+			if(hashToNodeId.containsKey(hashCode)){
+				continue;
+			}
+			try{
+				final Map<String, Object> properties = createPropertiesMap(
+						storage, entry.getValue(), "Vertex", hashCode, entry.getValue().getCopyOfAnnotations());
+				nodePropertyNames.addAll(properties.keySet());
+				vertexRows.add(createRow(hashCode, properties));
+			}catch(Exception e){
+				vertexErrors.put(hashCode, e);
+			}
+		}
+
+		int created = 0;
+
+		if(!vertexRows.isEmpty()){
+			final String query = "unwind $rows as row create (v:`" + configuration.neo4jVertexLabel.name() + "`) "
+					+ "set v = row.props return row.h as h, v as v";
+			final Map<String, Object> parameters = new HashMap<String, Object>();
+			parameters.put("rows", vertexRows);
+			storage.getStorageStats().startActionTimer("NODE-CREATE-BATCH");
+			final Result result = tx.execute(query, parameters);
+			try{
+				while(result.hasNext()){
+					final Map<String, Object> row = result.next();
+					final String hashCode = String.valueOf(row.get("h"));
+					final Node node = (Node)row.get("v");
+					cacheNode(storage, hashCode, node);
+					hashToNode.put(hashCode, node);
+					hashToNodeId.put(hashCode, node.getId());
+					storage.getStorageStats().vertexCount.increment();
+					created++;
+				}
+			}finally{
+				result.close();
+				storage.getStorageStats().stopActionTimer("NODE-CREATE-BATCH");
+			}
+			storage.updateNodePropertyNames(nodePropertyNames);
+		}
+
+		for(final Map.Entry<String, List<TaskPutVertex>> entry : vertexTasks.entrySet()){
+			final String hashCode = entry.getKey();
+			final Exception error = vertexErrors.get(hashCode);
+			Node node = hashToNode.get(hashCode);
+			if(node == null && error == null){
+				node = tx.getNodeById(hashToNodeId.get(hashCode));
+			}
+			for(final TaskPutVertex vertexTask : entry.getValue()){
+				if(error != null){
+					vertexTask.setError(error);
+				}else{
+					vertexTask.setResult(node);
+				}
+			}
+		}
+
+		final Map<String, Exception> edgeErrors = new HashMap<String, Exception>();
+		final List<Map<String, Object>> edgeRows = new ArrayList<Map<String, Object>>();
+		final Set<String> relationshipPropertyNames = new HashSet<String>();
+		for(final Map.Entry<String, AbstractEdge> entry : edges.entrySet()){
+			final String hashCode = entry.getKey();
+			final AbstractEdge edge = entry.getValue();
+			try{
+				final AbstractVertex childVertex = edge.getChildVertex();
+				final AbstractVertex parentVertex = edge.getParentVertex();
+				if(childVertex == null){
+					throw new RuntimeException("Child vertex is NULL. Failed to put edge: " + edge);
+				}
+				if(parentVertex == null){
+					throw new RuntimeException("Parent vertex is NULL. Failed to put edge: " + edge);
+				}
+				final Long childNodeId = childVertex.bigHashCode() == null ? null : hashToNodeId.get(childVertex.bigHashCode());
+				if(childNodeId == null){
+					throw new RuntimeException("Child node is NULL. Failed to put edge: " + edge,
+							vertexErrors.get(childVertex.bigHashCode()));
+				}
+				final Long parentNodeId = parentVertex.bigHashCode() == null ? null : hashToNodeId.get(parentVertex.bigHashCode());
+				if(parentNodeId == null){
+					throw new RuntimeException("Parent node is NULL. Failed to put edge: " + edge,
+							vertexErrors.get(parentVertex.bigHashCode()));
+				}
+				final Map<String, Object> properties = createPropertiesMap(
+						storage, edge, "Edge", hashCode, edge.getCopyOfAnnotations());
+				relationshipPropertyNames.addAll(properties.keySet());
+				final Map<String, Object> row = createRow(hashCode, properties);
+				row.put("c", childNodeId);
+				row.put("p", parentNodeId);
+				edgeRows.add(row);
+			}catch(Exception e){
+				edgeErrors.put(hashCode, e);
+			}
+		}
+
+		final Map<String, Relationship> hashToRelationship = new HashMap<String, Relationship>();
+		if(!edgeRows.isEmpty()){
+			final String query = "unwind $rows as row match (c) where id(c) = row.c match (p) where id(p) = row.p "
+					+ "create (c)-[e:`" + configuration.neo4jEdgeRelationshipType.name() + "`]->(p) "
+					+ "set e = row.props return row.h as h, e as e";
+			final Map<String, Object> parameters = new HashMap<String, Object>();
+			parameters.put("rows", edgeRows);
+			storage.getStorageStats().startActionTimer("RELATIONSHIP-CREATE-BATCH");
+			final Result result = tx.execute(query, parameters);
+			try{
+				while(result.hasNext()){
+					final Map<String, Object> row = result.next();
+					final String hashCode = String.valueOf(row.get("h"));
+					hashToRelationship.put(hashCode, (Relationship)row.get("e"));
+					cacheManager.edgeCachePut(hashCode, true);
+					storage.getStorageStats().edgeCount.increment();
+					created++;
+				}
+			}finally{
+				result.close();
+				storage.getStorageStats().stopActionTimer("RELATIONSHIP-CREATE-BATCH");
+			}
+			storage.updateRelationshipPropertyNames(relationshipPropertyNames);
+		}
+
+		for(final Map.Entry<String, List<TaskPutEdge>> entry : edgeTasks.entrySet()){
+			final Exception error = edgeErrors.get(entry.getKey());
+			final Relationship relationship = hashToRelationship.get(entry.getKey());
+			for(final TaskPutEdge edgeTask : entry.getValue()){
+				if(error != null){
+					edgeTask.setError(error);
+				}else{
+					edgeTask.setResult(relationship);
+				}
+			}
+		}
+
+		for(final Exception error : vertexErrors.values()){
+			logger.log(Level.WARNING, "Failed to put vertex in batch", error);
+		}
+		for(final Exception error : edgeErrors.values()){
+			logger.log(Level.WARNING, "Failed to put edge in batch", error);
+		}
+
+		setResult(created);
+		return created;
+	}
+}
@@ -41,6 +41,10 @@ public class TaskPutVertex extends StorageTask<Node>{
 		this.vertex = vertex;
 	}
 
+	final AbstractVertex getVertex(){
+		return vertex;
+	}
+
 	private final void storeAnnotations(
 			final Neo4j storage, final Transaction tx, final Node node, final Map<String, String> annotations) throws Exception{
 
@@ -24,9 +24,12 @@ import java.util.Map;
 import spade.utility.ArgumentFunctions;
 import spade.utility.FileUtility;
 import spade.utility.HelperFunctions;
+import spade.utility.Result;
 
 public class Configuration{
 
+	public enum CopyFormat{ CSV, BINARY };
+
 	private static final String
 		keyDriver = "driver"
 		, keyProtocol = "protocol"
@@ -38,7 +41,11 @@ public class Configuration{
 		, keyBufferSize = "buffer"
 		, keyReset = "reset"
 		, keySecondaryIndexes = "secondaryIndexes"
-		, keyFetchSize = "fetch";
+		, keyFetchSize = "fetch"
+		, keyAsyncCopy = "asyncCopy"
+		, keyAsyncCopyPendingBatches = "asyncCopyPendingBatches"
+		, keyCopyFormat = "copyFormat"
+		, keyRecursiveQueries = "recursiveQueries";
 
 	private String driverClassName;
 	private String jdbcProtocol;
@@ -51,6 +58,10 @@ public class Configuration{
 	private boolean reset;
 	private boolean secondaryIndexes;
 	private int fetchSize;
+	private boolean asyncCopy;
+	private int asyncCopyPendingBatches;
+	private CopyFormat copyFormat;
+	private boolean recursiveQueries;
 
 	public final void load(final String arguments, final String path) throws Exception{
 		try{
@@ -66,6 +77,25 @@ public class Configuration{
 			reset = ArgumentFunctions.mustParseBoolean(keyReset, map);
 			secondaryIndexes = ArgumentFunctions.mustParseBoolean(keySecondaryIndexes, map);
 			fetchSize = ArgumentFunctions.mustParseInteger(keyFetchSize, map);
+			// Optional. Default is the synchronous copy on the thread putting the elements.
+			asyncCopy = HelperFunctions.isNullOrEmpty(map.get(keyAsyncCopy)) ? false
+					: ArgumentFunctions.mustParseBoolean(keyAsyncCopy, map);
+			asyncCopyPendingBatches = HelperFunctions.isNullOrEmpty(map.get(keyAsyncCopyPendingBatches)) ? 1
+					: (int)ArgumentFunctions.mustBeGreaterThanZero(keyAsyncCopyPendingBatches, map);
+			final String copyFormatString = map.get(keyCopyFormat);
+			if(HelperFunctions.isNullOrEmpty(copyFormatString)){
+				copyFormat = CopyFormat.CSV; // Optional. Default is the CSV copy.
+			}else{
+				final Result<CopyFormat> copyFormatResult = HelperFunctions.parseEnumValue(CopyFormat.class, copyFormatString, true);
+				if(copyFormatResult.error){
+					throw new Exception("Invalid value for '" + keyCopyFormat + "': '" + copyFormatString + "'. "
+							+ copyFormatResult.toErrorString());
+				}
+				copyFormat = copyFormatResult.result;
+			}
+			// Optional. Default is the level-by-level queries.
+			recursiveQueries = HelperFunctions.isNullOrEmpty(map.get(keyRecursiveQueries)) ? false
+					: ArgumentFunctions.mustParseBoolean(keyRecursiveQueries, map);
 		}catch(Exception e){
 			throw new Exception("Failed to read/parse configuration: '" + path + "'", e);
 		}
@@ -123,11 +153,29 @@ public class Configuration{
 		return fetchSize > 0;
 	}
 
+	public boolean isAsyncCopy(){
+		return asyncCopy;
+	}
+
+	public int getAsyncCopyPendingBatches(){
+		return asyncCopyPendingBatches;
+	}
+
+	public CopyFormat getCopyFormat(){
+		return copyFormat;
+	}
+
+	public boolean isRecursiveQueries(){
+		return recursiveQueries;
+	}
+
 	@Override
 	public String toString(){
 		return "Configuration [driverClassName=" + driverClassName + ", jdbcProtocol=" + jdbcProtocol + ", host=" + host
 				+ ", port=" + port + ", dbName=" + dbName + ", dbUser=" + dbUser + ", dbPassword=" + dbPassword
 				+ ", bufferSize=" + bufferSize + ", reset=" + reset + ", secondaryIndexes=" + secondaryIndexes
-				+ ", fetchSize=" + fetchSize + "]";
+				+ ", fetchSize=" + fetchSize + ", asyncCopy=" + asyncCopy
+				+ ", asyncCopyPendingBatches=" + asyncCopyPendingBatches + ", copyFormat=" + copyFormat
+				+ ", recursiveQueries=" + recursiveQueries + "]";
 	}
 }
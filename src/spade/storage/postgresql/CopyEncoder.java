@@ -0,0 +1,196 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.postgresql;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import spade.core.HashHelper;
+
+/**
+ * Encodes rows of a PostgreSQL 'copy ... from stdin' stream.
+ *
+ * Hashes are written into UUID columns and annotation values into varchar columns. A null value is written as SQL NULL.
+ */
+public abstract class CopyEncoder{
+
+	protected final int columnCount;
+
+	protected CopyEncoder(final int columnCount){
+		this.columnCount = columnCount;
+	}
+
+	public static CopyEncoder create(final Configuration.CopyFormat format, final OutputStream outputStream,
+			final int columnCount, final int bufferSize) throws IOException{
+		switch(format){
+			case BINARY: return new Binary(outputStream, columnCount, bufferSize);
+			case CSV: return new CSV(outputStream, columnCount, bufferSize);
+			default: throw new IllegalArgumentException("Unhandled copy format: " + format);
+		}
+	}
+
+	/**
+	 * @return The options clause of the 'copy' statement for the format
+	 */
+	public static String getCopyOptions(final Configuration.CopyFormat format){
+		switch(format){
+			case BINARY: return "(format binary)";
+			case CSV: return "(format csv)";
+			default: throw new IllegalArgumentException("Unhandled copy format: " + format);
+		}
+	}
+
+	public abstract void beginRow() throws IOException;
+
+	public abstract void writeHash(final HashHelper.BigHash hash) throws IOException;
+
+	public abstract void writeText(final String value) throws IOException;
+
+	public abstract void endRow() throws IOException;
+
+	/**
+	 * Writes the trailer (if any) and flushes everything to the underlying stream. The underlying stream is not closed.
+	 */
+	public abstract void finish() throws IOException;
+
+	private static final class CSV extends CopyEncoder{
+		private final Writer writer;
+		private int column = 0;
+
+		private CSV(final OutputStream outputStream, final int columnCount, final int bufferSize){
+			super(columnCount);
+			this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), bufferSize);
+		}
+
+		private void delimit() throws IOException{
+			if(column++ > 0){
+				writer.write(',');
+			}
+		}
+
+		@Override
+		public void beginRow(){
+			column = 0;
+		}
+
+		@Override
+		public void writeHash(final HashHelper.BigHash hash) throws IOException{
+			delimit();
+			writer.write(hash.hexString);
+		}
+
+		@Override
+		public void writeText(final String value) throws IOException{
+			delimit();
+			if(value != null){ // Nothing written for NULL
+				writer.write('"');
+				if(value.indexOf('"') < 0){
+					writer.write(value);
+				}else{
+					writer.write(value.replace("\"", "\"\""));
+				}
+				writer.write('"');
+			}
+		}
+
+		@Override
+		public void endRow() throws IOException{
+			writer.write('\n');
+		}
+
+		@Override
+		public void finish() throws IOException{
+			writer.flush();
+		}
+	}
+
+	/*
+	 * PostgreSQL binary copy format: signature, flags, header extension length, then for each row the field count
+	 * followed by each field as (length, bytes) with -1 length for NULL, and finally -1 as the trailer.
+	 */
+	private static final class Binary extends CopyEncoder{
+		private static final byte[] signature = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte)0xFF, '\r', '\n', 0};
+		private static final int uuidLength = 16;
+
+		private final DataOutputStream output;
+
+		private Binary(final OutputStream outputStream, final int columnCount, final int bufferSize) throws IOException{
+			super(columnCount);
+			this.output = new DataOutputStream(new BufferedOutputStream(outputStream, bufferSize));
+			output.write(signature);
+			output.writeInt(0); // Flags
+			output.writeInt(0); // Header extension length
+		}
+
+		@Override
+		public void beginRow() throws IOException{
+			output.writeShort(columnCount);
+		}
+
+		@Override
+		public void writeHash(final HashHelper.BigHash hash) throws IOException{
+			if(hash.length() != uuidLength){
+				throw new IOException("Hash of length " + hash.length() + " cannot be written as UUID: " + hash.hexString);
+			}
+			output.writeInt(uuidLength);
+			output.writeLong(hash.mostSignificantBits);
+			output.writeLong(hash.leastSignificantBits);
+		}
+
+		@Override
+		public void writeText(final String value) throws IOException{
+			if(value == null){
+				output.writeInt(-1);
+				return;
+			}
+			final int length = value.length();
+			boolean ascii = true;
+			for(int i = 0; i < length; i++){
+				if(value.charAt(i) >= 0x80){
+					ascii = false;
+					break;
+				}
+			}
+			if(ascii){
+				output.writeInt(length);
+				output.writeBytes(value);
+			}else{
+				final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+				output.writeInt(bytes.length);
+				output.write(bytes);
+			}
+		}
+
+		@Override
+		public void endRow(){}
+
+		@Override
+		public void finish() throws IOException{
+			output.writeShort(-1);
+			output.flush();
+		}
+	}
+}
@@ -27,9 +27,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import spade.core.AbstractStorage;
 import spade.query.quickgrail.core.GraphDescription;
+import spade.query.quickgrail.core.GraphBatchIterator;
 import spade.query.quickgrail.core.GraphStatistic;
 import spade.query.quickgrail.core.GraphStatistic.Interval;
 import spade.query.quickgrail.core.QueriedEdge;
@@ -55,6 +57,8 @@ import spade.utility.HelperFunctions;
  */
 public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 
+	private static final AtomicLong exportCursorCounter = new AtomicLong(0);
+
 	private final PostgreSQL storage;
 	private final PostgreSQLQueryEnvironment queryEnvironment;
 	
@@ -63,10 +67,12 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 	private final String idParentVertexColumnName;
 	private final String vertexAnnotationTableName;
 	private final String edgeAnnotationTableName;
+	// Lineage, path, link and shortest path as one 'with recursive' statement each
+	private final boolean recursiveQueries;
 
 	public PostgreSQLInstructionExecutor(PostgreSQL storage, PostgreSQLQueryEnvironment queryEnvironment,
 			String idColumnName, String idChildVertexColumnName, String idParentVertexColumnName,
-			String vertexAnnotationTableName, String edgeAnnotationTableName){
+			String vertexAnnotationTableName, String edgeAnnotationTableName, boolean recursiveQueries){
 		this.storage = storage;
 		this.queryEnvironment = queryEnvironment;
 		this.idColumnName = idColumnName;
@@ -74,6 +80,7 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		this.idParentVertexColumnName = idParentVertexColumnName;
 		this.vertexAnnotationTableName = vertexAnnotationTableName;
 		this.edgeAnnotationTableName = edgeAnnotationTableName;
+		this.recursiveQueries = recursiveQueries;
 		if(this.queryEnvironment == null){
 			throw new IllegalArgumentException("NULL Query Environment");
 		}
@@ -1044,13 +1051,53 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 
 	@Override
 	public Map<String, Map<String, String>> exportVertices(final Graph targetGraph){
-		String targetVertexTable = getVertexTableName(targetGraph);
-		
-		List<List<String>> verticesListOfList = executeQueryForResult("select * from " + getVertexAnnotationTableName() 
-				+ " where " + getIdColumnName() + " in (select "+getIdColumnName()+" from "+targetVertexTable+")", true);
-		
+		List<List<String>> verticesListOfList = executeQueryForResult(getExportVerticesQuery(targetGraph), true);
 		List<String> vertexHeader = verticesListOfList.remove(0); // remove the header
-		
+		return toHashToVertexMap(vertexHeader, verticesListOfList);
+	}
+	
+	@Override
+	public Set<QueriedEdge> exportEdges(final Graph targetGraph){
+		List<List<String>> edgesListOfList = executeQueryForResult(getExportEdgesQuery(targetGraph), true);
+		List<String> edgeHeader = edgesListOfList.remove(0); // remove the header
+		return toQueriedEdgeSet(edgeHeader, edgesListOfList);
+	}
+
+	@Override
+	public GraphBatchIterator<Map<String, Map<String, String>>> exportVerticesInBatches(final Graph targetGraph,
+			final int batchSize){
+		return new CursorBatchIterator<Map<String, Map<String, String>>>(getExportVerticesQuery(targetGraph), batchSize){
+			@Override
+			protected Map<String, Map<String, String>> toBatch(final List<String> header, final List<List<String>> rows){
+				return toHashToVertexMap(header, rows);
+			}
+		};
+	}
+
+	@Override
+	public GraphBatchIterator<Set<QueriedEdge>> exportEdgesInBatches(final Graph targetGraph, final int batchSize){
+		return new CursorBatchIterator<Set<QueriedEdge>>(getExportEdgesQuery(targetGraph), batchSize){
+			@Override
+			protected Set<QueriedEdge> toBatch(final List<String> header, final List<List<String>> rows){
+				return toQueriedEdgeSet(header, rows);
+			}
+		};
+	}
+
+	private String getExportVerticesQuery(final Graph targetGraph){
+		String targetVertexTable = getVertexTableName(targetGraph);
+		return "select * from " + getVertexAnnotationTableName() 
+				+ " where " + getIdColumnName() + " in (select "+getIdColumnName()+" from "+targetVertexTable+")";
+	}
+
+	private String getExportEdgesQuery(final Graph targetGraph){
+		String targetEdgeTable = getEdgeTableName(targetGraph);
+		return "select * from " + getEdgeAnnotationTableName() 
+				+ " where " + getIdColumnName() + " in (select "+getIdColumnName()+" from "+targetEdgeTable+")";
+	}
+
+	private Map<String, Map<String, String>> toHashToVertexMap(final List<String> vertexHeader,
+			final List<List<String>> verticesListOfList){
 		Map<String, Map<String, String>> hashToVertexMap = new HashMap<String, Map<String, String>>();
 		
 		for(List<String> vertexList : verticesListOfList){
@@ -1071,16 +1118,8 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		}
 		return hashToVertexMap;
 	}
-	
-	@Override
-	public Set<QueriedEdge> exportEdges(final Graph targetGraph){
-		String targetEdgeTable = getEdgeTableName(targetGraph);
-		
-		List<List<String>> edgesListOfList = executeQueryForResult("select * from " + getEdgeAnnotationTableName() 
-		+ " where " + getIdColumnName() + " in (select "+getIdColumnName()+" from "+targetEdgeTable+")", true);
 
-		List<String> edgeHeader = edgesListOfList.remove(0); // remove the header
-		
+	private Set<QueriedEdge> toQueriedEdgeSet(final List<String> edgeHeader, final List<List<String>> edgesListOfList){
 		Set<QueriedEdge> edgeSet = new HashSet<QueriedEdge>();
 		
 		for(List<String> edgeList : edgesListOfList){
@@ -1109,6 +1148,41 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		return edgeSet;
 	}
 
+	/*
+	 * Server-side cursor over the result of the query. 'with hold' so that the cursor outlives the transaction of
+	 * the 'declare' statement. Each batch is one 'fetch' i.e. one round-trip and only one batch is held in memory.
+	 */
+	private abstract class CursorBatchIterator<T> extends GraphBatchIterator<T>{
+		private final String cursorName = "m_export_cursor_" + exportCursorCounter.incrementAndGet();
+		private boolean open = false;
+
+		private CursorBatchIterator(final String query, final int batchSize){
+			super(batchSize);
+			noResultExecuteQuery("declare " + cursorName + " no scroll cursor with hold for " + query);
+			open = true;
+		}
+
+		protected abstract T toBatch(final List<String> header, final List<List<String>> rows);
+
+		@Override
+		protected final T fetchNextBatch(){
+			final List<List<String>> rows = executeQueryForResult("fetch forward " + batchSize + " from " + cursorName, true);
+			final List<String> header = rows.remove(0); // remove the header
+			if(rows.isEmpty()){
+				return null;
+			}
+			return toBatch(header, rows);
+		}
+
+		@Override
+		public final void close(){
+			if(open){
+				open = false;
+				noResultExecuteQuery("close " + cursorName);
+			}
+		}
+	}
+
 	@Override
 	public void collapseEdge(Graph targetGraph, Graph sourceGraph, ArrayList<String> fields){
 		String sourceVertexTable = getVertexTableName(sourceGraph);
@@ -1175,6 +1249,10 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 	
 	@Override
 	public void getShortestPath(Graph targetGraph, Graph subjectGraph, Graph srcGraph, Graph dstGraph, int maxDepth){
+		if(recursiveQueries){
+			getShortestPathRecursive(targetGraph, subjectGraph, srcGraph, dstGraph, maxDepth);
+			return;
+		}
 		String filter;
 		dropTable("m_conn");
 		noResultExecuteQuery("create table m_conn ("+getIdColumnNameChildVertex()+" uuid, "+getIdColumnNameParentVertex()+" uuid)");
@@ -1194,33 +1272,26 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 					+ "m_sgedge group by " + getIdColumnNameChildVertex() + ", " + getIdColumnNameParentVertex());
 			dropTable("m_sgedge");
 		}
-		// Create subgraph edges table.
-		dropTable("m_sgconn");
-		noResultExecuteQuery("create table m_sgconn ("+getIdColumnNameChildVertex()+" uuid, "+getIdColumnNameParentVertex()+" uuid,"
-				+ "reaching uuid, depth int)");
-		
-		dropTable("m_cur"); dropTable("m_next"); dropTable("m_answer");
+		// Distance of each vertex to each destination vertex ('reaching') following the edges backward
+		dropTable("m_cur"); dropTable("m_next"); dropTable("m_dist"); dropTable("m_answer");
 		noResultExecuteQuery("create table m_cur ("+getIdColumnName()+" uuid, reaching uuid)");
-		noResultExecuteQuery("create table m_next ("+getIdColumnName()+" uuid, reaching uuid)");
-		noResultExecuteQuery("create table m_answer ("+getIdColumnName()+" uuid)");
+		noResultExecuteQuery("create table m_dist ("+getIdColumnName()+" uuid, reaching uuid, depth int)");
 
 		noResultExecuteQuery("insert into m_cur select "+getIdColumnName()+", " + getIdColumnName() + " from " 
-				+ getVertexTableName(dstGraph));
-		noResultExecuteQuery("insert into m_answer select " + getIdColumnName() + " from m_cur group by " + getIdColumnName());
+				+ getVertexTableName(dstGraph) + " group by " + getIdColumnName());
+		noResultExecuteQuery("insert into m_dist select " + getIdColumnName() + ", reaching, 0 from m_cur");
 		
 		for(int i = 0; i < maxDepth; ++i){
-			noResultExecuteQuery(
-					"insert into m_sgconn select " + getIdColumnNameChildVertex() + ", " + getIdColumnNameParentVertex() + ", reaching, "+String.valueOf(i + 1)+" "
-					+ "from m_cur, m_conn where " + getIdColumnName() + " = " + getIdColumnNameParentVertex());
 			dropTable("m_next");
 			noResultExecuteQuery("create table m_next ("+getIdColumnName()+" uuid, reaching uuid)");
 			noResultExecuteQuery("insert into m_next select " + getIdColumnNameChildVertex() + ", reaching from "
-				+ "m_cur, m_conn where "+getIdColumnName()+" = " + getIdColumnNameParentVertex());
+				+ "m_cur, m_conn where "+getIdColumnName()+" = " + getIdColumnNameParentVertex()
+				+ " group by " + getIdColumnNameChildVertex() + ", reaching");
 			dropTable("m_cur");
 			noResultExecuteQuery("create table m_cur ("+getIdColumnName()+" uuid, reaching uuid)");
-			noResultExecuteQuery("insert into m_cur select " + getIdColumnName() + ", reaching from m_next where "
-				+ getIdColumnName() + " not in (select "+getIdColumnName()+" from m_answer) group by " + getIdColumnName() + ", reaching");
-			noResultExecuteQuery("insert into m_answer select " + getIdColumnName() + " from m_cur group by " + getIdColumnName());
+			noResultExecuteQuery("insert into m_cur select n." + getIdColumnName() + ", n.reaching from m_next n where not exists"
+				+ " (select * from m_dist d where d." + getIdColumnName() + " = n." + getIdColumnName() + " and d.reaching = n.reaching)");
+			noResultExecuteQuery("insert into m_dist select " + getIdColumnName() + ", reaching, "+String.valueOf(i + 1)+" from m_cur");
 
 			List<List<String>> countResult = executeQueryForResult("select count(*) from m_cur", false);
 			long cursorTableCount = Long.parseLong(countResult.get(0).get(0));
@@ -1229,28 +1300,29 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 			}
 		}
 
+		// From each source vertex towards each destination vertex it reaches. The next vertex is the smallest parent
+		// one hop closer to that destination vertex.
 		dropTable("m_cur"); dropTable("m_next");
-		noResultExecuteQuery("create table m_cur ("+getIdColumnName()+" uuid)");
-		noResultExecuteQuery("create table m_next ("+getIdColumnName()+" uuid)");
-
-		noResultExecuteQuery("insert into m_cur select " + getIdColumnName() + " from " + getVertexTableName(srcGraph)
-				+ " where " + getIdColumnName() + " in (select "+getIdColumnName()+" from m_answer)");
-
-		dropTable("m_answer");
+		noResultExecuteQuery("create table m_cur ("+getIdColumnName()+" uuid, reaching uuid, depth int)");
 		noResultExecuteQuery("create table m_answer ("+getIdColumnName()+" uuid)");
-		noResultExecuteQuery("insert into m_answer select " + getIdColumnName() + " from m_cur");
+
+		noResultExecuteQuery("insert into m_cur select d." + getIdColumnName() + ", d.reaching, d.depth from m_dist d"
+				+ " where d." + getIdColumnName() + " in (select " + getIdColumnName() + " from " + getVertexTableName(srcGraph) + ")");
+		noResultExecuteQuery("insert into m_answer select " + getIdColumnName() + " from m_cur group by " + getIdColumnName());
 
 		for(int i = 0; i < maxDepth; ++i){
 			dropTable("m_next");
-			noResultExecuteQuery("create table m_next ("+getIdColumnName()+" uuid)");
-			noResultExecuteQuery("insert into m_next select min(" + getIdColumnNameParentVertex() + "::text)::uuid" // TODO as?
-					+ " from m_cur, m_sgconn where " + getIdColumnName() + " = " + getIdColumnNameChildVertex() + " and depth + " + String.valueOf(i) 
-					+ " <= " + String.valueOf(maxDepth) + " group by " + getIdColumnNameChildVertex() + ", reaching");
+			noResultExecuteQuery("create table m_next ("+getIdColumnName()+" uuid, reaching uuid, depth int)");
+			noResultExecuteQuery("insert into m_next select min(c." + getIdColumnNameParentVertex() + "::text)::uuid, p.reaching, p.depth - 1"
+					+ " from m_cur p, m_conn c, m_dist d where c." + getIdColumnNameChildVertex() + " = p." + getIdColumnName()
+					+ " and d." + getIdColumnName() + " = c." + getIdColumnNameParentVertex() + " and d.reaching = p.reaching"
+					+ " and d.depth = p.depth - 1 group by p." + getIdColumnName() + ", p.reaching, p.depth");
 			dropTable("m_cur");
-			noResultExecuteQuery("create table m_cur ("+getIdColumnName()+" uuid)");
-			noResultExecuteQuery("insert into m_cur select "+getIdColumnName()+" from m_next where "
-					+getIdColumnName()+" not in (select "+getIdColumnName()+" from m_answer)");
-			noResultExecuteQuery("insert into m_answer select "+getIdColumnName()+" from m_cur");
+			noResultExecuteQuery("create table m_cur ("+getIdColumnName()+" uuid, reaching uuid, depth int)");
+			noResultExecuteQuery("insert into m_cur select "+getIdColumnName()+", reaching, depth from m_next"
+					+ " group by "+getIdColumnName()+", reaching, depth");
+			noResultExecuteQuery("insert into m_answer select "+getIdColumnName()+" from m_cur where "
+					+getIdColumnName()+" not in (select "+getIdColumnName()+" from m_answer) group by "+getIdColumnName());
 			
 			List<List<String>> countResult = executeQueryForResult("select count(*) from m_cur", false);
 			long cursorTableCount = Long.parseLong(countResult.get(0).get(0));
@@ -1266,11 +1338,15 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		noResultExecuteQuery("insert into " + targetEdgeTable + " select \"" + getIdColumnName() + "\" from " + getEdgeAnnotationTableName()
 			+ " where \"" + getIdColumnNameChildVertex() + "\" in (select "+getIdColumnName()+" from m_answer)"
 			+ " and \"" + getIdColumnNameParentVertex() + "\" in (select "+getIdColumnName()+" from m_answer) " + filter);
-		dropTable("m_cur");dropTable("m_next");dropTable("m_answer");dropTable("m_conn");dropTable("m_sgconn");
+		dropTable("m_cur");dropTable("m_next");dropTable("m_answer");dropTable("m_conn");dropTable("m_dist");
 	}
 	
 	@Override
 	public void getLineage(Graph targetGraph, Graph subjectGraph, Graph startGraph, int depth, Direction directionArg){
+		if(recursiveQueries){
+			getLineageRecursive(targetGraph, subjectGraph, startGraph, depth, directionArg);
+			return;
+		}
 		final List<Direction> directions = new ArrayList<Direction>();
 		if(directionArg == Direction.kBoth){
 			directions.add(Direction.kAncestor);
@@ -1341,6 +1417,10 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 	
 	@Override
 	public void getSimplePath(Graph targetGraph, Graph subjectGraph, Graph srcGraph, Graph dstGraph, int maxDepth){
+		if(recursiveQueries){
+			getSimplePathRecursive(targetGraph, subjectGraph, srcGraph, dstGraph, maxDepth);
+			return;
+		}
 		
 		final String depthColumnName = "depth";
 		final String currentTable = "m_cur";
@@ -1455,6 +1535,11 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		
 		maxDepth = maxDepth - 1;
 		
+		if(recursiveQueries){
+			getLinkRecursive(targetGraph, subjectGraph, srcGraph, dstGraph, maxDepth);
+			return;
+		}
+		
 		final String depthColumnName = "depth";
 		final String currentTable = "m_cur";
 		final String nextTable = "m_next";
@@ -1572,6 +1657,180 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		dropTable(answerTable);
 	}
 	
+	/*
+	 * Single statement versions of getLineage, getSimplePath, getLink and getShortestPath used when recursiveQueries
+	 * is true. The distance of each vertex from the start vertices is computed on the server by a recursive common
+	 * table expression instead of a round-trip and a temporary table per level. 'union' discards the (vertex, depth)
+	 * pairs already produced so a vertex is expanded at most once per depth. The results are inserted into the target
+	 * graph by the same statement.
+	 */
+
+	// Semi-join on the subject graph edges. 'true' if the subject graph is the base graph.
+	private String getSubjectEdgeCondition(final Graph subjectGraph, final String edgeAlias){
+		if(queryEnvironment.isBaseGraph(subjectGraph)){
+			return "true";
+		}
+		return edgeAlias + "." + getIdColumnName() + " in (select " + getIdColumnName() + " from "
+				+ getEdgeTableName(subjectGraph) + ")";
+	}
+
+	private void getLineageRecursive(final Graph targetGraph, final Graph subjectGraph, final Graph startGraph,
+			final int depth, final Direction directionArg){
+		final List<Direction> directions = new ArrayList<Direction>();
+		if(directionArg == Direction.kBoth){
+			directions.add(Direction.kAncestor);
+			directions.add(Direction.kDescendant);
+		}else{
+			directions.add(directionArg);
+		}
+
+		final String startVertexTable = getVertexTableName(startGraph);
+		final String targetVertexTable = getVertexTableName(targetGraph);
+		final String targetEdgeTable = getEdgeTableName(targetGraph);
+		final String subjectCondition = getSubjectEdgeCondition(subjectGraph, "e");
+
+		for(final Direction direction : directions){
+			if(direction != Direction.kAncestor && direction != Direction.kDescendant){
+				throw new RuntimeException("Unexpected direction: " + direction);
+			}
+			final String src = "\"" + (direction == Direction.kAncestor ? getIdColumnNameChildVertex() : getIdColumnNameParentVertex()) + "\"";
+			final String dst = "\"" + (direction == Direction.kAncestor ? getIdColumnNameParentVertex() : getIdColumnNameChildVertex()) + "\"";
+
+			// Edges from the vertices at depth less than the max depth are the ones followed
+			noResultExecuteQuery("with recursive m_reach(m_id, m_depth) as ("
+					+ "select " + getIdColumnName() + ", 0 from " + startVertexTable
+					+ " union select e." + dst + ", r.m_depth + 1 from m_reach r, " + getEdgeAnnotationTableName() + " e"
+					+ " where e." + src + " = r.m_id and r.m_depth < " + depth + " and " + subjectCondition + ")"
+					+ ", m_level as (select m_id, min(m_depth) as m_depth from m_reach group by m_id)"
+					+ ", m_vertex as (insert into " + targetVertexTable + " select m_id from m_level)"
+					+ " insert into " + targetEdgeTable + " select e." + getIdColumnName()
+					+ " from " + getEdgeAnnotationTableName() + " e, m_level l"
+					+ " where e." + src + " = l.m_id and l.m_depth < " + depth + " and " + subjectCondition
+					+ " group by e." + getIdColumnName());
+		}
+	}
+
+	/*
+	 * Distance to the destination vertices following the edges backward (parent to child).
+	 * Ends with the non-recursive 'm_dst_level(m_id, m_depth)' with the min distance of each vertex.
+	 */
+	private String getRecursiveDistanceToDestination(final Graph dstGraph, final String subjectCondition, final int maxDepth){
+		return "m_to_dst(m_id, m_depth) as ("
+				+ "select " + getIdColumnName() + ", 0 from " + getVertexTableName(dstGraph)
+				+ " union select e.\"" + getIdColumnNameChildVertex() + "\", t.m_depth + 1"
+				+ " from m_to_dst t, " + getEdgeAnnotationTableName() + " e"
+				+ " where e.\"" + getIdColumnNameParentVertex() + "\" = t.m_id and t.m_depth < " + maxDepth
+				+ " and " + subjectCondition + ")"
+				+ ", m_dst_level as (select m_id, min(m_depth) as m_depth from m_to_dst group by m_id)";
+	}
+
+	private void getSimplePathRecursive(final Graph targetGraph, final Graph subjectGraph, final Graph srcGraph,
+			final Graph dstGraph, final int maxDepth){
+		final String child = "\"" + getIdColumnNameChildVertex() + "\"";
+		final String parent = "\"" + getIdColumnNameParentVertex() + "\"";
+		final String subjectCondition = getSubjectEdgeCondition(subjectGraph, "e");
+
+		// Forward from the source vertices only to the vertices which are close enough to the destination vertices.
+		// A vertex is on a path if distance(src, v) + distance(v, dst) <= max depth and an edge (u -> v) if
+		// distance(src, u) + 1 + distance(v, dst) <= max depth.
+		noResultExecuteQuery("with recursive " + getRecursiveDistanceToDestination(dstGraph, subjectCondition, maxDepth)
+				+ ", m_from_src(m_id, m_depth) as ("
+				+ "select s." + getIdColumnName() + ", 0 from " + getVertexTableName(srcGraph) + " s, m_dst_level d"
+				+ " where s." + getIdColumnName() + " = d.m_id"
+				+ " union select e." + parent + ", f.m_depth + 1"
+				+ " from m_from_src f, " + getEdgeAnnotationTableName() + " e, m_dst_level d"
+				+ " where e." + child + " = f.m_id and d.m_id = e." + parent
+				+ " and f.m_depth + 1 + d.m_depth <= " + maxDepth + " and " + subjectCondition + ")"
+				+ ", m_src_level as (select m_id, min(m_depth) as m_depth from m_from_src group by m_id)"
+				+ ", m_vertex as (insert into " + getVertexTableName(targetGraph) + " select m_id from m_src_level)"
+				+ " insert into " + getEdgeTableName(targetGraph) + " select e." + getIdColumnName()
+				+ " from " + getEdgeAnnotationTableName() + " e, m_src_level s, m_dst_level d"
+				+ " where e." + child + " = s.m_id and e." + parent + " = d.m_id"
+				+ " and s.m_depth + 1 + d.m_depth <= " + maxDepth + " and " + subjectCondition
+				+ " group by e." + getIdColumnName());
+	}
+
+	/*
+	 * Edges in both directions i.e. same as getSimplePathRecursive on the undirected subject graph. The target edges
+	 * are all the subject edges between the target vertices as in getLink.
+	 */
+	private void getLinkRecursive(final Graph targetGraph, final Graph subjectGraph, final Graph srcGraph,
+			final Graph dstGraph, final int maxDepth){
+		final String child = "\"" + getIdColumnNameChildVertex() + "\"";
+		final String parent = "\"" + getIdColumnNameParentVertex() + "\"";
+		final String subjectCondition = getSubjectEdgeCondition(subjectGraph, "e");
+
+		noResultExecuteQuery("with recursive m_to_dst(m_id, m_depth) as ("
+				+ "select " + getIdColumnName() + ", 0 from " + getVertexTableName(dstGraph)
+				+ " union select n.m_id, t.m_depth + 1 from m_to_dst t"
+				+ " cross join " + getUndirectedNeighbors("t", subjectCondition) + " n"
+				+ " where t.m_depth < " + maxDepth + ")"
+				+ ", m_dst_level as (select m_id, min(m_depth) as m_depth from m_to_dst group by m_id)"
+				+ ", m_from_src(m_id, m_depth) as ("
+				+ "select s." + getIdColumnName() + ", 0 from " + getVertexTableName(srcGraph) + " s, m_dst_level d"
+				+ " where s." + getIdColumnName() + " = d.m_id"
+				+ " union select n.m_id, f.m_depth + 1 from m_from_src f"
+				+ " cross join " + getUndirectedNeighbors("f", subjectCondition) + " n, m_dst_level d"
+				+ " where d.m_id = n.m_id and f.m_depth + 1 + d.m_depth <= " + maxDepth + ")"
+				+ ", m_answer as (select m_id from m_from_src group by m_id)"
+				+ ", m_vertex as (insert into " + getVertexTableName(targetGraph) + " select m_id from m_answer)"
+				+ " insert into " + getEdgeTableName(targetGraph) + " select e." + getIdColumnName()
+				+ " from " + getEdgeAnnotationTableName() + " e"
+				+ " where e." + child + " in (select m_id from m_answer)"
+				+ " and e." + parent + " in (select m_id from m_answer) and " + subjectCondition);
+	}
+
+	/*
+	 * Neighbors of 'alias.m_id' in both directions as a lateral subquery. Each direction is a separate indexed join
+	 * on the edge table. The recursive term can reference the recursive table only once so the two directions are
+	 * put in the lateral subquery instead of being two branches of the recursive term.
+	 */
+	private String getUndirectedNeighbors(final String alias, final String subjectCondition){
+		final String child = "\"" + getIdColumnNameChildVertex() + "\"";
+		final String parent = "\"" + getIdColumnNameParentVertex() + "\"";
+		return "lateral ("
+				+ "select e." + parent + " as m_id from " + getEdgeAnnotationTableName() + " e"
+				+ " where e." + child + " = " + alias + ".m_id and " + subjectCondition
+				+ " union all select e." + child + " from " + getEdgeAnnotationTableName() + " e"
+				+ " where e." + parent + " = " + alias + ".m_id and " + subjectCondition + ")";
+	}
+
+	/*
+	 * From each source vertex to each destination vertex that it reaches one hop at a time as in getShortestPath. The
+	 * next vertex is the parent one hop closer to that destination vertex. If more than one then the smallest one is
+	 * picked.
+	 */
+	private void getShortestPathRecursive(final Graph targetGraph, final Graph subjectGraph, final Graph srcGraph,
+			final Graph dstGraph, final int maxDepth){
+		final String child = "\"" + getIdColumnNameChildVertex() + "\"";
+		final String parent = "\"" + getIdColumnNameParentVertex() + "\"";
+		final String subjectCondition = getSubjectEdgeCondition(subjectGraph, "e");
+
+		// Distance to each destination vertex ('m_reaching') separately so that no destination vertex is skipped
+		noResultExecuteQuery("with recursive m_to_dst(m_id, m_reaching, m_depth) as ("
+				+ "select " + getIdColumnName() + ", " + getIdColumnName() + ", 0 from " + getVertexTableName(dstGraph)
+				+ " union select e." + child + ", t.m_reaching, t.m_depth + 1"
+				+ " from m_to_dst t, " + getEdgeAnnotationTableName() + " e"
+				+ " where e." + parent + " = t.m_id and t.m_depth < " + maxDepth + " and " + subjectCondition + ")"
+				+ ", m_dst_level as (select m_id, m_reaching, min(m_depth) as m_depth from m_to_dst"
+				+ " group by m_id, m_reaching)"
+				+ ", m_path(m_id, m_reaching, m_depth) as ("
+				+ "select d.m_id, d.m_reaching, d.m_depth from m_dst_level d"
+				+ " where d.m_id in (select " + getIdColumnName() + " from " + getVertexTableName(srcGraph) + ")"
+				+ " union select (select min(pe." + parent + "::text)::uuid"
+				+ " from " + getEdgeAnnotationTableName() + " pe, m_dst_level pd"
+				+ " where pe." + child + " = p.m_id and pd.m_id = pe." + parent + " and pd.m_reaching = p.m_reaching"
+				+ " and pd.m_depth = p.m_depth - 1"
+				+ " and " + getSubjectEdgeCondition(subjectGraph, "pe") + "), p.m_reaching, p.m_depth - 1"
+				+ " from m_path p where p.m_depth > 0)"
+				+ ", m_answer as (select m_id from m_path group by m_id)"
+				+ ", m_vertex as (insert into " + getVertexTableName(targetGraph) + " select m_id from m_answer)"
+				+ " insert into " + getEdgeTableName(targetGraph) + " select e." + getIdColumnName()
+				+ " from " + getEdgeAnnotationTableName() + " e"
+				+ " where e." + child + " in (select m_id from m_answer)"
+				+ " and e." + parent + " in (select m_id from m_answer) and " + subjectCondition);
+	}
+
 	@Override
 	public void createEmptyGraphMetadata(GraphMetadata metadata){
 		String vertexTable = getMetadataVertexTableName(metadata);
@@ -66,27 +66,29 @@ public class Blacklist extends AbstractTransformer{
 
 	@Override
 	public Graph transform(Graph graph, ExecutionContext context){
-		Graph resultGraph = new Graph();
-
-		Set<AbstractVertex> queriedVertices = context.getSourceGraph().vertexSet();
+		return transformElements(graph, getElementTransformer(context));
+	}
 
-		for(AbstractEdge edge : graph.edgeSet()){
-			String srcFilepath = getAnnotationSafe(edge.getChildVertex(), OPMConstants.ARTIFACT_PATH);
-			String dstFilepath = getAnnotationSafe(edge.getParentVertex(), OPMConstants.ARTIFACT_PATH);
-			if(!(isFileEqualsVertexContainedInSet(srcFilepath, queriedVertices) || isFileEqualsVertexContainedInSet(dstFilepath, queriedVertices))){
-				if(isFileToBeRemoved(srcFilepath) || isFileToBeRemoved(dstFilepath)){
-					continue;
+	@Override
+	public ElementTransformer getElementTransformer(ExecutionContext context){
+		final Set<AbstractVertex> queriedVertices = context.getSourceGraph().vertexSet();
+		return new ElementTransformer(){
+			@Override
+			public AbstractEdge transformEdge(AbstractEdge edge){
+				String srcFilepath = getAnnotationSafe(edge.getChildVertex(), OPMConstants.ARTIFACT_PATH);
+				String dstFilepath = getAnnotationSafe(edge.getParentVertex(), OPMConstants.ARTIFACT_PATH);
+				if(!(isFileEqualsVertexContainedInSet(srcFilepath, queriedVertices) || isFileEqualsVertexContainedInSet(dstFilepath, queriedVertices))){
+					if(isFileToBeRemoved(srcFilepath) || isFileToBeRemoved(dstFilepath)){
+						return null;
+					}
 				}
+				AbstractEdge newEdge = createNewWithoutAnnotations(edge);
+				if(newEdge != null && newEdge.getChildVertex() != null && newEdge.getParentVertex() != null){
+					return newEdge;
+				}
+				return null;
 			}
-			AbstractEdge newEdge = createNewWithoutAnnotations(edge);
-			if(newEdge != null && newEdge.getChildVertex() != null && newEdge.getParentVertex() != null){
-				resultGraph.putVertex(newEdge.getChildVertex());
-				resultGraph.putVertex(newEdge.getParentVertex());
-				resultGraph.putEdge(newEdge);
-			}
-		}
-
-		return resultGraph;
+		};
 	}
 
 	private boolean isFileToBeRemoved(String path){
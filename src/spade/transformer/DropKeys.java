@@ -90,18 +90,27 @@ public class DropKeys extends AbstractTransformer{
 
 	@Override
 	public Graph transform(Graph graph, ExecutionContext context){
-		Graph resultGraph = new Graph();
+		return transformElements(graph, getElementTransformer(context));
+	}
 
-		for(AbstractVertex vertex : graph.vertexSet()){
-			AbstractVertex newVertex = createNewWithoutAnnotations(vertex, annotationsToRemove);
-			resultGraph.putVertex(newVertex);
-		}
+	@Override
+	public ElementTransformer getElementTransformer(ExecutionContext context){
+		return new ElementTransformer(){
+			@Override
+			public AbstractVertex transformVertex(AbstractVertex vertex){
+				return createNewWithoutAnnotations(vertex, annotationsToRemove);
+			}
 
-		for(AbstractEdge edge : graph.edgeSet()){
-			AbstractEdge newEdge = createNewWithoutAnnotations(edge, annotationsToRemove);
-			resultGraph.putEdge(newEdge);
-		}
+			@Override
+			public AbstractEdge transformEdge(AbstractEdge edge){
+				return createNewWithoutAnnotations(edge, annotationsToRemove);
+			}
 
-		return resultGraph;
+			// All vertices are kept so the endpoints are already in the result
+			@Override
+			public boolean putsEndpoints(){
+				return false;
+			}
+		};
 	}
 }
@@ -36,22 +36,29 @@ public class LastName extends AbstractTransformer
 	@Override
 	public Graph transform(Graph graph, ExecutionContext context)
 	{
-		Graph resultGraph = new Graph();
-		for(AbstractEdge edge : graph.edgeSet())
+		return transformElements(graph, getElementTransformer(context));
+	}
+
+	@Override
+	public ElementTransformer getElementTransformer(ExecutionContext context)
+	{
+		return new ElementTransformer()
 		{
-			String operation = getAnnotationSafe(edge, OPMConstants.EDGE_OPERATION);
-			if(OPMConstants.isMmapRenameLinkRead(operation) || OPMConstants.isMmapRenameLink(operation))
-			{
-				continue;
-			}
-			AbstractEdge newEdge = createNewWithoutAnnotations(edge);
-			if(newEdge != null && newEdge.getChildVertex() != null && newEdge.getParentVertex() != null)
+			@Override
+			public AbstractEdge transformEdge(AbstractEdge edge)
 			{
-				resultGraph.putVertex(newEdge.getChildVertex());
-				resultGraph.putVertex(newEdge.getParentVertex());
-				resultGraph.putEdge(newEdge);
+				String operation = getAnnotationSafe(edge, OPMConstants.EDGE_OPERATION);
+				if(OPMConstants.isMmapRenameLinkRead(operation) || OPMConstants.isMmapRenameLink(operation))
+				{
+					return null;
+				}
+				AbstractEdge newEdge = createNewWithoutAnnotations(edge);
+				if(newEdge != null && newEdge.getChildVertex() != null && newEdge.getParentVertex() != null)
+				{
+					return newEdge;
+				}
+				return null;
 			}
-		}
-		return resultGraph;
+		};
 	}
 }
@@ -36,17 +36,24 @@ public class MergeIO extends AbstractTransformer
 	@Override
 	public Graph transform(Graph graph, ExecutionContext context)
 	{
-		Graph resultGraph = new Graph();
-		for(AbstractEdge edge : graph.edgeSet())
+		return transformElements(graph, getElementTransformer(context));
+	}
+
+	@Override
+	public ElementTransformer getElementTransformer(ExecutionContext context)
+	{
+		return new ElementTransformer()
 		{
-			AbstractEdge newEdge = createNewWithoutAnnotations(edge, OPMConstants.EDGE_TIME, OPMConstants.EDGE_SIZE);
-			if(newEdge != null && newEdge.getChildVertex() != null && newEdge.getParentVertex() != null)
+			@Override
+			public AbstractEdge transformEdge(AbstractEdge edge)
 			{
-				resultGraph.putVertex(newEdge.getChildVertex());
-				resultGraph.putVertex(newEdge.getParentVertex());
-				resultGraph.putEdge(newEdge);
+				AbstractEdge newEdge = createNewWithoutAnnotations(edge, OPMConstants.EDGE_TIME, OPMConstants.EDGE_SIZE);
+				if(newEdge != null && newEdge.getChildVertex() != null && newEdge.getParentVertex() != null)
+				{
+					return newEdge;
+				}
+				return null;
 			}
-		}
-		return resultGraph;
+		};
 	}
 }
@@ -37,23 +37,30 @@ public class NoMemory extends AbstractTransformer
 	@Override
 	public Graph transform(Graph graph, ExecutionContext context)
 	{
-		Graph resultGraph = new Graph();
-		for(AbstractEdge edge : graph.edgeSet())
+		return transformElements(graph, getElementTransformer(context));
+	}
+
+	@Override
+	public ElementTransformer getElementTransformer(ExecutionContext context)
+	{
+		return new ElementTransformer()
 		{
-			if(getAnnotationSafe(edge.getChildVertex(), OPMConstants.ARTIFACT_SUBTYPE).equals(OPMConstants.SUBTYPE_MEMORY_ADDRESS)
-					|| getAnnotationSafe(edge.getParentVertex(),
-					OPMConstants.ARTIFACT_SUBTYPE).equals(OPMConstants.SUBTYPE_MEMORY_ADDRESS))
-			{
-				continue;
-			}
-			AbstractEdge newEdge = createNewWithoutAnnotations(edge);
-			if(newEdge != null && newEdge.getChildVertex() != null && newEdge.getParentVertex() != null)
+			@Override
+			public AbstractEdge transformEdge(AbstractEdge edge)
 			{
-				resultGraph.putVertex(newEdge.getChildVertex());
-				resultGraph.putVertex(newEdge.getParentVertex());
-				resultGraph.putEdge(newEdge);	
+				if(getAnnotationSafe(edge.getChildVertex(), OPMConstants.ARTIFACT_SUBTYPE).equals(OPMConstants.SUBTYPE_MEMORY_ADDRESS)
+						|| getAnnotationSafe(edge.getParentVertex(),
+						OPMConstants.ARTIFACT_SUBTYPE).equals(OPMConstants.SUBTYPE_MEMORY_ADDRESS))
+				{
+					return null;
+				}
+				AbstractEdge newEdge = createNewWithoutAnnotations(edge);
+				if(newEdge != null && newEdge.getChildVertex() != null && newEdge.getParentVertex() != null)
+				{
+					return newEdge;
+				}
+				return null;
 			}
-		}
-		return resultGraph;
+		};
 	}
 }
@@ -38,21 +38,28 @@ public class NoUnits extends AbstractTransformer
 	@Override
 	public Graph transform(Graph graph, ExecutionContext context)
 	{
-		Graph resultGraph = new Graph();
-		for(AbstractEdge edge : graph.edgeSet())
+		return transformElements(graph, getElementTransformer(context));
+	}
+
+	@Override
+	public ElementTransformer getElementTransformer(ExecutionContext context)
+	{
+		return new ElementTransformer()
 		{
-			if(getAnnotationSafe(edge, OPMConstants.EDGE_OPERATION).equals(OPMConstants.OPERATION_UNIT))
-			{
-				continue;
-			}
-			AbstractEdge newEdge = createNewWithoutAnnotations(edge, OPMConstants.PROCESS_UNIT);
-			if(newEdge != null && newEdge.getChildVertex() != null && newEdge.getParentVertex() != null)
+			@Override
+			public AbstractEdge transformEdge(AbstractEdge edge)
 			{
-				resultGraph.putVertex(newEdge.getChildVertex());
-				resultGraph.putVertex(newEdge.getParentVertex());
-				resultGraph.putEdge(newEdge);
+				if(getAnnotationSafe(edge, OPMConstants.EDGE_OPERATION).equals(OPMConstants.OPERATION_UNIT))
+				{
+					return null;
+				}
+				AbstractEdge newEdge = createNewWithoutAnnotations(edge, OPMConstants.PROCESS_UNIT);
+				if(newEdge != null && newEdge.getChildVertex() != null && newEdge.getParentVertex() != null)
+				{
+					return newEdge;
+				}
+				return null;
 			}
-		}
-		return resultGraph;
+		};
 	}
 }
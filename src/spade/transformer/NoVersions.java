@@ -36,21 +36,28 @@ public class NoVersions extends AbstractTransformer
 	@Override
 	public Graph transform(Graph graph, ExecutionContext context)
 	{
-		Graph resultGraph = new Graph();
-		for(AbstractEdge edge : graph.edgeSet())
+		return transformElements(graph, getElementTransformer(context));
+	}
+
+	@Override
+	public ElementTransformer getElementTransformer(ExecutionContext context)
+	{
+		return new ElementTransformer()
 		{
-			if(getAnnotationSafe(edge, OPMConstants.EDGE_OPERATION).equals(OPMConstants.OPERATION_UPDATE))
-			{
-				continue;
-			}
-			AbstractEdge newEdge = createNewWithoutAnnotations(edge, OPMConstants.ARTIFACT_VERSION);
-			if(newEdge != null && newEdge.getChildVertex() != null && newEdge.getParentVertex() != null)
+			@Override
+			public AbstractEdge transformEdge(AbstractEdge edge)
 			{
-				resultGraph.putVertex(newEdge.getChildVertex());
-				resultGraph.putVertex(newEdge.getParentVertex());
-				resultGraph.putEdge(newEdge);
+				if(getAnnotationSafe(edge, OPMConstants.EDGE_OPERATION).equals(OPMConstants.OPERATION_UPDATE))
+				{
+					return null;
+				}
+				AbstractEdge newEdge = createNewWithoutAnnotations(edge, OPMConstants.ARTIFACT_VERSION);
+				if(newEdge != null && newEdge.getChildVertex() != null && newEdge.getParentVertex() != null)
+				{
+					return newEdge;
+				}
+				return null;
 			}
-		}
-		return resultGraph;
+		};
 	}
 }
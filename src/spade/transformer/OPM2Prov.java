@@ -60,25 +60,31 @@ public class OPM2Prov extends AbstractTransformer{
 	@Override
 	public Graph transform(Graph graph, ExecutionContext context)
 	{
-		Graph resultGraph = new Graph();
+		return transformElements(graph, getElementTransformer(context));
+	}
 
-		for(AbstractEdge edge : graph.edgeSet())
+	@Override
+	public ElementTransformer getElementTransformer(ExecutionContext context)
+	{
+		return new ElementTransformer()
 		{
-			if(edge != null && edge.getChildVertex() != null && edge.getParentVertex() != null)
+			@Override
+			public AbstractEdge transformEdge(AbstractEdge edge)
 			{
-				String edgeType = getAnnotationSafe(edge, "type");
-				String srcType = getAnnotationSafe(edge.getChildVertex(), "type");
-				String dstType = getAnnotationSafe(edge.getParentVertex(), "type");
-				AbstractEdge newEdge = createNewWithoutAnnotations(edge);
-				newEdge.addAnnotation("type", getProvEdgeTypeEquivalentToOPMEdgeType(edgeType));
-				newEdge.getChildVertex().addAnnotation("type", getProvVertexTypeEquivalentToOPMVertexType(srcType));
-				newEdge.getParentVertex().addAnnotation("type", getProvVertexTypeEquivalentToOPMVertexType(dstType));
-				resultGraph.putVertex(newEdge.getChildVertex());
-				resultGraph.putVertex(newEdge.getParentVertex());
-				resultGraph.putEdge(newEdge);
+				if(edge != null && edge.getChildVertex() != null && edge.getParentVertex() != null)
+				{
+					String edgeType = getAnnotationSafe(edge, "type");
+					String srcType = getAnnotationSafe(edge.getChildVertex(), "type");
+					String dstType = getAnnotationSafe(edge.getParentVertex(), "type");
+					AbstractEdge newEdge = createNewWithoutAnnotations(edge);
+					newEdge.addAnnotation("type", getProvEdgeTypeEquivalentToOPMEdgeType(edgeType));
+					newEdge.getChildVertex().addAnnotation("type", getProvVertexTypeEquivalentToOPMVertexType(srcType));
+					newEdge.getParentVertex().addAnnotation("type", getProvVertexTypeEquivalentToOPMVertexType(dstType));
+					return newEdge;
+				}
+				return null;
 			}
-		}
-		return resultGraph;
+		};
 	}
 
 	private String getProvEdgeTypeEquivalentToOPMEdgeType(String opmEdgeType)
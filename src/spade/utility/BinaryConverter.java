@@ -0,0 +1,264 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Base class for hand-written compact codecs. Unlike Serializable2ByteArrayConverter no class descriptors are
+ * written, only the fields in the order defined by the subclass.
+ *
+ * Thread-safe if the subclass is stateless. The output buffer is reused per thread.
+ */
+public abstract class BinaryConverter<X> implements Converter<X, byte[]>{
+
+	private static final ThreadLocal<Output> outputs = new ThreadLocal<Output>(){
+		@Override
+		protected Output initialValue(){
+			return new Output();
+		}
+	};
+
+	protected abstract void write(final Output output, final X x) throws Exception;
+
+	protected abstract X read(final Input input) throws Exception;
+
+	@Override
+	public byte[] serialize(final X i) throws Exception{
+		if(i == null){
+			return null;
+		}else{
+			final Output output = outputs.get();
+			output.reset();
+			write(output, i);
+			return output.toByteArray();
+		}
+	}
+
+	@Override
+	public X deserialize(final byte[] j) throws Exception{
+		if(j == null){
+			return null;
+		}else{
+			final Input input = new Input(j);
+			final X x = read(input);
+			if(input.remaining() != 0){
+				throw new Exception("Unexpected trailing bytes: " + input.remaining());
+			}
+			return x;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public byte[] serializeObject(final Object o) throws Exception{
+		return serialize((X)o);
+	}
+
+	@Override
+	public X deserializeObject(final Object o) throws Exception{
+		return deserialize((byte[])o);
+	}
+
+	/**
+	 * Growable byte buffer. Lengths and counts are written as unsigned varints.
+	 */
+	public static final class Output{
+		private byte[] bytes = new byte[256];
+		private int size = 0;
+
+		private void reset(){
+			size = 0;
+		}
+
+		private byte[] toByteArray(){
+			return Arrays.copyOf(bytes, size);
+		}
+
+		private void ensure(final int extra){
+			if(size + extra > bytes.length){
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+			}
+		}
+
+		public void writeByte(final int value){
+			ensure(1);
+			bytes[size++] = (byte)value;
+		}
+
+		public void writeBoolean(final boolean value){
+			writeByte(value ? 1 : 0);
+		}
+
+		public void writeVarInt(int value){
+			ensure(5);
+			while((value & ~0x7F) != 0){
+				bytes[size++] = (byte)((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[size++] = (byte)value;
+		}
+
+		public void writeLong(final long value){
+			ensure(8);
+			for(int shift = 56; shift >= 0; shift -= 8){
+				bytes[size++] = (byte)(value >>> shift);
+			}
+		}
+
+		public void writeDouble(final double value){
+			writeLong(Double.doubleToRawLongBits(value));
+		}
+
+		public void writeBytes(final byte[] value){
+			writeVarInt(value.length);
+			ensure(value.length);
+			System.arraycopy(value, 0, bytes, size, value.length);
+			size += value.length;
+		}
+
+		/**
+		 * Null-aware. Length is written as (length + 1) with 0 for null.
+		 */
+		public void writeString(final String value){
+			if(value == null){
+				writeVarInt(0);
+				return;
+			}
+			final int length = value.length();
+			for(int i = 0; i < length; i++){
+				if(value.charAt(i) >= 0x80){
+					final byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+					writeVarInt(encoded.length + 1);
+					ensure(encoded.length);
+					System.arraycopy(encoded, 0, bytes, size, encoded.length);
+					size += encoded.length;
+					return;
+				}
+			}
+			writeVarInt(length + 1);
+			ensure(length);
+			for(int i = 0; i < length; i++){
+				bytes[size++] = (byte)value.charAt(i);
+			}
+		}
+
+		/**
+		 * Null-aware.
+		 */
+		public void writeBigInteger(final BigInteger value){
+			if(value == null){
+				writeVarInt(0);
+			}else{
+				final byte[] encoded = value.toByteArray();
+				writeVarInt(encoded.length + 1);
+				ensure(encoded.length);
+				System.arraycopy(encoded, 0, bytes, size, encoded.length);
+				size += encoded.length;
+			}
+		}
+	}
+
+	public static final class Input{
+		private final byte[] bytes;
+		private int position = 0;
+
+		private Input(final byte[] bytes){
+			this.bytes = bytes;
+		}
+
+		private int remaining(){
+			return bytes.length - position;
+		}
+
+		private void require(final int count) throws Exception{
+			if(count < 0 || position + count > bytes.length){
+				throw new Exception("Truncated input. Needed " + count + " bytes at offset " + position
+						+ " of " + bytes.length);
+			}
+		}
+
+		public int readByte() throws Exception{
+			require(1);
+			return bytes[position++] & 0xFF;
+		}
+
+		public boolean readBoolean() throws Exception{
+			return readByte() != 0;
+		}
+
+		public int readVarInt() throws Exception{
+			int value = 0;
+			for(int shift = 0; shift < 35; shift += 7){
+				final int b = readByte();
+				value |= (b & 0x7F) << shift;
+				if((b & 0x80) == 0){
+					return value;
+				}
+			}
+			throw new Exception("Malformed varint at offset " + position);
+		}
+
+		public long readLong() throws Exception{
+			require(8);
+			long value = 0;
+			for(int i = 0; i < 8; i++){
+				value = (value << 8) | (bytes[position++] & 0xFF);
+			}
+			return value;
+		}
+
+		public double readDouble() throws Exception{
+			return Double.longBitsToDouble(readLong());
+		}
+
+		public byte[] readBytes() throws Exception{
+			final int length = readVarInt();
+			require(length);
+			final byte[] value = Arrays.copyOfRange(bytes, position, position + length);
+			position += length;
+			return value;
+		}
+
+		public String readString() throws Exception{
+			final int length = readVarInt() - 1;
+			if(length < 0){
+				return null;
+			}
+			require(length);
+			final String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+			position += length;
+			return value;
+		}
+
+		public BigInteger readBigInteger() throws Exception{
+			final int length = readVarInt() - 1;
+			if(length < 0){
+				return null;
+			}
+			require(length);
+			final BigInteger value = new BigInteger(bytes, position, length);
+			position += length;
+			return value;
+		}
+	}
+}
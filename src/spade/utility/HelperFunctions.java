@@ -357,6 +357,39 @@ public class HelperFunctions{
 			}
 		}
 	}
+	
+	/**
+	 * Parse a number of bytes with an optional 'k', 'm' or 'g' suffix (powers of 1024) in the range [min-max]
+	 * 
+	 * @param str value. Example: '4096', '64k', '512m'
+	 * @param min minimum bytes
+	 * @param max maximum bytes
+	 * @return Result with number of bytes or error
+	 */
+	public static Result<Long> parseBytes(String str, long min, long max){
+		if(isNullOrEmpty(str)){
+			return Result.failed("Not a size in bytes: NULL/Empty");
+		}
+		str = str.trim();
+		long multiplier = 1;
+		switch(Character.toLowerCase(str.charAt(str.length() - 1))){
+			case 'k': multiplier = 1024L; break;
+			case 'm': multiplier = 1024L * 1024L; break;
+			case 'g': multiplier = 1024L * 1024L * 1024L; break;
+			default: break;
+		}
+		final String numberString = multiplier == 1 ? str : str.substring(0, str.length() - 1);
+		Result<Long> result = parseLong(numberString, 10, 0, Long.MAX_VALUE / multiplier);
+		if(result.error){
+			return Result.failed("Not a size in bytes: '"+str+"'", result);
+		}
+		final long bytes = result.result * multiplier;
+		if(bytes >= min && bytes <= max){
+			return Result.successful(bytes);
+		}else{
+			return Result.failed("Size in bytes '"+bytes+"' not in range: ["+min+"-"+max+"]");
+		}
+	}
     
     /**
      * Convenience function to get a map with keys converted to lowercase.
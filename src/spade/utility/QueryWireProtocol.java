@@ -0,0 +1,840 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractStorage;
+import spade.core.AbstractVertex;
+import spade.core.Edge;
+import spade.core.Graph;
+import spade.core.HashHelper;
+import spade.core.Query;
+import spade.core.Vertex;
+
+/**
+ * Reads and writes spade.core.Query objects on a query socket.
+ *
+ * Two formats:
+ * 1) Java serialization. One serialized Query object per message. Used by older clients and servers.
+ * 2) Binary (version 1). Length-prefixed frames which are optionally compressed with Deflate. A query is one frame of
+ * the serialized Query object. If the result of the query is a graph of spade.core.Vertex and spade.core.Edge objects
+ * then the vertices and the edges are not serialized with the query but are sent in chunks of frames after it. In the
+ * chunks annotation keys are dictionary-encoded per message, hashes are sent as bytes and edge endpoints are sent as
+ * references to vertices already sent.
+ *
+ * The server always writes the Java serialization stream header first so that older clients work unchanged. A binary
+ * client reads the header and replies with the binary handshake. The server detects the format from the first four
+ * bytes sent by the client.
+ *
+ * Frame: [type:byte][raw length:int][payload length:int][payload]. The payload is compressed if the payload length is
+ * not equal to the raw length.
+ */
+public abstract class QueryWireProtocol implements Closeable{
+
+	// 'SPQB'
+	private static final int magic = 0x53505142;
+	private static final byte version = 1;
+
+	private static final int javaStreamHeader = (ObjectStreamConstants.STREAM_MAGIC << 16) | ObjectStreamConstants.STREAM_VERSION;
+
+	private static final String keyBinary = "binary", keyCompression = "compression", keyChunkSize = "chunkSize";
+
+	public static enum Compression{ NONE, DEFLATE }
+
+	/**
+	 * Called after the query of a response is read and before the elements of its result graph are read.
+	 */
+	public static interface ResultGraphHandler{
+		/**
+		 * @param query the response with the (empty) result graph
+		 * @param graph the result graph
+		 * @return the storage to put the vertices and the edges of the result graph in instead of the result graph. Null to
+		 * put them in the result graph.
+		 * The caller must shutdown the storage.
+		 */
+		public AbstractStorage getOutputStorage(Query query, Graph graph) throws Exception;
+	}
+
+	/**
+	 * @return name of the format for logging
+	 */
+	public abstract String getName();
+
+	public abstract void writeQuery(Query query) throws IOException;
+
+	public final Query readQuery() throws IOException{
+		return readQuery(null);
+	}
+
+	/**
+	 * @param handler can be null
+	 * @return the query read
+	 * @throws EOFException if the stream ended before the start of a query
+	 */
+	public abstract Query readQuery(ResultGraphHandler handler) throws IOException;
+
+	////////////////////////////////
+
+	/**
+	 * Client side. The format is read from the default config file.
+	 *
+	 * @param socket connected socket
+	 * @return the protocol
+	 * @throws Exception failed to read the config or failed handshake
+	 */
+	public static QueryWireProtocol connect(final Socket socket) throws Exception{
+		final Map<String, String> map = HelperFunctions.getGlobalsMapFromConfigAndArguments(QueryWireProtocol.class, null);
+		final boolean binary = map.get(keyBinary) == null ? true : ArgumentFunctions.mustParseBoolean(keyBinary, map);
+		return connect(socket, binary, getCompression(map), getChunkSize(map));
+	}
+
+	/**
+	 * Client side.
+	 *
+	 * @param socket connected socket
+	 * @param binary false for Java serialization (needed for older servers)
+	 * @param compression requested compression of the binary frames
+	 * @param chunkSize max number of vertices (or edges) in a frame sent by this side
+	 * @return the protocol
+	 * @throws IOException failed handshake
+	 */
+	public static QueryWireProtocol connect(final Socket socket, final boolean binary, final Compression compression,
+			final int chunkSize) throws IOException{
+		if(!binary){
+			final ObjectOutputStream output = new ObjectOutputStream(socket.getOutputStream());
+			output.flush();
+			final ObjectInputStream input = new ObjectInputStream(socket.getInputStream());
+			return new JavaSerialization(output, input);
+		}
+		final DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		final int header = input.readInt();
+		if(header != javaStreamHeader){
+			throw new StreamCorruptedException("Unexpected query server stream header: " + Integer.toHexString(header));
+		}
+		output.writeInt(magic);
+		output.writeByte(version);
+		output.writeByte(compression.ordinal());
+		output.flush();
+		final int replyMagic;
+		try{
+			replyMagic = input.readInt();
+		}catch(EOFException eofe){
+			throw new IOException("Query server closed the connection. The server might not support the binary query protocol. "
+					+ "Set '" + keyBinary + "=false' in the config for the class '" + QueryWireProtocol.class.getName() + "'", eofe);
+		}
+		final byte replyVersion = input.readByte();
+		final byte replyCompression = input.readByte();
+		if(replyMagic != magic || replyVersion != version){
+			throw new StreamCorruptedException("Unsupported binary query protocol reply. Magic: " + Integer.toHexString(replyMagic)
+					+ ", version: " + replyVersion);
+		}
+		return new Binary(output, input, toCompression(replyCompression), chunkSize);
+	}
+
+	/**
+	 * Server side. Detects the format used by the client. The chunk size is read from the default config file.
+	 *
+	 * @param socket accepted socket
+	 * @return the protocol
+	 * @throws Exception failed to read the config or failed handshake
+	 */
+	public static QueryWireProtocol accept(final Socket socket) throws Exception{
+		final Map<String, String> map = HelperFunctions.getGlobalsMapFromConfigAndArguments(QueryWireProtocol.class, null);
+		return accept(socket, getChunkSize(map));
+	}
+
+	/**
+	 * Server side. Detects the format used by the client.
+	 *
+	 * @param socket accepted socket
+	 * @param chunkSize max number of vertices (or edges) in a frame sent by this side
+	 * @return the protocol
+	 * @throws IOException failed handshake
+	 */
+	public static QueryWireProtocol accept(final Socket socket, final int chunkSize) throws IOException{
+		final OutputStream outputStream = socket.getOutputStream();
+		// Written first for the older clients which wait for it before writing anything
+		final ObjectOutputStream objectOutput = new ObjectOutputStream(outputStream);
+		objectOutput.flush();
+
+		final BufferedInputStream bufferedInput = new BufferedInputStream(socket.getInputStream());
+		final DataInputStream input = new DataInputStream(bufferedInput);
+		bufferedInput.mark(Integer.BYTES);
+		final int header = input.readInt();
+		if(header != magic){
+			bufferedInput.reset();
+			return new JavaSerialization(objectOutput, new ObjectInputStream(bufferedInput));
+		}
+		final byte requestedVersion = input.readByte();
+		final byte requestedCompression = input.readByte();
+		final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream));
+		output.writeInt(magic);
+		output.writeByte(version);
+		final Compression compression = requestedVersion == version ? toCompression(requestedCompression) : Compression.NONE;
+		output.writeByte(compression.ordinal());
+		output.flush();
+		if(requestedVersion != version){
+			throw new StreamCorruptedException("Unsupported binary query protocol version: " + requestedVersion);
+		}
+		return new Binary(output, input, compression, chunkSize);
+	}
+
+	private static Compression getCompression(final Map<String, String> map) throws Exception{
+		final String value = map.get(keyCompression);
+		if(HelperFunctions.isNullOrEmpty(value)){
+			return Compression.NONE;
+		}
+		try{
+			return Compression.valueOf(value.trim().toUpperCase());
+		}catch(IllegalArgumentException e){
+			throw new Exception("Invalid value for key '" + keyCompression + "': '" + value + "'. Allowed values: none, deflate");
+		}
+	}
+
+	private static int getChunkSize(final Map<String, String> map) throws Exception{
+		if(map.get(keyChunkSize) == null){
+			return 4096;
+		}
+		final int chunkSize = ArgumentFunctions.mustParseInteger(keyChunkSize, map);
+		if(chunkSize <= 0){
+			throw new Exception("Value for key '" + keyChunkSize + "' must be positive: " + chunkSize);
+		}
+		return chunkSize;
+	}
+
+	private static Compression toCompression(final byte ordinal) throws StreamCorruptedException{
+		if(ordinal < 0 || ordinal >= Compression.values().length){
+			throw new StreamCorruptedException("Unknown binary query protocol compression: " + ordinal);
+		}
+		return Compression.values()[ordinal];
+	}
+
+	/**
+	 * Puts the elements of the result graph (if any) in the storage returned by the handler and empties the result graph.
+	 */
+	private static void putResultGraph(final Query query, final ResultGraphHandler handler) throws IOException{
+		if(handler == null || !(query.getResult() instanceof Graph)){
+			return;
+		}
+		final Graph graph = (Graph)query.getResult();
+		final AbstractStorage storage = getOutputStorage(handler, query, graph);
+		if(storage != null){
+			for(final AbstractVertex vertex : graph.vertexSet()){
+				storage.putVertex(vertex);
+			}
+			for(final AbstractEdge edge : graph.edgeSet()){
+				storage.putEdge(edge);
+			}
+			graph.vertexSet().clear();
+			graph.edgeSet().clear();
+		}
+	}
+
+	private static AbstractStorage getOutputStorage(final ResultGraphHandler handler, final Query query, final Graph graph)
+			throws IOException{
+		try{
+			return handler.getOutputStorage(query, graph);
+		}catch(IOException e){
+			throw e;
+		}catch(Exception e){
+			throw new IOException("Failed to get output storage for result graph", e);
+		}
+	}
+
+	////////////////////////////////
+
+	private static final class JavaSerialization extends QueryWireProtocol{
+
+		private final ObjectOutputStream output;
+		private final ObjectInputStream input;
+
+		private JavaSerialization(final ObjectOutputStream output, final ObjectInputStream input){
+			this.output = output;
+			this.input = input;
+		}
+
+		@Override
+		public String getName(){
+			return "java";
+		}
+
+		@Override
+		public void writeQuery(final Query query) throws IOException{
+			output.writeObject(query);
+			output.flush();
+		}
+
+		@Override
+		public Query readQuery(final ResultGraphHandler handler) throws IOException{
+			final Query query;
+			try{
+				query = (Query)input.readObject();
+			}catch(ClassNotFoundException | ClassCastException e){
+				throw new IOException("Failed to read query", e);
+			}
+			if(query != null){
+				putResultGraph(query, handler);
+			}
+			return query;
+		}
+
+		@Override
+		public void close() throws IOException{
+			try{
+				output.close();
+			}finally{
+				input.close();
+			}
+		}
+	}
+
+	////////////////////////////////
+
+	private static final class Binary extends QueryWireProtocol{
+
+		private static final byte frameQuery = 1, frameQueryWithGraph = 2, frameVertices = 3, frameEdges = 4, frameEnd = 5;
+
+		// Frames smaller than this are not compressed
+		private static final int minCompressLength = 64;
+		private static final int maxFrameLength = 1 << 30;
+
+		private final DataOutputStream output;
+		private final DataInputStream input;
+		private final Compression compression;
+		private final int chunkSize;
+
+		private final Deflater deflater;
+		private final Inflater inflater;
+		private final FrameBuffer frameBuffer = new FrameBuffer();
+		private byte[] compressedBuffer = new byte[0];
+		private byte[] readBuffer = new byte[0];
+		private byte[] payloadBuffer = new byte[0];
+		private int readLength;
+
+		private Binary(final DataOutputStream output, final DataInputStream input, final Compression compression, final int chunkSize){
+			this.output = output;
+			this.input = input;
+			this.compression = compression;
+			this.chunkSize = chunkSize;
+			this.deflater = compression == Compression.DEFLATE ? new Deflater(Deflater.BEST_SPEED) : null;
+			this.inflater = compression == Compression.DEFLATE ? new Inflater() : null;
+		}
+
+		@Override
+		public String getName(){
+			return "binary (compression=" + compression.name().toLowerCase() + ")";
+		}
+
+		@Override
+		public void writeQuery(final Query query) throws IOException{
+			final Graph graph = query.getResult() instanceof Graph ? (Graph)query.getResult() : null;
+			if(graph == null || !isBinaryEncodable(graph)){
+				writeFrame(frameQuery, serialize(query));
+			}else{
+				final List<AbstractVertex> vertices = new ArrayList<AbstractVertex>(graph.vertexSet());
+				final List<AbstractEdge> edges = new ArrayList<AbstractEdge>(graph.edgeSet());
+				final byte[] serializedQuery;
+				// Serialized without the elements so that the rest of the graph (and its subclass) is kept as is
+				graph.vertexSet().clear();
+				graph.edgeSet().clear();
+				try{
+					serializedQuery = serialize(query);
+				}finally{
+					graph.vertexSet().addAll(vertices);
+					graph.edgeSet().addAll(edges);
+				}
+				writeFrame(frameQueryWithGraph, serializedQuery);
+
+				final ElementEncoder encoder = new ElementEncoder();
+				for(int start = 0; start < vertices.size(); start += chunkSize){
+					final int end = Math.min(vertices.size(), start + chunkSize);
+					frameBuffer.reset();
+					writeVarInt(frameBuffer.data, end - start);
+					for(int i = start; i < end; i++){
+						encoder.writeVertex(frameBuffer.data, vertices.get(i));
+					}
+					writeFrame(frameVertices, frameBuffer);
+				}
+				for(int start = 0; start < edges.size(); start += chunkSize){
+					final int end = Math.min(edges.size(), start + chunkSize);
+					frameBuffer.reset();
+					writeVarInt(frameBuffer.data, end - start);
+					for(int i = start; i < end; i++){
+						encoder.writeEdge(frameBuffer.data, edges.get(i));
+					}
+					writeFrame(frameEdges, frameBuffer);
+				}
+				frameBuffer.reset();
+				writeFrame(frameEnd, frameBuffer);
+			}
+			output.flush();
+		}
+
+		@Override
+		public Query readQuery(final ResultGraphHandler handler) throws IOException{
+			final byte type = readFrame(true);
+			if(type != frameQuery && type != frameQueryWithGraph){
+				throw new StreamCorruptedException("Unexpected binary query protocol frame type: " + type);
+			}
+			final Query query = deserialize();
+			if(type == frameQuery){
+				putResultGraph(query, handler);
+				return query;
+			}
+			if(!(query.getResult() instanceof Graph)){
+				throw new StreamCorruptedException("Query with graph frame without a graph result");
+			}
+			final Graph graph = (Graph)query.getResult();
+			final AbstractStorage storage = handler == null ? null : getOutputStorage(handler, query, graph);
+			final ElementDecoder decoder = new ElementDecoder(storage != null);
+			while(true){
+				final byte chunkType = readFrame(false);
+				if(chunkType == frameEnd){
+					break;
+				}
+				if(chunkType != frameVertices && chunkType != frameEdges){
+					throw new StreamCorruptedException("Unexpected binary query protocol frame type: " + chunkType);
+				}
+				final DataInputStream chunk = new DataInputStream(new ByteArrayInputStream(readBuffer, 0, readLength));
+				final int count = readVarInt(chunk);
+				for(int i = 0; i < count; i++){
+					if(chunkType == frameVertices){
+						final AbstractVertex vertex = decoder.readVertex(chunk);
+						if(storage == null){
+							graph.putVertex(vertex);
+						}else{
+							storage.putVertex(vertex);
+						}
+					}else{
+						final AbstractEdge edge = decoder.readEdge(chunk);
+						if(storage == null){
+							graph.putEdge(edge);
+						}else{
+							storage.putEdge(edge);
+						}
+					}
+				}
+			}
+			return query;
+		}
+
+		/**
+		 * True if all the elements are exactly Vertex or Edge objects i.e. they can be recreated from the annotations and
+		 * the hash.
+		 */
+		private static boolean isBinaryEncodable(final Graph graph){
+			for(final AbstractVertex vertex : graph.vertexSet()){
+				if(vertex == null || vertex.getClass() != Vertex.class){
+					return false;
+				}
+			}
+			for(final AbstractEdge edge : graph.edgeSet()){
+				if(edge == null || edge.getClass() != Edge.class){
+					return false;
+				}
+				final AbstractVertex child = edge.getChildVertex();
+				final AbstractVertex parent = edge.getParentVertex();
+				if((child != null && child.getClass() != Vertex.class) || (parent != null && parent.getClass() != Vertex.class)){
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static byte[] serialize(final Query query) throws IOException{
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try(final ObjectOutputStream objectOutput = new ObjectOutputStream(bytes)){
+				objectOutput.writeObject(query);
+			}
+			return bytes.toByteArray();
+		}
+
+		private Query deserialize() throws IOException{
+			try(final ObjectInputStream objectInput = new ObjectInputStream(new ByteArrayInputStream(readBuffer, 0, readLength))){
+				return (Query)objectInput.readObject();
+			}catch(ClassNotFoundException | ClassCastException e){
+				throw new IOException("Failed to read query", e);
+			}
+		}
+
+		private void writeFrame(final byte type, final byte[] raw) throws IOException{
+			writeFrame(type, raw, raw.length);
+		}
+
+		private void writeFrame(final byte type, final FrameBuffer raw) throws IOException{
+			writeFrame(type, raw.bytes.buffer(), raw.bytes.size());
+		}
+
+		private void writeFrame(final byte type, final byte[] raw, final int rawLength) throws IOException{
+			byte[] payload = raw;
+			int payloadLength = rawLength;
+			if(deflater != null && rawLength >= minCompressLength){
+				deflater.reset();
+				deflater.setInput(raw, 0, rawLength);
+				deflater.finish();
+				if(compressedBuffer.length < rawLength){
+					compressedBuffer = new byte[rawLength];
+				}
+				int compressedLength = 0;
+				while(!deflater.finished() && compressedLength < rawLength){
+					compressedLength += deflater.deflate(compressedBuffer, compressedLength, rawLength - compressedLength);
+				}
+				// Sent as is if not smaller
+				if(deflater.finished() && compressedLength < rawLength){
+					payload = compressedBuffer;
+					payloadLength = compressedLength;
+				}
+			}
+			output.writeByte(type);
+			output.writeInt(rawLength);
+			output.writeInt(payloadLength);
+			output.write(payload, 0, payloadLength);
+		}
+
+		/**
+		 * Reads the frame into the read buffer.
+		 *
+		 * @param first true if the frame is the first of a message i.e. the end of the stream is expected
+		 * @return the frame type
+		 */
+		private byte readFrame(final boolean first) throws IOException{
+			final int type = input.read();
+			if(type < 0){
+				if(first){
+					throw new EOFException();
+				}
+				throw new StreamCorruptedException("Binary query protocol stream ended in the middle of a query");
+			}
+			final int rawLength = input.readInt();
+			final int payloadLength = input.readInt();
+			if(rawLength < 0 || rawLength > maxFrameLength || payloadLength < 0 || payloadLength > rawLength){
+				throw new StreamCorruptedException("Invalid binary query protocol frame lengths: " + rawLength + ", " + payloadLength);
+			}
+			if(readBuffer.length < rawLength){
+				readBuffer = new byte[rawLength];
+			}
+			if(payloadLength == rawLength){
+				input.readFully(readBuffer, 0, rawLength);
+			}else{
+				if(inflater == null){
+					throw new StreamCorruptedException("Compressed binary query protocol frame without compression");
+				}
+				if(payloadBuffer.length < payloadLength){
+					payloadBuffer = new byte[payloadLength];
+				}
+				input.readFully(payloadBuffer, 0, payloadLength);
+				inflater.reset();
+				inflater.setInput(payloadBuffer, 0, payloadLength);
+				try{
+					int inflatedLength = 0;
+					while(inflatedLength < rawLength && !inflater.finished()){
+						final int inflated = inflater.inflate(readBuffer, inflatedLength, rawLength - inflatedLength);
+						if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())){
+							break;
+						}
+						inflatedLength += inflated;
+					}
+					if(inflatedLength != rawLength){
+						throw new StreamCorruptedException("Invalid compressed binary query protocol frame length: "
+								+ inflatedLength + " != " + rawLength);
+					}
+				}catch(DataFormatException e){
+					throw new IOException("Invalid compressed binary query protocol frame", e);
+				}
+			}
+			readLength = rawLength;
+			return (byte)type;
+		}
+
+		@Override
+		public void close() throws IOException{
+			try{
+				output.close();
+			}finally{
+				try{
+					input.close();
+				}finally{
+					if(deflater != null){
+						deflater.end();
+					}
+					if(inflater != null){
+						inflater.end();
+					}
+				}
+			}
+		}
+	}
+
+	////////////////////////////////
+
+	private static final class FrameBuffer{
+		private final ExposedByteArrayOutputStream bytes = new ExposedByteArrayOutputStream();
+		private final DataOutputStream data = new DataOutputStream(bytes);
+
+		private void reset(){
+			bytes.reset();
+		}
+	}
+
+	private static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream{
+		private byte[] buffer(){
+			return buf;
+		}
+	}
+
+	// Hash tags
+	private static final byte hashComputed = 0, hashBytes = 1, hashString = 2;
+	// Endpoint references. Greater values are indexes (+ 2) of the vertices already sent in the message.
+	private static final int endpointNull = 0, endpointInline = 1;
+
+	/**
+	 * State of the elements written in one message
+	 */
+	private static final class ElementEncoder{
+		private final Map<String, Integer> keyIds = new HashMap<String, Integer>();
+		// Vertices are equal if their hashes are equal so an endpoint equal to a vertex in the graph is sent as a reference
+		private final Map<AbstractVertex, Integer> vertexIndexes = new HashMap<AbstractVertex, Integer>();
+		// Same as the number of vertices read by the decoder
+		private int vertexCount = 0;
+
+		private void writeVertex(final DataOutputStream output, final AbstractVertex vertex) throws IOException{
+			writeHash(output, vertex.isReferenceVertex() ? vertex.bigHashCode() : null);
+			final Set<String> keys = vertex.getAnnotationKeys();
+			writeVarInt(output, keys.size());
+			for(final String key : keys){
+				writeAnnotation(output, key, vertex.getAnnotation(key));
+			}
+			vertexIndexes.putIfAbsent(vertex, vertexCount);
+			vertexCount++;
+		}
+
+		private void writeEdge(final DataOutputStream output, final AbstractEdge edge) throws IOException{
+			writeHash(output, edge.isReferenceEdge() ? edge.bigHashCode() : null);
+			final Set<String> keys = edge.getAnnotationKeys();
+			writeVarInt(output, keys.size());
+			for(final String key : keys){
+				writeAnnotation(output, key, edge.getAnnotation(key));
+			}
+			writeEndpoint(output, edge.getChildVertex());
+			writeEndpoint(output, edge.getParentVertex());
+		}
+
+		private void writeEndpoint(final DataOutputStream output, final AbstractVertex vertex) throws IOException{
+			if(vertex == null){
+				writeVarInt(output, endpointNull);
+				return;
+			}
+			final Integer index = vertexIndexes.get(vertex);
+			if(index == null){
+				writeVarInt(output, endpointInline);
+				writeVertex(output, vertex);
+			}else{
+				writeVarInt(output, index + 2);
+			}
+		}
+
+		private void writeHash(final DataOutputStream output, final String hash) throws IOException{
+			if(hash == null){
+				output.writeByte(hashComputed);
+			}else if(HashHelper.defaultInstance.isValidHashHexString(hash)){
+				final byte[] bytes = HashHelper.defaultInstance.convertHashHexStringToHashByteArray(hash);
+				if(hash.equals(HashHelper.defaultInstance.convertHashByteArrayToHashHexString(bytes))){
+					output.writeByte(hashBytes);
+					output.write(bytes);
+				}else{ // Upper case
+					output.writeByte(hashString);
+					writeString(output, hash);
+				}
+			}else{
+				output.writeByte(hashString);
+				writeString(output, hash);
+			}
+		}
+
+		private void writeAnnotation(final DataOutputStream output, final String key, final String value) throws IOException{
+			final Integer id = keyIds.get(key);
+			if(id == null){
+				final int newId = keyIds.size();
+				keyIds.put(key, newId);
+				writeVarInt(output, newId);
+				writeString(output, key);
+			}else{
+				writeVarInt(output, id);
+			}
+			writeString(output, value == null ? "" : value);
+		}
+	}
+
+	/**
+	 * State of the elements read in one message
+	 */
+	private static final class ElementDecoder{
+		private final List<String> keys = new ArrayList<String>();
+		private final List<AbstractVertex> vertices = new ArrayList<AbstractVertex>();
+		// If true then only the hash and the id of the vertices are kept for the edge endpoints
+		private final boolean streaming;
+
+		private ElementDecoder(final boolean streaming){
+			this.streaming = streaming;
+		}
+
+		private AbstractVertex readVertex(final DataInputStream input) throws IOException{
+			final String hash = readHash(input);
+			final AbstractVertex vertex = hash == null ? new Vertex() : new Vertex(hash);
+			vertex.removeAnnotation(AbstractVertex.typeKey);
+			vertex.addAnnotations(readAnnotations(input));
+			if(streaming){
+				final AbstractVertex endpoint = new Vertex(vertex.bigHashCode());
+				endpoint.removeAnnotation(AbstractVertex.typeKey);
+				if(vertex.id() != null){
+					endpoint.setId(vertex.id());
+				}
+				vertices.add(endpoint);
+			}else{
+				vertices.add(vertex);
+			}
+			return vertex;
+		}
+
+		private AbstractEdge readEdge(final DataInputStream input) throws IOException{
+			final String hash = readHash(input);
+			final Map<String, String> annotations = readAnnotations(input);
+			final AbstractVertex child = readEndpoint(input);
+			final AbstractVertex parent = readEndpoint(input);
+			final AbstractEdge edge = hash == null ? new Edge(child, parent) : new Edge(hash, child, parent);
+			edge.removeAnnotation(AbstractEdge.typeKey);
+			edge.addAnnotations(annotations);
+			return edge;
+		}
+
+		private AbstractVertex readEndpoint(final DataInputStream input) throws IOException{
+			final int reference = readVarInt(input);
+			if(reference == endpointNull){
+				return null;
+			}
+			if(reference == endpointInline){
+				readVertex(input);
+				return vertices.get(vertices.size() - 1);
+			}
+			final int index = reference - 2;
+			if(index >= vertices.size()){
+				throw new StreamCorruptedException("Invalid binary query protocol vertex reference: " + index);
+			}
+			return vertices.get(index);
+		}
+
+		private String readHash(final DataInputStream input) throws IOException{
+			final byte tag = input.readByte();
+			switch(tag){
+				case hashComputed: return null;
+				case hashBytes:
+					final byte[] bytes = new byte[HashHelper.defaultInstance.bytesInHash];
+					input.readFully(bytes);
+					return HashHelper.defaultInstance.convertHashByteArrayToHashHexString(bytes);
+				case hashString: return readString(input);
+				default: throw new StreamCorruptedException("Invalid binary query protocol hash tag: " + tag);
+			}
+		}
+
+		private Map<String, String> readAnnotations(final DataInputStream input) throws IOException{
+			final int count = readVarInt(input);
+			final Map<String, String> annotations = new HashMap<String, String>();
+			for(int i = 0; i < count; i++){
+				final int id = readVarInt(input);
+				final String key;
+				if(id == keys.size()){
+					key = readString(input);
+					keys.add(key);
+				}else if(id < keys.size()){
+					key = keys.get(id);
+				}else{
+					throw new StreamCorruptedException("Invalid binary query protocol annotation key id: " + id);
+				}
+				annotations.put(key, readString(input));
+			}
+			return annotations;
+		}
+	}
+
+	////////////////////////////////
+
+	private static void writeVarInt(final DataOutputStream output, int value) throws IOException{
+		while((value & ~0x7F) != 0){
+			output.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		output.writeByte(value);
+	}
+
+	private static int readVarInt(final DataInputStream input) throws IOException{
+		int value = 0;
+		for(int shift = 0; shift < 32; shift += 7){
+			final byte b = input.readByte();
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0){
+				if(value < 0){
+					break;
+				}
+				return value;
+			}
+		}
+		throw new StreamCorruptedException("Invalid binary query protocol variable length integer");
+	}
+
+	private static void writeString(final DataOutputStream output, final String value) throws IOException{
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(output, bytes.length);
+		output.write(bytes);
+	}
+
+	private static String readString(final DataInputStream input) throws IOException{
+		final int length = readVarInt(input);
+		final byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -19,10 +19,9 @@ package spade.utility;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Random;
 import java.util.Set;
@@ -42,7 +41,7 @@ public final class RemoteSPADEQueryConnection implements Closeable{
 
 	private static final Logger logger = Logger.getLogger(RemoteSPADEQueryConnection.class.getName());
 
-	private static final String baseSymbol = "$base";
+	public static final String baseSymbol = "$base";
 	
 	public final String localHostName;
 	public final String serverAddress;
@@ -52,11 +51,11 @@ public final class RemoteSPADEQueryConnection implements Closeable{
 	private String storageName = null;
 	
 	private Socket querySocket;
-	private ObjectOutputStream queryWriter;
-	private ObjectInputStream queryResponseReader;
+	private QueryWireProtocol queryProtocol;
 	
 	private final int symbolId;
 	private final Set<String> generatedSymbols = new HashSet<String>();
+	private long symbolSerialNumber = 0;
 	
 	public RemoteSPADEQueryConnection(String localHostName, String serverAddress, int queryPort) throws Exception{
 		this.localHostName = localHostName; // can be null
@@ -74,8 +73,12 @@ public final class RemoteSPADEQueryConnection implements Closeable{
 		symbolId = new Random(System.nanoTime()).nextInt(999);
 	}
 	
-	private synchronized final String generateSymbol(){
-		String symbol = "$gen_"+symbolId+"_"+(new Random(System.nanoTime()).nextInt(999));
+	/**
+	 * @return a new symbol name which is erased on the server when the connection is released or closed
+	 */
+	public synchronized final String generateSymbol(){
+		// Serial number so that the symbols generated for one batched query are distinct
+		String symbol = "$gen_"+symbolId+"_"+(symbolSerialNumber++);
 		generatedSymbols.add(symbol);
 		return symbol;
 	}
@@ -85,16 +88,28 @@ public final class RemoteSPADEQueryConnection implements Closeable{
 	}
 
 	public final String generateUniqueRemoteSymbolName(){
+		return generateUniqueRemoteSymbolNames(1).get(0);
+	}
+
+	/**
+	 * Names not in use on the server, picked using one 'list graph' query. Not erased when the connection is released.
+	 * 
+	 * @param count number of names
+	 * @return distinct names
+	 */
+	public final java.util.List<String> generateUniqueRemoteSymbolNames(final int count){
 		final spade.query.quickgrail.core.List.GraphList graphList = getGraphList();
+		final java.util.List<String> generatedNames = new ArrayList<String>();
 		int serialNumber = 0;
 		final String generatedNamePrefix = "$remote_lineage_";
-		while(true){
+		while(generatedNames.size() < count){
 			final String generatedName = generatedNamePrefix + serialNumber;
 			serialNumber++;
 			if(!graphList.contains(generatedName)){
-				return generatedName;
+				generatedNames.add(generatedName);
 			}
 		}
+		return generatedNames;
 	}
 
 	public synchronized void connect(final SocketFactory socketFactory, final int timeoutInMillis) throws Exception{
@@ -127,15 +142,12 @@ public final class RemoteSPADEQueryConnection implements Closeable{
 		try{
 			this.querySocket = socket;
 			this.querySocket.connect(new InetSocketAddress(serverAddress, queryPort), timeoutInMillis);
-			this.queryWriter = new ObjectOutputStream(querySocket.getOutputStream());
-			this.queryResponseReader = new ObjectInputStream(querySocket.getInputStream());
+			this.queryProtocol = QueryWireProtocol.connect(querySocket);
 		}catch(Exception e){
-			try{ if(queryResponseReader != null){ queryResponseReader.close(); } }catch(Exception e0){}
-			try{ if(queryWriter != null){ queryWriter.close(); } }catch(Exception e0){}
+			try{ if(queryProtocol != null){ queryProtocol.close(); } }catch(Exception e0){}
 			try{ if(querySocket != null){ querySocket.close(); } }catch(Exception e0){}
 			this.querySocket = null;
-			this.queryWriter = null;
-			this.queryResponseReader = null;
+			this.queryProtocol = null;
 			
 			throw e;
 		}
@@ -163,17 +175,10 @@ public final class RemoteSPADEQueryConnection implements Closeable{
 	public synchronized void close() throws IOException{
 		mustBeConnected();
 		
-		if(!generatedSymbols.isEmpty()){
-			String str = "";
-			for(String symbol : generatedSymbols){
-				str += " " + symbol;
-			}
-			try{
-				_executeQuery("erase " + str, false);
-			}catch(Throwable t){
-				logger.log(Level.WARNING, "Failed to execute 'erase' query", t);
-			}
-			generatedSymbols.clear();
+		try{
+			eraseGeneratedSymbols();
+		}catch(Throwable t){
+			logger.log(Level.WARNING, "Failed to execute 'erase' query", t);
 		}
 		
 		try{
@@ -186,16 +191,10 @@ public final class RemoteSPADEQueryConnection implements Closeable{
 		storageName = null;
 		
 		try{
-			queryWriter.close();
-			queryWriter = null;
+			queryProtocol.close();
+			queryProtocol = null;
 		}catch(Throwable t){
-			logger.log(Level.WARNING, "Failed to close connection writer", t);
-		}
-		try{
-			queryResponseReader.close();
-			queryResponseReader = null;
-		}catch(Throwable t){
-			logger.log(Level.WARNING, "Failed to close connection reader", t);
+			logger.log(Level.WARNING, "Failed to close connection streams", t);
 		}
 		try{
 			querySocket.close();
@@ -205,6 +204,42 @@ public final class RemoteSPADEQueryConnection implements Closeable{
 		}
 	}
 	
+	/**
+	 * Erases the symbols generated on the server by this connection. Used before the connection is reused.
+	 */
+	public synchronized void eraseGeneratedSymbols(){
+		mustBeConnected();
+		if(!generatedSymbols.isEmpty()){
+			String str = "";
+			for(String symbol : generatedSymbols){
+				str += " " + symbol;
+			}
+			generatedSymbols.clear();
+			_executeQuery("erase " + str, false);
+		}
+	}
+	
+	public synchronized boolean isConnected(){
+		return connected;
+	}
+	
+	/**
+	 * Round trip to the server to check if an idle connection can still be used.
+	 * 
+	 * @return true if the server responded
+	 */
+	public synchronized boolean isAlive(){
+		if(!connected || querySocket == null || querySocket.isClosed()){
+			return false;
+		}
+		try{
+			_executeQuery("print storage", false);
+			return true;
+		}catch(Throwable t){
+			return false;
+		}
+	}
+	
 	//////////////////////////////
 	
 	public synchronized boolean isStorageSet(){
@@ -288,13 +323,27 @@ public final class RemoteSPADEQueryConnection implements Closeable{
 	
 	///////////////////////////
 	
+	/**
+	 * @return the query expression for the vertices matching the predicate in the subgraph
+	 */
+	public static String buildGetVerticesExpression(String subgraphSymbol, String predicate){
+		return subgraphSymbol + ".getVertex(" + predicate + ")";
+	}
+	
+	/**
+	 * @return the query expression for the lineage of the start vertices in the subgraph
+	 */
+	public static String buildGetLineageExpression(String subgraphSymbol, String startSymbol, int depth, GetLineage.Direction direction){
+		return subgraphSymbol 
+				+ ".getLineage("+startSymbol+", "+depth+", '"+direction.toString().toLowerCase().charAt(1)+"')";
+	}
+	
 	private synchronized String _getVertices(String subgraphSymbol, String predicate){
-		return _executeAssignment(subgraphSymbol + ".getVertex(" + predicate + ")");
+		return _executeAssignment(buildGetVerticesExpression(subgraphSymbol, predicate));
 	}
 	
 	private synchronized String _getLineage(String subgraphSymbol, String startSymbol, int depth, GetLineage.Direction direction){
-		return _executeAssignment(subgraphSymbol 
-				+ ".getLineage("+startSymbol+", "+depth+", '"+direction.toString().toLowerCase().charAt(1)+"')");
+		return _executeAssignment(buildGetLineageExpression(subgraphSymbol, startSymbol, depth, direction));
 	}
 	
 	private synchronized String _executeAssignment(String rhs){
@@ -348,8 +397,7 @@ public final class RemoteSPADEQueryConnection implements Closeable{
 		}
 
 		try{
-			queryWriter.writeObject(query);
-			queryWriter.flush();
+			queryProtocol.writeQuery(query);
 		}catch(Throwable t){
 			throw new RuntimeException("Failed to send query to server", t);
 		}
@@ -360,8 +408,7 @@ public final class RemoteSPADEQueryConnection implements Closeable{
 		}else{
 			
 			try{
-				Object resultObject = queryResponseReader.readObject();
-				query = (Query)resultObject; // overwrite
+				query = queryProtocol.readQuery(); // overwrite
 			}catch(Throwable t){
 				throw new RuntimeException("Failed to read query response from server", t);
 			}
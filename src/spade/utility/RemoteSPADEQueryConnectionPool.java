@@ -0,0 +1,281 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.SocketFactory;
+
+import spade.core.Kernel;
+
+/**
+ * Idle remote query connections kept open per remote host so that the TLS handshake is not done for each remote query.
+ *
+ * A borrowed connection must be either released (to be reused) or invalidated (if it failed). Symbols generated by the
+ * connection are erased when it is released. An idle connection is closed once it has been idle for the keep-alive
+ * duration, and is checked with a round trip to the server before it is reused.
+ */
+public final class RemoteSPADEQueryConnectionPool implements Closeable{
+
+	private static final Logger logger = Logger.getLogger(RemoteSPADEQueryConnectionPool.class.getName());
+
+	private static final String keyMaxIdlePerHost = "maxIdlePerHost", keyKeepAliveMillis = "keepAliveMillis",
+			keyConnectTimeoutMillis = "connectTimeoutMillis";
+
+	private static final Object defaultInstanceLock = new Object();
+	private static RemoteSPADEQueryConnectionPool defaultInstance = null;
+
+	/**
+	 * @return the pool shared by the remote resolvers and the remote lineage queries. Configured using the default config
+	 * file.
+	 */
+	public static RemoteSPADEQueryConnectionPool getDefaultInstance(){
+		synchronized(defaultInstanceLock){
+			if(defaultInstance == null){
+				try{
+					final Map<String, String> map = HelperFunctions.getGlobalsMapFromConfigAndArguments(
+							RemoteSPADEQueryConnectionPool.class, null);
+					final int maxIdlePerHost = ArgumentFunctions.mustParseInteger(keyMaxIdlePerHost, map);
+					final long keepAliveMillis = ArgumentFunctions.mustParseLong(keyKeepAliveMillis, map);
+					final int connectTimeoutMillis = ArgumentFunctions.mustParseInteger(keyConnectTimeoutMillis, map);
+					defaultInstance = new RemoteSPADEQueryConnectionPool(maxIdlePerHost, keepAliveMillis, connectTimeoutMillis);
+				}catch(Exception e){
+					throw new RuntimeException("Failed to create remote query connection pool", e);
+				}
+			}
+			return defaultInstance;
+		}
+	}
+
+	/**
+	 * Closes the idle connections of the shared pool (if created)
+	 */
+	public static void closeDefaultInstance(){
+		synchronized(defaultInstanceLock){
+			if(defaultInstance != null){
+				defaultInstance.close();
+				defaultInstance = null;
+			}
+		}
+	}
+
+	private final int maxIdlePerHost;
+	private final long keepAliveMillis;
+	private final int connectTimeoutMillis;
+
+	// Key: host:port. Most recently released last.
+	private final Map<String, Deque<IdleConnection>> idleConnections = new HashMap<String, Deque<IdleConnection>>();
+	private boolean closed = false;
+
+	/**
+	 * @param maxIdlePerHost max number of idle connections kept per remote host. 0 to not keep any.
+	 * @param keepAliveMillis idle connections older than this are closed
+	 * @param connectTimeoutMillis timeout for new connections
+	 */
+	public RemoteSPADEQueryConnectionPool(final int maxIdlePerHost, final long keepAliveMillis, final int connectTimeoutMillis){
+		if(maxIdlePerHost < 0){
+			throw new IllegalArgumentException("Max idle connections per host must be non-negative: " + maxIdlePerHost);
+		}
+		if(keepAliveMillis < 0){
+			throw new IllegalArgumentException("Keep-alive must be non-negative: " + keepAliveMillis);
+		}
+		if(connectTimeoutMillis < 0){
+			throw new IllegalArgumentException("Connect timeout must be non-negative: " + connectTimeoutMillis);
+		}
+		this.maxIdlePerHost = maxIdlePerHost;
+		this.keepAliveMillis = keepAliveMillis;
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	private static String toKey(final String host, final int port){
+		return host + ":" + port;
+	}
+
+	/**
+	 * Connects using the client socket factory of the kernel if there is no usable idle connection.
+	 */
+	public RemoteSPADEQueryConnection borrow(final String host, final int port) throws Exception{
+		return borrow(Kernel.getClientSocketFactory(), host, port);
+	}
+
+	/**
+	 * @param socketFactory used if there is no usable idle connection
+	 * @param host remote host
+	 * @param port remote query port
+	 * @return an idle connection to the host or a new one
+	 * @throws Exception failed to connect
+	 */
+	public RemoteSPADEQueryConnection borrow(final SocketFactory socketFactory, final String host, final int port)
+			throws Exception{
+		final String key = toKey(host, port);
+		while(true){
+			final IdleConnection idle;
+			final List<RemoteSPADEQueryConnection> expired;
+			synchronized(this){
+				if(closed){
+					throw new IllegalStateException("Remote query connection pool closed");
+				}
+				expired = removeExpired(System.currentTimeMillis());
+				final Deque<IdleConnection> deque = idleConnections.get(key);
+				idle = deque == null ? null : deque.pollLast();
+			}
+			closeQuietly(expired);
+			if(idle == null){
+				break;
+			}
+			if(idle.connection.isAlive()){
+				return idle.connection;
+			}
+			closeQuietly(idle.connection);
+		}
+		final RemoteSPADEQueryConnection connection = new RemoteSPADEQueryConnection(Kernel.getHostName(), host, port);
+		connection.connect(socketFactory, connectTimeoutMillis);
+		return connection;
+	}
+
+	/**
+	 * Keeps the connection for reuse if the max idle connections for the host have not been reached. Otherwise closed.
+	 */
+	public void release(final RemoteSPADEQueryConnection connection){
+		if(connection == null){
+			return;
+		}
+		try{
+			connection.eraseGeneratedSymbols();
+		}catch(Throwable t){
+			logger.log(Level.WARNING, "Failed to erase symbols of remote query connection. Connection discarded", t);
+			closeQuietly(connection);
+			return;
+		}
+		final boolean kept;
+		final List<RemoteSPADEQueryConnection> expired;
+		synchronized(this){
+			final long nowMillis = System.currentTimeMillis();
+			expired = removeExpired(nowMillis);
+			if(closed || maxIdlePerHost == 0 || keepAliveMillis == 0){
+				kept = false;
+			}else{
+				final String key = toKey(connection.serverAddress, connection.queryPort);
+				Deque<IdleConnection> deque = idleConnections.get(key);
+				if(deque == null){
+					deque = new ArrayDeque<IdleConnection>();
+					idleConnections.put(key, deque);
+				}
+				if(deque.size() < maxIdlePerHost){
+					deque.addLast(new IdleConnection(connection, nowMillis));
+					kept = true;
+				}else{
+					kept = false;
+				}
+			}
+		}
+		closeQuietly(expired);
+		if(!kept){
+			closeQuietly(connection);
+		}
+	}
+
+	/**
+	 * Closes a connection which failed instead of releasing it
+	 */
+	public void invalidate(final RemoteSPADEQueryConnection connection){
+		if(connection != null){
+			closeQuietly(connection);
+		}
+	}
+
+	public synchronized int getIdleCount(){
+		int count = 0;
+		for(final Deque<IdleConnection> deque : idleConnections.values()){
+			count += deque.size();
+		}
+		return count;
+	}
+
+	// Must be called with the lock held. The returned connections must be closed without the lock.
+	private List<RemoteSPADEQueryConnection> removeExpired(final long nowMillis){
+		final List<RemoteSPADEQueryConnection> expired = new ArrayList<RemoteSPADEQueryConnection>();
+		final Iterator<Deque<IdleConnection>> dequeIterator = idleConnections.values().iterator();
+		while(dequeIterator.hasNext()){
+			final Deque<IdleConnection> deque = dequeIterator.next();
+			// Oldest first
+			while(!deque.isEmpty() && nowMillis - deque.peekFirst().releasedAtMillis >= keepAliveMillis){
+				expired.add(deque.pollFirst().connection);
+			}
+			if(deque.isEmpty()){
+				dequeIterator.remove();
+			}
+		}
+		return expired;
+	}
+
+	private static void closeQuietly(final List<RemoteSPADEQueryConnection> connections){
+		for(final RemoteSPADEQueryConnection connection : connections){
+			closeQuietly(connection);
+		}
+	}
+
+	private static void closeQuietly(final RemoteSPADEQueryConnection connection){
+		try{
+			if(connection.isConnected()){
+				connection.close();
+			}
+		}catch(Throwable t){
+			logger.log(Level.FINE, "Failed to close remote query connection", t);
+		}
+	}
+
+	/**
+	 * Closes all idle connections. Connections released after this are closed.
+	 */
+	@Override
+	public void close(){
+		final List<RemoteSPADEQueryConnection> connections = new ArrayList<RemoteSPADEQueryConnection>();
+		synchronized(this){
+			closed = true;
+			for(final Deque<IdleConnection> deque : idleConnections.values()){
+				for(final IdleConnection idle : deque){
+					connections.add(idle.connection);
+				}
+			}
+			idleConnections.clear();
+		}
+		closeQuietly(connections);
+	}
+
+	private static final class IdleConnection{
+		private final RemoteSPADEQueryConnection connection;
+		private final long releasedAtMillis;
+
+		private IdleConnection(final RemoteSPADEQueryConnection connection, final long releasedAtMillis){
+			this.connection = connection;
+			this.releasedAtMillis = releasedAtMillis;
+		}
+	}
+}
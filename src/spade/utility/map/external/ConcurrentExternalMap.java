@@ -0,0 +1,400 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility.map.external;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.utility.FileUtility;
+import spade.utility.map.external.cache.Cache;
+import spade.utility.map.external.cache.Cache.CacheEntry;
+import spade.utility.map.external.screen.Screen;
+import spade.utility.map.external.store.Store;
+
+/**
+ * A thread-safe external map. Keys are partitioned into stripes by hash. Each stripe has its own screen, cache
+ * and lock. The store is shared because the database handles are thread-safe.
+ *
+ * Each stripe keeps a concurrent view of the values in its cache so that a cache hit does not need the lock.
+ * The access order of the cache is updated on a hit only if the lock is free i.e. the eviction order is
+ * approximately LRU under contention.
+ *
+ * The map does not copy values. A value returned by 'get' is the cached instance and can be serialized to the
+ * store by another thread at any time when its stripe evicts it. Callers which mutate the returned values in place
+ * (like Audit with ArtifactState and ProcessUnitState) must not share the map between threads or must 'put' a new
+ * value instead, otherwise a partially updated value can be persisted and the update lost after eviction.
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public class ConcurrentExternalMap<K, V> extends ExternalMap<K, V>{
+
+	private static final Logger logger = Logger.getLogger(ConcurrentExternalMap.class.getName());
+
+	private final LongAdder totalEvictions = new LongAdder(),
+			totalFalsePositives = new LongAdder(),
+			cacheHits = new LongAdder(),
+			cacheMisses = new LongAdder();
+
+	// Null if reporting disabled
+	private final Long reportingIntervalMillis;
+	private final AtomicLong lastReportMillis = new AtomicLong(0);
+
+	private final List<Stripe<K, V>> stripes;
+	private final Store<K, V> store;
+
+	private static final class Stripe<K, V>{
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Screen<K> screen;
+		private final Cache<K, V> cache;
+		// Same entries as the cache
+		private final ConcurrentHashMap<K, V> cached = new ConcurrentHashMap<K, V>();
+
+		private Stripe(final Screen<K> screen, final Cache<K, V> cache){
+			this.screen = screen;
+			this.cache = cache;
+		}
+	}
+
+	/**
+	 * Use ExternalMapArgument for correct initialization
+	 *
+	 * @param mapId		id of the map
+	 * @param screens	one screen per stripe
+	 * @param caches	one cache per stripe. Same count as screens
+	 * @param store		persistent db shared by all stripes. Must be thread-safe.
+	 */
+	protected ConcurrentExternalMap(String mapId, List<Screen<K>> screens, List<Cache<K, V>> caches, Store<K, V> store,
+			Long reportingIntervalMillis, boolean flushCacheOnClose){
+		super(mapId, null, null, store, null, flushCacheOnClose);
+		if(screens.size() != caches.size() || screens.isEmpty()){
+			throw new IllegalArgumentException("Mismatched or empty screens and caches: " + screens.size() + ", " + caches.size());
+		}
+		this.store = store;
+		final List<Stripe<K, V>> stripes = new ArrayList<Stripe<K, V>>(screens.size());
+		for(int i = 0; i < screens.size(); i++){
+			stripes.add(new Stripe<K, V>(screens.get(i), caches.get(i)));
+		}
+		this.stripes = Collections.unmodifiableList(stripes);
+		this.reportingIntervalMillis = reportingIntervalMillis;
+	}
+
+	private Stripe<K, V> stripe(final K key){
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return stripes.get((hash & 0x7FFFFFFF) % stripes.size());
+	}
+
+	/**
+	 * Must be called with the lock of the stripe held
+	 */
+	private void evictExceeding(final Stripe<K, V> stripe) throws Exception{
+		while(stripe.cache.hasExceededMaximumSize()){
+			if(!evict(stripe)){
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Must be called with the lock of the stripe held
+	 */
+	private boolean evict(final Stripe<K, V> stripe) throws Exception{
+		final CacheEntry<K, V> cacheEntry = stripe.cache.evict();
+		if(cacheEntry == null){
+			return false;
+		}
+		totalEvictions.increment();
+		store.put(cacheEntry.key, cacheEntry.getValue());
+		stripe.cached.remove(cacheEntry.key);
+		return true;
+	}
+
+	/**
+	 * Must be called with the lock of the stripe held
+	 */
+	private void cachePut(final Stripe<K, V> stripe, final K key, final V value){
+		try{
+			stripe.cache.put(key, value);
+			stripe.cached.put(key, value);
+		}catch(Exception e){
+			logger.log(Level.SEVERE, mapId + ": Failed 'put' for cache", e);
+		}
+		try{
+			evictExceeding(stripe);
+		}catch(Exception e){
+			logger.log(Level.SEVERE, mapId + ": Failed 'evict' for cache and/or 'put' for store", e);
+		}
+	}
+
+	@Override
+	public void put(K key, V value){
+		checkInterval();
+		if(key == null || value == null){
+			return;
+		}
+		final Stripe<K, V> stripe = stripe(key);
+		stripe.lock.lock();
+		try{
+			try{
+				stripe.screen.add(key);
+			}catch(Exception e){
+				logger.log(Level.SEVERE, mapId + ": Failed 'add' for screen", e);
+			}
+			cachePut(stripe, key, value);
+		}finally{
+			stripe.lock.unlock();
+		}
+	}
+
+	@Override
+	public V get(K key){
+		checkInterval();
+		if(key == null){
+			return null;
+		}
+		final Stripe<K, V> stripe = stripe(key);
+		V value = stripe.cached.get(key);
+		if(value != null){
+			cacheHits.increment();
+			// Best-effort recency update
+			if(stripe.lock.tryLock()){
+				try{
+					stripe.cache.get(key);
+				}catch(Exception e){
+					logger.log(Level.SEVERE, mapId + ": Failed 'get' for cache", e);
+				}finally{
+					stripe.lock.unlock();
+				}
+			}
+			return value;
+		}
+		stripe.lock.lock();
+		try{
+			if(!stripe.screen.contains(key)){
+				// Definitely does not exist
+				return null;
+			}
+			// Might have been put by another thread since the lock-free check
+			value = stripe.cache.get(key);
+			if(value != null){
+				cacheHits.increment();
+				return value;
+			}
+			try{
+				value = store.get(key);
+			}catch(Exception e){
+				logger.log(Level.SEVERE, mapId + ": Failed 'get' for store", e);
+				return null;
+			}
+			if(value != null){
+				cacheMisses.increment();
+				cachePut(stripe, key, value);
+				return value;
+			}else{
+				totalFalsePositives.increment();
+				return null;
+			}
+		}catch(Exception e){
+			logger.log(Level.SEVERE, mapId + ": Failed 'contains' for screen and/or 'get' for cache", e);
+			return null;
+		}finally{
+			stripe.lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean contains(K key){
+		checkInterval();
+		if(key == null){
+			return false;
+		}
+		final Stripe<K, V> stripe = stripe(key);
+		if(stripe.cached.containsKey(key)){
+			return true;
+		}
+		stripe.lock.lock();
+		try{
+			if(!stripe.screen.contains(key)){
+				return false;
+			}
+			if(stripe.cache.contains(key)){
+				return true;
+			}
+			try{
+				return store.contains(key);
+			}catch(Exception e){
+				logger.log(Level.SEVERE, mapId + ": Failed 'contains' for store", e);
+				return false;
+			}
+		}catch(Exception e){
+			logger.log(Level.SEVERE, mapId + ": Failed 'contains' for screen and/or cache", e);
+			return false;
+		}finally{
+			stripe.lock.unlock();
+		}
+	}
+
+	@Override
+	public void remove(K key){
+		checkInterval();
+		if(key == null){
+			return;
+		}
+		final Stripe<K, V> stripe = stripe(key);
+		stripe.lock.lock();
+		try{
+			if(stripe.screen.contains(key)){
+				try{
+					stripe.screen.remove(key);
+				}catch(Exception e){
+					logger.log(Level.SEVERE, mapId + ": Failed 'remove' for screen", e);
+				}
+				try{
+					stripe.cached.remove(key);
+					stripe.cache.remove(key);
+				}catch(Exception e){
+					logger.log(Level.SEVERE, mapId + ": Failed 'remove' for cache", e);
+				}
+				try{
+					store.remove(key);
+				}catch(Exception e){
+					logger.log(Level.SEVERE, mapId + ": Failed 'remove' for store", e);
+				}
+			}
+		}catch(Exception e){
+			logger.log(Level.SEVERE, mapId + ": Failed 'contains' for screen", e);
+		}finally{
+			stripe.lock.unlock();
+		}
+	}
+
+	@Override
+	public void clear(){
+		printStats("");
+		for(final Stripe<K, V> stripe : stripes){
+			stripe.lock.lock();
+			try{
+				try{
+					stripe.screen.clear();
+				}catch(Exception e){
+					logger.log(Level.SEVERE, mapId + ": Failed to clear screen", e);
+				}
+				try{
+					stripe.cached.clear();
+					stripe.cache.clear();
+				}catch(Exception e){
+					logger.log(Level.SEVERE, mapId + ": Failed to clear cache", e);
+				}
+			}finally{
+				stripe.lock.unlock();
+			}
+		}
+		try{
+			store.clear();
+		}catch(Exception e){
+			logger.log(Level.SEVERE, mapId + ": Failed to clear store", e);
+		}
+	}
+
+	@Override
+	public void close(){
+		if(flushCacheOnClose){
+			printStats("PRE-FLUSH");
+			for(final Stripe<K, V> stripe : stripes){
+				stripe.lock.lock();
+				try{
+					while(evict(stripe));
+				}catch(Exception e){
+					logger.log(Level.SEVERE, mapId + ": Failed to flush cache to store", e);
+				}finally{
+					stripe.lock.unlock();
+				}
+			}
+			printStats("POST-FLUSH");
+		}else{
+			printStats("");
+		}
+
+		for(final Stripe<K, V> stripe : stripes){
+			try{
+				stripe.screen.close();
+			}catch(Exception e){
+				logger.log(Level.SEVERE, mapId + ": Failed to close screen", e);
+			}
+			try{
+				stripe.cache.close();
+			}catch(Exception e){
+				logger.log(Level.SEVERE, mapId + ": Failed to close cache", e);
+			}
+		}
+		try{
+			store.close();
+		}catch(Exception e){
+			logger.log(Level.SEVERE, mapId + ": Failed to close store", e);
+		}
+	}
+
+	private void printStats(String msg){
+		BigInteger sizeBytes = null;
+		try{
+			sizeBytes = store.getSizeOnDiskInBytes();
+		}catch(Exception e){
+			logger.log(Level.SEVERE, "Failed to get size of external map store", e);
+		}
+
+		if(!msg.trim().isEmpty()){
+			msg = "[" + msg + "]";
+		}
+
+		long screenCount = 0, cacheCount = 0;
+		for(final Stripe<K, V> stripe : stripes){
+			// Approximate because the stripes are not locked
+			screenCount += stripe.screen.size();
+			cacheCount += stripe.cached.size();
+		}
+
+		String str = String.format("%s%s: stripes=%s, evictions=%s, falsePositives=%s, cacheHits=%s, cacheMisses=%s, "
+				+ "screenCount=%s, cacheCount=%s, storeSize=(%s)",
+				mapId, msg, stripes.size(), totalEvictions.sum(), totalFalsePositives.sum(), cacheHits.sum(),
+				cacheMisses.sum(), screenCount, cacheCount, FileUtility.formatBytesSizeToDisplaySize(sizeBytes));
+
+		logger.log(Level.INFO, str);
+	}
+
+	// Only one of the threads which observe the end of the interval reports
+	private void checkInterval(){
+		if(reportingIntervalMillis != null){
+			final long last = lastReportMillis.get();
+			final long current = System.currentTimeMillis();
+			if(current - last >= reportingIntervalMillis && lastReportMillis.compareAndSet(last, current)){
+				printStats("");
+			}
+		}
+	}
+}
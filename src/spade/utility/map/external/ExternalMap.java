@@ -149,6 +149,14 @@ public class ExternalMap<K, V>{
 					if(value != null){
 						// Exists in cache
 						cacheHits = cacheHits.add(BigInteger.ONE);
+						// A hit can reorganize the cache i.e. off-heap cache moves the entry back on the heap
+						try{
+							while(cache.hasExceededMaximumSize()){
+								_evict();
+							}
+						}catch(Exception e){
+							logger.log(Level.SEVERE, mapId + ": Failed 'evict' for cache and/or 'put' for store", e);
+						}
 						return value;
 					}else{
 						// Not in cache. Might have been evicted
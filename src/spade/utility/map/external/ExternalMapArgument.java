@@ -25,9 +25,16 @@ import spade.utility.map.external.store.StoreArgument;
 
 public class ExternalMapArgument{
 
+	/**
+	 * Encoding of the keys and values written to the store
+	 */
+	public enum Codec{ JAVA, BINARY };
+
 	public static final String keyMapArgument = "argument",
 								keyMapReportingSeconds = "reportingSeconds",
 								keyMapFlushOnClose = "flushOnClose",
+								keyMapCodec = "codec",
+								keyMapStripes = "stripes",
 								keyScreenName = "screenName",
 								keyScreenArgument = "screenArgument",
 								keyCacheName = "cacheName",
@@ -44,15 +51,24 @@ public class ExternalMapArgument{
 	public final Long reportingIntervalMillis;
 	public final boolean flushCacheOnClose;
 	
+	public final Codec codec;
+	
+	/**
+	 * Number of lock stripes of a thread-safe map. Null for a map which is not thread-safe.
+	 */
+	public final Integer stripes;
+	
 	protected ExternalMapArgument(String mapId, 
 			ScreenArgument screenArgument, CacheArgument cacheArgument, StoreArgument storeArgument,
-			Long reportingIntervalMillis, boolean flushCacheOnClose){
+			Long reportingIntervalMillis, boolean flushCacheOnClose, Codec codec, Integer stripes){
 		this.mapId = mapId;
 		this.screenArgument = screenArgument;
 		this.cacheArgument = cacheArgument;
 		this.storeArgument = storeArgument;
 		this.reportingIntervalMillis = reportingIntervalMillis;
 		this.flushCacheOnClose = flushCacheOnClose;
+		this.codec = codec;
+		this.stripes = stripes;
 	}
 
 	@Override
@@ -60,11 +76,13 @@ public class ExternalMapArgument{
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((cacheArgument == null) ? 0 : cacheArgument.hashCode());
+		result = prime * result + ((codec == null) ? 0 : codec.hashCode());
 		result = prime * result + (flushCacheOnClose ? 1231 : 1237);
 		result = prime * result + ((mapId == null) ? 0 : mapId.hashCode());
 		result = prime * result + ((reportingIntervalMillis == null) ? 0 : reportingIntervalMillis.hashCode());
 		result = prime * result + ((screenArgument == null) ? 0 : screenArgument.hashCode());
 		result = prime * result + ((storeArgument == null) ? 0 : storeArgument.hashCode());
+		result = prime * result + ((stripes == null) ? 0 : stripes.hashCode());
 		return result;
 	}
 
@@ -82,6 +100,8 @@ public class ExternalMapArgument{
 				return false;
 		}else if(!cacheArgument.equals(other.cacheArgument))
 			return false;
+		if(codec != other.codec)
+			return false;
 		if(flushCacheOnClose != other.flushCacheOnClose)
 			return false;
 		if(mapId == null){
@@ -104,6 +124,11 @@ public class ExternalMapArgument{
 				return false;
 		}else if(!storeArgument.equals(other.storeArgument))
 			return false;
+		if(stripes == null){
+			if(other.stripes != null)
+				return false;
+		}else if(!stripes.equals(other.stripes))
+			return false;
 		return true;
 	}
 
@@ -111,6 +136,6 @@ public class ExternalMapArgument{
 	public String toString(){
 		return "ExternalMapArgument [mapId=" + mapId + ", screenArgument=" + screenArgument + ", cacheArgument="
 				+ cacheArgument + ", storeArgument=" + storeArgument + ", reportingIntervalMillis="
-				+ reportingIntervalMillis + ", flushCacheOnClose=" + flushCacheOnClose + "]";
+				+ reportingIntervalMillis + ", flushCacheOnClose=" + flushCacheOnClose + ", codec=" + codec + ", stripes=" + stripes + "]";
 	}
 }
@@ -20,7 +20,9 @@
 package spade.utility.map.external;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import spade.utility.HelperFunctions;
@@ -31,6 +33,7 @@ import spade.utility.Serializable2ByteArrayConverter;
 import spade.utility.map.external.cache.Cache;
 import spade.utility.map.external.cache.CacheArgument;
 import spade.utility.map.external.cache.CacheManager;
+import spade.utility.map.external.cache.CacheName;
 import spade.utility.map.external.screen.Screen;
 import spade.utility.map.external.screen.ScreenArgument;
 import spade.utility.map.external.screen.ScreenManager;
@@ -72,7 +75,7 @@ public class ExternalMapManager{
 	/**
 	 * Expected key value:
 	 * 
-	 * <mapid>.argument=reportingSeconds= flushOnClose=
+	 * <mapid>.argument=reportingSeconds= flushOnClose= [codec=java|binary] [stripes=]
 	 * <mapid>.screenName=
 	 * <mapid>.screenArgument=
 	 * <mapid>.cacheName=
@@ -80,6 +83,9 @@ public class ExternalMapManager{
 	 * <mapid>.storeName=
 	 * <mapid>.storeArgument=
 	 * 
+	 * If 'stripes' is given then a thread-safe map is created with one screen and one cache per stripe
+	 * i.e. the screen and cache arguments are per stripe.
+	 * 
 	 * 
 	 * @param mapId
 	 * @param map
@@ -167,6 +173,25 @@ public class ExternalMapManager{
 					return Result.failed("Failed to parse flush on close value", flushResult);
 				}else{
 					boolean flushOnClose = flushResult.result;
+					String codecString = mapArgumentMap.get(ExternalMapArgument.keyMapCodec);
+					ExternalMapArgument.Codec codec = ExternalMapArgument.Codec.JAVA;
+					if(codecString != null){
+						Result<ExternalMapArgument.Codec> codecResult = 
+								HelperFunctions.parseEnumValue(ExternalMapArgument.Codec.class, codecString, true);
+						if(codecResult.error){
+							return Result.failed("Invalid map codec", codecResult);
+						}
+						codec = codecResult.result;
+					}
+					String stripesString = mapArgumentMap.get(ExternalMapArgument.keyMapStripes);
+					Integer stripes = null;
+					if(stripesString != null){
+						Result<Long> stripesResult = HelperFunctions.parseLong(stripesString, 10, 1, 1024);
+						if(stripesResult.error){
+							return Result.failed("Invalid map stripes", stripesResult);
+						}
+						stripes = stripesResult.result.intValue();
+					}
 					Result<ScreenArgument> screenResult = ScreenManager.parseArgument(screenNameString, screenArgumentString);
 					if(screenResult.error){
 						return Result.failed("Invalid screen argument", screenResult);
@@ -181,7 +206,7 @@ public class ExternalMapManager{
 							}else{
 								return Result.successful(new ExternalMapArgument(mapId, 
 										screenResult.result, cacheResult.result, storeResult.result,
-										reportingIntervalMillis, flushOnClose));
+										reportingIntervalMillis, flushOnClose, codec, stripes));
 							}
 						}
 					}
@@ -210,9 +235,33 @@ public class ExternalMapManager{
 	}
 	
 	public static <K extends Serializable, V extends Serializable> Result<ExternalMap<K, V>> create(ExternalMapArgument argument){
+		if(argument != null && argument.codec == ExternalMapArgument.Codec.BINARY){
+			return Result.failed("No binary codec available for external map: '" + argument.mapId + "'");
+		}
 		return create(argument, new Serializable2ByteArrayConverter<K>(), new Serializable2ByteArrayConverter<V>());
 	}
 	
+	/**
+	 * Creates the map with the converters selected by the codec in the argument
+	 * 
+	 * @param argument external map argument
+	 * @param binaryKeyConverter key converter to use for the binary codec
+	 * @param binaryValueConverter value converter to use for the binary codec
+	 * @return
+	 */
+	public static <K extends Serializable, V extends Serializable> Result<ExternalMap<K, V>> createWithCodec(
+			ExternalMapArgument argument,
+			Converter<K, byte[]> binaryKeyConverter, Converter<V, byte[]> binaryValueConverter){
+		if(argument == null){
+			return Result.failed("NULL argument");
+		}
+		switch(argument.codec){
+			case BINARY: return create(argument, binaryKeyConverter, binaryValueConverter);
+			case JAVA: return create(argument, new Serializable2ByteArrayConverter<K>(), new Serializable2ByteArrayConverter<V>());
+			default: return Result.failed("Unhandled codec: " + argument.codec);
+		}
+	}
+	
 	public static <K, V> Result<ExternalMap<K, V>> create(ExternalMapArgument argument,
 			Converter<K, byte[]> keyConverter, Converter<V, byte[]> valueConverter){
 		if(keyConverter == null){
@@ -223,26 +272,37 @@ public class ExternalMapManager{
 			Result<Boolean> argumentResult = validateArgument(argument);
 			if(argumentResult.error){
 				return Result.failed("Invalid external map argument", argumentResult);
+			}else if(argument.stripes != null && argument.cacheArgument.name == CacheName.OffHeap){
+				// The stripes keep the cached values on the heap for lock-free reads
+				return Result.failed("Cache '" + CacheName.OffHeap + "' cannot be used with 'stripes'");
 			}else{
-				Result<? extends Screen<K>> screenResult = ScreenManager.createScreen(argument.screenArgument);
-				if(screenResult.error){
-					return Result.failed("Failed to create screen", screenResult);
-				}else{
-					Screen<K> screen = screenResult.result;
-					Result<? extends Cache<K, V>> cacheResult = CacheManager.createCache(argument.cacheArgument);
+				final int stripes = argument.stripes == null ? 1 : argument.stripes;
+				List<Screen<K>> screens = new ArrayList<Screen<K>>(stripes);
+				List<Cache<K, V>> caches = new ArrayList<Cache<K, V>>(stripes);
+				for(int i = 0; i < stripes; i++){
+					Result<? extends Screen<K>> screenResult = ScreenManager.createScreen(argument.screenArgument);
+					if(screenResult.error){
+						return Result.failed("Failed to create screen", screenResult);
+					}
+					screens.add(screenResult.result);
+					Result<? extends Cache<K, V>> cacheResult = CacheManager.createCache(argument.cacheArgument, keyConverter, valueConverter);
 					if(cacheResult.error){
 						return Result.failed("Failed to create cache", cacheResult);
+					}
+					caches.add(cacheResult.result);
+				}
+				Result<? extends Store<K, V>> storeResult = 
+						StoreManager.createStore(argument.storeArgument, keyConverter, valueConverter);
+				if(storeResult.error){
+					return Result.failed("Failed to create store", storeResult);
+				}else{
+					Store<K, V> store = storeResult.result;
+					if(argument.stripes == null){
+						return Result.successful(new ExternalMap<K, V>(argument.mapId, screens.get(0), caches.get(0), store, 
+								argument.reportingIntervalMillis, argument.flushCacheOnClose));
 					}else{
-						Cache<K, V> cache = cacheResult.result;
-						Result<? extends Store<K, V>> storeResult = 
-								StoreManager.createStore(argument.storeArgument, keyConverter, valueConverter);
-						if(storeResult.error){
-							return Result.failed("Failed to create store", storeResult);
-						}else{
-							Store<K, V> store = storeResult.result;
-							return Result.successful(new ExternalMap<K, V>(argument.mapId, screen, cache, store, 
-									argument.reportingIntervalMillis, argument.flushCacheOnClose));
-						}
+						return Result.successful(new ConcurrentExternalMap<K, V>(argument.mapId, screens, caches, store, 
+								argument.reportingIntervalMillis, argument.flushCacheOnClose));
 					}
 				}
 			}
@@ -23,7 +23,7 @@ package spade.utility.map.external.cache;
  * Available caches
  */
 public enum CacheName{
-	LRU(LRUCacheManager.instance);
+	LRU(LRUCacheManager.instance), OffHeap(OffHeapCacheManager.instance);
 	
 	protected final CacheManager cacheManager;
 	private CacheName(CacheManager cacheManager){
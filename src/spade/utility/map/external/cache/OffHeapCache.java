@@ -0,0 +1,537 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility.map.external.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import spade.utility.Converter;
+
+/**
+ * Cache which keeps the serialized values outside of the Java heap and is bounded by bytes instead of entries.
+ * 
+ * New and recently read entries are kept as objects in a small LRU window on the heap. This is needed because the
+ * users of the external map update the values returned by 'get' in place. Entries pushed out of the window are 
+ * serialized into slots of direct ByteBuffer slabs (one list of slabs per slot size class). Entries read from the 
+ * slabs are moved back into the window.
+ * 
+ * When the slabs are full an entry leaving the window is only admitted if it has been accessed more often than the 
+ * entry the CLOCK hand would evict (TinyLFU admission with a 4-bit count-min sketch). Rejected entries and entries
+ * too large for a slot are handed out first by 'evict' so that the external map writes them to the store.
+ * 
+ * Keys are kept on the heap in the index.
+ * 
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class OffHeapCache<K, V> implements Cache<K, V>{
+
+	private static final int minimumSlotSize = 32;
+	private static final double slotSizeGrowthFactor = 1.25;
+	private static final int maximumVictimProbes = 64;
+	
+	private final Converter<V, byte[]> valueConverter;
+	
+	private final long maximumBytes;
+	private final int windowSize;
+	private final boolean admission;
+
+	// Access ordered
+	private final LinkedHashMap<K, V> window = new LinkedHashMap<K, V>(16, 0.75f, true);
+	// Insertion ordered. Rejected by admission or too big for a slot. Evicted first
+	private final LinkedHashMap<K, V> rejected = new LinkedHashMap<K, V>();
+	
+	private final Map<K, Integer> index = new HashMap<K, Integer>();
+	
+	private final SizeClass[] sizeClasses;
+	private final FrequencySketch sketch;
+	
+	// Entries in slabs. Indexed by entry id
+	private Object[] entryKeys = new Object[1024];
+	private byte[] entrySizeClass = new byte[1024];
+	private int[] entrySlot = new int[1024];
+	private int[] entryLength = new int[1024];
+	private boolean[] entryReferenced = new boolean[1024];
+	private int entryHighWaterMark = 0;
+	private int[] freeEntryIds = new int[1024];
+	private int freeEntryIdsCount = 0;
+	
+	private int clockHand = 0;
+	
+	private long usedBytes = 0;
+	
+	/**
+	 * @param maximumBytes maximum bytes of serialized values (rounded up to slot sizes) to keep in the slabs
+	 * @param windowSize maximum number of entries to keep on the heap as objects. At least 1 so that the value returned by get
+	 * stays on the heap while the caller updates it in place.
+	 * @param slabSize size in bytes of a single direct ByteBuffer. Largest value that can be kept off-heap.
+	 * @param admission whether to use frequency based admission to the slabs or not
+	 * @param valueConverter converter used to serialize the values
+	 */
+	public OffHeapCache(final long maximumBytes, final int windowSize, final int slabSize, final boolean admission,
+			final Converter<V, byte[]> valueConverter){
+		if(valueConverter == null){
+			throw new IllegalArgumentException("NULL value converter");
+		}
+		if(slabSize < minimumSlotSize){
+			throw new IllegalArgumentException("Slab size must be greater than or equal to " + minimumSlotSize);
+		}
+		if(windowSize < 1){
+			throw new IllegalArgumentException("Window size must be greater than or equal to 1");
+		}
+		this.maximumBytes = maximumBytes;
+		this.windowSize = windowSize;
+		this.admission = admission;
+		this.valueConverter = valueConverter;
+		
+		final List<SizeClass> sizeClassList = new ArrayList<SizeClass>();
+		int slotSize = minimumSlotSize;
+		while(true){
+			sizeClassList.add(new SizeClass(slotSize, slabSize));
+			if(slotSize == slabSize || sizeClassList.size() == Byte.MAX_VALUE){
+				break;
+			}
+			// Keep slots 8 byte aligned
+			slotSize = Math.min(slabSize, (((int)Math.ceil(slotSize * slotSizeGrowthFactor)) + 7) & ~7);
+		}
+		this.sizeClasses = sizeClassList.toArray(new SizeClass[sizeClassList.size()]);
+		// Assuming the average slot is at least a few hundred bytes
+		this.sketch = new FrequencySketch((int)Math.max(1024, Math.min(1 << 24, maximumBytes / 256)));
+	}
+
+	@Override
+	public void put(final K key, final V value){
+		sketch.increment(key);
+		removeFromSlabs(key);
+		rejected.remove(key);
+		window.put(key, value);
+		shrinkWindow();
+	}
+
+	@Override
+	public V get(final K key){
+		V value = window.get(key);
+		if(value == null){
+			value = rejected.get(key);
+			if(value == null){
+				final Integer entryId = index.get(key);
+				if(entryId == null){
+					return null;
+				}
+				// Move to window so that in-place updates to the returned value are not lost
+				value = readValue(entryId);
+				removeFromSlabs(key);
+				window.put(key, value);
+				shrinkWindow();
+			}
+		}
+		sketch.increment(key);
+		return value;
+	}
+
+	// Doesn't modify access order or frequency
+	@Override
+	public boolean contains(final K key){
+		return window.containsKey(key) || rejected.containsKey(key) || index.containsKey(key);
+	}
+
+	@Override
+	public V remove(final K key){
+		V value = window.remove(key);
+		if(value == null){
+			value = rejected.remove(key);
+			if(value == null){
+				final Integer entryId = index.get(key);
+				if(entryId != null){
+					value = readValue(entryId);
+					removeFromSlabs(key);
+				}
+			}
+		}
+		return value;
+	}
+
+	@Override
+	public CacheEntry<K, V> evict(){
+		if(!rejected.isEmpty()){
+			final Iterator<Map.Entry<K, V>> iterator = rejected.entrySet().iterator();
+			final Map.Entry<K, V> entry = iterator.next();
+			iterator.remove();
+			return new CacheEntry<K, V>(entry.getKey(), entry.getValue());
+		}else if(!index.isEmpty()){
+			final int entryId = findClockVictim();
+			@SuppressWarnings("unchecked")
+			final K key = (K)entryKeys[entryId];
+			final V value = readValue(entryId);
+			removeFromSlabs(key);
+			return new CacheEntry<K, V>(key, value);
+		}else if(!window.isEmpty()){
+			final Iterator<Map.Entry<K, V>> iterator = window.entrySet().iterator();
+			final Map.Entry<K, V> entry = iterator.next();
+			iterator.remove();
+			return new CacheEntry<K, V>(entry.getKey(), entry.getValue());
+		}else{
+			return null;
+		}
+	}
+
+	@Override
+	public int getCurrentSize(){
+		return window.size() + rejected.size() + index.size();
+	}
+
+	/**
+	 * The cache is bounded by bytes. Returns the maximum number of entries kept on the heap.
+	 */
+	@Override
+	public int getMaximumSize(){
+		return windowSize;
+	}
+
+	@Override
+	public boolean hasExceededMaximumSize(){
+		return !rejected.isEmpty() || usedBytes > maximumBytes;
+	}
+	
+	/**
+	 * @return bytes of the slots in use in the slabs
+	 */
+	public long getUsedBytes(){
+		return usedBytes;
+	}
+	
+	/**
+	 * @return bytes allocated outside of the heap for the slabs
+	 */
+	public long getAllocatedBytes(){
+		long allocated = 0;
+		for(final SizeClass sizeClass : sizeClasses){
+			allocated += ((long)sizeClass.slabs.size()) * sizeClass.slabSize;
+		}
+		return allocated;
+	}
+
+	@Override
+	public void clear(){
+		window.clear();
+		rejected.clear();
+		index.clear();
+		Arrays.fill(entryKeys, null);
+		Arrays.fill(entryReferenced, false);
+		entryHighWaterMark = 0;
+		freeEntryIdsCount = 0;
+		clockHand = 0;
+		usedBytes = 0;
+		for(final SizeClass sizeClass : sizeClasses){
+			sizeClass.clear();
+		}
+		sketch.clear();
+	}
+
+	/**
+	 * Releases the slabs. Direct buffers are freed when garbage collected.
+	 */
+	@Override
+	public void close(){
+		clear();
+	}
+	
+	private void shrinkWindow(){
+		while(window.size() > windowSize){
+			final Iterator<Map.Entry<K, V>> iterator = window.entrySet().iterator();
+			final Map.Entry<K, V> entry = iterator.next();
+			iterator.remove();
+			admit(entry.getKey(), entry.getValue());
+		}
+	}
+	
+	/**
+	 * Serialize the entry into the slabs if it fits and wins against the eviction candidate. Otherwise add to 
+	 * rejected.
+	 */
+	private void admit(final K key, final V value){
+		final byte[] bytes;
+		try{
+			bytes = valueConverter.serialize(value);
+		}catch(Exception e){
+			// Already removed from the window so keep it where the eviction reaches the store
+			rejected.put(key, value);
+			throw new RuntimeException("Failed to serialize value for key: " + key, e);
+		}
+		final int sizeClassIndex = getSizeClassIndex(bytes.length);
+		if(sizeClassIndex < 0 || sizeClasses[sizeClassIndex].slotSize > maximumBytes){
+			rejected.put(key, value);
+			return;
+		}
+		final SizeClass sizeClass = sizeClasses[sizeClassIndex];
+		if(admission && !index.isEmpty() && usedBytes + sizeClass.slotSize > maximumBytes){
+			@SuppressWarnings("unchecked")
+			final K victimKey = (K)entryKeys[peekClockVictim()];
+			if(sketch.frequency(key) <= sketch.frequency(victimKey)){
+				rejected.put(key, value);
+				return;
+			}
+		}
+		final int slot = sizeClass.allocate();
+		sizeClass.write(slot, bytes);
+		final int entryId = allocateEntryId();
+		entryKeys[entryId] = key;
+		entrySizeClass[entryId] = (byte)sizeClassIndex;
+		entrySlot[entryId] = slot;
+		entryLength[entryId] = bytes.length;
+		// Entries read from the slabs move to the window so give the second chance to the ones seen more than once
+		entryReferenced[entryId] = sketch.frequency(key) > 1;
+		index.put(key, entryId);
+		usedBytes += sizeClass.slotSize;
+	}
+	
+	private V readValue(final int entryId){
+		final byte[] bytes = sizeClasses[entrySizeClass[entryId]].read(entrySlot[entryId], entryLength[entryId]);
+		try{
+			return valueConverter.deserialize(bytes);
+		}catch(Exception e){
+			throw new RuntimeException("Failed to deserialize value for key: " + entryKeys[entryId], e);
+		}
+	}
+	
+	private void removeFromSlabs(final K key){
+		final Integer entryId = index.remove(key);
+		if(entryId != null){
+			final SizeClass sizeClass = sizeClasses[entrySizeClass[entryId]];
+			sizeClass.free(entrySlot[entryId]);
+			usedBytes -= sizeClass.slotSize;
+			entryKeys[entryId] = null;
+			entryReferenced[entryId] = false;
+			if(freeEntryIdsCount == freeEntryIds.length){
+				freeEntryIds = Arrays.copyOf(freeEntryIds, freeEntryIds.length * 2);
+			}
+			freeEntryIds[freeEntryIdsCount++] = entryId;
+		}
+	}
+	
+	private int allocateEntryId(){
+		if(freeEntryIdsCount > 0){
+			return freeEntryIds[--freeEntryIdsCount];
+		}
+		if(entryHighWaterMark == entryKeys.length){
+			final int newLength = entryKeys.length * 2;
+			entryKeys = Arrays.copyOf(entryKeys, newLength);
+			entrySizeClass = Arrays.copyOf(entrySizeClass, newLength);
+			entrySlot = Arrays.copyOf(entrySlot, newLength);
+			entryLength = Arrays.copyOf(entryLength, newLength);
+			entryReferenced = Arrays.copyOf(entryReferenced, newLength);
+		}
+		return entryHighWaterMark++;
+	}
+	
+	/**
+	 * Advances the CLOCK hand clearing the reference bits on the way. Must only be called when the slabs are not empty.
+	 * 
+	 * @return entry id of the victim
+	 */
+	private int findClockVictim(){
+		while(true){
+			if(clockHand >= entryHighWaterMark){
+				clockHand = 0;
+			}
+			final int entryId = clockHand++;
+			if(entryKeys[entryId] != null){
+				if(entryReferenced[entryId]){
+					entryReferenced[entryId] = false;
+				}else{
+					return entryId;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Same as findClockVictim but without moving the hand or clearing the reference bits.
+	 * Looks at a bounded number of entries and falls back to the first live one.
+	 * 
+	 * @return entry id of the victim. Must only be called when the slabs are not empty.
+	 */
+	private int peekClockVictim(){
+		int firstLive = -1;
+		for(int i = 0; i < entryHighWaterMark; i++){
+			if(firstLive != -1 && i >= maximumVictimProbes){
+				break;
+			}
+			final int entryId = (clockHand + i) % entryHighWaterMark;
+			if(entryKeys[entryId] != null){
+				if(!entryReferenced[entryId]){
+					return entryId;
+				}else if(firstLive == -1){
+					firstLive = entryId;
+				}
+			}
+		}
+		return firstLive;
+	}
+	
+	private int getSizeClassIndex(final int length){
+		int low = 0, high = sizeClasses.length - 1;
+		if(length > sizeClasses[high].slotSize){
+			return -1;
+		}
+		while(low < high){
+			final int mid = (low + high) >>> 1;
+			if(sizeClasses[mid].slotSize < length){
+				low = mid + 1;
+			}else{
+				high = mid;
+			}
+		}
+		return low;
+	}
+	
+	/**
+	 * Fixed size slots carved out of direct ByteBuffers allocated on demand
+	 */
+	private static final class SizeClass{
+		private final int slotSize;
+		private final int slotsPerSlab;
+		private final int slabSize;
+		private final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+		private int[] freeSlots = new int[64];
+		private int freeSlotsCount = 0;
+		private int nextUnusedSlot = 0;
+		
+		private SizeClass(final int slotSize, final int slabSize){
+			this.slotSize = slotSize;
+			this.slotsPerSlab = slabSize / slotSize;
+			this.slabSize = slotsPerSlab * slotSize;
+		}
+		
+		private int allocate(){
+			if(freeSlotsCount > 0){
+				return freeSlots[--freeSlotsCount];
+			}
+			if(nextUnusedSlot == slabs.size() * slotsPerSlab){
+				slabs.add(ByteBuffer.allocateDirect(slabSize));
+			}
+			return nextUnusedSlot++;
+		}
+		
+		private void free(final int slot){
+			if(freeSlotsCount == freeSlots.length){
+				freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+			}
+			freeSlots[freeSlotsCount++] = slot;
+		}
+		
+		private void write(final int slot, final byte[] bytes){
+			final ByteBuffer slab = slabs.get(slot / slotsPerSlab).duplicate();
+			slab.position((slot % slotsPerSlab) * slotSize);
+			slab.put(bytes);
+		}
+		
+		private byte[] read(final int slot, final int length){
+			final byte[] bytes = new byte[length];
+			final ByteBuffer slab = slabs.get(slot / slotsPerSlab).duplicate();
+			slab.position((slot % slotsPerSlab) * slotSize);
+			slab.get(bytes);
+			return bytes;
+		}
+		
+		private void clear(){
+			slabs.clear();
+			freeSlotsCount = 0;
+			nextUnusedSlot = 0;
+		}
+	}
+	
+	/**
+	 * Count-min sketch with four 4-bit counters per key. All counters are halved after a sample of increments to age
+	 * the frequencies.
+	 */
+	private static final class FrequencySketch{
+		private static final long[] seeds = {
+				0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+		private static final long resetMask = 0x7777777777777777L;
+		
+		private final long[] table;
+		private final int tableMask;
+		private final int sampleSize;
+		private int additions = 0;
+		
+		private FrequencySketch(final int expectedEntries){
+			int length = Integer.highestOneBit(Math.max(64, expectedEntries) - 1) << 1;
+			this.table = new long[length];
+			this.tableMask = length - 1;
+			this.sampleSize = 10 * expectedEntries;
+		}
+		
+		private int indexOf(final int hash, final int i){
+			long h = (hash + seeds[i]) * seeds[i];
+			h += h >>> 32;
+			return ((int)h) & tableMask;
+		}
+		
+		private int shiftOf(final int hash, final int i){
+			return (((hash >>> (i << 3)) & 3) + (i << 2)) << 2;
+		}
+		
+		private void increment(final Object key){
+			final int hash = spread(key.hashCode());
+			boolean added = false;
+			for(int i = 0; i < 4; i++){
+				final int index = indexOf(hash, i);
+				final int shift = shiftOf(hash, i);
+				if(((table[index] >>> shift) & 0xfL) != 0xfL){
+					table[index] += 1L << shift;
+					added = true;
+				}
+			}
+			if(added && ++additions == sampleSize){
+				for(int i = 0; i < table.length; i++){
+					table[i] = (table[i] >>> 1) & resetMask;
+				}
+				additions = additions >>> 1;
+			}
+		}
+		
+		private int frequency(final Object key){
+			final int hash = spread(key.hashCode());
+			int frequency = Integer.MAX_VALUE;
+			for(int i = 0; i < 4; i++){
+				frequency = Math.min(frequency, (int)((table[indexOf(hash, i)] >>> shiftOf(hash, i)) & 0xfL));
+			}
+			return frequency;
+		}
+		
+		private void clear(){
+			Arrays.fill(table, 0L);
+			additions = 0;
+		}
+		
+		private static int spread(int x){
+			x = ((x >>> 16) ^ x) * 0x45d9f3b;
+			x = ((x >>> 16) ^ x) * 0x45d9f3b;
+			return (x >>> 16) ^ x;
+		}
+	}
+}
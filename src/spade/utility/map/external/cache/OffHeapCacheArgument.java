@@ -0,0 +1,76 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility.map.external.cache;
+
+public class OffHeapCacheArgument extends CacheArgument{
+	
+	public final static String keyMaxBytes = "maxBytes", keyWindowSize = "windowSize", keySlabSize = "slabSize",
+			keyAdmission = "admission";
+	
+	public final long maxBytes;
+	public final int windowSize;
+	public final int slabSize;
+	public final boolean admission;
+	
+	protected OffHeapCacheArgument(long maxBytes, int windowSize, int slabSize, boolean admission){
+		super(CacheName.OffHeap);
+		this.maxBytes = maxBytes;
+		this.windowSize = windowSize;
+		this.slabSize = slabSize;
+		this.admission = admission;
+	}
+
+	@Override
+	public int hashCode(){
+		final int prime = 31;
+		int result = super.hashCode();
+		result = prime * result + (int)(maxBytes ^ (maxBytes >>> 32));
+		result = prime * result + windowSize;
+		result = prime * result + slabSize;
+		result = prime * result + (admission ? 1231 : 1237);
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj){
+		if(this == obj)
+			return true;
+		if(!super.equals(obj))
+			return false;
+		if(getClass() != obj.getClass())
+			return false;
+		OffHeapCacheArgument other = (OffHeapCacheArgument)obj;
+		if(maxBytes != other.maxBytes)
+			return false;
+		if(windowSize != other.windowSize)
+			return false;
+		if(slabSize != other.slabSize)
+			return false;
+		if(admission != other.admission)
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString(){
+		return "OffHeapCacheArgument [maxBytes=" + maxBytes + ", windowSize=" + windowSize + ", slabSize=" + slabSize 
+				+ ", admission=" + admission + ", name=" + name + "]";
+	}
+}
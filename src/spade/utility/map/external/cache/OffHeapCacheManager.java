@@ -0,0 +1,158 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility.map.external.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import spade.utility.Converter;
+import spade.utility.HelperFunctions;
+import spade.utility.Result;
+
+/**
+ * Off-heap cache manager for external map
+ */
+public class OffHeapCacheManager extends CacheManager{
+
+	public static final OffHeapCacheManager instance = new OffHeapCacheManager();
+	private OffHeapCacheManager(){}
+	
+	private static final int defaultWindowSize = 10000;
+	private static final int defaultSlabSize = 1024 * 1024;
+	private static final boolean defaultAdmission = true;
+	
+	/**
+	 * Create OffHeapCache.
+	 * Sample: "maxBytes=[1-n][k|m|g] windowSize=[1-n] slabSize=[1-n][k|m|g] admission=[true|false]"
+	 * 
+	 * @param arguments See above sample
+	 */
+	@Override
+	public Result<CacheArgument> parseArgument(String arguments){
+		if(HelperFunctions.isNullOrEmpty(arguments)){
+			return Result.failed("NULL/Empty arguments");
+		}else{
+			Result<HashMap<String, String>> mapResult = HelperFunctions.parseKeysValuesInString(arguments);
+			if(mapResult.error){
+				return Result.failed("Failed to parse arguments to map", mapResult);
+			}else{
+				return parseArgument(mapResult.result);
+			}
+		}
+	}
+
+	/**
+	 * Create OffHeapCache.
+	 * Must contains valid values for keys: 'maxBytes'.
+	 * Optional keys: 'windowSize' (default 10000), 'slabSize' (default 1m), 'admission' (default true).
+	 * 
+	 */
+	@Override
+	public Result<CacheArgument> parseArgument(Map<String, String> arguments){
+		if(arguments == null){
+			return Result.failed("NULL arguments");
+		}else if(arguments.isEmpty()){
+			return Result.failed("Empty arguments");
+		}else{
+			Result<Long> maxBytesResult = HelperFunctions.parseBytes(
+					arguments.get(OffHeapCacheArgument.keyMaxBytes), 1, Long.MAX_VALUE);
+			if(maxBytesResult.error){
+				return Result.failed("Failed to parse '"+OffHeapCacheArgument.keyMaxBytes+"'", maxBytesResult);
+			}
+			int windowSize = defaultWindowSize;
+			String windowSizeString = arguments.get(OffHeapCacheArgument.keyWindowSize);
+			if(windowSizeString != null){
+				Result<Long> windowSizeResult = HelperFunctions.parseLong(windowSizeString, 10, 1, Integer.MAX_VALUE);
+				if(windowSizeResult.error){
+					return Result.failed("Failed to parse '"+OffHeapCacheArgument.keyWindowSize+"'", windowSizeResult);
+				}
+				windowSize = windowSizeResult.result.intValue();
+			}
+			int slabSize = defaultSlabSize;
+			String slabSizeString = arguments.get(OffHeapCacheArgument.keySlabSize);
+			if(slabSizeString != null){
+				Result<Long> slabSizeResult = HelperFunctions.parseBytes(slabSizeString, 64, Integer.MAX_VALUE);
+				if(slabSizeResult.error){
+					return Result.failed("Failed to parse '"+OffHeapCacheArgument.keySlabSize+"'", slabSizeResult);
+				}
+				slabSize = slabSizeResult.result.intValue();
+			}
+			boolean admission = defaultAdmission;
+			String admissionString = arguments.get(OffHeapCacheArgument.keyAdmission);
+			if(admissionString != null){
+				Result<Boolean> admissionResult = HelperFunctions.parseBoolean(admissionString);
+				if(admissionResult.error){
+					return Result.failed("Failed to parse '"+OffHeapCacheArgument.keyAdmission+"'", admissionResult);
+				}
+				admission = admissionResult.result;
+			}
+			return Result.successful(new OffHeapCacheArgument(maxBytesResult.result, windowSize, slabSize, admission));
+		}
+	}
+	
+	/**
+	 * Validates the passed argument as the correct argument for this cache manager
+	 * 
+	 * @param genericArgument CacheArgument must be OffHeapCacheArgument
+	 * @return OffHeapCacheArgument object otherwise error
+	 */
+	private Result<OffHeapCacheArgument> validateArgument(final CacheArgument genericArgument){
+		if(genericArgument == null){
+			return Result.failed("NULL argument");
+		}else if(!genericArgument.getClass().equals(OffHeapCacheArgument.class)){
+			return Result.failed("Cache argument class must be OffHeapCacheArgument but is '"+genericArgument.getClass()+"'");
+		}else{
+			OffHeapCacheArgument argument = (OffHeapCacheArgument)genericArgument;
+			return Result.successful(argument);
+		}
+	}
+
+	/**
+	 * Values must be serialized to be kept off-heap. Use the variant with converters.
+	 * 
+	 * @return always error
+	 */
+	@Override
+	public <K, V> Result<Cache<K, V>> createFromArgument(CacheArgument genericArgument){
+		return Result.failed("Off-heap cache requires a value converter");
+	}
+
+	/**
+	 * @param CacheArgument must be OffHeapCacheArgument
+	 * @param keyConverter not used because keys are kept on the heap
+	 * @param valueConverter used to serialize the values into off-heap memory
+	 * @return Cache object or error
+	 */
+	@Override
+	public <K, V> Result<Cache<K, V>> createFromArgument(CacheArgument genericArgument,
+			Converter<K, byte[]> keyConverter, Converter<V, byte[]> valueConverter){
+		Result<OffHeapCacheArgument> validResult = validateArgument(genericArgument);
+		if(validResult.error){
+			return Result.failed("Invalid cache argument", validResult);
+		}else if(valueConverter == null){
+			return Result.failed("NULL value converter");
+		}else{
+			OffHeapCacheArgument argument = validResult.result;
+			return Result.successful(new OffHeapCache<K, V>(argument.maxBytes, argument.windowSize, argument.slabSize,
+					argument.admission, valueConverter));
+		}
+	}
+
+}
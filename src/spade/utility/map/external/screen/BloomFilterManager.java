@@ -19,13 +19,14 @@
  */
 package spade.utility.map.external.screen;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.ObjectInputStream;
 import java.util.HashMap;
 import java.util.Map;
 
-import spade.core.BloomFilter;
+import spade.core.ConcurrentBloomFilter;
 import spade.utility.HelperFunctions;
 import spade.utility.Result;
 
@@ -160,6 +161,8 @@ public class BloomFilterManager extends ScreenManager{
 							arguments.get(BloomFilterArgument.keyFalsePositiveProbability), 0, 1);
 					if(falsePositiveProbResult.error){
 						return Result.failed("Failed to parse '"+BloomFilterArgument.keyFalsePositiveProbability+"'", falsePositiveProbResult);
+					}else if(falsePositiveProbResult.result <= 0 || falsePositiveProbResult.result >= 1){
+						return Result.failed("'"+BloomFilterArgument.keyFalsePositiveProbability+"' must be between 0 and 1 (exclusive)");
 					}else{
 						double falsePositiveProbability = falsePositiveProbResult.result;
 						return Result.successful(new BloomFilterArgument.CreateFromArgs(expectedElements, falsePositiveProbability, 
@@ -215,13 +218,13 @@ public class BloomFilterManager extends ScreenManager{
 			if(argument == null){
 				return Result.failed("NULL argument");
 			}else{
-				BloomFilter<K> bloomFilter = null;
+				ConcurrentBloomFilter<K> bloomFilter = null;
 				if(argument.getClass().equals(BloomFilterArgument.CreateFromArgs.class)){
 					BloomFilterArgument.CreateFromArgs createArg = (BloomFilterArgument.CreateFromArgs)argument;
-					bloomFilter = new BloomFilter<K>(createArg.falsePositiveProbability, createArg.expectedElements);
+					bloomFilter = new ConcurrentBloomFilter<K>(createArg.falsePositiveProbability, createArg.expectedElements);
 				}else if(argument.getClass().equals(BloomFilterArgument.LoadFromFile.class)){
 					BloomFilterArgument.LoadFromFile loadArg = (BloomFilterArgument.LoadFromFile)argument;
-					Result<BloomFilter<K>> resultBloomFilter = loadBloomFilterFromFile(loadArg.loadPath);
+					Result<ConcurrentBloomFilter<K>> resultBloomFilter = loadBloomFilterFromFile(loadArg.loadPath);
 					if(resultBloomFilter.error){
 						return Result.failed("Invalid load path", resultBloomFilter);
 					}else{
@@ -247,21 +250,13 @@ public class BloomFilterManager extends ScreenManager{
 	 * @param path path of the file to load bloomfilter from
 	 * @return bloomfilter object
 	 */
-	private <K> Result<BloomFilter<K>> loadBloomFilterFromFile(String path){
-		try{
-			FileInputStream fis = new FileInputStream(new File(path));
-			ObjectInputStream ois = new ObjectInputStream(fis);
-			@SuppressWarnings("unchecked")
-			BloomFilter<K> bloomFilter = (BloomFilter<K>)ois.readObject();
-			ois.close();
-			fis.close();
-			if(bloomFilter == null){
-				return Result.failed("NULL BloomFilter loadede from path: '"+path+"'");
-			}else{
-				return Result.successful(bloomFilter);
-			}
+	private <K> Result<ConcurrentBloomFilter<K>> loadBloomFilterFromFile(String path){
+		try(DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(path))))){
+			ConcurrentBloomFilter<K> bloomFilter = ConcurrentBloomFilter.read(dis);
+			return Result.successful(bloomFilter);
 		}catch(Exception e){
-			return Result.failed("Failed to load BloomFilter from path: '"+path+"'", e, null);
+			return Result.failed("Failed to load BloomFilter from path: '"+path+"'. "
+					+ "Files saved in the legacy serialized format must be recreated", e, null);
 		}
 	}
 
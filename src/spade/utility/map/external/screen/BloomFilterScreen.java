@@ -19,15 +19,16 @@
  */
 package spade.utility.map.external.screen;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.ObjectOutputStream;
 
-import spade.core.BloomFilter;
+import spade.core.ConcurrentBloomFilter;
 import spade.utility.HelperFunctions;
 
 /**
- * Bloom filter screen
+ * Bloom filter screen. Thread-safe.
  * 
  * @param <K> key type
  */
@@ -39,29 +40,22 @@ public class BloomFilterScreen<K> implements Screen<K>{
 	/**
 	 * Bloomfilter object
 	 */
-	private final BloomFilter<K> bloomFilter;
+	private final ConcurrentBloomFilter<K> bloomFilter;
 	
-	protected BloomFilterScreen(String savePath, BloomFilter<K> bloomFilter){
+	protected BloomFilterScreen(String savePath, ConcurrentBloomFilter<K> bloomFilter){
 		this.savePath = savePath;
 		this.bloomFilter = bloomFilter;
 	}
 	
 	@Override
 	public void add(K key){
-		if(key == null){
-			bloomFilter.add(String.valueOf(key).getBytes());
-		}else{
-			bloomFilter.add(key);
-		}
+		// Null is hashed as 'null'
+		bloomFilter.add(key);
 	}
 	
 	@Override
 	public boolean contains(K key){
-		if(key == null){
-			return bloomFilter.contains(String.valueOf(key).getBytes());
-		}else{
-			return bloomFilter.contains(key);
-		}
+		return bloomFilter.contains(key);
 	}
 
 	@Override
@@ -77,11 +71,9 @@ public class BloomFilterScreen<K> implements Screen<K>{
 	@Override
 	public void close() throws Exception{
 		if(!HelperFunctions.isNullOrEmpty(savePath)){
-			FileOutputStream fos = new FileOutputStream(new File(savePath));
-			ObjectOutputStream oos = new ObjectOutputStream(fos);
-			oos.writeObject(bloomFilter);
-			oos.close();
-			fos.close();
+			try(DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(savePath))))){
+				bloomFilter.write(dos);
+			}
 		}
 	}
 
@@ -0,0 +1,95 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility.map.external.store.db.mappedlog;
+
+import spade.utility.map.external.store.db.DatabaseArgument;
+
+/**
+ *	Memory-mapped log arguments necessary to create MappedLog handle using MappedLogManager
+ */
+public class MappedLogArgument extends DatabaseArgument{
+	
+	public static final String keyDatabasePath = "databasePath", keySegmentSize = "segmentSize",
+			keyCompactionRatio = "compactionRatio";
+	
+	/**
+	 * Directory path of the database
+	 */
+	public final String databasePath;
+	/**
+	 * Size in bytes of a single segment file
+	 */
+	public final long segmentSize;
+	/**
+	 * Fraction of dead bytes in a full segment after which it is compacted
+	 */
+	public final double compactionRatio;
+	
+	/**
+	 * @param databasePath directory path
+	 * @param deleteOnClose delete the database on close or not
+	 * @param segmentSize size in bytes of a single segment file
+	 * @param compactionRatio fraction of dead bytes in a full segment after which it is compacted
+	 */
+	protected MappedLogArgument(String databasePath, boolean deleteOnClose, long segmentSize, double compactionRatio){
+		super(deleteOnClose);
+		this.databasePath = databasePath;
+		this.segmentSize = segmentSize;
+		this.compactionRatio = compactionRatio;
+	}
+
+	@Override
+	public int hashCode(){
+		final int prime = 31;
+		int result = super.hashCode();
+		result = prime * result + ((databasePath == null) ? 0 : databasePath.hashCode());
+		result = prime * result + (int)(segmentSize ^ (segmentSize >>> 32));
+		long temp = Double.doubleToLongBits(compactionRatio);
+		result = prime * result + (int)(temp ^ (temp >>> 32));
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj){
+		if(this == obj)
+			return true;
+		if(!super.equals(obj))
+			return false;
+		if(getClass() != obj.getClass())
+			return false;
+		MappedLogArgument other = (MappedLogArgument)obj;
+		if(databasePath == null){
+			if(other.databasePath != null)
+				return false;
+		}else if(!databasePath.equals(other.databasePath))
+			return false;
+		if(segmentSize != other.segmentSize)
+			return false;
+		if(Double.doubleToLongBits(compactionRatio) != Double.doubleToLongBits(other.compactionRatio))
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString(){
+		return "MappedLogArgument [databasePath=" + databasePath + ", segmentSize=" + segmentSize 
+				+ ", compactionRatio=" + compactionRatio + ", deleteOnClose=" + deleteOnClose + "]";
+	}
+}
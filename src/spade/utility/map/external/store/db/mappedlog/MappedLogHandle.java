@@ -0,0 +1,792 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility.map.external.store.db.mappedlog;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import spade.utility.map.external.store.db.DatabaseHandle;
+
+/**
+ * Append-only log of memory-mapped segment files created by MappedLogManager.
+ *
+ * Every put and remove is appended to the current segment as a record:
+ * 		[int keyLength][int valueLength (-1 for remove)][int crc32 of lengths, key and value][key][value]
+ * The value of a remove record (tombstone) is the int id of the segment of the put that it removed.
+ * A key length of 0 marks the end of the records in a segment.
+ *
+ * The location (segment id, offset) of the latest record of each key is kept in an open-addressing hash table of
+ * 64-bit key hashes. Keys are compared against the key bytes in the log so no key is kept on the heap.
+ *
+ * On open the segments are replayed in order to rebuild the table. Replay of a segment stops at the first record
+ * with a bad checksum i.e. a record torn by a crash is dropped.
+ *
+ * A background thread rewrites the live records of full segments with enough dead bytes to the end of the log and
+ * deletes those segments. All the older puts of a removed key are in the segments up to the one recorded in its
+ * tombstone so a tombstone is live (and rewritten) only as long as the first segment of the log is not after that one.
+ *
+ * Thread-safe.
+ */
+public class MappedLogHandle implements DatabaseHandle{
+
+	private static final Logger logger = Logger.getLogger(MappedLogHandle.class.getName());
+
+	private static final String segmentFileSuffix = ".log";
+	private static final int recordHeaderSize = 12;
+	private static final int tombstoneValueLength = -1;
+	private static final int tombstoneSize = 4;
+	private static final int compactionRecordsPerLock = 1024;
+	private static final long compactionCheckIntervalMillis = 1000;
+
+	public final boolean deleteOnClose;
+	public final String dbPath;
+	private final long segmentSize;
+	private final double compactionRatio;
+
+	/**
+	 * Segment id to segment. Ascending order is the order of the log
+	 */
+	private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+	private Segment activeSegment;
+
+	private final Index index = new Index();
+	private final CRC32 crc = new CRC32();
+	private final ByteBuffer crcScratch = ByteBuffer.allocate(8);
+
+	private volatile boolean closed = false;
+	private final Thread compactor;
+
+	/**
+	 * Opens (and recovers) all the segments in the directory
+	 *
+	 * @param dbPath directory path. Must exist
+	 * @param deleteOnClose delete the database on close or not
+	 * @param segmentSize size in bytes of a single segment file
+	 * @param compactionRatio fraction of dead bytes in a full segment after which it is compacted
+	 * @throws Exception failed to open or recover a segment
+	 */
+	protected MappedLogHandle(String dbPath, boolean deleteOnClose, long segmentSize, double compactionRatio)
+			throws Exception{
+		this.dbPath = dbPath;
+		this.deleteOnClose = deleteOnClose;
+		this.segmentSize = segmentSize;
+		this.compactionRatio = compactionRatio;
+
+		recover();
+
+		this.compactor = new Thread(new Runnable(){
+			@Override
+			public void run(){
+				runCompactor();
+			}
+		}, "MappedLog-compactor-" + new File(dbPath).getName());
+		this.compactor.setDaemon(true);
+		this.compactor.start();
+	}
+
+	@Override
+	public synchronized void put(byte[] key, byte[] value) throws Exception{
+		checkOpen();
+		checkKey(key);
+		if(value == null){
+			throw new IllegalArgumentException("NULL value");
+		}
+		final long hash = hash(key, 0, key.length);
+		final long location = append(key, value, value.length);
+		final int slot = index.find(key, hash);
+		if(slot == -1){
+			index.insert(hash, location);
+		}else{
+			markDead(index.locations[slot]);
+			index.locations[slot] = location;
+		}
+		segmentOf(location).liveBytes += recordHeaderSize + key.length + value.length;
+	}
+
+	@Override
+	public synchronized byte[] get(byte[] key) throws Exception{
+		checkOpen();
+		checkKey(key);
+		final int slot = index.find(key, hash(key, 0, key.length));
+		if(slot == -1){
+			return null;
+		}
+		final long location = index.locations[slot];
+		final Segment segment = segmentOf(location);
+		final int offset = offsetOf(location);
+		final int keyLength = segment.buffer.getInt(offset);
+		final int valueLength = segment.buffer.getInt(offset + 4);
+		final byte[] value = new byte[valueLength];
+		segment.read(offset + recordHeaderSize + keyLength, value);
+		return value;
+	}
+
+	@Override
+	public synchronized void remove(byte[] key) throws Exception{
+		checkOpen();
+		checkKey(key);
+		final int slot = index.find(key, hash(key, 0, key.length));
+		if(slot != -1){
+			final int removedSegmentId = segmentIdOf(index.locations[slot]);
+			markDead(index.locations[slot]);
+			index.remove(slot);
+			final long location = append(key, tombstone(removedSegmentId), tombstoneValueLength);
+			addLiveTombstone(segmentOf(location), removedSegmentId, recordHeaderSize + key.length + tombstoneSize);
+		}
+	}
+
+	@Override
+	public synchronized boolean contains(byte[] key) throws Exception{
+		checkOpen();
+		checkKey(key);
+		return index.find(key, hash(key, 0, key.length)) != -1;
+	}
+
+	@Override
+	public synchronized BigInteger sizeOnDiskInBytes() throws Exception{
+		long size = 0;
+		for(final Segment segment : segments.values()){
+			size += segment.capacity;
+		}
+		return BigInteger.valueOf(size);
+	}
+
+	@Override
+	public void close() throws Exception{
+		MappedLogManager.instance.closeHandle(this);
+	}
+
+	@Override
+	public synchronized void clear() throws Exception{
+		checkOpen();
+		for(final Segment segment : segments.values()){
+			segment.close();
+			segment.delete();
+		}
+		segments.clear();
+		index.clear();
+		activeSegment = createSegment(0, segmentSize);
+	}
+
+	/**
+	 * Stop compaction, flush and close all the segments. Called by the manager.
+	 *
+	 * @return true if all segments flushed and closed otherwise false
+	 */
+	protected boolean closeSegments(){
+		synchronized(this){
+			if(closed){
+				return true;
+			}
+			closed = true;
+			notifyAll();
+		}
+		compactor.interrupt();
+		try{
+			compactor.join();
+		}catch(InterruptedException ie){
+			Thread.currentThread().interrupt();
+		}
+		boolean succeeded = true;
+		synchronized(this){
+			for(final Segment segment : segments.values()){
+				try{
+					segment.buffer.force();
+					segment.close();
+				}catch(Exception e){
+					succeeded = false;
+					logger.log(Level.WARNING, "Failed to close segment: '" + segment.file + "'", e);
+				}
+			}
+			segments.clear();
+			index.clear();
+		}
+		return succeeded;
+	}
+
+	private void checkOpen() throws Exception{
+		if(closed){
+			throw new Exception("Database closed: '" + dbPath + "'");
+		}
+	}
+
+	private static void checkKey(final byte[] key){
+		if(key == null || key.length == 0){
+			throw new IllegalArgumentException("NULL/Empty key");
+		}
+	}
+
+	/**
+	 * Appends the record to the active segment. Starts a new segment if the record doesn't fit.
+	 *
+	 * @param key key bytes
+	 * @param value value bytes or tombstone bytes
+	 * @param valueLength length of the value or tombstoneValueLength
+	 * @return location of the record
+	 * @throws IOException failed to create a segment
+	 */
+	private long append(final byte[] key, final byte[] value, final int valueLength) throws IOException{
+		final int recordSize = recordHeaderSize + key.length + value.length;
+		if(activeSegment.writePosition + recordSize > activeSegment.capacity){
+			activeSegment = createSegment(segments.lastKey() + 1, Math.max(segmentSize, recordSize));
+			// Wake up the compactor to look at the sealed segment
+			notifyAll();
+		}
+		final Segment segment = activeSegment;
+		final int offset = segment.writePosition;
+		final int checksum = checksum(key.length, valueLength, key, value);
+
+		final ByteBuffer buffer = segment.buffer.duplicate();
+		buffer.position(offset);
+		buffer.putInt(key.length);
+		buffer.putInt(valueLength);
+		buffer.putInt(checksum);
+		buffer.put(key);
+		buffer.put(value);
+		// End marker for recovery in case of stale bytes from a torn write after this record
+		if(buffer.remaining() >= 4){
+			buffer.putInt(0);
+		}
+		segment.writePosition = offset + recordSize;
+		return location(segment.id, offset);
+	}
+
+	/**
+	 * Decrease the live bytes of the segment of the record at location
+	 */
+	private void markDead(final long location){
+		final Segment segment = segmentOf(location);
+		final int offset = offsetOf(location);
+		final int keyLength = segment.buffer.getInt(offset);
+		final int valueLength = segment.buffer.getInt(offset + 4);
+		segment.liveBytes -= recordHeaderSize + keyLength + Math.max(0, valueLength);
+	}
+
+	private Segment segmentOf(final long location){
+		return segments.get(segmentIdOf(location));
+	}
+
+	private static int segmentIdOf(final long location){
+		return (int)(location >>> 32);
+	}
+
+	private static int offsetOf(final long location){
+		return (int)location;
+	}
+
+	private static long location(final int segmentId, final int offset){
+		return (((long)segmentId) << 32) | (offset & 0xFFFFFFFFL);
+	}
+
+	private static byte[] tombstone(final int removedSegmentId){
+		return ByteBuffer.allocate(tombstoneSize).putInt(removedSegmentId).array();
+	}
+
+	/**
+	 * A tombstone is needed as long as any segment that could have an older put of the key exists
+	 */
+	private boolean isTombstoneNeeded(final int removedSegmentId){
+		return segments.firstKey() <= removedSegmentId;
+	}
+
+	private void addLiveTombstone(final Segment segment, final int removedSegmentId, final int size){
+		segment.liveBytes += size;
+		final Long bytes = segment.tombstoneBytes.get(removedSegmentId);
+		segment.tombstoneBytes.put(removedSegmentId, (bytes == null ? 0 : bytes) + size);
+	}
+
+	/**
+	 * Decrease the live bytes of the segments by the size of the tombstones that are not needed anymore.
+	 * Called after the first segment of the log is deleted.
+	 */
+	private void releaseTombstones(){
+		if(segments.isEmpty()){
+			return;
+		}
+		final int firstSegmentId = segments.firstKey();
+		for(final Segment segment : segments.values()){
+			final SortedMap<Integer, Long> released = segment.tombstoneBytes.headMap(firstSegmentId);
+			for(final long bytes : released.values()){
+				segment.liveBytes -= bytes;
+			}
+			released.clear();
+		}
+	}
+
+	private File segmentFile(final int id){
+		return new File(dbPath, String.format("%010d%s", id, segmentFileSuffix));
+	}
+
+	private Segment createSegment(final int id, final long capacity) throws IOException{
+		if(capacity > Integer.MAX_VALUE){
+			throw new IOException("Segment size must be less than 2GB: " + capacity);
+		}
+		final Segment segment = new Segment(id, segmentFile(id), capacity);
+		segments.put(id, segment);
+		return segment;
+	}
+
+	/**
+	 * Open all the segments in the directory and replay them in order to build the index
+	 *
+	 * @throws Exception failed to open a segment
+	 */
+	private synchronized void recover() throws Exception{
+		final File[] files = new File(dbPath).listFiles(new FileFilter(){
+			@Override
+			public boolean accept(File file){
+				return file.isFile() && file.getName().endsWith(segmentFileSuffix);
+			}
+		});
+		final List<Integer> ids = new ArrayList<Integer>();
+		if(files != null){
+			for(final File file : files){
+				final String name = file.getName();
+				try{
+					ids.add(Integer.parseInt(name.substring(0, name.length() - segmentFileSuffix.length())));
+				}catch(NumberFormatException nfe){
+					logger.log(Level.WARNING, "Ignored unexpected file in database directory: '" + file + "'");
+				}
+			}
+		}
+		Collections.sort(ids);
+		for(final int id : ids){
+			final File file = segmentFile(id);
+			final Segment segment = new Segment(id, file, file.length());
+			segments.put(id, segment);
+			replay(segment);
+		}
+		if(segments.isEmpty()){
+			activeSegment = createSegment(0, segmentSize);
+		}else{
+			activeSegment = segments.lastEntry().getValue();
+			releaseTombstones();
+		}
+	}
+
+	private void replay(final Segment segment){
+		int offset = 0;
+		int records = 0;
+		while(true){
+			final Record record = readRecord(segment, offset);
+			if(record == null){
+				break;
+			}
+			final long hash = hash(record.key, 0, record.key.length);
+			final int slot = index.find(record.key, hash);
+			if(slot != -1){
+				markDead(index.locations[slot]);
+			}
+			if(record.valueLength == tombstoneValueLength){
+				if(slot != -1){
+					index.remove(slot);
+				}
+				addLiveTombstone(segment, record.removedSegmentId(), record.size);
+			}else{
+				final long location = location(segment.id, offset);
+				if(slot == -1){
+					index.insert(hash, location);
+				}else{
+					index.locations[slot] = location;
+				}
+				segment.liveBytes += record.size;
+			}
+			offset += record.size;
+			records++;
+		}
+		segment.writePosition = offset;
+		if(offset + 4 <= segment.capacity && segment.buffer.getInt(offset) != 0){
+			logger.log(Level.WARNING, "Dropped torn record at offset " + offset + " in segment: '" + segment.file + "'");
+		}
+		logger.log(Level.FINE, "Recovered " + records + " record(s) from segment: '" + segment.file + "'");
+	}
+
+	/**
+	 * Read and verify the record at the offset
+	 *
+	 * @return null if end of records or the record is not valid
+	 */
+	private Record readRecord(final Segment segment, final int offset){
+		if(offset + recordHeaderSize > segment.capacity){
+			return null;
+		}
+		final int keyLength = segment.buffer.getInt(offset);
+		final int valueLength = segment.buffer.getInt(offset + 4);
+		final int checksum = segment.buffer.getInt(offset + 8);
+		if(keyLength <= 0 || valueLength < tombstoneValueLength){
+			return null;
+		}
+		final int storedValueLength = valueLength == tombstoneValueLength ? tombstoneSize : valueLength;
+		final long size = ((long)recordHeaderSize) + keyLength + storedValueLength;
+		if(offset + size > segment.capacity){
+			return null;
+		}
+		final byte[] key = new byte[keyLength];
+		segment.read(offset + recordHeaderSize, key);
+		final byte[] value = new byte[storedValueLength];
+		segment.read(offset + recordHeaderSize + keyLength, value);
+		if(checksum(keyLength, valueLength, key, value) != checksum){
+			return null;
+		}
+		return new Record(key, value, valueLength, (int)size);
+	}
+
+	private void runCompactor(){
+		while(!closed){
+			try{
+				final Segment candidate;
+				synchronized(this){
+					candidate = findCompactionCandidate();
+					if(candidate == null){
+						wait(compactionCheckIntervalMillis);
+						continue;
+					}
+				}
+				compact(candidate);
+			}catch(InterruptedException ie){
+				break;
+			}catch(Exception e){
+				if(!closed){
+					logger.log(Level.SEVERE, "Failed compaction for database: '" + dbPath + "'", e);
+					try{
+						Thread.sleep(compactionCheckIntervalMillis);
+					}catch(InterruptedException ie){
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the full segment with the most dead bytes above the compaction ratio or null
+	 */
+	private Segment findCompactionCandidate(){
+		Segment candidate = null;
+		double candidateDeadRatio = compactionRatio;
+		for(final Segment segment : segments.values()){
+			if(segment != activeSegment && segment.writePosition > 0){
+				final double deadRatio = 1.0 - (((double)segment.liveBytes) / segment.writePosition);
+				if(deadRatio >= candidateDeadRatio){
+					candidate = segment;
+					candidateDeadRatio = deadRatio;
+				}
+			}
+		}
+		return candidate;
+	}
+
+	/**
+	 * Copy the live records of the segment to the end of the log and delete the segment.
+	 * Releases the lock after every few records.
+	 */
+	private void compact(final Segment segment) throws Exception{
+		// Segments with copied records. Flushed before the source segment is deleted so a crash can't lose them
+		final Set<Segment> targetSegments = new HashSet<Segment>();
+		int offset = 0;
+		while(true){
+			synchronized(this){
+				if(closed || segments.get(segment.id) != segment){
+					// Closed or cleared
+					return;
+				}
+				for(int i = 0; i < compactionRecordsPerLock; i++){
+					final Record record = offset < segment.writePosition ? readRecord(segment, offset) : null;
+					if(record == null){
+						for(final Segment targetSegment : targetSegments){
+							targetSegment.buffer.force();
+						}
+						segments.remove(segment.id);
+						segment.close();
+						segment.delete();
+						releaseTombstones();
+						return;
+					}
+					final long location = location(segment.id, offset);
+					final long hash = hash(record.key, 0, record.key.length);
+					final int slot = index.find(record.key, hash);
+					if(record.valueLength != tombstoneValueLength){
+						if(slot != -1 && index.locations[slot] == location){
+							final long newLocation = append(record.key, record.value, record.valueLength);
+							index.locations[slot] = newLocation;
+							segmentOf(newLocation).liveBytes += record.size;
+							targetSegments.add(segmentOf(newLocation));
+							segment.liveBytes -= record.size;
+						}
+					}else{
+						// Not needed if the key was put again or if this is the only segment left that could have an
+						// older put for the key
+						final int removedSegmentId = record.removedSegmentId();
+						if(slot == -1 && isTombstoneNeeded(removedSegmentId) && segments.firstKey() != segment.id){
+							final long newLocation = append(record.key, record.value, record.valueLength);
+							addLiveTombstone(segmentOf(newLocation), removedSegmentId, record.size);
+							targetSegments.add(segmentOf(newLocation));
+							segment.liveBytes -= record.size;
+						}
+					}
+					offset += record.size;
+				}
+			}
+		}
+	}
+
+	/**
+	 * CRC32 of the lengths, the key and the value
+	 */
+	private int checksum(final int keyLength, final int valueLength, final byte[] key, final byte[] value){
+		crcScratch.clear();
+		crcScratch.putInt(keyLength);
+		crcScratch.putInt(valueLength);
+		crc.reset();
+		crc.update(crcScratch.array(), 0, 8);
+		crc.update(key, 0, key.length);
+		crc.update(value, 0, value.length);
+		return (int)crc.getValue();
+	}
+
+	/**
+	 * 64-bit hash of the bytes. Never 0 because 0 marks an empty slot in the index.
+	 */
+	private static long hash(final byte[] bytes, final int offset, final int length){
+		long h = 0xcbf29ce484222325L ^ length;
+		for(int i = offset; i < offset + length; i++){
+			h ^= bytes[i];
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h == 0 ? 1 : h;
+	}
+
+	private boolean keyEquals(final long location, final byte[] key){
+		final Segment segment = segmentOf(location);
+		final int offset = offsetOf(location);
+		if(segment.buffer.getInt(offset) != key.length){
+			return false;
+		}
+		final int keyOffset = offset + recordHeaderSize;
+		for(int i = 0; i < key.length; i++){
+			if(segment.buffer.get(keyOffset + i) != key[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode(){
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((dbPath == null) ? 0 : dbPath.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj){
+		if(this == obj)
+			return true;
+		if(obj == null)
+			return false;
+		if(getClass() != obj.getClass())
+			return false;
+		MappedLogHandle other = (MappedLogHandle)obj;
+		if(dbPath == null){
+			if(other.dbPath != null)
+				return false;
+		}else if(!dbPath.equals(other.dbPath))
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString(){
+		return "MappedLogHandle [deleteOnClose=" + deleteOnClose + ", dbPath=" + dbPath + "]";
+	}
+
+	private static final class Record{
+		private final byte[] key, value;
+		private final int valueLength, size;
+		private Record(final byte[] key, final byte[] value, final int valueLength, final int size){
+			this.key = key;
+			this.value = value;
+			this.valueLength = valueLength;
+			this.size = size;
+		}
+		private int removedSegmentId(){
+			return ByteBuffer.wrap(value).getInt();
+		}
+	}
+
+	/**
+	 * A single memory-mapped file of the log
+	 */
+	private static final class Segment{
+		private final int id;
+		private final File file;
+		private final int capacity;
+		private final RandomAccessFile randomAccessFile;
+		private final MappedByteBuffer buffer;
+		private int writePosition = 0;
+		private long liveBytes = 0;
+		/**
+		 * Live bytes of the tombstones in this segment by the segment id recorded in them
+		 */
+		private final TreeMap<Integer, Long> tombstoneBytes = new TreeMap<Integer, Long>();
+
+		private Segment(final int id, final File file, final long capacity) throws IOException{
+			this.id = id;
+			this.file = file;
+			this.capacity = (int)capacity;
+			this.randomAccessFile = new RandomAccessFile(file, "rw");
+			try{
+				if(randomAccessFile.length() < capacity){
+					randomAccessFile.setLength(capacity);
+				}
+				this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			}catch(IOException e){
+				randomAccessFile.close();
+				throw e;
+			}
+		}
+
+		private void read(final int offset, final byte[] bytes){
+			final ByteBuffer duplicate = buffer.duplicate();
+			duplicate.position(offset);
+			duplicate.get(bytes);
+		}
+
+		/**
+		 * The mapping itself is released when the buffer is garbage collected
+		 */
+		private void close() throws IOException{
+			randomAccessFile.close();
+		}
+
+		private void delete(){
+			if(!file.delete()){
+				logger.log(Level.WARNING, "Failed to delete segment: '" + file + "'");
+			}
+		}
+	}
+
+	/**
+	 * Open-addressing (linear probing) hash table from 64-bit key hash to record location
+	 */
+	private final class Index{
+		private static final double maximumLoadFactor = 0.6;
+
+		private long[] hashes = new long[1024];
+		private long[] locations = new long[1024];
+		private int size = 0;
+
+		/**
+		 * @return slot of the key or -1
+		 */
+		private int find(final byte[] key, final long hash){
+			final int mask = hashes.length - 1;
+			int slot = (int)hash & mask;
+			while(hashes[slot] != 0){
+				if(hashes[slot] == hash && keyEquals(locations[slot], key)){
+					return slot;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		/**
+		 * Key must not be in the table
+		 */
+		private void insert(final long hash, final long location){
+			if(size + 1 > hashes.length * maximumLoadFactor){
+				resize(hashes.length * 2);
+			}
+			insertNoResize(hash, location);
+			size++;
+		}
+
+		private void insertNoResize(final long hash, final long location){
+			final int mask = hashes.length - 1;
+			int slot = (int)hash & mask;
+			while(hashes[slot] != 0){
+				slot = (slot + 1) & mask;
+			}
+			hashes[slot] = hash;
+			locations[slot] = location;
+		}
+
+		/**
+		 * Backward shift deletion to keep the probe sequences without tombstones
+		 */
+		private void remove(int slot){
+			final int mask = hashes.length - 1;
+			int next = (slot + 1) & mask;
+			while(hashes[next] != 0){
+				final int home = (int)hashes[next] & mask;
+				// Move 'next' to 'slot' if its home is not in (slot, next]
+				if(((next - home) & mask) >= ((next - slot) & mask)){
+					hashes[slot] = hashes[next];
+					locations[slot] = locations[next];
+					slot = next;
+				}
+				next = (next + 1) & mask;
+			}
+			hashes[slot] = 0;
+			locations[slot] = 0;
+			size--;
+		}
+
+		private void resize(final int newLength){
+			final long[] oldHashes = hashes, oldLocations = locations;
+			hashes = new long[newLength];
+			locations = new long[newLength];
+			for(int i = 0; i < oldHashes.length; i++){
+				if(oldHashes[i] != 0){
+					insertNoResize(oldHashes[i], oldLocations[i]);
+				}
+			}
+		}
+
+		private void clear(){
+			hashes = new long[1024];
+			locations = new long[1024];
+			size = 0;
+		}
+	}
+}
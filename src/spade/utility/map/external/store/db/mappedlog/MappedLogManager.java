@@ -0,0 +1,267 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility.map.external.store.db.mappedlog;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+
+import spade.utility.FileUtility;
+import spade.utility.HelperFunctions;
+import spade.utility.Result;
+import spade.utility.map.external.store.db.DatabaseArgument;
+import spade.utility.map.external.store.db.DatabaseHandle;
+import spade.utility.map.external.store.db.DatabaseManager;
+
+/**
+ * Memory-mapped append-only log implementation of DatabaseManager. Pure Java i.e. no native libraries.
+ * Singleton
+ */
+public class MappedLogManager extends DatabaseManager{
+
+	private static final Logger logger = Logger.getLogger(MappedLogManager.class.getName());
+	
+	public static final MappedLogManager instance = new MappedLogManager();
+	private MappedLogManager(){}
+	
+	private static final long defaultSegmentSize = 64L * 1024 * 1024;
+	private static final double defaultCompactionRatio = 0.5;
+	
+	/**
+	 * A map of currently opened database handles.
+	 * Map from directory path to database handle.
+	 */
+	private final Map<String, MappedLogHandle> databases = new HashMap<String, MappedLogHandle>();
+	
+	/**
+	 * Create MappedLogArgument.
+	 * Sample: "databasePath=<dirPath> deleteOnClose=<true/false> [segmentSize=<bytes>[k|m|g]] [compactionRatio=<(0-1]>]"
+	 * 
+	 * If 'databasePath' directory does not exist then it must be creatable.
+	 * 'deleteOnClose' would delete the database on database close if true.
+	 * 
+	 * @param arguments See above sample
+	 */
+	@Override
+	public synchronized Result<DatabaseArgument> parseArgument(String arguments){
+		if(HelperFunctions.isNullOrEmpty(arguments)){
+			return Result.failed("NULL/Empty arguments");
+		}else{
+			Result<HashMap<String, String>> mapResult = HelperFunctions.parseKeysValuesInString(arguments);
+			if(mapResult.error){
+				return Result.failed("Failed to parse arguments to map", mapResult);
+			}else{
+				return parseArgument(mapResult.result);
+			}
+		}
+	}
+	
+	/**
+	 * Create MappedLogArgument.
+	 * Must contains valid values for keys: 'databasePath', 'deleteOnClose'.
+	 * Optional keys: 'segmentSize' (default 64m), 'compactionRatio' (default 0.5).
+	 * 
+	 * If 'databasePath' directory does not exist then it must be creatable.
+	 * 'deleteOnClose' would delete the database on database close if true.
+	 */
+	@Override
+	public synchronized Result<DatabaseArgument> parseArgument(Map<String, String> arguments){
+		if(arguments == null){
+			return Result.failed("NULL arguments map");
+		}else if(arguments.isEmpty()){
+			return Result.failed("Empty arguments map");
+		}else{
+			final String dbPathUser = arguments.get(MappedLogArgument.keyDatabasePath);
+			if(HelperFunctions.isNullOrEmpty(dbPathUser)){
+				return Result.failed("NULL/Empty '"+MappedLogArgument.keyDatabasePath+"'");
+			}
+			Result<Boolean> deleteDbOnCloseResult = HelperFunctions.parseBoolean(
+					arguments.get(MappedLogArgument.keyDeleteDbOnClose)
+					);
+			if(deleteDbOnCloseResult.error){
+				return Result.failed("Failed to parse '"+MappedLogArgument.keyDeleteDbOnClose+"'", deleteDbOnCloseResult);
+			}
+			long segmentSize = defaultSegmentSize;
+			final String segmentSizeString = arguments.get(MappedLogArgument.keySegmentSize);
+			if(segmentSizeString != null){
+				Result<Long> segmentSizeResult = HelperFunctions.parseBytes(segmentSizeString, 4096, Integer.MAX_VALUE);
+				if(segmentSizeResult.error){
+					return Result.failed("Failed to parse '"+MappedLogArgument.keySegmentSize+"'", segmentSizeResult);
+				}
+				segmentSize = segmentSizeResult.result;
+			}
+			double compactionRatio = defaultCompactionRatio;
+			final String compactionRatioString = arguments.get(MappedLogArgument.keyCompactionRatio);
+			if(compactionRatioString != null){
+				Result<Double> compactionRatioResult = HelperFunctions.parseDouble(compactionRatioString, 0, 1);
+				if(compactionRatioResult.error){
+					return Result.failed("Failed to parse '"+MappedLogArgument.keyCompactionRatio+"'", compactionRatioResult);
+				}
+				if(compactionRatioResult.result <= 0){
+					return Result.failed("'"+MappedLogArgument.keyCompactionRatio+"' must be greater than 0: "
+							+ compactionRatioResult.result);
+				}
+				compactionRatio = compactionRatioResult.result;
+			}
+			return Result.successful(new MappedLogArgument(dbPathUser, deleteDbOnCloseResult.result, segmentSize, 
+					compactionRatio));
+		}
+	}
+	
+	/**
+	 * Validates the passed argument as the correct argument for this database manager
+	 * 
+	 * @param genericArgument DatabaseArgument must be MappedLogArgument
+	 * @return MappedLogArgument object otherwise error
+	 */
+	private synchronized Result<MappedLogArgument> validateArguments(final DatabaseArgument genericArgument){
+		if(genericArgument == null){
+			return Result.failed("NULL");
+		}else if(!genericArgument.getClass().equals(MappedLogArgument.class)){
+			return Result.failed("Database argument class must be MappedLogArgument but is '"+genericArgument.getClass()+"'");
+		}else{
+			MappedLogArgument argument = (MappedLogArgument)genericArgument;
+			if(HelperFunctions.isNullOrEmpty(argument.databasePath)){
+				return Result.failed("Must specify database path");
+			}else{
+				return Result.successful(argument);
+			}
+		}
+	}
+
+	/**
+	 * If 'databasePath' directory does not exist then it is created.
+	 * If it exists then the segments in it are recovered.
+	 * 
+	 * Database at path 'databasePath' must not be in use already.
+	 * 
+	 * @param genericArgument DatabaseArgument must be MappedLogArgument
+	 * @return The MappedLogHandle created from DatabaseArgument or error
+	 */
+	@Override
+	public synchronized Result<DatabaseHandle> createHandleFromArgument(final DatabaseArgument genericArgument){
+		Result<MappedLogArgument> valid = validateArguments(genericArgument);
+		if(valid.error){
+			return Result.failed("Failed database handle open", valid);
+		}
+		MappedLogArgument argument = valid.result;
+		final String dbPathUnresolved = argument.databasePath;
+		Result<String> canonicalResult = FileUtility.getCanonicalPathResult(dbPathUnresolved);
+		if(canonicalResult.error){
+			return Result.failed("Failed to get canonical path for '"+dbPathUnresolved+"'", canonicalResult);
+		}
+		final String dbPathCanonical = canonicalResult.result;
+		if(databases.get(dbPathCanonical) != null){
+			return Result.failed("Database already in opened and in use");
+		}
+		Result<Boolean> existsResult = FileUtility.doesPathExistResult(dbPathCanonical);
+		if(existsResult.error){
+			return Result.failed("Failed to check if database path exists", existsResult);
+		}
+		boolean dirCreated = false;
+		if(!existsResult.result){
+			Result<Boolean> createDirResult = FileUtility.createDirectoriesResult(dbPathCanonical);
+			if(createDirResult.error){
+				return Result.failed("Failed to create database path", createDirResult);
+			}else if(!createDirResult.result){
+				return Result.failed("Silently failed to create database path");
+			}
+			dirCreated = true;
+		}else{ // already exists
+			Result<Boolean> isDirectoryResult = FileUtility.isDirectoryResult(dbPathCanonical);
+			if(isDirectoryResult.error){
+				return Result.failed("Failed to check if database path is a directory", isDirectoryResult);
+			}else if(!isDirectoryResult.result){
+				return Result.failed("Database path is not a directory");
+			}
+		}
+		try{
+			MappedLogHandle dbHandle = new MappedLogHandle(dbPathCanonical, argument.deleteOnClose, 
+					argument.segmentSize, argument.compactionRatio);
+			databases.put(dbPathCanonical, dbHandle);
+			return Result.successful(dbHandle);
+		}catch(Exception e){
+			if(dirCreated){
+				try{
+					FileUtils.forceDelete(new File(dbPathCanonical));
+				}catch(Exception e2){
+					
+				}
+			}
+			return Result.failed("Failed to create database handle", e, null);
+		}
+	}
+
+	/**
+	 * Optimistic. Cleans whatever it can while ignoring errors.
+	 * 
+	 * Flush and close the segments.
+	 * Delete the database if deleteOnClose set to 'true'.
+	 * Free the handle for this database path.
+	 * 
+	 * @param genericDbHandle Must be MappedLogHandle
+	 * @return true/false on successful. Error on unrecoverable error.
+	 */
+	@Override
+	public synchronized Result<Boolean> closeHandle(final DatabaseHandle genericDbHandle){
+		if(genericDbHandle == null){
+			return Result.failed("NULL database handle");
+		}else if(!genericDbHandle.getClass().equals(MappedLogHandle.class)){
+			return Result.failed("Database handle class mismatch for MappedLogHandle: '"+genericDbHandle.getClass()+"'");
+		}else{
+			MappedLogHandle dbHandle = (MappedLogHandle)genericDbHandle;
+			final String dbPath = dbHandle.dbPath;
+			
+			databases.remove(dbPath);
+			
+			boolean succeeded = dbHandle.closeSegments();
+			if(!succeeded){
+				logger.log(Level.WARNING, "Failed to cleanly close database at path: '"+dbPath+"'");
+			}
+			if(dbHandle.deleteOnClose){
+				try{
+					FileUtils.forceDelete(new File(dbPath));
+				}catch(Exception e){
+					succeeded = false;
+					logger.log(Level.WARNING, "Failed to delete database at path: '"+dbPath+"'", e);
+				}
+			}
+			return Result.successful(succeeded);
+		}
+	}
+
+	/**
+	 * Closes all databases one by one.
+	 */
+	@Override
+	public synchronized void shutdown(){
+		Map<String, MappedLogHandle> copy = new HashMap<String, MappedLogHandle>(databases);
+		for(Map.Entry<String, MappedLogHandle> entries : copy.entrySet()){
+			MappedLogHandle databaseHandle = entries.getValue();
+			closeHandle(databaseHandle);
+		}
+		databases.clear();
+	}
+	
+}
@@ -0,0 +1,102 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import spade.core.HashHelper;
+
+/**
+ * Compares the old MD5 path (hash of the materialized annotations string) with the streaming digests.
+ *
+ * Usage: java core.HashHelperBenchmark [elements] [iterations]
+ */
+public class HashHelperBenchmark{
+
+	private static long sink = 0;
+
+	public static void main(String[] args){
+		final int elements = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		final List<Map<String, String>> annotationsList = createAuditLikeAnnotations(elements);
+
+		// Warm-up
+		for(int i = 0; i < 3; i++){
+			md5String(annotationsList);
+			streaming(HashHelper.md5Instance, annotationsList);
+			streaming(HashHelper.murmur3Instance, annotationsList);
+		}
+
+		long md5StringNanos = 0, md5StreamingNanos = 0, murmur3StreamingNanos = 0;
+		for(int i = 0; i < iterations; i++){
+			md5StringNanos += md5String(annotationsList);
+			md5StreamingNanos += streaming(HashHelper.md5Instance, annotationsList);
+			murmur3StreamingNanos += streaming(HashHelper.murmur3Instance, annotationsList);
+		}
+
+		final long total = (long)elements * iterations;
+		System.out.println(String.format("md5 (string)        : %8.1f ns/element", (double)md5StringNanos / total));
+		System.out.println(String.format("md5 (streaming)     : %8.1f ns/element", (double)md5StreamingNanos / total));
+		System.out.println(String.format("murmur3 (streaming) : %8.1f ns/element", (double)murmur3StreamingNanos / total));
+		System.out.println("(ignore) " + sink);
+	}
+
+	private static long md5String(final List<Map<String, String>> annotationsList){
+		final long start = System.nanoTime();
+		for(final Map<String, String> annotations : annotationsList){
+			sink += HashHelper.md5Instance.hashToHexString(annotations.toString()).length();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long streaming(final HashHelper hashHelper, final List<Map<String, String>> annotationsList){
+		final long start = System.nanoTime();
+		for(final Map<String, String> annotations : annotationsList){
+			sink += hashHelper.hashToBigHash(annotations).hexString.length();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static List<Map<String, String>> createAuditLikeAnnotations(final int elements){
+		final List<Map<String, String>> list = new ArrayList<Map<String, String>>(elements);
+		for(int i = 0; i < elements; i++){
+			final Map<String, String> annotations = new TreeMap<String, String>();
+			annotations.put("type", "Process");
+			annotations.put("source", "syscall");
+			annotations.put("pid", String.valueOf(1000 + i));
+			annotations.put("ppid", String.valueOf(1 + (i % 1000)));
+			annotations.put("name", "process-" + (i % 100));
+			annotations.put("exe", "/usr/bin/process-" + (i % 100));
+			annotations.put("cwd", "/home/user/" + (i % 10));
+			annotations.put("command line", "/usr/bin/process-" + (i % 100) + " --option value " + i);
+			annotations.put("uid", "1000");
+			annotations.put("euid", "1000");
+			annotations.put("gid", "1000");
+			annotations.put("egid", "1000");
+			annotations.put("start time", String.valueOf(1600000000L + i));
+			list.add(annotations);
+		}
+		return list;
+	}
+}
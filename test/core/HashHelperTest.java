@@ -0,0 +1,128 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+
+package core;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.Test;
+import spade.core.HashHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks the digests in HashHelper against known vectors and against the string based MD5 that
+ * they replaced.
+ */
+public class HashHelperTest
+{
+    private static final String QUICK_BROWN_FOX = "The quick brown fox jumps over the lazy dog";
+
+    private static List<Map<String, String>> annotationMaps()
+    {
+        List<Map<String, String>> maps = new ArrayList<>();
+        maps.add(new TreeMap<>());
+
+        Map<String, String> single = new TreeMap<>();
+        single.put("type", "Process");
+        maps.add(single);
+
+        Map<String, String> process = new TreeMap<>();
+        process.put("type", "Process");
+        process.put("pid", "1234");
+        process.put("ppid", "1");
+        process.put("name", "bash");
+        process.put("exe", "/usr/bin/bash");
+        process.put("cwd", "/home/user/some directory with spaces");
+        process.put("commandline", "bash -c \"echo a=b, c=d {}\"");
+        process.put("source", "syscall");
+        maps.add(process);
+
+        Map<String, String> unicode = new TreeMap<>();
+        unicode.put("path", "/tmp/été/文件");
+        unicode.put("emoji", "😀");
+        unicode.put("", "");
+        maps.add(unicode);
+
+        // Values crossing several 16 byte blocks at different offsets
+        Map<String, String> blocks = new TreeMap<>();
+        StringBuilder value = new StringBuilder();
+        for(int i = 0; i < 70; i++){
+            value.append((char)('a' + (i % 26)));
+            blocks.put("key" + i, value.toString());
+        }
+        maps.add(blocks);
+        return maps;
+    }
+
+    @Test
+    public void testMD5KnownVectors()
+    {
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", HashHelper.md5Instance.hashToHexString(""));
+        assertEquals("9e107d9d372bb6826bd81d3542a419d6", HashHelper.md5Instance.hashToHexString(QUICK_BROWN_FOX));
+    }
+
+    @Test
+    public void testMurmur3KnownVectors()
+    {
+        // Same vectors as Guava's Hashing.murmur3_128()
+        assertEquals("00000000000000000000000000000000", HashHelper.murmur3Instance.hashToHexString(""));
+        assertEquals("6c1b07bc7bbc4be347939ac4a93c437a", HashHelper.murmur3Instance.hashToHexString(QUICK_BROWN_FOX));
+        assertEquals("c902e99e1f4899cde7b68789a3a15d69", HashHelper.murmur3Instance.hashToHexString(QUICK_BROWN_FOX + "."));
+    }
+
+    @Test
+    public void testStreamingMD5MatchesStringMD5()
+    {
+        for(Map<String, String> annotations : annotationMaps()){
+            String expected = DigestUtils.md5Hex(annotations.toString());
+            assertEquals(expected, HashHelper.md5Instance.hashToHexString(annotations.toString()));
+            assertEquals(expected, HashHelper.md5Instance.hashToBigHash(annotations).hexString);
+            assertEquals(DigestUtils.md5Hex("child," + annotations.toString() + ",parent"),
+                    HashHelper.md5Instance.hashToBigHash("child", annotations, "parent").hexString);
+        }
+    }
+
+    @Test
+    public void testStreamingMurmur3MatchesStringMurmur3()
+    {
+        for(Map<String, String> annotations : annotationMaps()){
+            assertEquals(HashHelper.murmur3Instance.hashToHexString(annotations.toString()),
+                    HashHelper.murmur3Instance.hashToBigHash(annotations).hexString);
+            assertEquals(HashHelper.murmur3Instance.hashToHexString("child," + annotations.toString() + ",parent"),
+                    HashHelper.murmur3Instance.hashToBigHash("child", annotations, "parent").hexString);
+        }
+    }
+
+    @Test
+    public void testBigHashForms()
+    {
+        for(HashHelper hashHelper : new HashHelper[]{HashHelper.md5Instance, HashHelper.murmur3Instance}){
+            HashHelper.BigHash bigHash = hashHelper.hashToBigHash(QUICK_BROWN_FOX);
+            assertEquals(hashHelper.hashToHexString(QUICK_BROWN_FOX), bigHash.hexString);
+            assertEquals(bigHash.hexString, hashHelper.convertHashByteArrayToHashHexString(bigHash.getBytes()));
+            assertEquals(bigHash.hexString, hashHelper.hexStringToBigHash(bigHash.hexString).hexString);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractTransformer;
+import spade.core.AbstractVertex;
+import spade.core.Edge;
+import spade.core.Graph;
+import spade.core.Vertex;
+import spade.reporter.audit.OPMConstants;
+import spade.transformer.LastName;
+import spade.transformer.MergeIO;
+import spade.transformer.NoMemory;
+import spade.transformer.NoUnits;
+import spade.transformer.NoVersions;
+import spade.transformer.OPM2Prov;
+
+/**
+ * Compares applying a chain of per-element transformers one after the other (one intermediate graph per transformer)
+ * with the single fused pass of AbstractTransformer.executeAll on a lineage-like graph.
+ *
+ * Usage: java core.TransformerPipelineBenchmark [edges] [iterations]
+ */
+public class TransformerPipelineBenchmark{
+
+	private static long sink = 0;
+
+	public static void main(String[] args){
+		final int edges = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		final Graph graph = createLineageLikeGraph(edges);
+		final List<AbstractTransformer> transformers = Arrays.asList(new NoVersions(), new NoUnits(), new MergeIO(),
+				new LastName(), new NoMemory(), new OPM2Prov());
+		final AbstractTransformer.ExecutionContext context = new AbstractTransformer.ExecutionContext();
+
+		if(!sequential(transformers, graph, context).equals(fused(transformers, graph, context))){
+			throw new RuntimeException("Fused and sequential results differ");
+		}
+
+		// Warm-up
+		for(int i = 0; i < 2; i++){
+			sink += sequential(transformers, graph, context).edgeSet().size();
+			sink += fused(transformers, graph, context).edgeSet().size();
+		}
+
+		long sequentialNanos = 0, fusedNanos = 0;
+		for(int i = 0; i < iterations; i++){
+			long start = System.nanoTime();
+			sink += sequential(transformers, graph, context).edgeSet().size();
+			sequentialNanos += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			sink += fused(transformers, graph, context).edgeSet().size();
+			fusedNanos += System.nanoTime() - start;
+		}
+
+		System.out.println("Graph: " + graph.vertexSet().size() + " vertices, " + graph.edgeSet().size() + " edges. "
+				+ transformers.size() + " transformers");
+		System.out.println(String.format("sequential : %8.1f ms", sequentialNanos / 1e6 / iterations));
+		System.out.println(String.format("fused      : %8.1f ms", fusedNanos / 1e6 / iterations));
+		System.out.println("(ignore) " + sink);
+	}
+
+	private static Graph sequential(final List<AbstractTransformer> transformers, Graph graph,
+			final AbstractTransformer.ExecutionContext context){
+		for(final AbstractTransformer transformer : transformers){
+			graph = transformer.transform(graph, context);
+		}
+		return graph;
+	}
+
+	private static Graph fused(final List<AbstractTransformer> transformers, final Graph graph,
+			final AbstractTransformer.ExecutionContext context){
+		return AbstractTransformer.executeAll(transformers, graph, context).result;
+	}
+
+	static Graph createLineageLikeGraph(final int edges){
+		final Graph graph = new Graph();
+		final List<AbstractVertex> processes = new ArrayList<AbstractVertex>();
+		final List<AbstractVertex> artifacts = new ArrayList<AbstractVertex>();
+		final int processCount = Math.max(1, edges / 20);
+		for(int i = 0; i < processCount; i++){
+			final AbstractVertex process = new Vertex();
+			process.addAnnotation(OPMConstants.TYPE, OPMConstants.PROCESS);
+			process.addAnnotation(OPMConstants.PROCESS_PID, String.valueOf(1000 + i));
+			process.addAnnotation(OPMConstants.PROCESS_NAME, "proc" + (i % 50));
+			process.addAnnotation(OPMConstants.PROCESS_UNIT, String.valueOf(i % 3));
+			processes.add(process);
+			graph.putVertex(process);
+		}
+		final int artifactCount = Math.max(1, edges / 4);
+		for(int i = 0; i < artifactCount; i++){
+			final AbstractVertex artifact = new Vertex();
+			artifact.addAnnotation(OPMConstants.TYPE, OPMConstants.ARTIFACT);
+			artifact.addAnnotation(OPMConstants.ARTIFACT_SUBTYPE,
+					i % 50 == 0 ? OPMConstants.SUBTYPE_MEMORY_ADDRESS : OPMConstants.SUBTYPE_FILE);
+			artifact.addAnnotation(OPMConstants.ARTIFACT_PATH, "/home/user/file" + (i / 4));
+			artifact.addAnnotation(OPMConstants.ARTIFACT_VERSION, String.valueOf(i % 4));
+			artifacts.add(artifact);
+			graph.putVertex(artifact);
+		}
+		final String[] operations = {OPMConstants.OPERATION_READ, OPMConstants.OPERATION_WRITE,
+				OPMConstants.OPERATION_UPDATE, OPMConstants.OPERATION_UNIT};
+		for(int i = 0; i < edges; i++){
+			final AbstractVertex process = processes.get(i % processCount);
+			final AbstractVertex artifact = artifacts.get((i * 7) % artifactCount);
+			final String operation = operations[i % 10 == 0 ? 2 + (i / 10) % 2 : i % 2];
+			final AbstractEdge edge;
+			if(OPMConstants.OPERATION_READ.equals(operation)){
+				edge = new Edge(process, artifact);
+				edge.addAnnotation(OPMConstants.TYPE, OPMConstants.USED);
+			}else{
+				edge = new Edge(artifact, process);
+				edge.addAnnotation(OPMConstants.TYPE, OPMConstants.WAS_GENERATED_BY);
+			}
+			edge.addAnnotation(OPMConstants.EDGE_OPERATION, operation);
+			edge.addAnnotation(OPMConstants.EDGE_TIME, String.valueOf(1600000000L + i));
+			edge.addAnnotation(OPMConstants.EDGE_EVENT_ID, String.valueOf(i));
+			edge.addAnnotation(OPMConstants.EDGE_SIZE, String.valueOf(i % 4096));
+			graph.putEdge(edge);
+		}
+		return graph;
+	}
+}
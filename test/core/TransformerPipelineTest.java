@@ -0,0 +1,102 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+
+package core;
+
+import org.junit.jupiter.api.Test;
+import spade.core.AbstractTransformer;
+import spade.core.Graph;
+import spade.transformer.LastName;
+import spade.transformer.MergeIO;
+import spade.transformer.NoEphemeralWrites;
+import spade.transformer.NoMemory;
+import spade.transformer.NoUnits;
+import spade.transformer.NoVersions;
+import spade.transformer.OPM2Prov;
+import spade.utility.Result;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that AbstractTransformer.executeAll gives the same graph as calling AbstractTransformer.execute for each
+ * transformer in order.
+ */
+public class TransformerPipelineTest
+{
+    private static final Graph graph = TransformerPipelineBenchmark.createLineageLikeGraph(5000);
+
+    private static Graph sequential(List<AbstractTransformer> transformers, Graph graph,
+            AbstractTransformer.ExecutionContext context)
+    {
+        for(AbstractTransformer transformer : transformers)
+        {
+            Result<Graph> result = AbstractTransformer.execute(transformer, graph, context);
+            assertFalse(result.error, result.errorMessage);
+            graph = result.result;
+        }
+        return graph;
+    }
+
+    private static void assertSameAsSequential(List<AbstractTransformer> transformers)
+    {
+        AbstractTransformer.ExecutionContext context = new AbstractTransformer.ExecutionContext();
+        Graph expected = sequential(transformers, graph, context);
+        Result<Graph> actual = AbstractTransformer.executeAll(transformers, graph, context);
+        assertFalse(actual.error, actual.errorMessage);
+        assertEquals(expected.vertexSet(), actual.result.vertexSet());
+        assertEquals(expected.edgeSet(), actual.result.edgeSet());
+    }
+
+    @Test
+    public void testElementTransformersOnly()
+    {
+        assertSameAsSequential(Arrays.asList(new NoVersions(), new NoUnits(), new MergeIO(),
+                new LastName(), new NoMemory(), new OPM2Prov()));
+    }
+
+    @Test
+    public void testGraphTransformerSplitsTheFusedRun()
+    {
+        // NoEphemeralWrites needs the whole graph so the element transformers before and after it are fused separately
+        assertTrue(new NoEphemeralWrites().getElementTransformer(new AbstractTransformer.ExecutionContext()) == null);
+        assertSameAsSequential(Arrays.asList(new NoVersions(), new NoUnits(), new NoEphemeralWrites(),
+                new MergeIO(), new LastName(), new NoMemory(), new OPM2Prov()));
+    }
+
+    @Test
+    public void testGraphTransformerAtTheEnds()
+    {
+        assertSameAsSequential(Arrays.asList(new NoEphemeralWrites(), new NoVersions(), new NoUnits(),
+                new NoEphemeralWrites()));
+        assertSameAsSequential(Arrays.asList(new NoEphemeralWrites(), new MergeIO()));
+    }
+
+    @Test
+    public void testSingleTransformer()
+    {
+        assertSameAsSequential(Arrays.asList(new MergeIO()));
+        assertSameAsSequential(Arrays.asList(new NoEphemeralWrites()));
+    }
+}